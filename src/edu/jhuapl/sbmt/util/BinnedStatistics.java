@@ -0,0 +1,177 @@
+package edu.jhuapl.sbmt.util;
+
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntUnaryOperator;
+
+import edu.jhuapl.sbmt.util.gravity.ParallelExecutor;
+
+/**
+ * Count, mean and variance of values in the bins of an nX by nY grid. Only the running moments of each bin are kept
+ * (Welford's algorithm) in primitive arrays, so memory does not grow with the number of values. Accumulators filled on
+ * different threads are combined with merge.
+ */
+public final class BinnedStatistics {
+
+    // minimum number of bins accumulated per task by compute
+    private static final int GRAIN = 256;
+
+    private final int nX;
+    private final int nY;
+    private final int[] count;
+    private final double[] mean;
+    private final double[] m2;
+
+    public BinnedStatistics(int nX, int nY) {
+        this.nX = nX;
+        this.nY = nY;
+        count = new int[nX * nY];
+        mean = new double[nX * nY];
+        m2 = new double[nX * nY];
+    }
+
+    /**
+     * Accumulate values in parallel. The values are sorted by bin and each task accumulates the values of a range of
+     * bins, in the order of the values, so the results are the same as adding the values one at a time and do not
+     * depend on the number of threads. Besides the result, only an index per value and two offsets per bin are
+     * allocated, whatever the number of threads.
+     *
+     * @param numPoints
+     *            number of values
+     * @param bin
+     *            bin of value i as m * nY + n, or a negative number to skip it
+     * @param value
+     *            value i
+     */
+    public static BinnedStatistics compute(int nX, int nY, int numPoints, IntUnaryOperator bin,
+            IntToDoubleFunction value) {
+        BinnedStatistics result = new BinnedStatistics(nX, nY);
+        int numBins = nX * nY;
+
+        // counting sort of the values by bin: the values of bin b are order[start[b]] to order[start[b + 1] - 1]
+        int[] start = new int[numBins + 1];
+        for (int i = 0; i < numPoints; i++) {
+            int b = bin.applyAsInt(i);
+            if (b >= 0)
+                start[b + 1]++;
+        }
+        for (int b = 0; b < numBins; b++)
+            start[b + 1] += start[b];
+        int[] order = new int[start[numBins]];
+        int[] next = Arrays.copyOf(start, numBins);
+        for (int i = 0; i < numPoints; i++) {
+            int b = bin.applyAsInt(i);
+            if (b >= 0)
+                order[next[b]++] = i;
+        }
+
+        ParallelExecutor.getShared().forEach(numBins, GRAIN, null, (first, last) -> {
+            for (int b = first; b < last; b++)
+                for (int k = start[b]; k < start[b + 1]; k++)
+                    result.add(b, value.applyAsDouble(order[k]));
+        });
+        return result;
+    }
+
+    public int getNX() {
+        return nX;
+    }
+
+    public int getNY() {
+        return nY;
+    }
+
+    public void add(int m, int n, double value) {
+        add(m * nY + n, value);
+    }
+
+    private void add(int b, double value) {
+        int c = ++count[b];
+        double delta = value - mean[b];
+        mean[b] += delta / c;
+        m2[b] += delta * (value - mean[b]);
+    }
+
+    /**
+     * Add the values accumulated in other, which must have the same dimensions.
+     */
+    public void merge(BinnedStatistics other) {
+        if (other.nX != nX || other.nY != nY)
+            throw new IllegalArgumentException(String.format("BinnedStatistics: cannot merge %dx%d into %dx%d",
+                    other.nX, other.nY, nX, nY));
+        for (int b = 0; b < count.length; b++) {
+            int cb = other.count[b];
+            if (cb == 0)
+                continue;
+            int ca = count[b];
+            int c = ca + cb;
+            double delta = other.mean[b] - mean[b];
+            mean[b] += delta * cb / c;
+            m2[b] += other.m2[b] + delta * delta * ((double) ca * cb / c);
+            count[b] = c;
+        }
+    }
+
+    /**
+     * @return number of values in each bin
+     */
+    public int[][] getCount() {
+        int[][] plane = new int[nX][nY];
+        for (int m = 0; m < nX; m++)
+            System.arraycopy(count, m * nY, plane[m], 0, nY);
+        return plane;
+    }
+
+    /**
+     * @return mean of each bin, NaN for empty bins
+     */
+    public double[][] getMean() {
+        double[][] plane = new double[nX][nY];
+        for (int m = 0; m < nX; m++)
+            for (int n = 0; n < nY; n++) {
+                int b = m * nY + n;
+                plane[m][n] = count[b] > 0 ? mean[b] : Double.NaN;
+            }
+        return plane;
+    }
+
+    /**
+     * @return sample variance of each bin as DescriptiveStatistics computes it, 0 for one value and NaN for empty bins
+     */
+    public double[][] getVariance() {
+        double[][] plane = new double[nX][nY];
+        for (int m = 0; m < nX; m++)
+            for (int n = 0; n < nY; n++) {
+                int b = m * nY + n;
+                if (count[b] == 0)
+                    plane[m][n] = Double.NaN;
+                else
+                    plane[m][n] = count[b] > 1 ? m2[b] / (count[b] - 1) : 0;
+            }
+        return plane;
+    }
+
+    /**
+     * @return sample standard deviation of each bin, 0 for one value and NaN for empty bins
+     */
+    public double[][] getStandardDeviation() {
+        double[][] plane = getVariance();
+        for (double[] row : plane)
+            for (int n = 0; n < row.length; n++)
+                row[n] = Math.sqrt(row[n]);
+        return plane;
+    }
+
+    /**
+     * @return root mean square of the values of each bin, NaN for empty bins
+     */
+    public double[][] getRms() {
+        double[][] plane = new double[nX][nY];
+        for (int m = 0; m < nX; m++)
+            for (int n = 0; n < nY; n++) {
+                int b = m * nY + n;
+                plane[m][n] = count[b] > 0 ? Math.sqrt(mean[b] * mean[b] + m2[b] / count[b]) : Double.NaN;
+            }
+        return plane;
+    }
+}
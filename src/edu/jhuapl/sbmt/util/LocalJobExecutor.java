@@ -0,0 +1,291 @@
+package edu.jhuapl.sbmt.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs shell commands as local processes, at most a given number at a time, without going through make. Each
+ * command is run by the shell (/bin/sh -c, or cmd.exe /c on Windows) so quoted paths and commands like
+ * "export X=...; program ..." work as they did in a Makefile. Every process gets its own thread reading its output, so
+ * lines can be attributed to the job that printed them and a process never blocks on a full pipe.
+ *
+ * A job that exits with a non-zero status or runs longer than the timeout is run again until it has been tried
+ * maxAttempts times. Running jobs are killed, including the processes they started, when the run is cancelled
+ * through cancel() or the BooleanSupplier passed to setCancelled.
+ */
+public final class LocalJobExecutor {
+
+	// number of lines of output kept per job to report why it failed
+	private static final int OUTPUT_TAIL_LINES = 20;
+
+	// how often the cancelled supplier is checked
+	private static final long POLL_MILLIS = 200;
+
+	/**
+	 * Receives the output of the jobs line by line. Called from the output thread of each process, so it must be
+	 * thread safe.
+	 */
+	public interface OutputListener {
+		void line(int job, String line);
+	}
+
+	/**
+	 * Outcome of a job.
+	 */
+	public static final class JobResult {
+		private final int job;
+		private final String command;
+		private final int exitCode;
+		private final int attempts;
+		private final double seconds;
+		private final boolean timedOut;
+		private final List<String> outputTail;
+
+		private JobResult(int job, String command, int exitCode, int attempts, double seconds, boolean timedOut,
+				List<String> outputTail) {
+			this.job = job;
+			this.command = command;
+			this.exitCode = exitCode;
+			this.attempts = attempts;
+			this.seconds = seconds;
+			this.timedOut = timedOut;
+			this.outputTail = outputTail;
+		}
+
+		public int getJob() {
+			return job;
+		}
+
+		public String getCommand() {
+			return command;
+		}
+
+		/**
+		 * @return exit status of the last attempt, -1 if the job could not be started or was killed
+		 */
+		public int getExitCode() {
+			return exitCode;
+		}
+
+		public int getAttempts() {
+			return attempts;
+		}
+
+		/**
+		 * @return wall time of all attempts in seconds
+		 */
+		public double getSeconds() {
+			return seconds;
+		}
+
+		public boolean isTimedOut() {
+			return timedOut;
+		}
+
+		/**
+		 * @return the last lines of output of the last attempt
+		 */
+		public List<String> getOutputTail() {
+			return outputTail;
+		}
+
+		public boolean isSuccessful() {
+			return exitCode == 0 && !timedOut;
+		}
+	}
+
+	private final int maxProcesses;
+	private int maxAttempts = 1;
+	private long timeoutMillis = 0;
+	private BooleanSupplier cancelled = null;
+
+	private final Set<Process> running = ConcurrentHashMap.newKeySet();
+	private volatile boolean cancelRequested = false;
+
+	/**
+	 * @param maxProcesses maximum number of jobs run at the same time
+	 */
+	public LocalJobExecutor(int maxProcesses) {
+		this.maxProcesses = Math.max(1, maxProcesses);
+	}
+
+	/**
+	 * @param maxAttempts number of times a failing job is run before giving up
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = Math.max(1, maxAttempts);
+	}
+
+	/**
+	 * @param seconds time after which an attempt of a job is killed, 0 for no limit
+	 */
+	public void setTimeout(double seconds) {
+		this.timeoutMillis = Math.max(0, (long) (seconds * 1000));
+	}
+
+	/**
+	 * @param cancelled checked while the jobs run, the run is cancelled when it returns true. May be null.
+	 */
+	public void setCancelled(BooleanSupplier cancelled) {
+		this.cancelled = cancelled;
+	}
+
+	/**
+	 * Kill all running jobs and do not start any more. run then throws a CancellationException.
+	 */
+	public void cancel() {
+		cancelRequested = true;
+		for (Process process : running)
+			destroy(process);
+	}
+
+	/**
+	 * Run the commands and wait till all of them are finished.
+	 *
+	 * @param commands shell commands, job i runs commands.get(i)
+	 * @param workingDirectory directory the commands are run in, the current directory if null
+	 * @param listener receives the output of the jobs, may be null
+	 * @return the result of each job
+	 * @throws CancellationException if the run was cancelled
+	 */
+	public List<JobResult> run(List<String> commands, File workingDirectory, OutputListener listener)
+			throws InterruptedException {
+		JobResult[] results = new JobResult[commands.size()];
+		if (commands.isEmpty())
+			return new ArrayList<JobResult>();
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(maxProcesses, commands.size()), r -> {
+			Thread thread = new Thread(r, "local-job");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			for (int i = 0; i < commands.size(); ++i) {
+				final int job = i;
+				pool.execute(() -> results[job] = runJob(job, commands.get(job), workingDirectory, listener));
+			}
+			pool.shutdown();
+			while (!pool.awaitTermination(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				if (!cancelRequested && cancelled != null && cancelled.getAsBoolean())
+					cancel();
+			}
+		} catch (InterruptedException e) {
+			cancel();
+			throw e;
+		} finally {
+			pool.shutdownNow();
+		}
+
+		if (cancelRequested)
+			throw new CancellationException("Jobs were cancelled");
+		return Arrays.asList(results);
+	}
+
+	private JobResult runJob(int job, String command, File workingDirectory, OutputListener listener) {
+		long start = System.nanoTime();
+		int exitCode = -1;
+		boolean timedOut = false;
+		List<String> tail = Collections.emptyList();
+		int attempt = 0;
+		while (attempt < maxAttempts && !cancelRequested) {
+			++attempt;
+			if (attempt > 1)
+				System.out.println("Retrying job " + job + " (attempt " + attempt + " of " + maxAttempts + ")");
+
+			Deque<String> lines = new ArrayDeque<String>();
+			timedOut = false;
+			try {
+				ProcessBuilder processBuilder = new ProcessBuilder(shell(command));
+				processBuilder.directory(workingDirectory);
+				processBuilder.redirectErrorStream(true);
+				Process process = processBuilder.start();
+				running.add(process);
+				try {
+					if (cancelRequested)
+						destroy(process);
+
+					Thread pump = new Thread(() -> pump(job, process, lines, listener), "local-job-output-" + job);
+					pump.setDaemon(true);
+					pump.start();
+
+					if (timeoutMillis > 0 && !process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) {
+						timedOut = true;
+						destroy(process);
+					}
+					exitCode = process.waitFor();
+					pump.join();
+				} finally {
+					running.remove(process);
+				}
+			} catch (IOException e) {
+				lines.add(e.getMessage());
+				exitCode = -1;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				exitCode = -1;
+				break;
+			}
+			synchronized (lines) {
+				tail = new ArrayList<String>(lines);
+			}
+
+			if (exitCode == 0 && !timedOut)
+				break;
+			if (!cancelRequested)
+				System.out.println("Job " + job + (timedOut ? " timed out" : " failed with status " + exitCode)
+						+ " on attempt " + attempt + " of " + maxAttempts);
+		}
+		return new JobResult(job, command, exitCode, attempt, (System.nanoTime() - start) * 1e-9, timedOut, tail);
+	}
+
+	private static void pump(int job, Process process, Deque<String> lines, OutputListener listener) {
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+			String line;
+			while ((line = br.readLine()) != null) {
+				synchronized (lines) {
+					if (lines.size() == OUTPUT_TAIL_LINES)
+						lines.removeFirst();
+					lines.addLast(line);
+				}
+				if (listener != null) {
+					try {
+						listener.line(job, line);
+					} catch (RuntimeException e) {
+						// keep draining the output so the process does not block
+					}
+				}
+			}
+		} catch (IOException e) {
+			// the process was killed
+		}
+	}
+
+	/**
+	 * Kill a process and everything it started, e.g. the program run by the shell.
+	 */
+	private static void destroy(Process process) {
+		process.descendants().forEach(ProcessHandle::destroyForcibly);
+		process.destroyForcibly();
+	}
+
+	private static List<String> shell(String command) {
+		if (System.getProperty("os.name").toLowerCase().startsWith("windows"))
+			return Arrays.asList("cmd.exe", "/c", command);
+		return Arrays.asList("/bin/sh", "-c", command);
+	}
+}
@@ -575,7 +575,8 @@ public class MapMakerRemote
     	@Override
     	protected Void doInBackground() throws Exception
     	{
-    		SBMTDistributedGravity.main(dgOptionArray, new ProgressStatusListener()
+    		// cancelling the task also kills the gravity jobs
+    		new SBMTDistributedGravity(SBMTDistributedGravity.RunConfiguration.fromArguments(dgOptionArray)).run(new ProgressStatusListener()
     		{
 
     			@Override
@@ -584,7 +585,7 @@ public class MapMakerRemote
     				task.setProgress(progress);
     				gravityLoadingProgressMonitor.setNote(status);
     			}
-    		});
+    		}, this::isCancelled);
     		return null;
     	}
 
@@ -0,0 +1,602 @@
+package edu.jhuapl.sbmt.util;
+
+import java.util.Arrays;
+
+import edu.jhuapl.sbmt.util.gravity.ParallelExecutor;
+
+/**
+ * Grids scattered (x, y, z) data onto a regular grid with a continuous curvature spline in tension, the algorithm of
+ * GMT surface (Smith and Wessel, 1990, Geophysics 55, 293-305), entirely in memory.
+ * <p>
+ * Like GMT surface the gridder
+ * <ul>
+ * <li>uses gridline registration: node (i, j) is at (xmin + i * spacing, ymin + j * spacing),</li>
+ * <li>removes the least squares plane from the data, grids the residuals and adds the plane back,</li>
+ * <li>solves (1 - T) * del^4 z - T * del^2 z = 0 by over-relaxed Gauss-Seidel iterations, first on coarse grids whose
+ * spacing is a multiple of the final spacing and then on finer ones, each started from the previous one,</li>
+ * <li>ties the surface to each data point through a Taylor expansion of the surface about the node closest to the
+ * point, so the surface passes through the data point rather than moving it to the node,</li>
+ * <li>applies the natural boundary conditions of zero curvature normal to the edges, zero normal gradient of the
+ * Laplacian along the edges and zero twist at the corners.</li>
+ * </ul>
+ * Unlike GMT surface, which solves the expansion for the value of the node, the data enter as a weighted least squares
+ * misfit. That keeps the iterations stable where neighboring nodes are all tied to data, and the misfit left by the
+ * weighting is removed by shifting the data values and iterating again on the final grid.
+ * <p>
+ * The grid is stored in primitive arrays padded by two rows and columns of boundary nodes on each side.
+ */
+public final class MinimumCurvatureGridder {
+
+    // over-relaxation factor, as in GMT surface
+    private static final double OVER_RELAXATION = 1.4;
+
+    // weight of the data misfit relative to the spline equation. Larger weights fit the data more closely in one pass
+    // but slow down the convergence, the remaining misfit is removed by correcting the data values on the final grid.
+    private static final double DATA_WEIGHT = 30;
+
+    // maximum number of corrections of the data values on the final grid
+    private static final int MAX_CORRECTIONS = 10;
+
+    private final double xmin;
+    private final double ymin;
+    private final double spacing;
+    private final int nx;
+    private final int ny;
+
+    private double tension = 0;
+    private int maxIterations = 500;
+    private double convergenceLimit = 1e-4;
+    private double absoluteConvergenceLimit = Double.NaN;
+
+    /**
+     * @param xmin
+     *            x of the first column of nodes
+     * @param ymin
+     *            y of the first row of nodes
+     * @param spacing
+     *            distance between neighboring nodes
+     * @param nx
+     *            number of nodes in x, at least 3
+     * @param ny
+     *            number of nodes in y, at least 3
+     */
+    public MinimumCurvatureGridder(double xmin, double ymin, double spacing, int nx, int ny) {
+        if (nx < 3 || ny < 3)
+            throw new IllegalArgumentException(
+                    String.format("MinimumCurvatureGridder: grid must have at least 3x3 nodes, got %dx%d", nx, ny));
+        this.xmin = xmin;
+        this.ymin = ymin;
+        this.spacing = spacing;
+        this.nx = nx;
+        this.ny = ny;
+    }
+
+    /**
+     * @param tension
+     *            between 0 (minimum curvature, the default) and 1 (harmonic surface), as GMT surface -T
+     */
+    public void setTension(double tension) {
+        if (tension < 0 || tension >= 1)
+            throw new IllegalArgumentException("MinimumCurvatureGridder: tension must be in [0, 1), got " + tension);
+        this.tension = tension;
+    }
+
+    /**
+     * @param maxIterations
+     *            maximum number of iterations on each grid, as GMT surface -N. Default is 500.
+     */
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = Math.max(1, maxIterations);
+    }
+
+    /**
+     * @param convergenceLimit
+     *            iterations on a grid stop when no node changes by more than convergenceLimit times the rms of the data
+     *            about their best fitting plane. Default is 1e-4.
+     */
+    public void setConvergenceLimit(double convergenceLimit) {
+        this.convergenceLimit = convergenceLimit;
+        this.absoluteConvergenceLimit = Double.NaN;
+    }
+
+    /**
+     * @param limit
+     *            iterations on a grid stop when no node changes by more than limit, in the units of the data
+     */
+    public void setAbsoluteConvergenceLimit(double limit) {
+        this.absoluteConvergenceLimit = limit;
+    }
+
+    /**
+     * @return x of each column of nodes
+     */
+    public double[] getX() {
+        double[] x = new double[nx];
+        for (int i = 0; i < nx; i++)
+            x[i] = xmin + i * spacing;
+        return x;
+    }
+
+    /**
+     * @return y of each row of nodes
+     */
+    public double[] getY() {
+        double[] y = new double[ny];
+        for (int j = 0; j < ny; j++)
+            y[j] = ymin + j * spacing;
+        return y;
+    }
+
+    /**
+     * Grid the data. Points with a NaN value and points more than half a node spacing outside the grid are ignored.
+     *
+     * @param x
+     *            x of the data points
+     * @param y
+     *            y of the data points
+     * @param z
+     *            values at the data points
+     * @param numPoints
+     *            number of data points to use from the start of x, y and z
+     * @return the surface at the nodes, indexed [i][j] for node (xmin + i * spacing, ymin + j * spacing)
+     */
+    public double[][] grid(double[] x, double[] y, double[] z, int numPoints) {
+        return grid(x, y, new double[][] { z }, numPoints)[0];
+    }
+
+    /**
+     * Grid several fields sampled at the same points. The assignment of the points to the nodes of each grid is done
+     * once for all fields, and the fields are then gridded in parallel on the shared ParallelExecutor. A point whose
+     * value is NaN is ignored for that field only, without the next closest point taking its place.
+     *
+     * @param x
+     *            x of the data points
+     * @param y
+     *            y of the data points
+     * @param z
+     *            values at the data points, z[f][k] is the value of field f at point k
+     * @param numPoints
+     *            number of data points to use from the start of x, y and each field
+     * @return the surface of each field at the nodes, indexed [f][i][j] for node (xmin + i * spacing, ymin + j *
+     *         spacing)
+     */
+    public double[][][] grid(double[] x, double[] y, double[][] z, int numPoints) {
+        // data in units of the node spacing relative to the first node
+        double[] u = new double[numPoints];
+        double[] v = new double[numPoints];
+        int[] point = new int[numPoints];
+        int n = 0;
+        for (int k = 0; k < numPoints; k++) {
+            if (Double.isNaN(x[k]) || Double.isNaN(y[k]))
+                continue;
+            u[n] = (x[k] - xmin) / spacing;
+            v[n] = (y[k] - ymin) / spacing;
+            // outside the grid, also left out of the plane
+            long i = Math.round(u[n]);
+            long j = Math.round(v[n]);
+            if (i < 0 || i >= nx || j < 0 || j >= ny)
+                continue;
+            point[n] = k;
+            n++;
+        }
+
+        int[] strides = getStrides();
+        Nodes[] levels = new Nodes[strides.length];
+        for (int i = 0; i < strides.length; i++)
+            levels[i] = new Nodes(strides[i], u, v, n);
+
+        double[][][] result = new double[z.length][][];
+        int numData = n;
+        ParallelExecutor.getShared().forEach(z.length, 1, null, (start, stop) -> {
+            for (int f = start; f < stop; f++) {
+                double[] r = new double[numData];
+                for (int k = 0; k < numData; k++)
+                    r[k] = z[f][point[k]];
+                result[f] = grid(levels, u, v, r);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @param levels
+     *            nodes of the grids from coarsest to finest
+     * @param r
+     *            value at each data point, replaced by its residual from the best fitting plane
+     */
+    private double[][] grid(Nodes[] levels, double[] u, double[] v, double[] r) {
+        double[] plane = fitPlane(u, v, r);
+        int n = 0;
+        double sumSquares = 0;
+        double maxValue = 0;
+        for (int k = 0; k < r.length; k++) {
+            if (Double.isNaN(r[k]))
+                continue;
+            maxValue = Math.max(maxValue, Math.abs(r[k]));
+            r[k] -= plane[0] + plane[1] * u[k] + plane[2] * v[k];
+            sumSquares += r[k] * r[k];
+            n++;
+        }
+        double rms = n > 0 ? Math.sqrt(sumSquares / n) : 0;
+
+        // nothing to grid if the data lie on the plane to within rounding errors
+        double[] residual = null;
+        if (rms > 1e-12 * maxValue) {
+            double limit = Double.isNaN(absoluteConvergenceLimit) ? convergenceLimit * rms : absoluteConvergenceLimit;
+            int previousStride = 0;
+            for (Nodes nodes : levels) {
+                Level level = new Level(nodes, r);
+                if (residual != null)
+                    level.prolongate(residual, previousStride);
+                level.relax(limit);
+                if (nodes.stride == 1) {
+                    for (int i = 0; i < MAX_CORRECTIONS && level.correctData() > limit; i++)
+                        level.relax(limit);
+                }
+                residual = level.z;
+                previousStride = nodes.stride;
+            }
+        }
+
+        double[][] result = new double[nx][ny];
+        int w = ny + 4;
+        for (int i = 0; i < nx; i++) {
+            for (int j = 0; j < ny; j++) {
+                double value = plane[0] + plane[1] * i + plane[2] * j;
+                if (residual != null)
+                    value += residual[(i + 2) * w + j + 2];
+                result[i][j] = value;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the node spacings of the grids, in units of the final spacing, from coarsest to 1. Each divides the
+     *         previous one and leaves at least 3 nodes in each direction.
+     */
+    private int[] getStrides() {
+        int g = gcd(nx - 1, ny - 1);
+        int[] strides = new int[32];
+        int count = 0;
+        while (g > 1) {
+            if ((nx - 1) / g >= 2 && (ny - 1) / g >= 2)
+                strides[count++] = g;
+            g /= smallestPrimeFactor(g);
+        }
+        strides[count++] = 1;
+        return Arrays.copyOf(strides, count);
+    }
+
+    /**
+     * @return weight of the node at (a, b) from a node in the expansion of the surface at offset (dx, dy) from that
+     *         node, see Level.misfit
+     */
+    private static double expansionWeight(double dx, double dy, int a, int b) {
+        if (a == 0 && b == 0)
+            return 1 - dx * dx - dy * dy;
+        if (b == 0)
+            return (a * dx + dx * dx) / 2;
+        if (a == 0)
+            return (b * dy + dy * dy) / 2;
+        return a * b * dx * dy / 4;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private static int smallestPrimeFactor(int n) {
+        for (int f = 2; f * f <= n; f++)
+            if (n % f == 0)
+                return f;
+        return n;
+    }
+
+    /**
+     * @return coefficients a, b, c of the least squares plane a + b * u + c * v, fit to the points whose z is not NaN
+     */
+    private static double[] fitPlane(double[] u, double[] v, double[] z) {
+        int n = 0;
+        double su = 0, sv = 0, sz = 0;
+        for (int k = 0; k < z.length; k++) {
+            if (Double.isNaN(z[k]))
+                continue;
+            su += u[k];
+            sv += v[k];
+            sz += z[k];
+            n++;
+        }
+        if (n == 0)
+            return new double[3];
+        double mu = su / n, mv = sv / n, mz = sz / n;
+        double suu = 0, suv = 0, svv = 0, suz = 0, svz = 0;
+        for (int k = 0; k < z.length; k++) {
+            if (Double.isNaN(z[k]))
+                continue;
+            double du = u[k] - mu, dv = v[k] - mv, dz = z[k] - mz;
+            suu += du * du;
+            suv += du * dv;
+            svv += dv * dv;
+            suz += du * dz;
+            svz += dv * dz;
+        }
+        double det = suu * svv - suv * suv;
+        double b = 0, c = 0;
+        if (Math.abs(det) > 1e-12 * Math.max(1, suu * svv)) {
+            b = (suz * svv - svz * suv) / det;
+            c = (svz * suu - suz * suv) / det;
+        }
+        return new double[] { mz - b * mu - c * mv, b, c };
+    }
+
+    /**
+     * The nodes of a grid with every stride-th node of the final grid, padded by two boundary nodes on each side, and
+     * the data point tied to each node. Shared by all fields gridded at the same points.
+     */
+    private final class Nodes {
+        private final int stride;
+        private final int mx;
+        private final int my;
+        // distance between two nodes along x in the arrays
+        private final int w;
+        // for each node, the offset of its data point from the node in units of the node spacing, at most 1.5 next
+        // to the edges, and the index of the data point. dataPoint is -1 for nodes without data.
+        private final double[] dataX;
+        private final double[] dataY;
+        private final int[] dataPoint;
+
+        /**
+         * Assign each data point to its closest node, keeping the closest point if several share a node. Points closest
+         * to an edge node are assigned to the next node inside, so that the expansion of the surface about the node
+         * does not involve boundary nodes.
+         */
+        Nodes(int stride, double[] u, double[] v, int n) {
+            this.stride = stride;
+            mx = (nx - 1) / stride + 1;
+            my = (ny - 1) / stride + 1;
+            w = my + 4;
+            int size = (mx + 4) * w;
+            dataX = new double[size];
+            dataY = new double[size];
+            dataPoint = new int[size];
+            Arrays.fill(dataPoint, -1);
+
+            for (int k = 0; k < n; k++) {
+                double gu = u[k] / stride;
+                double gv = v[k] / stride;
+                int i = (int) Math.round(gu);
+                int j = (int) Math.round(gv);
+                if (i < 0 || i >= mx || j < 0 || j >= my)
+                    continue;
+                i = Math.max(1, Math.min(i, mx - 2));
+                j = Math.max(1, Math.min(j, my - 2));
+                double dx = gu - i;
+                double dy = gv - j;
+                int p = (i + 2) * w + j + 2;
+                if (dataPoint[p] >= 0 && dataX[p] * dataX[p] + dataY[p] * dataY[p] <= dx * dx + dy * dy)
+                    continue;
+                dataX[p] = dx;
+                dataY[p] = dy;
+                dataPoint[p] = k;
+            }
+        }
+    }
+
+    /**
+     * The surface of one field on the nodes of one grid.
+     */
+    private final class Level {
+        private final int stride;
+        private final int mx;
+        private final int my;
+        private final int w;
+        private final double[] z;
+        private final double[] dataX;
+        private final double[] dataY;
+        // data value of each node, NaN for nodes without data
+        private final double[] dataValue;
+        // value the surface is fit to at the data point, the data value shifted by correctData
+        private final double[] dataZ;
+
+        /**
+         * @param r
+         *            value at each data point
+         */
+        Level(Nodes nodes, double[] r) {
+            stride = nodes.stride;
+            mx = nodes.mx;
+            my = nodes.my;
+            w = nodes.w;
+            dataX = nodes.dataX;
+            dataY = nodes.dataY;
+            z = new double[dataX.length];
+            dataValue = new double[z.length];
+            for (int p = 0; p < z.length; p++)
+                dataValue[p] = nodes.dataPoint[p] >= 0 ? r[nodes.dataPoint[p]] : Double.NaN;
+            dataZ = dataValue.clone();
+        }
+
+        private int index(int i, int j) {
+            return (i + 2) * w + j + 2;
+        }
+
+        /**
+         * Start from the bilinear interpolation of the surface on the grid with the given stride.
+         */
+        void prolongate(double[] coarse, int coarseStride) {
+            int ratio = coarseStride / stride;
+            int cw = (ny - 1) / coarseStride + 1 + 4;
+            int cmx = (nx - 1) / coarseStride + 1;
+            int cmy = (ny - 1) / coarseStride + 1;
+            for (int i = 0; i < mx; i++) {
+                int ci = Math.min(i / ratio, cmx - 2);
+                double fi = (double) i / ratio - ci;
+                for (int j = 0; j < my; j++) {
+                    int cj = Math.min(j / ratio, cmy - 2);
+                    double fj = (double) j / ratio - cj;
+                    int c = (ci + 2) * cw + cj + 2;
+                    z[index(i, j)] = (1 - fi) * ((1 - fj) * coarse[c] + fj * coarse[c + 1])
+                            + fi * ((1 - fj) * coarse[c + cw] + fj * coarse[c + cw + 1]);
+                }
+            }
+        }
+
+        /**
+         * Iterate until no node changes by more than limit or maxIterations is reached.
+         * <p>
+         * Each node is moved to the minimum, over its own value, of its spline equation squared plus DATA_WEIGHT times
+         * the squared misfit of the data points whose expansion includes the node. This is a Gauss-Seidel step of a
+         * symmetric positive definite system, which converges also where neighboring nodes are tied to data.
+         */
+        void relax(double limit) {
+            double t = tension;
+            double diagonal = 20 * (1 - t) + 4 * t;
+            double edgeWeight = 8 * (1 - t) + t;
+            double diagonalWeight = -2 * (1 - t);
+            double farWeight = -(1 - t);
+            double dataWeight = DATA_WEIGHT * diagonal;
+            int w2 = 2 * w;
+
+            for (int iteration = 0; iteration < maxIterations; iteration++) {
+                setBoundary();
+                double maxChange = 0;
+                for (int i = 0; i < mx; i++) {
+                    int p = index(i, 0);
+                    for (int j = 0; j < my; j++, p++) {
+                        double residual = diagonal * z[p] - edgeWeight * (z[p + w] + z[p - w] + z[p + 1] + z[p - 1])
+                                - diagonalWeight * (z[p + w + 1] + z[p + w - 1] + z[p - w + 1] + z[p - w - 1])
+                                - farWeight * (z[p + w2] + z[p - w2] + z[p + 2] + z[p - 2]);
+                        double weight = diagonal;
+
+                        // data points tied to this node or one of its neighbors, p is at (a, b) from their node q
+                        for (int a = -1; a <= 1; a++) {
+                            for (int b = -1; b <= 1; b++) {
+                                int q = p - a * w - b;
+                                if (Double.isNaN(dataZ[q]))
+                                    continue;
+                                double c = expansionWeight(dataX[q], dataY[q], a, b);
+                                residual += dataWeight * c * misfit(q);
+                                weight += dataWeight * c * c;
+                            }
+                        }
+
+                        double change = -OVER_RELAXATION * residual / weight;
+                        z[p] += change;
+                        if (Math.abs(change) > maxChange)
+                            maxChange = Math.abs(change);
+                    }
+                }
+                if (maxChange <= limit)
+                    break;
+            }
+            setBoundary();
+        }
+
+        /**
+         * Shift the value each data point is fit to by the misfit of the surface to the data value, so the next relax
+         * pulls the surface closer to the data values.
+         *
+         * @return the largest misfit before the correction
+         */
+        double correctData() {
+            double maxMisfit = 0;
+            double[] misfits = new double[z.length];
+            for (int p = 0; p < z.length; p++) {
+                if (!Double.isNaN(dataZ[p]))
+                    misfits[p] = misfit(p) + dataZ[p] - dataValue[p];
+            }
+            for (int p = 0; p < z.length; p++) {
+                dataZ[p] -= misfits[p];
+                maxMisfit = Math.max(maxMisfit, Math.abs(misfits[p]));
+            }
+            return maxMisfit;
+        }
+
+        /**
+         * @return surface minus data value at the data point of node q, from the expansion of the surface about q:
+         *         z0 + dx zx + dy zy + (dx^2 zxx + 2 dx dy zxy + dy^2 zyy) / 2
+         */
+        private double misfit(int q) {
+            double dx = dataX[q];
+            double dy = dataY[q];
+            double z0 = z[q];
+            double east = z[q + w], west = z[q - w], north = z[q + 1], south = z[q - 1];
+            double twist = (z[q + w + 1] - z[q - w + 1] - z[q + w - 1] + z[q - w - 1]) / 4;
+            return z0 + dx * (east - west) / 2 + dy * (north - south) / 2 + dx * dx * (east - 2 * z0 + west) / 2
+                    + dy * dy * (north - 2 * z0 + south) / 2 + dx * dy * twist - dataZ[q];
+        }
+
+        /**
+         * Set the boundary nodes from the natural boundary conditions.
+         */
+        private void setBoundary() {
+            // zero curvature normal to the edges
+            for (int j = 0; j < my; j++) {
+                setEdge1(index(0, j), w);
+                setEdge1(index(mx - 1, j), -w);
+            }
+            for (int i = 0; i < mx; i++) {
+                setEdge1(index(i, 0), 1);
+                setEdge1(index(i, my - 1), -1);
+            }
+
+            // zero twist at the corners
+            setCorner(index(0, 0), w, 1);
+            setCorner(index(mx - 1, 0), -w, 1);
+            setCorner(index(0, my - 1), w, -1);
+            setCorner(index(mx - 1, my - 1), -w, -1);
+
+            // zero normal gradient of the Laplacian
+            for (int j = 0; j < my; j++) {
+                setEdge2(index(0, j), w, 1);
+                setEdge2(index(mx - 1, j), -w, 1);
+            }
+            for (int i = 0; i < mx; i++) {
+                setEdge2(index(i, 0), 1, w);
+                setEdge2(index(i, my - 1), -1, w);
+            }
+        }
+
+        /**
+         * @param b
+         *            edge node
+         * @param in
+         *            step from b to the next node inside the grid
+         */
+        private void setEdge1(int b, int in) {
+            z[b - in] = 2 * z[b] - z[b + in];
+        }
+
+        /**
+         * @param b
+         *            edge node
+         * @param in
+         *            step from b to the next node inside the grid
+         * @param along
+         *            step along the edge
+         */
+        private void setEdge2(int b, int in, int along) {
+            double lapIn = z[b + in + along] + z[b + in - along] - 2 * z[b + in];
+            double lapOut = z[b - in + along] + z[b - in - along] - 2 * z[b - in];
+            z[b - 2 * in] = z[b + 2 * in] - 2 * z[b + in] + 2 * z[b - in] + lapIn - lapOut;
+        }
+
+        /**
+         * @param c
+         *            corner node
+         * @param in1
+         *            step from c into the grid along one edge
+         * @param in2
+         *            step from c into the grid along the other edge
+         */
+        private void setCorner(int c, int in1, int in2) {
+            z[c - in1 - in2] = z[c + in1 - in2] + z[c - in1 + in2] - z[c + in1 + in2];
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package edu.jhuapl.sbmt.util;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.exception.OutOfRangeException;
+
+/**
+ * Evaluates the same piecewise bicubic spline as commons-math PiecewiseBicubicSplineInterpolatingFunction without
+ * allocating. At each point that function takes the 5x5 samples around the point, interpolates each of the 5 columns
+ * with a natural cubic spline along x, and the 5 results with a natural cubic spline along y. It creates the six 1D
+ * splines as new objects on every call. Here the splines through 5 samples are solved and evaluated in local
+ * variables, so value can be called from many threads at once at the cost of arithmetic only.
+ */
+public final class PiecewiseBicubicSpline {
+
+    // number of samples along each axis used for a value
+    private static final int ORDER = 5;
+
+    private final double[] xval;
+    private final double[] yval;
+    private final double[][] fval;
+
+    /**
+     * @param x
+     *            strictly increasing sample x, at least 5
+     * @param y
+     *            strictly increasing sample y, at least 5
+     * @param f
+     *            samples, f[i][j] at (x[i], y[j])
+     */
+    public PiecewiseBicubicSpline(double[] x, double[] y, double[][] f) {
+        if (x.length < ORDER || y.length < ORDER)
+            throw new IllegalArgumentException(String.format(
+                    "PiecewiseBicubicSpline: need at least %d samples along each axis, got %dx%d", ORDER, x.length,
+                    y.length));
+        if (f.length != x.length || f[0].length != y.length)
+            throw new IllegalArgumentException(String.format(
+                    "PiecewiseBicubicSpline: samples are %dx%d, expected %dx%d", f.length, f[0].length, x.length,
+                    y.length));
+        checkIncreasing(x);
+        checkIncreasing(y);
+        this.xval = x;
+        this.yval = y;
+        this.fval = f;
+    }
+
+    /**
+     * @return the interpolated value at (x, y)
+     * @throws OutOfRangeException
+     *             if (x, y) is outside the samples
+     */
+    public double value(double x, double y) {
+        int i = searchIndex(x, xval);
+        int j = searchIndex(y, yval);
+
+        double[] f0 = fval[i], f1 = fval[i + 1], f2 = fval[i + 2], f3 = fval[i + 3], f4 = fval[i + 4];
+        double c0 = spline(xval, i, f0[j], f1[j], f2[j], f3[j], f4[j], x);
+        double c1 = spline(xval, i, f0[j + 1], f1[j + 1], f2[j + 1], f3[j + 1], f4[j + 1], x);
+        double c2 = spline(xval, i, f0[j + 2], f1[j + 2], f2[j + 2], f3[j + 2], f4[j + 2], x);
+        double c3 = spline(xval, i, f0[j + 3], f1[j + 3], f2[j + 3], f3[j + 3], f4[j + 3], x);
+        double c4 = spline(xval, i, f0[j + 4], f1[j + 4], f2[j + 4], f3[j + 4], f4[j + 4], x);
+        return spline(yval, j, c0, c1, c2, c3, c4, y);
+    }
+
+    /**
+     * @return index of the first of the 5 samples used at c, chosen as commons-math does
+     */
+    private static int searchIndex(double c, double[] val) {
+        int r = Arrays.binarySearch(val, c);
+        if (r == -1 || r == -val.length - 1)
+            throw new OutOfRangeException(c, val[0], val[val.length - 1]);
+        if (r < 0)
+            r = -r - 3;
+        else
+            r -= 2;
+        return Math.max(0, Math.min(r, val.length - ORDER));
+    }
+
+    /**
+     * Value at v of the natural cubic spline through (k[s], y0), ..., (k[s + 4], y4), computed as commons-math
+     * SplineInterpolator and PolynomialSplineFunction do.
+     */
+    private static double spline(double[] k, int s, double y0, double y1, double y2, double y3, double y4, double v) {
+        double k0 = k[s], k1 = k[s + 1], k2 = k[s + 2], k3 = k[s + 3], k4 = k[s + 4];
+        double h0 = k1 - k0, h1 = k2 - k1, h2 = k3 - k2, h3 = k4 - k3;
+
+        // forward elimination of the tridiagonal system for the second derivatives, zero at both ends
+        double g = 2 * (k2 - k0);
+        double mu1 = h1 / g;
+        double z1 = 3 * (y2 * h0 - y1 * (k2 - k0) + y0 * h1) / (h0 * h1) / g;
+        g = 2 * (k3 - k1) - h1 * mu1;
+        double mu2 = h2 / g;
+        double z2 = (3 * (y3 * h1 - y2 * (k3 - k1) + y1 * h2) / (h1 * h2) - h1 * z1) / g;
+        g = 2 * (k4 - k2) - h2 * mu2;
+        double z3 = (3 * (y4 * h2 - y3 * (k4 - k2) + y2 * h3) / (h2 * h3) - h2 * z2) / g;
+
+        // back substitution
+        double c3 = z3;
+        double c2 = z2 - mu2 * c3;
+        double c1 = z1 - mu1 * c2;
+
+        // segment containing v, the last one for v at the last knot
+        if (v < k1)
+            return segment(y0, y1, h0, 0, c1, v - k0);
+        if (v < k2)
+            return segment(y1, y2, h1, c1, c2, v - k1);
+        if (v < k3)
+            return segment(y2, y3, h2, c2, c3, v - k2);
+        return segment(y3, y4, h3, c3, 0, v - k3);
+    }
+
+    /**
+     * @return value at t from its first knot of the cubic between values ya and yb, h apart, with second derivatives
+     *         2 ca and 2 cb at its knots
+     */
+    private static double segment(double ya, double yb, double h, double ca, double cb, double t) {
+        double b = (yb - ya) / h - h * (cb + 2 * ca) / 3;
+        double d = (cb - ca) / (3 * h);
+        return ya + t * (b + t * (ca + t * d));
+    }
+
+    private static void checkIncreasing(double[] val) {
+        for (int i = 1; i < val.length; i++)
+            if (!(val[i] > val[i - 1]))
+                throw new IllegalArgumentException(
+                        "PiecewiseBicubicSpline: sample coordinates must be strictly increasing");
+    }
+}
@@ -19,11 +19,19 @@ import java.net.URL;
 import java.security.CodeSource;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringJoiner;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
@@ -45,12 +53,22 @@ import vtk.vtkOctreePointLocator;
 import vtk.vtkPolyData;
 import vtk.vtkPolyDataNormals;
 
+import edu.jhuapl.saavtk.util.Configuration;
 import edu.jhuapl.saavtk.util.FileUtil;
 import edu.jhuapl.saavtk.util.MathUtil;
 import edu.jhuapl.saavtk.util.NativeLibraryLoader;
 import edu.jhuapl.saavtk.util.PolyDataUtil;
 import edu.jhuapl.saavtk.util.ProgressStatusListener;
 import edu.jhuapl.sbmt.core.util.PolyDataUtil2;
+import edu.jhuapl.sbmt.util.gravity.Gravity;
+import edu.jhuapl.sbmt.util.gravity.GravityChunkFile;
+import edu.jhuapl.sbmt.util.gravity.GravityChunkPlanner;
+import edu.jhuapl.sbmt.util.gravity.GravityCheng;
+import edu.jhuapl.sbmt.util.gravity.GravityProgress;
+import edu.jhuapl.sbmt.util.gravity.GravityResultCache;
+import edu.jhuapl.sbmt.util.gravity.GravityRunManifest;
+import edu.jhuapl.sbmt.util.gravity.GravityWernerSoA;
+import edu.jhuapl.sbmt.util.gravity.ParallelExecutor;
 
 import altwg.Fits.FitsHeaderType;
 import altwg.Fits.HeaderTag;
@@ -81,6 +99,10 @@ import spice.basic.Vector3;
 /**
  * DistributedGravity program. See the usage string for more information about this program.
  *
+ * Each instance is one run with its own state, configured by an immutable RunConfiguration, so several runs (e.g. of
+ * different maplets) can compute gravity at the same time in one JVM. main parses the arguments and performs a single
+ * run.
+ *
  * @author Eli Kahn
  * @version 1.0
  *
@@ -90,8 +112,6 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	 private static String rootDir;
 	 private static String gravityExecutableName;
 
-	 static ArrayList<GravityValues> results = new ArrayList<GravityValues>();
-
 
 	// used for shortDescription() and fullDescription()
 	private final static SBMTDistributedGravity defaultObj = new SBMTDistributedGravity();
@@ -119,6 +139,110 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	    }
 
 	    private SBMTDistributedGravity() {
+	        this(RunConfiguration.DEFAULT);
+	    }
+
+	    /**
+	     * Create a gravity run. Each instance holds the state of one run, so several runs, e.g. of different maplets,
+	     * can execute concurrently in one JVM.
+	     *
+	     * @param config
+	     *            - configuration of the run, see RunConfiguration.fromArguments
+	     */
+	    public SBMTDistributedGravity(RunConfiguration config) {
+	        this.config = config;
+	        density = config.density;
+	        rotationRate = config.rotationRate;
+	        gravityType = config.gravityType;
+	        howToEvalute = config.howToEvalute;
+	        refPotentialProvided = config.refPotentialProvided;
+	        minRefPotential = config.minRefPotential;
+	        massUncertainty2 = config.massUncertainty2;
+	        saveRefPotential = config.saveRefPotential;
+	        refPotentialFile = config.refPotentialFile;
+	        numCores = config.numCores;
+	        objfile = config.objfile;
+	        outfile = config.outfile;
+	        outputFolder = config.outputFolder;
+	        batchType = config.batchType;
+	        tiltRadius = config.tiltRadius;
+	        gridBatchType = config.gridBatchType;
+	        inputfitsfile = config.inputfitsfile;
+	        externalBody = config.externalBody;
+	        sigmaScale = config.sigmaScale;
+	        inProcess = config.inProcess;
+	        resultCache = config.resultCache;
+	        approximationTolerance = config.approximationTolerance;
+	        refPotential = config.refPotential;
+	    }
+
+	    /**
+	     * Create the run of one maplet of a batch, sharing the global shape model of the batch.
+	     */
+	    private SBMTDistributedGravity(RunConfiguration config, GlobalModel model) {
+	        this(config);
+	        this.model = model;
+	        this.globalShapeModelPolyData = model.polyData;
+	    }
+
+	    /**
+	     * The global shape model and everything derived from it that does not depend on the evaluation points: its hash,
+	     * the Java gravity model, the extracted gravity executable, the measured cost of a point in process and the
+	     * threads used to compute gravity in process. Built once per model and shared by all runs of a batch.
+	     */
+	    private static final class GlobalModel {
+	        private final vtkPolyData polyData;
+	        private byte[] hash;
+	        private Gravity engine;
+	        private GravityAlgorithmType engineType;
+	        private URI gravityExe;
+	        private ParallelExecutor executor;
+
+	        // measured time per point of the Java gravity model, NaN until calibrated
+	        private double secondsPerPoint = Double.NaN;
+
+	        GlobalModel(vtkPolyData polyData) {
+	            this.polyData = polyData;
+	        }
+
+	        /**
+	         * @return hash of the model identifying the chunk files computed for it
+	         */
+	        synchronized byte[] getHash() {
+	            if (hash == null)
+	                hash = GravityChunkFile.computeModelHash(polyData);
+	            return hash;
+	        }
+
+	        /**
+	         * @return the Java gravity model for the algorithm, built on first use
+	         */
+	        synchronized Gravity getEngine(GravityAlgorithmType type) {
+	            if (engine == null || engineType != type) {
+	                System.out.println("Building " + type.name().toLowerCase() + " gravity model");
+	                if (type == GravityAlgorithmType.CHENG)
+	                    engine = new GravityCheng(polyData);
+	                else
+	                    engine = new GravityWernerSoA(polyData);
+	                engineType = type;
+	            }
+	            return engine;
+	        }
+
+	        /**
+	         * @return the pool of threads computing gravity in process, created on first use
+	         */
+	        synchronized ParallelExecutor getExecutor(int threads) {
+	            if (executor == null)
+	                executor = new ParallelExecutor(threads);
+	            return executor;
+	        }
+
+	        synchronized void shutdown() {
+	            if (executor != null)
+	                executor.shutdown();
+	            executor = null;
+	        }
 	    }
 
 	    public static enum GravityAlgorithmType {
@@ -167,29 +291,139 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	        public double potential;
 	    }
 
-	    private static vtkPolyData globalShapeModelPolyData;
-	    private static String sigmaFile;
-	    private static double density;
-	    private static double rotationRate;
-	    private static GravityAlgorithmType gravityType;
-	    private static HowToEvaluate howToEvalute;
-	    private static String fieldpointsfile;
-	    private static double refPotential;
-	    private static boolean refPotentialProvided;
-	    private static boolean minRefPotential;
-	    private static double massUncertainty2;
-	    private static boolean saveRefPotential;
-	    private static String refPotentialFile;
-	    private static int numCores;
-	    private static String objfile;
-	    private static String outfile;
-	    private static String outputFolder;
-	    private static BatchType batchType;
-	    private static double tiltRadius = Double.NaN;
-	    private static BatchType gridBatchType;
-	    private static String inputfitsfile;
-	    private static String externalBody;
-	    private static double sigmaScale;
+	    /**
+	     * Gravity results of a run stored in binary chunk files, one per chunk in index order, together with the manifest
+	     * recording the state of each chunk. Results read from the result cache have no manifest, their chunk files are
+	     * linked or copied from the cache so evicting the entry does not affect them. Only one chunk is memory
+	     * mapped at a time, so walking the results in index order maps each chunk once and the memory used does not
+	     * depend on the number of points.
+	     */
+	    private static class GravityResults {
+	        private final File[] chunkFiles;
+	        // index of the first point of each chunk, followed by the total number of points
+	        private final long[] chunkStart;
+	        private final byte[] modelHash;
+	        private final GravityRunManifest manifest;
+	        private GravityChunkFile chunk;
+	        private int chunkIndex = -1;
+
+	        GravityResults(File[] chunkFiles, long[] chunkStart, byte[] modelHash, GravityRunManifest manifest) {
+	            this.chunkFiles = chunkFiles;
+	            this.chunkStart = chunkStart;
+	            this.modelHash = modelHash;
+	            this.manifest = manifest;
+	        }
+
+	        int size() {
+	            return (int) chunkStart[chunkFiles.length];
+	        }
+
+	        void getAcceleration(int i, double[] acc) {
+	            selectChunk(i);
+	            chunk.getAcceleration((int) (i - chunkStart[chunkIndex]), acc);
+	        }
+
+	        double getPotential(int i) {
+	            selectChunk(i);
+	            return chunk.getPotential((int) (i - chunkStart[chunkIndex]));
+	        }
+
+	        /**
+	         * Map the chunk containing point i unless it is already mapped.
+	         */
+	        private void selectChunk(int i) {
+	            if (chunkIndex >= 0 && i >= chunkStart[chunkIndex] && i < chunkStart[chunkIndex + 1])
+	                return;
+	            int k = Arrays.binarySearch(chunkStart, 0, chunkFiles.length, i);
+	            if (k < 0)
+	                k = -k - 2;
+	            // skip empty chunks
+	            while (chunkStart[k + 1] <= i)
+	                ++k;
+	            try {
+	                chunk = GravityChunkFile.open(chunkFiles[k], modelHash);
+	            } catch (IOException e) {
+	                throw new RuntimeException("Could not read gravity chunk file " + chunkFiles[k], e);
+	            }
+	            if (chunk.getStartIndex() != chunkStart[k] || chunk.getEndIndex() != chunkStart[k + 1])
+	                throw new RuntimeException("Gravity chunk file " + chunkFiles[k] + " has the wrong index range");
+	            chunkIndex = k;
+	        }
+
+	        /**
+	         * Delete the chunk files and the manifest of the run. The files of the result cache are not affected.
+	         */
+	        void delete() {
+	            chunk = null;
+	            chunkIndex = -1;
+	            for (File chunkFile : chunkFiles)
+	                chunkFile.delete();
+	            if (manifest != null)
+	                manifest.delete();
+	        }
+	    }
+
+	    // configuration of this run, and the values of it used throughout
+	    private final RunConfiguration config;
+	    private final double density;
+	    private final double rotationRate;
+	    private final GravityAlgorithmType gravityType;
+	    private final HowToEvaluate howToEvalute;
+	    private final boolean refPotentialProvided;
+	    private final boolean minRefPotential;
+	    private final double massUncertainty2;
+	    private final boolean saveRefPotential;
+	    private final String refPotentialFile;
+	    private final int numCores;
+	    private final String objfile;
+	    private final String outfile;
+	    private final String outputFolder;
+	    private final BatchType batchType;
+	    private final double tiltRadius;
+	    private final BatchType gridBatchType;
+	    private final String inputfitsfile;
+	    private final String externalBody;
+	    private final double sigmaScale;
+	    private final boolean inProcess;
+	    private final GravityResultCache resultCache;
+	    private final double approximationTolerance;
+
+	    // state of this run
+	    private volatile BooleanSupplier cancelled;
+	    private vtkPolyData globalShapeModelPolyData;
+	    private String fieldpointsfile;
+	    // the reference potential given in the configuration, or computed from the results at the plate centers
+	    private double refPotential;
+
+	    // points at which to evaluate gravity in process when evaluating at points in a fits file,
+	    // stored as x0,y0,z0,x1,...
+	    private double[] fieldPoints;
+
+	    // the global shape model and what is derived from it, shared by the runs of a batch
+	    private GlobalModel model;
+
+	    // when computing gravity in process, split each chunk into about this many tasks per thread, each taking at
+	    // least IN_PROCESS_MIN_TASK_SECONDS
+	    private static final int IN_PROCESS_TASKS_PER_THREAD = 8;
+	    private static final double IN_PROCESS_MIN_TASK_SECONDS = 0.01;
+
+	    // when running the gravity executable, split the points into about this many jobs per core, each taking at
+	    // least EXECUTABLE_MIN_TASK_OVERHEADS times the time to start the executable and load the shape model
+	    private static final int EXECUTABLE_TASKS_PER_CORE = 4;
+	    private static final double EXECUTABLE_MIN_TASK_OVERHEADS = 20.0;
+	    private static final double EXECUTABLE_START_SECONDS = 0.5;
+
+	    // Typical cost of the gravity executable, used to size its jobs instead of a measurement: the time to evaluate
+	    // a point and the time to load the shape model, per facet of the shape model
+	    private static final double EXECUTABLE_SECONDS_PER_POINT_AND_FACET = 1e-7;
+	    private static final double EXECUTABLE_LOAD_SECONDS_PER_FACET = 5e-6;
+
+	    // number of sample points and maximum time used to measure the time to evaluate a point
+	    private static final int CALIBRATION_SAMPLES = 64;
+	    private static final double CALIBRATION_SECONDS = 1.0;
+
+	    // number of points of each chunk file written when computing gravity in process
+	    private static final int IN_PROCESS_CHUNK_SIZE = 1 << 16;
 
 	    private static class Arguments {
 
@@ -311,7 +545,8 @@ public class SBMTDistributedGravity implements ALTWGTool {
 					+ " be written in the current working directory.", required = false)
 			private boolean altwgNaming = false;
 
-			@Parameter(names = "--keepGfiles", order = 16, description = " Keep the raw intermediate gravity files produced by the gravity c++ executable instead of deleting them. "
+			@Parameter(names = "--keepGfiles", order = 16, description = " Keep the raw intermediate gravity files produced by the gravity c++ executable, "
+					+ "or the binary chunk files written with --in-process, instead of deleting them. "
 					+ "Useful for debugging purposes. Default is to delete them.", required = false)
 			private boolean keepGFiles = false;
 
@@ -343,6 +578,39 @@ public class SBMTDistributedGravity implements ALTWGTool {
 					+ " for the global case. Defaults to 1 if not set.")
 			private double sigmaScale = 1D;
 
+			@Parameter(names = "--in-process", order = 22, description = "Compute the gravity inside this program using the Java"
+					+ " implementation of the algorithm selected by --werner or --cheng instead of running the gravity"
+					+ " executable. The shape model is loaded once and shared by <numJobs> threads, and the intermediate"
+					+ " results are written to binary chunk files instead of ASCII files. This is the default for batch type local on operating systems other than"
+					+ " macOS, for which no gravity executable is available. Ignores --batch-type grid.", required = false)
+			private boolean inProcess = false;
+
+			@Parameter(names = "--result-cache", order = 23, description = "<folder> Keep the gravity results of each run in"
+					+ " <folder>, keyed on the shape model, the evaluation points, density, rotation rate, gravitational"
+					+ " constant and algorithm. A later run with the same inputs, e.g. to use a different reference potential,"
+					+ " tilt radius or output format, reads the results from the cache instead of computing them. Defaults to"
+					+ " the value of the system property " + GravityResultCache.PROPERTY + "; if neither is set no cache is used.", required = false)
+			private String resultCache = null;
+
+			@Parameter(names = "--result-cache-size", order = 24, description = "<MB> Maximum size of the result cache. The least"
+					+ " recently used results are deleted when it grows larger. Default is 10240.", required = false)
+			private double resultCacheSize = GravityResultCache.DEFAULT_MAX_SIZE / (double) (1 << 20);
+
+			@Parameter(names = "--fits-local-list", order = 25, description = "<filename> Evaluate gravity for many local FITS files"
+					+ " against the same <platemodelfile>, as --fits-local does for one. <filename> lists one input FITS file per line,"
+					+ " optionally followed by a tab or spaces and its output FITS file; empty lines and lines starting with '#' are"
+					+ " ignored. In this mode <out-file> is the folder for the output files: relative output paths are taken relative"
+					+ " to it, and a FITS file without output path is written to <out-file>/<name>-gravity.fits. The shape model is"
+					+ " loaded once for all FITS files, and the gravity of one FITS file is computed while the previous one is"
+					+ " regridded and saved. Requires --ref-potential. Cannot be combined with --fits-local.", required = false)
+			private String localFitsListFname = "";
+
+			@Parameter(names = "--approximation-tolerance", order = 26, description = "<value> Relative error allowed when"
+					+ " computing the gravity in process with the Werner algorithm. Groups of facets far from a point are"
+					+ " replaced by their multipole expansions as long as the estimated error stays below <value>, e.g. 1e-6,"
+					+ " and the largest estimated error is printed. Default is 0, which computes the exact sums.", required = false)
+			private double approximationTolerance = 0.0;
+
 			@Parameter(description = "Usage: DistributedGravity [options] <platemodelfile> <out-file>\n\n"
 					+ "Where:\n"
 					+ "  <platemodelfile>       Path to global shape model file in OBJ format.\n"
@@ -353,6 +621,7 @@ public class SBMTDistributedGravity implements ALTWGTool {
 					+ "                         of the <fits-filename> plus gravity results appended as additional\n"
 					+ "                         planes. The tool also creates a separate ascii file named\n"
 					+ "                         <out-file>.gravtab that contains the results at the facet centers.\n"
+					+ "                         For --fits-local-list, <out-file> is the folder for the output files.\n"
 					+ "                         ")
 
 			private List<String> files = new ArrayList<>();
@@ -361,6 +630,332 @@ public class SBMTDistributedGravity implements ALTWGTool {
 			private boolean shortDescription = false;
 		}
 
+	    /**
+	     * Immutable configuration of a gravity run, parsed from the command line arguments by fromArguments. A run
+	     * only reads its configuration, so one configuration may be shared by several runs.
+	     */
+	    public static final class RunConfiguration {
+
+	        // all defaults, used for the usage strings
+	        private static final RunConfiguration DEFAULT = new RunConfiguration(new Arguments());
+
+	        private final double density;
+	        private final double rotationRate;
+	        private final GravityAlgorithmType gravityType;
+	        private final HowToEvaluate howToEvalute;
+	        private final String inputfitsfile;
+	        private final boolean minRefPotential;
+	        private final double refPotential;
+	        private final boolean refPotentialProvided;
+	        private final double massUncertainty2;
+	        private final boolean saveRefPotential;
+	        private final String refPotentialFile;
+	        private final int numCores;
+	        private final String objfile;
+	        private final String outfile;
+	        private final String outputFolder;
+	        private final BatchType batchType;
+	        private final BatchType gridBatchType;
+	        private final GridType gridType;
+	        private final double tiltRadius;
+	        private final String externalBody;
+	        private final double sigmaScale;
+	        private final String sigmaFile;
+	        private final SigmaFileType sigmaType;
+	        private final boolean inProcess;
+	        private final GravityResultCache resultCache;
+	        private final double approximationTolerance;
+	        private final double gravConst;
+	        private final boolean altwgName;
+	        private final boolean keepGfiles;
+	        private final String configFile;
+	        // input and output fits files of --fits-local-list, empty otherwise
+	        private final List<String> batchInputs;
+	        private final List<String> batchOutputs;
+
+	        private RunConfiguration(Arguments arg) {
+	            density = arg.density;
+	            rotationRate = arg.rotationRate;
+	            massUncertainty2 = arg.massUncertainty * arg.massUncertainty;
+	            sigmaScale = arg.sigmaScale;
+	            sigmaFile = arg.sigmaFile;
+	            sigmaType = SigmaFileType.SPCSIGMA;
+
+	            // gravity algorithm
+	            gravityType = arg.cheng ? GravityAlgorithmType.CHENG : GravityAlgorithmType.WERNER;
+	            if (arg.localFitsFname.length() > 0 || arg.localFitsListFname.length() > 0) {
+	                howToEvalute = HowToEvaluate.EVALUATE_AT_POINTS_IN_FITS_FILE;
+	                inputfitsfile = arg.localFitsFname.length() > 0 ? arg.localFitsFname : null;
+	            } else {
+	                howToEvalute = HowToEvaluate.EVALUATE_AT_CENTERS;
+	                inputfitsfile = null;
+	            }
+
+	            // set grid batch type.
+	            gridBatchType = BatchType.getSlotsType(arg.numSlots);
+
+	            minRefPotential = arg.minRefPotential;
+
+	            // define reference potential (required for --fits-local)
+	            refPotentialProvided = arg.refPotential.length() > 0;
+	            if (refPotentialProvided) {
+	                // The argument is either a double or a file that contains the
+	                // double as a single value
+	                String str = arg.refPotential;
+	                double value;
+	                try {
+	                    value = Double.parseDouble(str);
+	                } catch (NumberFormatException e) {
+	                    try {
+	                        value = getRefPotential(str);
+	                    } catch (IOException e1) {
+	                        throw new RuntimeException("Could not read reference potential from " + str, e1);
+	                    }
+	                }
+	                refPotential = value;
+	            } else {
+	                refPotential = 0.0;
+	            }
+
+	            // save reference potential to a file
+	            saveRefPotential = arg.refPotSaveFname.length() > 0;
+	            refPotentialFile = saveRefPotential ? arg.refPotSaveFname : null;
+
+	            // resolve outputFolder to an absolute path so that it can be resolved if the
+	            // gravity code is passed to a grid engine node.
+	            outputFolder = new File(arg.outputFolder.length() > 0 ? arg.outputFolder : ".").getAbsolutePath();
+
+	            // default is empty string
+	            externalBody = "";
+
+	            numCores = arg.numJobs;
+	            if (arg.resultCache != null && !arg.resultCache.isEmpty())
+	                resultCache = new GravityResultCache(new File(arg.resultCache),
+	                        (long) (arg.resultCacheSize * (1 << 20)));
+	            else
+	                resultCache = GravityResultCache.getDefault();
+
+	            // specify local or grid engine processing. Default to Sun Open Grid Engine. Currently this is the only
+	            // supported grid engine. re-enable the --gridType argument if support is added for other grid engines.
+	            if (arg.batchType.equals("grid")) {
+	                batchType = gridBatchType;
+	                gridType = GridType.SUNOPENGRID;
+	            } else {
+	                batchType = BatchType.LOCAL_PARALLEL_MAKE;
+	                gridType = GridType.LOCAL;
+	            }
+
+	            // the bundled gravity executable only exists for macOS
+	            inProcess = arg.inProcess || (gridType.equals(GridType.LOCAL) && !Configuration.isMac());
+	            approximationTolerance = arg.approximationTolerance;
+
+	            tiltRadius = arg.tiltRadius;
+	            gravConst = arg.gravConst;
+	            altwgName = arg.altwgNaming;
+	            keepGfiles = arg.keepGFiles;
+	            configFile = arg.configFile;
+
+	            // resolve objfile and outfile to absolute paths so that they can be resolved if the gravity code
+	            // is passed to a grid engine.
+	            objfile = arg.files.size() > 0 ? new File(arg.files.get(0)).getAbsolutePath() : null;
+	            outfile = arg.files.size() > 1 ? new File(arg.files.get(1)).getAbsolutePath() : null;
+
+	            batchInputs = new ArrayList<String>();
+	            batchOutputs = new ArrayList<String>();
+	            if (arg.localFitsListFname.length() > 0) {
+	                try {
+	                    readLocalFitsList(new File(arg.localFitsListFname), new File(outfile != null ? outfile : "."));
+	                } catch (IOException e) {
+	                    throw new RuntimeException("Could not read list of fits files " + arg.localFitsListFname, e);
+	                }
+	            }
+	        }
+
+	        /**
+	         * Configuration of the run of one fits file of a --fits-local-list batch, the same as this one but for
+	         * evaluating at the points in inputfitsfile and writing the results to outfile.
+	         */
+	        private RunConfiguration(RunConfiguration base, String inputfitsfile, String outfile) {
+	            density = base.density;
+	            rotationRate = base.rotationRate;
+	            gravityType = base.gravityType;
+	            howToEvalute = HowToEvaluate.EVALUATE_AT_POINTS_IN_FITS_FILE;
+	            this.inputfitsfile = inputfitsfile;
+	            minRefPotential = base.minRefPotential;
+	            refPotential = base.refPotential;
+	            refPotentialProvided = base.refPotentialProvided;
+	            massUncertainty2 = base.massUncertainty2;
+	            saveRefPotential = base.saveRefPotential;
+	            refPotentialFile = base.refPotentialFile;
+	            numCores = base.numCores;
+	            objfile = base.objfile;
+	            this.outfile = outfile;
+	            outputFolder = base.outputFolder;
+	            batchType = base.batchType;
+	            gridBatchType = base.gridBatchType;
+	            gridType = base.gridType;
+	            tiltRadius = base.tiltRadius;
+	            externalBody = base.externalBody;
+	            sigmaScale = base.sigmaScale;
+	            sigmaFile = base.sigmaFile;
+	            sigmaType = base.sigmaType;
+	            inProcess = base.inProcess;
+	            resultCache = base.resultCache;
+	            approximationTolerance = base.approximationTolerance;
+	            gravConst = base.gravConst;
+	            altwgName = base.altwgName;
+	            keepGfiles = base.keepGfiles;
+	            configFile = base.configFile;
+	            batchInputs = new ArrayList<String>();
+	            batchOutputs = new ArrayList<String>();
+	        }
+
+	        private RunConfiguration forLocalFits(String inputfitsfile, String outfile) {
+	            return new RunConfiguration(this, inputfitsfile, outfile);
+	        }
+
+	        private void readLocalFitsList(File listFile, File outputDir) throws IOException {
+	            for (String line : FileUtils.readLines(listFile, "UTF-8")) {
+	                line = line.trim();
+	                if (line.isEmpty() || line.startsWith("#"))
+	                    continue;
+	                String[] tokens = line.contains("\t") ? line.split("\t+") : line.split("\\s+");
+	                String input = new File(tokens[0].trim()).getAbsolutePath();
+	                File output;
+	                if (tokens.length > 1) {
+	                    output = new File(tokens[1].trim());
+	                    if (!output.isAbsolute())
+	                        output = new File(outputDir, tokens[1].trim());
+	                } else {
+	                    String name = new File(input).getName().replaceFirst("(?i)\\.fits?$", "");
+	                    output = new File(outputDir, name + "-gravity.fits");
+	                }
+	                batchInputs.add(input);
+	                batchOutputs.add(output.getAbsolutePath());
+	            }
+	        }
+
+	        /**
+	         * Parse the command line arguments of DistributedGravity.
+	         *
+	         * @param args
+	         *            - arguments as described in the usage string
+	         * @return the configuration
+	         * @throws RuntimeException
+	         *             if the arguments are invalid or the plate model does not exist
+	         */
+	        public static RunConfiguration fromArguments(String[] args) {
+	            Arguments arg = new Arguments();
+	            JCommander command = new JCommander(arg);
+
+	            try {
+
+	                // command = new JCommander(arg, args);
+	                command.parse(args);
+	            } catch (ParameterException ex) {
+	                System.out.println(defaultObj.fullDescription());
+	                String mesg = "Error parsing input arguments:" + ex.getMessage();
+	                throw new RuntimeException(mesg);
+	            }
+
+	            if (arg.shortDescription) {
+	                System.out.println(defaultObj.shortDescription());
+	                System.exit(0);
+	            }
+
+	            if ((args.length < 1) || (arg.help)) {
+	                System.out.println(defaultObj.fullDescription());
+	                System.exit(0);
+	            }
+
+	            // There must be numRequiredArgs arguments remaining after the options.
+	            // Otherwise abort.
+	            List<String> filenames = arg.files;
+	            int numberRequiredArgs = 2;
+	            if (filenames.size() != numberRequiredArgs) {
+	                System.out.println(defaultObj.fullDescription());
+	                StringBuilder sb = new StringBuilder();
+	                sb.append("\nERROR: <platemodelfile> and <out-file> are required inputs.\n");
+	                sb.append("Please check your command syntax.\n");
+	                sb.append("List of files parsed from the arguments:\n");
+	                for (String file : filenames) {
+	                    sb.append("file:" + file + "\n");
+	                }
+
+	                throw new RuntimeException(sb.toString());
+	            }
+
+	            RunConfiguration config = new RunConfiguration(arg);
+
+	            if (config.minRefPotential) {
+	                System.out.println("Will use minimum reference potential as gravity potential");
+	            } else {
+	                System.out.println("Will use averaged reference potential as gravity potential");
+	            }
+
+	            if (arg.batchType.equals("grid")) {
+	                if (config.numCores > 1) {
+	                    System.out.println("Ignoring --num-jobs specified. Will dynamically determine number of jobs per "
+	                            + "grid node");
+	                }
+	                System.out.println("Number of slots taken per job:" + BatchType.slotPerJob(config.gridBatchType));
+	            } else if (!arg.batchType.equals("local")) {
+	                System.out.println("Could not parse batchtype from string:" + arg.batchType);
+	                System.out.println("defaulting to 'local'");
+	            }
+
+	            if (arg.inProcess && !config.gridType.equals(GridType.LOCAL)) {
+	                System.out.println("Ignoring --batch-type grid since --in-process was specified");
+	            } else if (!arg.inProcess && config.inProcess) {
+	                System.out.println("No gravity executable available for this operating system. Computing gravity in process");
+	            }
+
+	            if (!(config.approximationTolerance >= 0.0)) {
+	                throw new RuntimeException("Error: --approximation-tolerance must not be negative: "
+	                        + config.approximationTolerance);
+	            } else if (config.approximationTolerance > 0.0
+	                    && (!config.inProcess || config.gravityType != GravityAlgorithmType.WERNER)) {
+	                System.out.println("Ignoring --approximation-tolerance, it is only used with --werner in process");
+	            }
+
+	            // check for tilt_radius
+	            if (!Double.isNaN(config.tiltRadius)) {
+	                System.out.println("Tilt radius set to:" + Double.toString(config.tiltRadius));
+	                System.out.println("WILL CREATE BASIC TILT AND BASIC TILT DIR PLANES IN OUTPUT FITS.");
+	            } else {
+	                System.out.println("tiltRadius not specified. Will not create tilt planes.");
+	            }
+
+	            if (arg.localFitsListFname.length() > 0) {
+	                if (arg.localFitsFname.length() > 0)
+	                    throw new RuntimeException("Error: --fits-local and --fits-local-list cannot be used together.");
+	                if (config.batchInputs.isEmpty())
+	                    throw new RuntimeException("Error: no fits files listed in " + arg.localFitsListFname);
+	                // the intermediate files of each fits file are named after its output file
+	                Set<String> names = new HashSet<String>();
+	                for (String output : config.batchOutputs) {
+	                    if (!names.add(new File(output).getName()))
+	                        throw new RuntimeException("Error: more than one fits file in " + arg.localFitsListFname
+	                                + " would be written to an output file named " + new File(output).getName());
+	                }
+	                new File(config.outfile).mkdirs();
+	            }
+
+	            if (config.howToEvalute == HowToEvaluate.EVALUATE_AT_POINTS_IN_FITS_FILE && !config.refPotentialProvided) {
+	                throw new RuntimeException("Error: When evaluating at points in a file, you must provide a value for the\n"
+	                        + "reference potential with the --ref-potential option.");
+	            }
+
+	            // throw error if objfile does not exist
+	            if (!new File(config.objfile).exists()) {
+	                String errMesg = "ERROR! obj file:" + config.objfile + " does not exist!";
+	                throw new RuntimeException(errMesg);
+	            }
+
+	            return config;
+	        }
+	    }
+
 	    // From
 	    // https://stackoverflow.com/questions/523871/best-way-to-concatenate-list-of-string-objects
 	    private static String concatStringsWSep(List<Double> strings, String format, String separator) {
@@ -400,12 +995,12 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	     * @param polydata
 	     *            - plate model loaded into a vtkPolyData object
 	     * @param results
-	     *            - results from the 'gravity' executable.
+	     *            - gravity at the plate centers, read in order one chunk at a time
 	     * @throws IOException
 	     * @throws FitsException
 	     */
-	    private static void saveResultsAtCenters(String gravityfile, vtkPolyData polydata, vtkFloatArray sigmaData,
-	            List<GravityValues> results)
+	    private void saveResultsAtCenters(String gravityfile, vtkPolyData polydata, vtkFloatArray sigmaData,
+	            GravityResults results)
 	            throws IOException, FitsException {
 	        FileWriter ofs = new FileWriter(gravityfile);
 	        BufferedWriter out = new BufferedWriter(ofs);
@@ -470,8 +1065,11 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	                radialErrorAtPoint[i] = sigmaData.GetValue(i);
 	        }
 
+	        double[] acc = new double[3];
 	        for (int i = 0; i < numCells; ++i) {
 	            CellInfo ci = CellInfo.getCellInfo(polydata, i, idList);
+	            results.getAcceleration(i, acc);
+	            double potential = results.getPotential(i);
 
 	            // the radius uncertainty is dimensionless - (dr/r)^2 is used in the error formulas
 	            double radiusUncertainty2 = 0;
@@ -493,14 +1091,14 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	            row.add(ci.normal[1]);
 	            row.add(ci.normal[2]);
 	            row.add(ci.area);
-	            row.add(results.get(i).acc[0]);
-	            row.add(results.get(i).acc[1]);
-	            row.add(results.get(i).acc[2]);
-	            double slope = getSlope(results.get(i).acc, ci.normal);
-	            double elevation = getElevation(refPotential, results.get(i).acc, results.get(i).potential);
-	            double accMag = getAccelerationMagnitude(results.get(i).acc, slope);
+	            row.add(acc[0]);
+	            row.add(acc[1]);
+	            row.add(acc[2]);
+	            double slope = getSlope(acc, ci.normal);
+	            double elevation = getElevation(refPotential, acc, potential);
+	            double accMag = getAccelerationMagnitude(acc, slope);
 	            row.add(accMag);
-	            row.add(results.get(i).potential);
+	            row.add(potential);
 	            row.add(elevation);
 	            row.add(slope);
 
@@ -515,7 +1113,7 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	             */
 
 	            double gravMagUncertainty = accMag * Math.sqrt(massUncertainty2 + 2 * radiusUncertainty2);
-	            double gravPotentialUncertainty = results.get(i).potential
+	            double gravPotentialUncertainty = potential
 	                    * Math.sqrt(massUncertainty2 + radiusUncertainty2);
 	            double elevationUncertainty = elevation * Math.sqrt(
 	                    gravPotentialUncertainty * gravPotentialUncertainty + gravMagUncertainty * gravMagUncertainty);
@@ -544,8 +1142,8 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	     * @throws Exception
 	     */
 	    @Deprecated
-	    private static void saveResultsAtPointsInFitsFile(boolean altwgName, String configFile,
-	            String inputfitsfile, vtkPolyData fitspolydata, String outputfitsfile, List<GravityValues> gravAtLocations)
+	    private void saveResultsAtPointsInFitsFile(boolean altwgName, String configFile,
+	            String inputfitsfile, vtkPolyData fitspolydata, String outputfitsfile, GravityResults gravAtLocations)
 	            throws Exception {
 //	    	System.out.println("SBMTDistributedGravity: saveResultsAtPointsInFitsFile: saving results at point in FITS file");
 	        // Get the dimensions of the input fits file
@@ -578,6 +1176,7 @@ public class SBMTDistributedGravity implements ALTWGTool {
 
 	        double[] pt = new double[3];
 	        double[] normal = new double[3];
+	        double[] acc = new double[3];
 	        // TiltUtil tiltClass = new TiltUtil(tiltRadius);
 	        String line;
 	        int i = 0;
@@ -604,14 +1203,16 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	            outdata[k++][m][n] = normal[0];
 	            outdata[k++][m][n] = normal[1];
 	            outdata[k++][m][n] = normal[2];
-	            outdata[k++][m][n] = gravAtLocations.get(i).acc[0];
-	            outdata[k++][m][n] = gravAtLocations.get(i).acc[1];
-	            outdata[k++][m][n] = gravAtLocations.get(i).acc[2];
-	            double slope = getSlope(gravAtLocations.get(i).acc, normal);
-	            double elevation = getElevation(refPotential, gravAtLocations.get(i).acc, gravAtLocations.get(i).potential);
-	            double accMag = getAccelerationMagnitude(gravAtLocations.get(i).acc, slope);
+	            gravAtLocations.getAcceleration(i, acc);
+	            double potential = gravAtLocations.getPotential(i);
+	            outdata[k++][m][n] = acc[0];
+	            outdata[k++][m][n] = acc[1];
+	            outdata[k++][m][n] = acc[2];
+	            double slope = getSlope(acc, normal);
+	            double elevation = getElevation(refPotential, acc, potential);
+	            double accMag = getAccelerationMagnitude(acc, slope);
 	            outdata[k++][m][n] = accMag;
-	            outdata[k++][m][n] = gravAtLocations.get(i).potential;
+	            outdata[k++][m][n] = potential;
 	            outdata[k++][m][n] = elevation;
 	            outdata[k++][m][n] = slope;
 
@@ -648,50 +1249,108 @@ public class SBMTDistributedGravity implements ALTWGTool {
 
 	    /**
 	     * Read the gravity results from a given acceleration and potential file created by the 'gravity' executable and
-	     * return as a list of GravityValues.
+	     * save them to a binary chunk file, so they only need to be parsed once.
 	     *
 	     * @param accFile
 	     * @param potFile
-	     * @return
+	     * @param chunkFile
+	     * @param startId
+	     *            - index of the first point in the files
+	     * @param stopId
+	     *            - one past the index of the last point in the files
+	     * @return checksum of the chunk file
 	     * @throws IOException
+	     *             if the files are missing or do not have one line per point
 	     */
-	    private static List<GravityValues> readGravityResults(File accFile, File potFile) throws IOException {
+	    private long convertGravityResults(File accFile, File potFile, File chunkFile, long startId, long stopId)
+	            throws IOException {
 
 //	    	System.out.println("SBMTDistributedGravity: readGravityResults: reading gravity results");
-	        ArrayList<double[]> accelerationVector = new ArrayList<double[]>();
-	        ArrayList<Double> potential = new ArrayList<Double>();
-
 	        if (!accFile.exists()) {
-	            System.out.println("ERROR! acceleration file:\n" + accFile.getAbsolutePath() + " does not exist!");
+	            throw new IOException("acceleration file " + accFile.getAbsolutePath() + " does not exist");
 	        }
 	        if (!potFile.exists()) {
-	            System.out.println("ERROR! grav-pot file:\n" + potFile.getAbsolutePath() + " does not exist!");
+	            throw new IOException("grav-pot file " + potFile.getAbsolutePath() + " does not exist");
 	        }
 
-	        accelerationVector.addAll(altwg.util.FileUtil.loadPointDataArray(accFile.getAbsolutePath(), 0));
-	        potential.addAll(FileUtil.getFileLinesAsDoubleList(potFile.getAbsolutePath()));
-
-	        ArrayList<GravityValues> results = new ArrayList<GravityValues>();
+	        List<double[]> accelerationVector = altwg.util.FileUtil.loadPointDataArray(accFile.getAbsolutePath(), 0);
+	        List<Double> potentialList = FileUtil.getFileLinesAsDoubleList(potFile.getAbsolutePath());
 
-	        int numLines = potential.size();
+	        int numLines = potentialList.size();
+	        if (numLines != stopId - startId || accelerationVector.size() != numLines) {
+	            throw new IOException(accFile.getName() + " and " + potFile.getName() + " do not contain "
+	                    + (stopId - startId) + " results");
+	        }
+	        double[] acc = new double[3 * numLines];
+	        double[] potential = new double[numLines];
 	        for (int i = 0; i < numLines; ++i) {
-	            GravityValues r = new GravityValues();
-	            r.srcAccFile = accFile.getName();
-	            r.srcPotFile = potFile.getName();
-	            r.potential = potential.get(i);
-	            r.acc[0] = accelerationVector.get(i)[0];
-	            r.acc[1] = accelerationVector.get(i)[1];
-	            r.acc[2] = accelerationVector.get(i)[2];
-	            results.add(r);
+	            potential[i] = potentialList.get(i);
+	            acc[3 * i] = accelerationVector.get(i)[0];
+	            acc[3 * i + 1] = accelerationVector.get(i)[1];
+	            acc[3 * i + 2] = accelerationVector.get(i)[2];
 	        }
 
-	        return results;
+	        return GravityChunkFile.write(chunkFile, startId, getModelHash(), acc, potential, numLines);
 	    }
 
 	    /**
-	     * Run the gravity executable to calculate gravity values for each plate in the plate model or at specific points in
-	     * the fits file Run in distributed mode if possible then load all results files and compile into one list of
-	     * GravityValues.
+	     * @return name of the binary chunk file holding the results of chunk i
+	     */
+	    private File getChunkFile(int i) {
+	        String basename = new File(objfile).getName();
+	        String outfilename = new File(outfile).getName();
+	        return new File(outputFolder + File.separator + basename + "-gravity.bin" + outfilename + i);
+	    }
+
+	    /**
+	     * @return hash of the global shape model identifying the chunk files computed for it
+	     */
+	    private byte[] getModelHash() {
+	        return model.getHash();
+	    }
+
+	    /**
+	     * Return the key of the current run, a hash of everything the gravity values depend on: the algorithm, density,
+	     * rotation rate, gravitational constant, external body, the global shape model and the evaluation points.
+	     *
+	     * @param gravConstant
+	     *            - gravitational constant to use
+	     */
+	    private String getRunKey(double gravConstant) {
+	        String parameters = String.format("%s %s %.16e %.16e %.16e %s", gravityType.name(), howToEvalute.name(),
+	                density, rotationRate, gravConstant, externalBody);
+	        // approximate results are kept apart from exact ones, exact runs keep their previous key
+	        if (inProcess && gravityType == GravityAlgorithmType.WERNER && approximationTolerance > 0.0)
+	            parameters += String.format(" tolerance %.16e", approximationTolerance);
+	        double[] points = howToEvalute == HowToEvaluate.EVALUATE_AT_CENTERS ? null : fieldPoints;
+	        return GravityRunManifest.computeRunKey(parameters, getModelHash(), points);
+	    }
+
+	    /**
+	     * Open the manifest of the current run. If a previous run with the same arguments was interrupted, the manifest
+	     * holds the chunks it completed, which then do not need to be computed again.
+	     *
+	     * @param chunkStart
+	     *            - index of the first point of each chunk followed by the total number of points
+	     * @param gravConstant
+	     *            - gravitational constant to use
+	     */
+	    private GravityRunManifest openManifest(long[] chunkStart, double gravConstant) {
+	        return new GravityRunManifest(getManifestFile(), getRunKey(gravConstant), chunkStart);
+	    }
+
+	    private File getManifestFile() {
+	        String basename = new File(objfile).getName();
+	        String outfilename = new File(outfile).getName();
+	        return new File(outputFolder + File.separator + basename + "-gravity.manifest" + outfilename);
+	    }
+
+	    /**
+	     * Calculate gravity values for each plate in the plate model or at specific points in the fits file, either in
+	     * process or with the gravity executable. The results of each chunk are stored in a binary chunk file, and when
+	     * evaluating at the plate centers the reference potential is computed in a pass over the chunks in index order.
+	     * If a result cache is used, results of an earlier run with the same inputs are taken from the cache and new
+	     * results are added to it.
 	     *
 	     * @param keepGfiles
 	     *            - flag true to keep temporary gravity files
@@ -699,15 +1358,232 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	     *            - enum to specify type of batch processing
 	     * @param gravConstant
 	     *            - gravitational constant to use
-	     * @return
+	     * @return the results, which are read from the chunk files when accessed
 	     * @throws InterruptedException
 	     * @throws ExecutionException
 	     * @throws IOException
 	     */
-	    private static List<GravityValues> getGravityAtLocations(boolean keepGfiles, GridType gridType,
+	    private GravityResults getGravityAtLocations(boolean keepGfiles, GridType gridType,
 	            double gravConstant, ProgressStatusListener listener)
 	            throws InterruptedException, ExecutionException, IOException {
 
+	        GravityResults results = null;
+	        String runKey = resultCache != null ? getRunKey(gravConstant) : null;
+	        if (resultCache != null) {
+	            GravityResultCache.Entry entry = resultCache.get(runKey, getModelHash(), this::getChunkFile);
+	            if (entry != null) {
+	                System.out.println("Using gravity results cached in " + resultCache.getDirectory());
+	                results = new GravityResults(entry.getChunkFiles(), entry.getChunkStart(), getModelHash(), null);
+	            }
+	        }
+
+	        if (results == null) {
+	            if (inProcess) {
+	                results = getGravityInProcess(gravConstant, listener);
+	            } else {
+	                results = runGravityExecutable(keepGfiles, gridType, gravConstant, listener);
+	            }
+	            if (resultCache != null)
+	                resultCache.put(runKey, results.chunkFiles);
+	        }
+
+	        if (howToEvalute != HowToEvaluate.EVALUATE_AT_POINTS_IN_FITS_FILE) {
+	            refPotential = getRefPotential(results, minRefPotential);
+//	            System.out.println("Reference Potential = " + refPotential);
+	            // save out reference potential to file so it can be loaded in again
+	            if (saveRefPotential)
+	                FileUtils.writeStringToFile(new File(refPotentialFile), String.valueOf(refPotential));
+	        }
+
+	        return results;
+	    }
+
+	    /**
+	     * Compute the gravity values with the Java gravity code. The points are evaluated in chunks of
+	     * IN_PROCESS_CHUNK_SIZE points; the points of each chunk are split among numCores threads which all write into the
+	     * same acceleration and potential arrays, and the chunk is then saved to a binary GravityChunkFile in
+	     * outputFolder and recorded in the run manifest. Only one chunk is held in memory at a time. Chunks completed by
+	     * an earlier, interrupted run with the same arguments are not computed again.
+	     *
+	     * The size of the tasks the threads take from each chunk is chosen from the measured time to evaluate a point,
+	     * so that there are enough tasks to keep all threads busy until the end of the chunk but each task is long
+	     * enough for its overhead not to matter.
+	     *
+	     * @param gravConstant
+	     *            - gravitational constant to use
+	     * @return the results in the same order as the points
+	     * @throws IOException
+	     */
+	    private GravityResults getGravityInProcess(double gravConstant, ProgressStatusListener listener)
+	            throws IOException {
+	        int numPoints;
+	        if (howToEvalute == HowToEvaluate.EVALUATE_AT_CENTERS) {
+	            numPoints = (int)globalShapeModelPolyData.GetNumberOfCells();
+	        } else {
+	            numPoints = fieldPoints.length / 3;
+	        }
+
+	        int threads = Math.max(1, numCores);
+	        int numChunks = Math.max(1, (numPoints + IN_PROCESS_CHUNK_SIZE - 1) / IN_PROCESS_CHUNK_SIZE);
+	        File[] chunkFiles = new File[numChunks];
+	        long[] chunkStart = new long[numChunks + 1];
+	        for (int i = 0; i < numChunks; i++) {
+	            chunkFiles[i] = getChunkFile(i);
+	            chunkStart[i + 1] = Math.min((long) (i + 1) * IN_PROCESS_CHUNK_SIZE, numPoints);
+	        }
+	        GravityRunManifest manifest = openManifest(chunkStart, gravConstant);
+
+	        GravityProgress progress = new GravityProgress(numPoints, listener);
+	        List<Integer> pendingChunks = new ArrayList<Integer>();
+	        for (int i = 0; i < numChunks; i++) {
+	            if (manifest.isDone(i, chunkFiles[i]))
+	                progress.addSkipped(chunkStart[i + 1] - chunkStart[i]);
+	            else
+	                pendingChunks.add(i);
+	        }
+	        System.out.printf("Computing gravity in process at %d points in %d chunks using %d threads\n", numPoints,
+	                pendingChunks.size(), threads);
+	        if (pendingChunks.isEmpty())
+	            return new GravityResults(chunkFiles, chunkStart, getModelHash(), manifest);
+
+	        Gravity engine = getGravityEngine(gravConstant);
+	        if (Double.isNaN(model.secondsPerPoint))
+	            model.secondsPerPoint = calibrate(engine, numPoints);
+	        // the engine is shared by the runs of a batch, so only report the error of the points of this run
+	        if (engine instanceof GravityWernerSoA)
+	            ((GravityWernerSoA) engine).resetMaxApproximationError();
+	        double secondsPerPoint = model.secondsPerPoint;
+	        double predicted = 0;
+	        for (int i : pendingChunks) {
+	            GravityChunkPlanner planner = new GravityChunkPlanner(chunkStart[i + 1] - chunkStart[i], threads,
+	                    secondsPerPoint, 0);
+	            predicted += planner.predictWallTime(planner.plan(IN_PROCESS_TASKS_PER_THREAD, IN_PROCESS_MIN_TASK_SECONDS));
+	        }
+	        System.out.printf("Predicted time to compute gravity: %.1f s\n", predicted);
+
+	        double[] chunkPoints = new double[3 * Math.min(numPoints, IN_PROCESS_CHUNK_SIZE)];
+	        double[] acc = new double[chunkPoints.length];
+	        double[] potential = new double[chunkPoints.length / 3];
+	        long startTime = System.nanoTime();
+	        ParallelExecutor executor = model.getExecutor(threads);
+	        for (int i : pendingChunks) {
+	            int startId = (int) chunkStart[i];
+	            int stopId = (int) chunkStart[i + 1];
+	            getEvaluationPoints(startId, stopId, chunkPoints);
+	            int grain = (int) new GravityChunkPlanner(stopId - startId, threads, secondsPerPoint, 0)
+	                    .getPointsPerTask(IN_PROCESS_TASKS_PER_THREAD, IN_PROCESS_MIN_TASK_SECONDS);
+
+	            executor.forEach(stopId - startId, grain, cancelled, (start, stop) -> {
+	                engine.getGravityWithUnits(chunkPoints, start, stop, acc, potential);
+	                progress.add(stop - start);
+	            });
+
+	            long crc = GravityChunkFile.write(chunkFiles[i], startId, getModelHash(), acc, potential,
+	                    stopId - startId);
+	            manifest.setDone(i, crc);
+	        }
+	        progress.finish();
+	        System.out.println(GravityChunkPlanner.report(predicted, (System.nanoTime() - startTime) * 1e-9));
+	        if (approximationTolerance > 0.0 && engine instanceof GravityWernerSoA)
+	            System.out.println("Maximum estimated relative error of approximation: "
+	                    + ((GravityWernerSoA) engine).getMaxApproximationError());
+
+	        return new GravityResults(chunkFiles, chunkStart, getModelHash(), manifest);
+	    }
+
+	    /**
+	     * Measure the time to evaluate a point with engine on CALIBRATION_SAMPLES points spread over all points of the
+	     * run.
+	     *
+	     * @param numPoints
+	     *            - number of points of the run
+	     * @return time per point in seconds
+	     */
+	    private double calibrate(Gravity engine, long numPoints) {
+	        int numSamples = (int) Math.min(numPoints, CALIBRATION_SAMPLES);
+	        double[] samples = new double[3 * numSamples];
+	        double[] point = new double[3];
+	        for (int i = 0; i < numSamples; i++) {
+	            int id = (int) ((2 * i + 1) * numPoints / (2 * numSamples));
+	            getEvaluationPoints(id, id + 1, point);
+	            System.arraycopy(point, 0, samples, 3 * i, 3);
+	        }
+
+	        double secondsPerPoint = numSamples > 0
+	                ? GravityChunkPlanner.calibrate(engine, samples, CALIBRATION_SECONDS) : 0;
+	        long numFacets = globalShapeModelPolyData.GetNumberOfCells();
+	        System.out.printf("Calibration: %.3g s per point, %.3g s per point and facet (%d facets)\n", secondsPerPoint,
+	                secondsPerPoint / Math.max(1, numFacets), numFacets);
+	        return secondsPerPoint;
+	    }
+
+	    /**
+	     * Return the model of the global shape model used to compute gravity in process, set up for the current run. The
+	     * model is built once and shared by all runs against the same global shape model.
+	     */
+	    private Gravity getGravityEngine(double gravConstant) {
+	        Gravity gravityEngine = model.getEngine(gravityType);
+	        gravityEngine.setDensity(density);
+	        gravityEngine.setRotationRate(rotationRate);
+	        gravityEngine.setGravConst(gravConstant);
+	        if (gravityEngine instanceof GravityWernerSoA)
+	            ((GravityWernerSoA) gravityEngine).setApproximationTolerance(approximationTolerance);
+	        return gravityEngine;
+	    }
+
+	    /**
+	     * Store the points with indices [startId, stopId) at which gravity is evaluated in process in points, starting at
+	     * points[0] and stored as x0,y0,z0,x1,...
+	     */
+	    private void getEvaluationPoints(int startId, int stopId, double[] points) {
+	        if (howToEvalute != HowToEvaluate.EVALUATE_AT_CENTERS) {
+	            System.arraycopy(fieldPoints, 3 * startId, points, 0, 3 * (stopId - startId));
+	            return;
+	        }
+
+	        vtkIdList idList = new vtkIdList();
+	        double[] pt1 = new double[3];
+	        double[] pt2 = new double[3];
+	        double[] pt3 = new double[3];
+	        double[] center = new double[3];
+	        for (int i = startId; i < stopId; ++i) {
+	            CellInfo.getCellPoints(globalShapeModelPolyData, i, idList, pt1, pt2, pt3);
+	            MathUtil.triangleCenter(pt1, pt2, pt3, center);
+	            System.arraycopy(center, 0, points, 3 * (i - startId), 3);
+	        }
+	    }
+
+	    /**
+	     * Return the center of each cell of polydata stored as x0,y0,z0,x1,...
+	     */
+	    private static double[] getCellCenters(vtkPolyData polydata) {
+	        int numCells = (int)polydata.GetNumberOfCells();
+	        double[] centers = new double[3 * numCells];
+	        vtkIdList idList = new vtkIdList();
+	        double[] pt1 = new double[3];
+	        double[] pt2 = new double[3];
+	        double[] pt3 = new double[3];
+	        double[] center = new double[3];
+	        for (int i = 0; i < numCells; ++i) {
+	            CellInfo.getCellPoints(polydata, i, idList, pt1, pt2, pt3);
+	            MathUtil.triangleCenter(pt1, pt2, pt3, center);
+	            System.arraycopy(center, 0, centers, 3 * i, 3);
+	        }
+	        return centers;
+	    }
+
+	    /**
+	     * Run the gravity executable to calculate gravity values for each plate in the plate model or at specific points in
+	     * the fits file. Run in distributed mode if possible then convert all results files to binary chunk files.
+	     * <p>
+	     * The jobs are sized from the typical cost of the executable per facet of the shape model
+	     * (EXECUTABLE_SECONDS_PER_POINT_AND_FACET and EXECUTABLE_LOAD_SECONDS_PER_FACET), not from a measurement: the
+	     * Java gravity model is not built on this path, and a slower or faster executable only changes the number of
+	     * jobs, not the results.
+	     */
+	    private GravityResults runGravityExecutable(boolean keepGfiles, GridType gridType, double gravConstant,
+	            ProgressStatusListener listener) throws InterruptedException, IOException {
+
 	        ArrayList<String> commandList = new ArrayList<String>();
 //	        System.out.println("SBMTDistributedGravity: getGravityAtLocations: get gravity at location");
 	        boolean useExternalBody = externalBody.length() > 0;
@@ -732,42 +1608,38 @@ public class SBMTDistributedGravity implements ALTWGTool {
 
 	        String outfilename = new File(outfile).getName();
 
-	        // dynamically scale the number of cores used so that chunk size is no less than 1000 records. Smaller chunk
-	        // sizes
-	        // would not see an improvement in speed and chunk sizes < 1 would result in a core dump.
-
 	        // coresToUse exists only in this method and can be dynamically sized.
 	        int coresToUse = numCores;
 	        if (batchType.equals(gridBatchType)) {
 //	            System.out.println("Determining job allocation for grid engine");
 	            coresToUse = 100;
 	        }
+	        // the jobs are run as processes on this machine, at most one per processor
+	        coresToUse = Math.max(1, Math.min(coresToUse, Runtime.getRuntime().availableProcessors()));
 
-	        long chunk = size / coresToUse;
-	        boolean changedCores = false;
+	        // Size the jobs from the typical time the executable takes to evaluate a point and to start and load the
+	        // shape model, both proportional to the number of facets. There are several jobs per core, which are handed
+	        // out as cores become free, so a slow job does not hold up the run.
+	        long numFacets = Math.max(1, globalShapeModelPolyData.GetNumberOfCells());
+	        double secondsPerPoint = EXECUTABLE_SECONDS_PER_POINT_AND_FACET * numFacets;
+	        double taskOverhead = EXECUTABLE_START_SECONDS + EXECUTABLE_LOAD_SECONDS_PER_FACET * numFacets;
+	        GravityChunkPlanner planner = new GravityChunkPlanner(size, coresToUse, secondsPerPoint, taskOverhead);
 
-	        // initial tests show that chunksize of 10k yields optimum speed
-	        if (chunk < 10000L) {
-	            // determine new coresToUse
-	            long tempCores = size / 10000L;
-	            int newCores = (int) Math.floor(tempCores);
-	            if (newCores < 1) {
-	                newCores = 1;
-	            }
-	            // only use newCores if it is less than coresToUse
-	            // do NOT want to adjust upwards.
-	            if (newCores < coresToUse) {
-	                coresToUse = newCores;
-	                changedCores = true;
-	            }
-	        }
-	        chunk = size / coresToUse;
-	        if (changedCores) {
-	            System.out.printf("changed coresToUse to %d to get chunksize of %d\n", coresToUse, chunk);
+	        // a resumed run must use the jobs of the interrupted run
+	        long[] chunkStart = GravityRunManifest.readChunkStart(getManifestFile(), getRunKey(gravConstant));
+	        if (chunkStart == null || chunkStart[chunkStart.length - 1] != size) {
+	            chunkStart = planner.plan(EXECUTABLE_TASKS_PER_CORE, EXECUTABLE_MIN_TASK_OVERHEADS * taskOverhead);
 	        }
+	        int numChunks = chunkStart.length - 1;
+	        System.out.printf("Split %d points into %d jobs of about %d points to run on %d cores\n", size, numChunks,
+	                size / numChunks, coresToUse);
+
+	        File[] chunkFiles = new File[numChunks];
+	        GravityRunManifest manifest = openManifest(chunkStart, gravConstant);
 
 	        // create the list of commands which we will submit to the batch queuing system
-	        URI gravityExe;
+	        URI gravityExe = model.gravityExe;
+	        if (gravityExe == null) {
 	        try
             {
 	        	URI jarURI = getJarURI();
@@ -788,14 +1660,27 @@ public class SBMTDistributedGravity implements ALTWGTool {
                 // TODO Auto-generated catch block
 //                e.printStackTrace();
             }
+	        // extract the executable only once per batch
+	        model.gravityExe = gravityExe;
+	        }
 //	        System.out.println(
 //                    "SBMTDistributedGravity: getGravityAtLocations: gravityExe " + gravityExe);
 //	        System.out.println(
 //                    "SBMTDistributedGravity: getGravityAtLocations: output folder " + outputFolder);
 	        long stopId = 0;
-	        for (int i = 0; i < coresToUse; i++) {
-	            final long startId = i * chunk;
-	            stopId = i < coresToUse - 1 ? (i + 1) * chunk : size;
+	        GravityProgress progress = new GravityProgress(size, listener);
+	        List<Integer> pendingChunks = new ArrayList<Integer>();
+	        for (int i = 0; i < numChunks; i++) {
+	            final long startId = chunkStart[i];
+	            stopId = chunkStart[i + 1];
+
+	            // skip chunks completed by a previous run
+	            chunkFiles[i] = getChunkFile(i);
+	            if (manifest.isDone(i, chunkFiles[i])) {
+	                progress.addSkipped(stopId - startId);
+	                continue;
+	            }
+	            pendingChunks.add(i);
 
 	            String command;
 	            if (useExternalBody) {
@@ -816,6 +1701,11 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	            commandList.add(command);
 	        }
 
+	        if (commandList.isEmpty()) {
+	            System.out.println("All " + numChunks + " chunks were computed by a previous run");
+	            return new GravityResults(chunkFiles, chunkStart, getModelHash(), manifest);
+	        }
+
 	        if (batchType.equals(gridBatchType)) {
 	            System.out.println("Sending list of " + commandList.size() + " jobs to grid engine, using type:"
 	                    + gridBatchType.toString());
@@ -824,6 +1714,14 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	        // Submit the batches and wait till they're finished
 //	        BatchSubmitI batchSubmit = BatchSubmitFactory.getBatchSubmit(commandList, batchType, gridType);
 	        SubmitLocalGravityJob batchSubmit = new SubmitLocalGravityJob(commandList, batchType);
+	        long[] jobStart = new long[pendingChunks.size()];
+	        long[] jobEnd = new long[pendingChunks.size()];
+	        for (int j = 0; j < jobStart.length; j++) {
+	            jobStart[j] = chunkStart[pendingChunks.get(j)];
+	            jobEnd[j] = chunkStart[pendingChunks.get(j) + 1];
+	        }
+	        batchSubmit.setProgress(progress, jobStart, jobEnd);
+	        batchSubmit.setCancelled(cancelled);
 
 	        // for LOCAL_PARALLEL_MAKE allow one to specify fewer cores than actually exist.
 	        // batchSubmit initializes with the actual number of cores on the machine, so
@@ -846,15 +1744,27 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	            batchDir = null;
 	        }
 //	        System.out.println("SBMTDistributedGravity: getGravityAtLocations: stopid is " + stopId);
+	        double predicted = planner.predictWallTime(chunkStart, pendingChunks);
+	        System.out.printf("Predicted time to compute gravity: %.1f s\n", predicted);
+	        long startTime = System.nanoTime();
 	        batchSubmit.runBatchSubmitinDir(batchDir, listener, (int)stopId);
+	        System.out.println(GravityChunkPlanner.report(predicted, (System.nanoTime() - startTime) * 1e-9));
 
-	        // Now read in all results
+	        // Now read in all results and record which chunks completed
 //	        System.out.println("Reading in the results");
-	        for (int i = 0; i < coresToUse; i++) {
+	        int numFailed = 0;
+	        for (int i : pendingChunks) {
 	            String basename = new File(objfile).getName();
 	            File accFile = new File(outputFolder + File.separator + basename + "-acceleration.txt" + outfilename + i);
 	            File potFile = new File(outputFolder + File.separator + basename + "-potential.txt" + outfilename + i);
-	            results.addAll(readGravityResults(accFile, potFile));
+	            try {
+	                long crc = convertGravityResults(accFile, potFile, chunkFiles[i], chunkStart[i], chunkStart[i + 1]);
+	                manifest.setDone(i, crc);
+	            } catch (IOException | RuntimeException e) {
+	                System.err.println("Gravity chunk " + i + " failed: " + e.getMessage());
+	                manifest.setFailed(i);
+	                ++numFailed;
+	            }
 
 	            if (!keepGfiles) {
 	                // we don't need these files so delete them
@@ -863,15 +1773,13 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	            }
 	        }
 
-	        if (howToEvalute != HowToEvaluate.EVALUATE_AT_POINTS_IN_FITS_FILE) {
-	            refPotential = getRefPotential(results, minRefPotential);
-//	            System.out.println("Reference Potential = " + refPotential);
-	            // save out reference potential to file so it can be loaded in again
-	            if (saveRefPotential)
-	                FileUtils.writeStringToFile(new File(refPotentialFile), String.valueOf(refPotential));
+	        if (numFailed > 0) {
+	            throw new RuntimeException(numFailed + " of " + numChunks + " gravity chunks failed. Run again with the"
+	                    + " same arguments to compute only the missing chunks; progress is kept in "
+	                    + manifest.getFile());
 	        }
 
-	        return results;
+	        return new GravityResults(chunkFiles, chunkStart, getModelHash(), manifest);
 	    }
 
 
@@ -883,7 +1791,7 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	        return Double.parseDouble(words.get(0));
 	    }
 
-	    private static double getRefPotential(List<GravityValues> results, boolean minRefPotential) {
+	    private double getRefPotential(GravityResults results, boolean minRefPotential) {
 	        int numFaces = (int)globalShapeModelPolyData.GetNumberOfCells();
 //	        System.out.println("SBMTDistributedGravity: getRefPotential: ");
 	        if (minRefPotential) {
@@ -892,8 +1800,7 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	            System.out.println("Using average Potential as gravity reference potential");
 	        }
 	        if (howToEvalute == HowToEvaluate.EVALUATE_AT_CENTERS && results.size() != numFaces) {
-	            System.err.println("Error: Size of array not equal to number of plates");
-	            System.exit(1);
+	            throw new RuntimeException("Error: Size of array not equal to number of plates");
 	        }
 
 	        vtkIdList idList = new vtkIdList();
@@ -906,18 +1813,18 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	        if (minRefPotential) {
 
 	            double minRefPot = Double.NaN;
-	            for (GravityValues thisGrav : results) {
-	                if ((Double.isNaN(minRefPot)) || (minRefPot > thisGrav.potential)) {
-	                    minRefPot = thisGrav.potential;
+	            int numResults = results.size();
+	            for (int i = 0; i < numResults; ++i) {
+	                double potential = results.getPotential(i);
+	                if ((Double.isNaN(minRefPot)) || (minRefPot > potential)) {
+	                    minRefPot = potential;
 	                }
 	            }
 
 	            // stop with error if for some reason this is still NaN
 	            if (Double.isNaN(minRefPot)) {
-	                System.out.println(
+	                throw new RuntimeException(
 	                        "ERROR! Could not find minimum reference potential in DistributedGravity.getRefPotential()!");
-	                System.out.println("STOPPING WITH ERROR!");
-	                System.exit(1);
 	            }
 	            return minRefPot;
 
@@ -927,7 +1834,7 @@ public class SBMTDistributedGravity implements ALTWGTool {
 
 	                double potential = 0.0;
 	                if (howToEvalute == HowToEvaluate.EVALUATE_AT_CENTERS) {
-	                    potential = results.get(i).potential;
+	                    potential = results.getPotential(i);
 	                }
 
 	                double area = MathUtil.triangleArea(pt1, pt2, pt3);
@@ -991,193 +1898,33 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	    }
 
 	    public static void main(String[] args, ProgressStatusListener listener) throws Exception {
+	        new SBMTDistributedGravity(RunConfiguration.fromArguments(args)).run(listener);
+	    }
 
-	        long startTime = System.currentTimeMillis();
-
-	        density = 1.0;
-	        rotationRate = 0.0;
-	        gravityType = GravityAlgorithmType.WERNER;
-	        howToEvalute = HowToEvaluate.EVALUATE_AT_CENTERS;
-	        fieldpointsfile = null;
-	        minRefPotential = false;
-	        refPotential = 0.0;
-	        refPotentialProvided = false;
-	        numCores = 2;
-	        outputFolder = ".";
-	        batchType = BatchType.LOCAL_PARALLEL_MAKE;
-	        inputfitsfile = null;
-	        SigmaFileType sigmaType = SigmaFileType.SPCSIGMA;
-
-	        // default to Sun Open Grid Engine. Currently this is the only supported grid engine.
-	        // re-enable the --gridType argument if support is added for other grid engines.
-	        GridType gridType = GridType.SUNOPENGRID;
-
-	        Arguments arg = new Arguments();
-	        JCommander command = new JCommander(arg);
-
-	        try {
-
-	            // command = new JCommander(arg, args);
-	            command.parse(args);
-	        } catch (ParameterException ex) {
-	            System.out.println(defaultObj.fullDescription());
-	            String mesg = "Error parsing input arguments:" + ex.getMessage();
-	            throw new RuntimeException(mesg);
-	        }
-
-	        if (arg.shortDescription) {
-	            System.out.println(defaultObj.shortDescription());
-	            System.exit(0);
-	        }
-
-	        if ((args.length < 1) || (arg.help)) {
-	            System.out.println(defaultObj.fullDescription());
-	            System.exit(0);
-	        }
-
-	        density = arg.density;
-	        rotationRate = arg.rotationRate;
-	        massUncertainty2 = arg.massUncertainty * arg.massUncertainty;
-	        sigmaScale = arg.sigmaScale;
-
-	        // gravity algorithm
-	        if (arg.cheng) {
-	            gravityType = GravityAlgorithmType.CHENG;
-	        }
-//	        System.out.println("SBMTDistributedGravity: main: arg local fits" + arg.localFitsFname);
-	        if (arg.localFitsFname.length() > 0) {
-	            howToEvalute = HowToEvaluate.EVALUATE_AT_POINTS_IN_FITS_FILE;
-	            inputfitsfile = arg.localFitsFname;
-	        }
-
-	        // set grid batch type.
-	        int numSlotsPerJob = arg.numSlots;
-	        gridBatchType = BatchType.getSlotsType(numSlotsPerJob);
-
-	        // use minimum ref potential
-	        minRefPotential = arg.minRefPotential;
-	        if (minRefPotential) {
-	            System.out.println("Will use minimum reference potential as gravity potential");
-	        } else {
-	            System.out.println("Will use averaged reference potential as gravity potential");
-	        }
-
-	        // define reference potential (required for --fits-local)
-	        if (arg.refPotential.length() > 0) {
-	            // The argument is either a double or a file that contains the
-	            // double as a single value
-	            String str = arg.refPotential;
-	            try {
-	                refPotential = Double.parseDouble(str);
-	            } catch (NumberFormatException e) {
-	                refPotential = getRefPotential(str);
-	            }
-	            refPotentialProvided = true;
-	        }
-
-	        // save reference potential to a file
-	        if (arg.refPotSaveFname.length() > 0) {
-
-	            refPotentialFile = arg.refPotSaveFname;
-	            saveRefPotential = true;
-
-	        }
-
-	        // define output folder path
-	        if (arg.outputFolder.length() > 0) {
-	            outputFolder = arg.outputFolder;
-	        }
-
-	        // default is empty string
-	        externalBody = "";
-
-	        // resolve outputFolder to an absolute path so that it can be resolved if the
-	        // gravity code is passed to a grid engine node.
-	        File resolveFile = new File(outputFolder);
-	        outputFolder = resolveFile.getAbsolutePath();
-
-	        numCores = arg.numJobs;
-
-	        // specify local or grid engine processing
-	        String type = arg.batchType;
-	        boolean throwError = true;
-	        if (type.equals("local")) {
-	            batchType = BatchType.LOCAL_PARALLEL_MAKE;
-	            gridType = GridType.LOCAL;
-	        } else if (type.equals("grid")) {
-	            batchType = gridBatchType;
-	            if (numCores > 1) {
-	                System.out.println("Ignoring --num-jobs specified. Will dynamically determine number of jobs per "
-	                        + "grid node");
-	            }
-	            System.out.println("Number of slots taken per job:" + BatchType.slotPerJob(gridBatchType));
-	            // gridType = GridType.parseType(gridType, throwError);
-	        } else {
-	            System.out.println("Could not parse batchtype from string:" + arg.batchType);
-	            System.out.println("defaulting to 'local'");
-	            batchType = BatchType.LOCAL_PARALLEL_MAKE;
-	            gridType = GridType.LOCAL;
-	        }
-
-	        // check for tilt_radius
-	        tiltRadius = arg.tiltRadius;
-	        if (!Double.isNaN(tiltRadius)) {
-	            System.out.println("Tilt radius set to:" + Double.toString(tiltRadius));
-	            System.out.println("WILL CREATE BASIC TILT AND BASIC TILT DIR PLANES IN OUTPUT FITS.");
-	        } else {
-	            System.out.println("tiltRadius not specified. Will not create tilt planes.");
-	        }
-
-	        // get gravitational constant
-	        double gravConst = arg.gravConst;
-
-	        boolean altwgName = arg.altwgNaming;
-	        boolean keepGfiles = arg.keepGFiles;
-
-	        // There must be numRequiredArgs arguments remaining after the options.
-	        // Otherwise abort.
-	        List<String> filenames = arg.files;
-	        int numberRequiredArgs = 2;
-	        if (filenames.size() != numberRequiredArgs) {
-	            System.out.println(defaultObj.fullDescription());
-	            StringBuilder sb = new StringBuilder();
-	            sb.append("\nERROR: <platemodelfile> and <out-file> are required inputs.\n");
-	            sb.append("Please check your command syntax.\n");
-	            sb.append("List of files parsed from the arguments:\n");
-	            for (String file : filenames) {
-	                sb.append("file:" + file + "\n");
-	            }
-
-	            throw new RuntimeException(sb.toString());
-	        }
-
-	        if (howToEvalute == HowToEvaluate.EVALUATE_AT_POINTS_IN_FITS_FILE && refPotentialProvided == false) {
-	            System.out.println("Error: When evaluating at points in a file, you must provide a value for the\n"
-	                    + "reference potential with the --ref-potential option.");
-	            System.exit(1);
-	        }
-
-	        objfile = filenames.get(0);
-
-	        // resolve objfile to an absolute path so that it can be resolved if the gravity code
-	        // is passed to a grid engine.
-	        resolveFile = new File(objfile);
-
-	        // throw error if objfile does not exist
-	        if (!resolveFile.exists()) {
-	            String errMesg = "ERROR! obj file:" + resolveFile.getAbsolutePath()
-	                    + " does not exist!";
-	            throw new RuntimeException(errMesg);
-	        }
-
-	        objfile = resolveFile.getAbsolutePath();
+	    /**
+	     * Compute the gravity as described by the configuration of this run and save the results.
+	     *
+	     * @param listener
+	     *            - receives the progress of the run, may be null
+	     * @throws Exception
+	     */
+	    public void run(ProgressStatusListener listener) throws Exception {
+	        run(listener, null);
+	    }
 
-	        outfile = filenames.get(1);
+	    /**
+	     * Same as run(ProgressStatusListener), but stops computing gravity, killing any gravity jobs it started, as
+	     * soon as cancelled returns true.
+	     *
+	     * @param cancelled
+	     *            - checked while gravity is computed, may be null
+	     * @throws java.util.concurrent.CancellationException
+	     *             if the run was cancelled
+	     */
+	    public void run(ProgressStatusListener listener, BooleanSupplier cancelled) throws Exception {
+	        this.cancelled = cancelled;
 
-	        // resolve outfile to an absolute path so that it can be resolved if the gravity code
-	        // is passed to a grid engine.
-	        resolveFile = new File(outfile);
-	        outfile = resolveFile.getAbsolutePath();
+	        long startTime = System.currentTimeMillis();
 
 	        System.out.println(StringUtil.timenow() + ":starting DistributedGravity");
 
@@ -1187,10 +1934,10 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	        System.out.println("SBMTDistributedGravity: main: getting global model ");
 	        globalShapeModelPolyData = getGlobalModel(objfile);
 	        if (howToEvalute == HowToEvaluate.EVALUATE_AT_CENTERS) {
-	            if (arg.sigmaFile.length() > 0) {
+	            if (config.sigmaFile.length() > 0) {
 	                // csv file
 //	                String delimiter = ",";
-	                List<float[]> sigmasRead = altwg.util.PolyDataUtil2.readSigmaFile(new File(arg.sigmaFile), sigmaType);
+	                List<float[]> sigmasRead = altwg.util.PolyDataUtil2.readSigmaFile(new File(config.sigmaFile), config.sigmaType);
 
 	                // sigmas are stored in 3rd column.
 	                int sigmaColumn = 3;
@@ -1205,20 +1952,35 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	            }
 	        }
 
-	        List<GravityValues> gravAtLocations = null;
-	        System.out.println("SBMTDistributedGravity: main: getting gravity at location");
-	        if (howToEvalute == HowToEvaluate.EVALUATE_AT_CENTERS) {
-	            gravAtLocations = getGravityAtLocations(keepGfiles, gridType, gravConst, listener);
-	            saveResultsAtCenters(outfile, globalShapeModelPolyData,
-	            		altwg.util.PolyDataUtil2.getSigmasFromPolydata(globalShapeModelPolyData), gravAtLocations);
-	        } else if (howToEvalute == HowToEvaluate.EVALUATE_AT_POINTS_IN_FITS_FILE) {
-	            if (!new File(inputfitsfile).exists()) {
-	                System.out.println("Error: " + inputfitsfile + " does not exist.");
-	                System.exit(1);
-	            }
-	            System.out.println("SBMTDistributedGravity: main: running gravity for local fits");
-	            gravityForLocalFits(inputfitsfile, arg.configFile, gravConst, gridType, keepGfiles, altwgName, listener);
+	        GridType gridType = config.gridType;
+	        double gravConst = config.gravConst;
+	        boolean keepGfiles = config.keepGfiles;
 
+	        model = new GlobalModel(globalShapeModelPolyData);
+	        try {
+	            GravityResults gravAtLocations = null;
+	            System.out.println("SBMTDistributedGravity: main: getting gravity at location");
+	            if (howToEvalute == HowToEvaluate.EVALUATE_AT_CENTERS) {
+	                gravAtLocations = getGravityAtLocations(keepGfiles, gridType, gravConst, listener);
+	                saveResultsAtCenters(outfile, globalShapeModelPolyData,
+	                		altwg.util.PolyDataUtil2.getSigmasFromPolydata(globalShapeModelPolyData), gravAtLocations);
+	                if (!keepGfiles)
+	                    gravAtLocations.delete();
+	            } else if (!config.batchInputs.isEmpty()) {
+	                System.out.println("SBMTDistributedGravity: main: running gravity for " + config.batchInputs.size()
+	                        + " local fits");
+	                gravityForLocalFitsBatch(gravConst, gridType, keepGfiles, listener);
+	            } else if (howToEvalute == HowToEvaluate.EVALUATE_AT_POINTS_IN_FITS_FILE) {
+	                if (!new File(inputfitsfile).exists()) {
+	                    throw new RuntimeException("Error: " + inputfitsfile + " does not exist.");
+	                }
+	                System.out.println("SBMTDistributedGravity: main: running gravity for local fits");
+	                gravityForLocalFits(inputfitsfile, config.configFile, gravConst, gridType, keepGfiles, config.altwgName,
+	                        listener);
+
+	            }
+	        } finally {
+	            model.shutdown();
 	        }
 
 	        long stopTime = System.currentTimeMillis();
@@ -1252,10 +2014,121 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	        return globalShapeModelPolyData;
 	    }
 
-	    private static void gravityForLocalFits(String inputfitsfile, String configFile, double gravConst,
+	    private void gravityForLocalFits(String inputfitsfile, String configFile, double gravConst,
 	            GridType gridType,
 	            boolean keepGfiles, boolean altwgName, ProgressStatusListener listener) throws Exception {
 //	    	System.out.println("SBMTDistributedGravity: gravityForLocalFits: ");
+	        LocalFitsGravity gravity = computeLocalFitsGravity(inputfitsfile, configFile, gravConst, gridType, keepGfiles,
+	                listener);
+	        writeLocalFits(gravity, inputfitsfile, configFile, keepGfiles, altwgName, listener);
+	    }
+
+	    /**
+	     * Gravity at the facet centers of a local fits file, waiting to be regridded to its points.
+	     */
+	    private static final class LocalFitsGravity {
+	        private final vtkPolyData fitspolydata;
+	        private final GravityResults gravAtLocations;
+
+	        LocalFitsGravity(vtkPolyData fitspolydata, GravityResults gravAtLocations) {
+	            this.fitspolydata = fitspolydata;
+	            this.gravAtLocations = gravAtLocations;
+	        }
+	    }
+
+	    /**
+	     * Compute the gravity for each fits file of the batch against the global shape model loaded by run. Each fits
+	     * file is evaluated by its own run with its own output file, but all runs share the global shape model, its
+	     * gravity model, the gravity executable and the threads. The gravity of one fits file is computed while the
+	     * previous one is regridded and written by a separate thread. A fits file that fails is reported and the others
+	     * are still processed.
+	     *
+	     * @throws RuntimeException
+	     *             if any of the fits files failed
+	     */
+	    private void gravityForLocalFitsBatch(double gravConst, GridType gridType, boolean keepGfiles,
+	            ProgressStatusListener listener) throws Exception {
+	        int numFits = config.batchInputs.size();
+	        List<String> failed = new ArrayList<String>();
+	        ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+	            Thread thread = new Thread(r, "local-fits-writer");
+	            thread.setDaemon(true);
+	            return thread;
+	        });
+	        Future<?> pendingWrite = null;
+	        String pendingFits = null;
+	        try {
+	            for (int i = 0; i < numFits; i++) {
+	                String fits = config.batchInputs.get(i);
+	                SBMTDistributedGravity run = new SBMTDistributedGravity(
+	                        config.forLocalFits(fits, config.batchOutputs.get(i)), model);
+	                run.cancelled = cancelled;
+	                ProgressStatusListener fitsListener = getBatchListener(listener, i, numFits);
+	                System.out.println("Local fits " + (i + 1) + " of " + numFits + ": " + fits);
+
+	                LocalFitsGravity gravity;
+	                try {
+	                    gravity = run.computeLocalFitsGravity(fits, config.configFile, gravConst, gridType, keepGfiles,
+	                            fitsListener);
+	                } catch (CancellationException e) {
+	                    throw e;
+	                } catch (Exception e) {
+	                    System.err.println("Computing gravity for " + fits + " failed: " + e.getMessage());
+	                    failed.add(fits);
+	                    continue;
+	                }
+
+	                // at most one fits file waits to be written, so finish the previous one first
+	                waitForWrite(pendingWrite, pendingFits, failed);
+	                pendingWrite = writer.submit(() -> {
+	                    run.writeLocalFits(gravity, fits, config.configFile, keepGfiles, config.altwgName, fitsListener);
+	                    return null;
+	                });
+	                pendingFits = fits;
+	            }
+	            waitForWrite(pendingWrite, pendingFits, failed);
+	        } finally {
+	            writer.shutdownNow();
+	        }
+
+	        if (!failed.isEmpty()) {
+	            throw new RuntimeException(failed.size() + " of " + numFits + " local fits files failed: "
+	                    + String.join(", ", failed));
+	        }
+	    }
+
+	    private static void waitForWrite(Future<?> write, String fits, List<String> failed) throws InterruptedException {
+	        if (write == null)
+	            return;
+	        try {
+	            write.get();
+	        } catch (ExecutionException e) {
+	            System.err.println("Writing " + fits + " failed: " + e.getCause());
+	            failed.add(fits);
+	        }
+	    }
+
+	    /**
+	     * @return a listener reporting the progress of fits file i of a batch of numFits to listener, or null if
+	     *         listener is null
+	     */
+	    private static ProgressStatusListener getBatchListener(ProgressStatusListener listener, int i, int numFits) {
+	        if (listener == null)
+	            return null;
+	        return new ProgressStatusListener() {
+	            @Override
+	            public void setProgressStatus(String status, int progress) {
+	                listener.setProgressStatus("Local fits " + (i + 1) + " of " + numFits + ": " + status,
+	                        (int) ((100L * i + progress) / numFits));
+	            }
+	        };
+	    }
+
+	    /**
+	     * Compute the gravity at the facet centers of a local fits file and save it to <out-file>.gravtab.
+	     */
+	    private LocalFitsGravity computeLocalFitsGravity(String inputfitsfile, String configFile, double gravConst,
+	            GridType gridType, boolean keepGfiles, ProgressStatusListener listener) throws Exception {
 	        if (configFile.length() > 0) {
 	            // check to see that config file exists.
 	            if (!new File(configFile).exists()) {
@@ -1267,8 +2140,7 @@ public class SBMTDistributedGravity implements ALTWGTool {
 //	        System.out.println("Loading fits file to vtkpolydata");
 
 	        if (!new File(inputfitsfile).exists()) {
-	            System.out.println("Error: " + inputfitsfile + " does not exist.");
-	            System.exit(1);
+	            throw new RuntimeException("Error: " + inputfitsfile + " does not exist.");
 	        }
 
 	        List<vtkFloatArray> ancillaryData = new ArrayList<>();
@@ -1284,26 +2156,37 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	            heightErrors = ancillaryData
 	                    .get(sourcePlanes.indexOf(PlaneInfo.SIGMA) - PlaneInfo.first6HTags.size());
 	        } else {
-	            System.err.printf("FITS file %s must include either a HEIGHT_STDERR plane or a SIGMA plane\n",
-	                    inputfitsfile);
-	            System.exit(0);
+	            throw new RuntimeException(String.format(
+	                    "FITS file %s must include either a HEIGHT_STDERR plane or a SIGMA plane", inputfitsfile));
 	        }
 
 	        // Convert the fits file to ASCII
 //	        System.out.println("converting fits to ascii.");
-	        fieldpointsfile = outfile + ".fits2ascii";
+	        fieldPoints = getCellCenters(fitspolydata);
+	        if (!inProcess) {
+	            fieldpointsfile = outfile + ".fits2ascii";
 
-	        saveLocalFitsCenters(fitspolydata, fieldpointsfile);
+	            saveLocalFitsCenters(fieldPoints, fieldpointsfile);
+	        }
 
-	        List<GravityValues> gravAtLocations = null;
+	        GravityResults gravAtLocations = null;
 
 //	        System.out.println("getting gravity at centers of fits file.");
-	        results.clear();
 	        gravAtLocations = getGravityAtLocations(keepGfiles, gridType, gravConst, listener);
-	        results.addAll(gravAtLocations);
 //	        System.out.println("Saving gravity at centers of fits file");
 	        String tableFile = outfile + ".gravtab";
 	        saveResultsAtCenters(tableFile, fitspolydata, heightErrors, gravAtLocations);
+	        return new LocalFitsGravity(fitspolydata, gravAtLocations);
+	    }
+
+	    /**
+	     * Regrid the gravity computed by computeLocalFitsGravity to the points of the local fits file and write it with
+	     * the planes of the fits file to <out-file>.
+	     */
+	    private void writeLocalFits(LocalFitsGravity gravity, String inputfitsfile, String configFile, boolean keepGfiles,
+	            boolean altwgName, ProgressStatusListener listener) throws Exception {
+	        vtkPolyData fitspolydata = gravity.fitspolydata;
+	        GravityResults gravAtLocations = gravity.gravAtLocations;
 
 //	        System.out.println("Regridding to go to fits points.");
 
@@ -1316,6 +2199,8 @@ public class SBMTDistributedGravity implements ALTWGTool {
 
 	        double[][][] regriddedGravity = regridToLocalFitsPoints(inputfitsfile, indata, nX, nY,
 	                fitspolydata, gravAtLocations, listener);
+	        if (!keepGfiles)
+	            gravAtLocations.delete();
 
 //	        System.out.println(
 //                    "SBMTDistributedGravity: gravityForLocalFits: done with regridding");
@@ -1443,7 +2328,7 @@ public class SBMTDistributedGravity implements ALTWGTool {
 
 	    }
 
-	    private static void saveToFits(boolean isGlobal, String configFile, boolean altwgName, double[][][] outData,
+	    private void saveToFits(boolean isGlobal, String configFile, boolean altwgName, double[][][] outData,
 	            String inputfitsfile, String outfile) throws FitsException, IOException {
 //	    	System.out.println("SBMTDistributedGravity: saveToFits: ");
 	        // construct fitsData. Will contain data array plus information pertaining to data array
@@ -1519,9 +2404,9 @@ public class SBMTDistributedGravity implements ALTWGTool {
 
 	    // regrid the gravity values from facet centers to vertices. Points in the output fits file
 	    // are at the vertices.
-	    private static double[][][] regridToLocalFitsPoints(String inputfitsfile, double[][][] indata,
+	    private double[][][] regridToLocalFitsPoints(String inputfitsfile, double[][][] indata,
 	            int nX, int nY, vtkPolyData fitspolydata,
-	            List<GravityValues> gravAtLocations, ProgressStatusListener listener) throws Exception {
+	            GravityResults gravAtLocations, ProgressStatusListener listener) throws Exception {
 //	    	System.out.println("SBMTDistributedGravity: regridToLocalFitsPoints: ");
 	        // load fits header from input fits file to get rotation and translation information, as
 	        // well as gsd scaling.
@@ -1591,85 +2476,61 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	        int planesToAdd = 3 + regridInds.size();
 	        double[][][] gravRegridded = new double[planesToAdd][nX][nY];
 
-	        // loop through all the gravity indices to regrid
-	        int outIndex = 0;
-	        for (GridIndex thisIndex : regridInds) {
-	        	listener.setProgressStatus("Regridding Index " + thisIndex.index() + " of " + (regridInds.size()+2), 99);
-//	            System.out.println("working on index:" + thisIndex.index());
-	            gmtUtil.setField(centerArr[thisIndex.index()]);
-
-	            // regridded array always consists of 7 planes: lat, lon, radius, x, y, z, field value.
-	            double[][][] regridded = gmtUtil.regridField();
-
-	            // copy x,y,z from regridded array to output array by columns
-	            if (outIndex == 0) {
-	                for (int kk = 0; kk < nX; kk++) {
-	                    System.arraycopy(regridded[3][kk], 0, gravRegridded[0][kk], 0, nY);
-	                    System.arraycopy(regridded[4][kk], 0, gravRegridded[1][kk], 0, nY);
-	                    System.arraycopy(regridded[5][kk], 0, gravRegridded[2][kk], 0, nY);
-	                }
-	                outIndex = outIndex + 3;
-	            }
+	        // regrid all the gravity indices in one pass, they share the facet centers
+	        double[][] fields = new double[regridInds.size()][];
+	        int numFields = 0;
+	        for (GridIndex thisIndex : regridInds)
+	            fields[numFields++] = centerArr[thisIndex.index()];
+	        if (listener != null)
+	            listener.setProgressStatus("Regridding " + numFields + " planes", 99);
 
-	            // copy from the regridded array of this field to the output array, by columns
-	            for (int kk = 0; kk < nX; kk++) {
-	                System.arraycopy(regridded[6][kk], 0, gravRegridded[outIndex][kk], 0, nY);
-	            }
-	            outIndex++;
+	        // regridded array consists of lat, lon, radius, x, y, z followed by the field values in the order of
+	        // regridInds
+	        double[][][] regridded = gmtUtil.regridFields(fields);
+
+	        // copy x,y,z and the fields from regridded array to output array by columns
+	        for (int outIndex = 0; outIndex < planesToAdd; outIndex++) {
+	            for (int kk = 0; kk < nX; kk++)
+	                System.arraycopy(regridded[3 + outIndex][kk], 0, gravRegridded[outIndex][kk], 0, nY);
 	        }
 //	        System.out.println(
 //                    "SBMTDistributedGravity: regridToLocalFitsPoints: returning " + gravRegridded);
-	        listener.setProgressStatus("Done!", 100);
+	        if (listener != null)
+	            listener.setProgressStatus("Done!", 100);
 	        return gravRegridded;
 	    }
 
 	    /**
-	     * Save fits file centers to fieldpointsfile. Only need to save center x,y,z because we will use GMTGridUtil to
-	     * regrid from centers to points in fits file.
+	     * Save fits file centers to fieldpointsfile for the gravity executable. Only need to save center x,y,z because we
+	     * will use GMTGridUtil to regrid from centers to points in fits file. The centers are written in the shortest form
+	     * that parses back to the same double.
 	     *
-	     * @param fitspolyData
+	     * @param centers
+	     *            cell centers stored as x0,y0,z0,x1,...
 	     * @param fieldpointsfile
 	     * @throws IOException
 	     */
-	    private static void saveLocalFitsCenters(vtkPolyData fitspolyData, String fieldpointsfile) throws IOException {
-//	    	System.out.println("SBMTDistributedGravity: saveLocalFitsCenters: ");
-	        int numCells = (int)fitspolyData.GetNumberOfCells();
-	        vtkIdList cellPointIDS = new vtkIdList();
-
-	        // loop over all the cells and write out center x,y,z, normal x,y,z to ascii file.
-	        boolean failOnNAN = true;
-	        String delimiter = " ";
-
-	        FileWriter os = new FileWriter(fieldpointsfile);
-	        BufferedWriter out = new BufferedWriter(os);
-
-	        for (int ii = 0; ii < numCells; ii++) {
-	            CellInfo ci = CellInfo.getCellInfo(fitspolyData, ii, cellPointIDS);
+	    private static void saveLocalFitsCenters(double[] centers, String fieldpointsfile) throws IOException {
+	        try (BufferedWriter out = new BufferedWriter(new FileWriter(fieldpointsfile))) {
 	            StringBuilder sb = new StringBuilder();
-
-	            // need to check string conversion for each value to see if it is valid. Fail if unable to do string
-	            // conversion.
-	            String testConvert = String.format("%.16e", ci.center[0]);
-	            double checkVal = StringUtil.parseSafeDException(testConvert, failOnNAN);
-	            sb.append(testConvert);
-	            sb.append(delimiter);
-
-	            testConvert = String.format("%.16e", ci.center[1]);
-	            checkVal = StringUtil.parseSafeDException(testConvert, failOnNAN);
-	            sb.append(testConvert);
-	            sb.append(delimiter);
-
-	            testConvert = String.format("%.16e", ci.center[2]);
-	            checkVal = StringUtil.parseSafeDException(testConvert, failOnNAN);
-	            sb.append(testConvert);
-
-	            out.write(sb.toString() + "\n");
+	            for (int i = 0; i < centers.length; i += 3) {
+	                sb.setLength(0);
+	                for (int j = i; j < i + 3; j++) {
+	                    // fail on values the gravity executable cannot use
+	                    if (!Double.isFinite(centers[j]))
+	                        throw new RuntimeException("Error: cell center " + (i / 3) + " of " + fieldpointsfile
+	                                + " is not finite: " + centers[j]);
+	                    if (j > i)
+	                        sb.append(' ');
+	                    sb.append(centers[j]);
+	                }
+	                sb.append('\n');
+	                out.append(sb);
+	            }
 	        }
-
-	        out.close();
 	    }
 
-	    private static SBMTGMTGridUtil setEvalPoints(SBMTGMTGridUtil gmt, double[][][] data, int nX, int nY,
+	    private SBMTGMTGridUtil setEvalPoints(SBMTGMTGridUtil gmt, double[][][] data, int nX, int nY,
 	            List<PlaneInfo> fitsPlanes, ProgressStatusListener listener) {
 //	    	System.out.println("SBMTDistributedGravity: setEvalPoints: ");
 	        int xIndex = fitsPlanes.indexOf(PlaneInfo.X);
@@ -1716,7 +2577,7 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	     * @param fitsPolyData
 	     * @return
 	     */
-	    private static double[][] valuesToRegrid(List<GravityValues> gravAtLocations, vtkPolyData polyData) {
+	    private double[][] valuesToRegrid(GravityResults gravAtLocations, vtkPolyData polyData) {
 //	    	System.out.println("SBMTDistributedGravity: valuesToRegrid: ");
 	        int numCells = (int)polyData.GetNumberOfCells();
 
@@ -1735,9 +2596,12 @@ public class SBMTDistributedGravity implements ALTWGTool {
 
 	        // loop over all facets (cells) and extract center x,y,z + gravity values to 2D array
 	        vtkIdList cellPointIDS = new vtkIdList();
+	        double[] acc = new double[3];
 	        for (int ii = 0; ii < numCells; ii++) {
 
 	            CellInfo ci = CellInfo.getCellInfo(polyData, ii, cellPointIDS);
+	            gravAtLocations.getAcceleration(ii, acc);
+	            double potential = gravAtLocations.getPotential(ii);
 
 	            // get center vector
 	            tableResults[GridIndex.X.index()][ii] = ci.center[0];
@@ -1750,17 +2614,16 @@ public class SBMTDistributedGravity implements ALTWGTool {
 	            tableResults[GridIndex.NZ.index()][ii] = ci.normal[2];
 
 	            // get grav acceleration vector
-	            tableResults[GridIndex.ACCX.index()][ii] = gravAtLocations.get(ii).acc[0];
-	            tableResults[GridIndex.ACCY.index()][ii] = gravAtLocations.get(ii).acc[1];
-	            tableResults[GridIndex.ACCZ.index()][ii] = gravAtLocations.get(ii).acc[2];
+	            tableResults[GridIndex.ACCX.index()][ii] = acc[0];
+	            tableResults[GridIndex.ACCY.index()][ii] = acc[1];
+	            tableResults[GridIndex.ACCZ.index()][ii] = acc[2];
 
-	            double slope = getSlope(gravAtLocations.get(ii).acc, ci.normal);
+	            double slope = getSlope(acc, ci.normal);
 
 	            // get grav magnitude, potential, elevation, slope
-	            tableResults[GridIndex.ACCMAG.index()][ii] = getAccelerationMagnitude(gravAtLocations.get(ii).acc, slope);
-	            tableResults[GridIndex.POT.index()][ii] = gravAtLocations.get(ii).potential;
-	            tableResults[GridIndex.ELE.index()][ii] = getElevation(refPotential, gravAtLocations.get(ii).acc,
-	                    gravAtLocations.get(ii).potential);
+	            tableResults[GridIndex.ACCMAG.index()][ii] = getAccelerationMagnitude(acc, slope);
+	            tableResults[GridIndex.POT.index()][ii] = potential;
+	            tableResults[GridIndex.ELE.index()][ii] = getElevation(refPotential, acc, potential);
 	            tableResults[GridIndex.SLP.index()][ii] = slope;
 
 	            // get area
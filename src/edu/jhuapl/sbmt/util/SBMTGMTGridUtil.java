@@ -1,30 +1,10 @@
 package edu.jhuapl.sbmt.util;
 
-import java.io.BufferedOutputStream;
-import java.io.Closeable;
-import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.security.CodeSource;
-import java.security.ProtectionDomain;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipException;
-import java.util.zip.ZipFile;
 
-import org.apache.commons.lang3.RandomStringUtils;
-import org.apache.commons.math3.analysis.interpolation.PiecewiseBicubicSplineInterpolatingFunction;
-import org.apache.commons.math3.analysis.interpolation.PiecewiseBicubicSplineInterpolator;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
@@ -36,41 +16,42 @@ import vtk.vtkIdList;
 import vtk.vtkPolyData;
 
 import edu.jhuapl.saavtk.util.PolyDataUtil;
+import edu.jhuapl.sbmt.util.gravity.ParallelExecutor;
 
-import altwg.Fits.GriddedFits;
 import altwg.Fits.PlaneInfo;
 import altwg.util.AltwgFits;
 import altwg.util.CellInfo;
-import altwg.util.FileUtil;
 import altwg.util.FitsUtil;
 import altwg.util.GMTGridUtil;
 import altwg.util.NativeLibraryLoader;
-import nom.tam.fits.FitsException;
-import nom.tam.fits.utilities.Main;
-import spice.basic.LatitudinalCoordinates;
 import spice.basic.Matrix33;
 import spice.basic.SpiceException;
 import spice.basic.Vector3;
 
 /**
- * This class takes a 3D field as input, uses GMT to create a uniform grid on a local plane, and then returns the field
- * values at these uniform grid points.
+ * This class takes a 3D field as input, creates a uniform grid on a local plane with a continuous curvature spline as
+ * GMT surface does, and then returns the field values at these uniform grid points.
  *
  * @author nairah1
  *
  */
 public class SBMTGMTGridUtil {
 
-    private List<Vector3> pointsList;
-    private List<Double> field;
+    // number of points transformed per task
+    private static final int TRANSFORM_GRAIN = 16384;
+
+    // coordinates of the input points stored as x0,y0,z0,x1,...
+    private double[] pointsXYZ;
+    private double[] field;
     private Matrix33 rotation;
     private Vector3 translation;
     private int halfSize;
     private int nX, nY;
     private double groundSampleDistance;
     private String additionalGMTArgs;
-    private List<Vector3> globalXYZ;
-    private List<Vector3> evaluateXYZ;
+    // positions of the output points and the evaluation points stored as x0,y0,z0,x1,...
+    private double[] globalXYZ;
+    private double[] evaluateXYZ;
     private boolean evaluateAtCustomPoints;
 
     /**
@@ -116,6 +97,11 @@ public class SBMTGMTGridUtil {
         }
     }
 
+    /**
+     * Set GMTSurface options. Only -T (tension), -N (maximum iterations) and -C (convergence limit) are supported.
+     *
+     * @param args
+     */
     public void setGMTArgs(String args) {
         additionalGMTArgs = args;
     }
@@ -128,15 +114,14 @@ public class SBMTGMTGridUtil {
      * @param z
      */
     public void setXYZ(double[] x, double[] y, double[] z) {
-        pointsList = new ArrayList<>();
-        for (int i = 0; i < x.length; i++) {
-            pointsList.add(new Vector3(x[i], y[i], z[i]));
-        }
+        pointsXYZ = interleave(x, y, z);
 
-        translation = new Vector3();
-        for (Vector3 point : pointsList)
-            translation = translation.add(point);
-        translation = translation.scale(1. / pointsList.size());
+        double[] centroid = new double[3];
+        for (int i = 0; i < pointsXYZ.length; i++)
+            centroid[i % 3] += pointsXYZ[i];
+        for (int j = 0; j < 3; j++)
+            centroid[j] /= x.length;
+        translation = new Vector3(centroid);
 
         try {
             calculateTransformation();
@@ -155,10 +140,7 @@ public class SBMTGMTGridUtil {
      * @param z
      */
     public void setEvaluationXYZ(double[] x, double[] y, double[] z) {
-        evaluateXYZ = new ArrayList<>();
-        for (int i = 0; i < x.length; i++) {
-            evaluateXYZ.add(new Vector3(x[i], y[i], z[i]));
-        }
+        evaluateXYZ = interleave(x, y, z);
         evaluateAtCustomPoints = true;
     }
 
@@ -265,9 +247,7 @@ public class SBMTGMTGridUtil {
      * @param fArray
      */
     public void setField(double[] fArray) {
-        field = new ArrayList<>();
-        for (double f : fArray)
-            field.add(f);
+        field = fArray.clone();
     }
 
     /**
@@ -275,139 +255,78 @@ public class SBMTGMTGridUtil {
      * height above the plane (Z coordinate) is stored as the field to interpolate.
      */
     public void setFieldToHeight() {
-        List<Vector3> transformed = globalToLocal(pointsList);
-        double[] heights = new double[transformed.size()];
-        for (int i = 0; i < heights.length; i++) {
-            try {
-                heights[i] = transformed.get(i).getElt(2);
-            } catch (SpiceException e) {
-                e.printStackTrace();
-            }
-        }
-        setField(heights);
+        double[] transformed = globalToLocal(pointsXYZ);
+        double[] heights = new double[transformed.length / 3];
+        for (int i = 0; i < heights.length; i++)
+            heights[i] = transformed[3 * i + 2];
+        field = heights;
     }
 
     /**
-     * Field positions from the pointsList are transformed to a local plane coordinate system and regridded with
-     * GMTSurface. These points are then transformed back to the global coordinate system.
+     * Field positions from the pointsList are transformed to a local plane coordinate system and regridded with a
+     * {@link MinimumCurvatureGridder}, on a grid with the extents and spacing GMTSurface used. These points are then
+     * transformed back to the global coordinate system.
      * <p>
-     * GMTSurface is run twice. Once with the field value substituted for z, and one with the transformed x, y, z to
-     * allow transforming back from the local plane to global coordinates.
+     * The field is gridded together with the transformed z, unless evaluation points were given, to allow transforming
+     * back from the local plane to global coordinates.
      *
      * @return a double array of dimensions[7][nX][nY]. First six indices are Lat, Lon, Radius, X, Y, and Z. Last index
      *         is the field value at that position.
-     * @throws SpiceException
-     * @throws IOException
-     * @throws InterruptedException
-     * @throws FitsException
      */
-    public double[][][] regridField() throws SpiceException, IOException, InterruptedException, FitsException {
-
-        File tmpDir = new File(String.format("GMT-%d", System.currentTimeMillis()));
-        if (!tmpDir.exists())
-            tmpDir.mkdirs();
-        tmpDir.deleteOnExit();
-
-        List<Vector3> transformed = globalToLocal(pointsList);
-        double xmin = Double.MAX_VALUE;
-        double xmax = -xmin;
-        double ymin = Double.MAX_VALUE;
-        double ymax = -xmin;
-        for (Vector3 point : transformed) {
-            try {
-                double x = point.getElt(0);
-                double y = point.getElt(1);
-                if (x > xmax)
-                    xmax = x;
-                if (x < xmin)
-                    xmin = x;
-                if (y > ymax)
-                    ymax = y;
-                if (y < ymin)
-                    ymin = y;
-            } catch (SpiceException e) {
-                e.printStackTrace();
-            }
-        }
-
-//        System.out.printf("Data extents %f/%f/%f/%f\n", xmin, xmax, ymin, ymax);
+    public double[][][] regridField() {
+        return regridFields(new double[][] { field });
+    }
 
-        ArrayList<Vector3> inputField = new ArrayList<>();
-        for (int i = 0; i < transformed.size(); i++) {
-            Vector3 point = transformed.get(i);
-            Double value = field.get(i);
-            inputField.add(new Vector3(point.getElt(0), point.getElt(1), value));
+    /**
+     * Same as {@link #regridField()} for several fields at the coordinates supplied to
+     * {@link #setXYZ(double[], double[], double[])}. The transformation to the local plane, the assignment of the
+     * points to the grid and the evaluation points are computed once for all fields, and the fields are gridded and
+     * interpolated in parallel.
+     *
+     * @param fields
+     *            fields[f][i] is the value of field f at point i
+     * @return a double array of dimensions[6 + fields.length][nX][nY]. First six indices are Lat, Lon, Radius, X, Y,
+     *         and Z. Index 6 + f is the value of field f at that position.
+     */
+    public double[][][] regridFields(double[][] fields) {
+
+        double[] transformed = globalToLocal(pointsXYZ);
+        int numPoints = transformed.length / 3;
+        double[] x = new double[numPoints];
+        double[] y = new double[numPoints];
+        double[] height = new double[numPoints];
+        for (int i = 0; i < numPoints; i++) {
+            x[i] = transformed[3 * i];
+            y[i] = transformed[3 * i + 1];
+            height[i] = transformed[3 * i + 2];
         }
 
-        xmax = (evaluateAtCustomPoints ? (halfSize + 1) : halfSize) * groundSampleDistance;
-        xmin = -xmax;
-        ymin = xmin;
-        ymax = xmax;
-
-        // create a random 8 character string
-        String name = RandomStringUtils.randomAlphabetic(8);
-        String inputGMT = new File(tmpDir, name + "_gmt-input.bin").getPath();
-        String outputNetCDF = new File(tmpDir, name + "_surface-output.grd").getAbsolutePath();
-        String outputFITS = new File(tmpDir, name + "_surface-output.fits").getAbsolutePath();
-        writeBinaryGMTInput(inputField, inputGMT);
-
-        URI gmtSurfaceExe;
-        try
-        {
-            gmtSurfaceExe = getFile(getJarURI(), "misc/programs/gravity/macos/GMTSurface");
-//            System.out.println(
-//                    "SBMTGMTGridUtil: regridField: GMTSurface " + gmtSurfaceExe);
-        }
-        catch (URISyntaxException | FileNotFoundException e)
-        {
-            String path = new File("").getAbsolutePath();
-//            System.out.println(
-//                    "SBMTDistributedGravity: getGravityAtLocations: path is " + path);
-            gmtSurfaceExe = getFile(URI.create("file://" + path), "/misc/programs/gravity/macos/GMTSurface");
-            // TODO Auto-generated catch block
-//            e.printStackTrace();
+        // gridline registered grid centered on the origin of the local plane, one node wider on each side when
+        // evaluating at custom points so they can be interpolated up to the edge of the map
+        int gridHalfSize = evaluateAtCustomPoints ? (halfSize + 1) : halfSize;
+        double gridMin = -gridHalfSize * groundSampleDistance;
+        int gridSize = 2 * gridHalfSize + 1;
+        MinimumCurvatureGridder gridder = new MinimumCurvatureGridder(gridMin, gridMin, groundSampleDistance, gridSize,
+                gridSize);
+        applyGMTArgs(gridder);
+        double[] gridX = gridder.getX();
+        double[] gridY = gridder.getY();
+
+        // the height above the plane is gridded with the fields if the positions come from the grid
+        int numFields = fields.length;
+        boolean gridHeight = globalXYZ == null && !evaluateAtCustomPoints;
+        double[][] values = fields;
+        if (gridHeight) {
+            values = Arrays.copyOf(fields, numFields + 1);
+            values[numFields] = height;
         }
+        double[][][] grids = gridder.grid(x, y, values, numPoints);
 
-        String command = String.format(gmtSurfaceExe.getPath() + " %s %12.8f %f/%f/%f/%f %s %s %s", inputGMT, groundSampleDistance,
-                xmin, xmax, ymin, ymax, outputNetCDF, outputFITS, additionalGMTArgs);
-//        System.out.println("GMTGridUtil: regridField: command is " + command);
-        altwg.util.BatchSubmission.runProgramAndWait(command, null, false);
-//        System.out.println("SBMTGMTGridUtil: regridField: outputting " + outputNetCDF + " to " + outputFITS);
-        	GriddedFits.orexNCToFits6(outputNetCDF, outputFITS);
-
-        List<Vector3> surfaceField = new ArrayList<>();
-        PiecewiseBicubicSplineInterpolatingFunction interpolator = readGMTFits(outputFITS, surfaceField);
-//        System.out.println("SBMTGMTGridUtil: regridField: got interpolator");
         if (globalXYZ == null) {
-            if (evaluateAtCustomPoints) {
+            if (evaluateAtCustomPoints)
                 globalXYZ = evaluateXYZ;
-            } else {
-                name = "height";
-                inputGMT = new File(tmpDir, name + "_gmt-input.bin").getPath();
-                outputNetCDF = new File(tmpDir, name + "_surface-output.grd").getPath();
-                outputFITS = new File(tmpDir, name + "_surface-output.fits").getPath();
-                writeBinaryGMTInput(transformed, inputGMT);
-
-                command = String.format("GMTSurface %s %12.8f %f/%f/%f/%f %s %s %s", inputGMT, groundSampleDistance,
-                        xmin, xmax, ymin, ymax, outputNetCDF, outputFITS, additionalGMTArgs);
-                altwg.util.BatchSubmission.runProgramAndWait(command, null, false);
-
-                List<Vector3> surfaceXYZ = new ArrayList<>();
-                readGMTFits(outputFITS, surfaceXYZ);
-
-                globalXYZ = localToGlobal(surfaceXYZ);
-            }
-        }
-//        System.out.println("SBMTGMTGridUtil: regridField: checking evaluate at custom points");
-        if (evaluateAtCustomPoints) {
-            surfaceField = new ArrayList<>();
-            List<Vector3> transformedEvaluationPoints = globalToLocal(evaluateXYZ);
-            for (Vector3 transformedEvaluationPoint : transformedEvaluationPoints) {
-                double x = transformedEvaluationPoint.getElt(0);
-                double y = transformedEvaluationPoint.getElt(1);
-                double z = interpolator.value(x, y);
-                surfaceField.add(new Vector3(x, y, z));
-            }
+            else
+                globalXYZ = localToGlobal(gridToPoints(gridX, gridY, grids[numFields]));
         }
 
         /*-
@@ -417,62 +336,80 @@ public class SBMTGMTGridUtil {
          3 - vertex x
          4 - vertex y
          5 - vertex z
-         6 - interpolated field value at vertex
+         6... - interpolated field values at vertex
          */
-        double[][][] returnArray = new double[7][nX][nY];
-//        System.out.println("SBMTGMTGridUtil: regridField: running through array points");
-        for (int i = 0; i < globalXYZ.size(); i++) {
-            LatitudinalCoordinates lc = new LatitudinalCoordinates(globalXYZ.get(i));
-            int m = i / nX;
-            int n = i % nY;
-
-            returnArray[0][m][n] = Math.toDegrees(lc.getLatitude());
-            returnArray[1][m][n] = Math.toDegrees(lc.getLongitude());
-            if (returnArray[1][m][n] < 0)
-                returnArray[1][m][n] += 360;
-            returnArray[2][m][n] = lc.getRadius();
-            returnArray[3][m][n] = globalXYZ.get(i).getElt(0);
-            returnArray[4][m][n] = globalXYZ.get(i).getElt(1);
-            returnArray[5][m][n] = globalXYZ.get(i).getElt(2);
-            returnArray[6][m][n] = surfaceField.get(i).getElt(2); // Z coordinate is the regridded field
+        double[][][] returnArray = new double[6 + numFields][nX][nY];
+        int numPositions = globalXYZ.length / 3;
+        double[] positions = globalXYZ;
+
+        // the evaluation points are transformed to the local plane and interpolated in the same pass that converts
+        // the positions to latitude and longitude
+        double[] evaluation = evaluateXYZ;
+        int numEvaluationPoints = evaluateAtCustomPoints ? evaluation.length / 3 : 0;
+        PiecewiseBicubicSpline[] splines = new PiecewiseBicubicSpline[evaluateAtCustomPoints ? numFields : 0];
+        for (int f = 0; f < splines.length; f++)
+            splines[f] = new PiecewiseBicubicSpline(gridX, gridY, grids[f]);
+        double[][] r = rotation.toArray();
+        double[] t = translation.toArray();
+
+        // each task fills a range of rows of all planes
+        ParallelExecutor.getShared().forEach(nX, 1, null, (start, stop) -> {
+            for (int m = start; m < stop; m++) {
+                for (int n = 0; n < nY; n++) {
+                    int i = m * nY + n;
+                    if (i >= numPositions)
+                        return;
+                    double px = positions[3 * i];
+                    double py = positions[3 * i + 1];
+                    double pz = positions[3 * i + 2];
+
+                    // same as SPICE reclat
+                    double rxy = Math.hypot(px, py);
+                    double lon = Math.toDegrees(Math.atan2(py, px));
+                    returnArray[0][m][n] = Math.toDegrees(Math.atan2(pz, rxy));
+                    returnArray[1][m][n] = lon < 0 ? lon + 360 : lon;
+                    returnArray[2][m][n] = Math.hypot(rxy, pz);
+                    returnArray[3][m][n] = px;
+                    returnArray[4][m][n] = py;
+                    returnArray[5][m][n] = pz;
+
+                    if (i < numEvaluationPoints) {
+                        double dx = evaluation[3 * i] - t[0];
+                        double dy = evaluation[3 * i + 1] - t[1];
+                        double dz = evaluation[3 * i + 2] - t[2];
+                        double ex = r[0][0] * dx + r[0][1] * dy + r[0][2] * dz;
+                        double ey = r[1][0] * dx + r[1][1] * dy + r[1][2] * dz;
+                        for (int f = 0; f < splines.length; f++)
+                            returnArray[6 + f][m][n] = splines[f].value(ex, ey);
+                    }
+                }
+            }
+        });
+
+        if (!evaluateAtCustomPoints) {
+            // the grid nodes are the surface points
+            for (int f = 0; f < numFields; f++)
+                returnArray[6 + f] = grids[f];
         }
-//        System.out.println("SBMTGMTGridUtil: regridField: returing from regridding field");
         return returnArray;
     }
 
     /**
-     * Finds the points in each bin and returns statistics using the supplied refValue rather than the mean.
+     * Finds the points in each bin and returns statistics using the supplied refValue rather than the mean. All
+     * residuals are kept, use {@link #getBinnedStats(double[][])} if only their moments are needed.
      *
      * @param refValue
      * @return
-     * @throws SpiceException
      */
-    public HashMap<Pair<Integer, Integer>, DescriptiveStatistics> getStats(double[][] refValue) throws SpiceException {
-        List<Vector3> transformed = globalToLocal(pointsList);
-
-        ArrayList<Vector3> inputField = new ArrayList<>();
-        for (int i = 0; i < transformed.size(); i++) {
-            Vector3 point = transformed.get(i);
-            Double value = field.get(i);
-            inputField.add(new Vector3(point.getElt(0), point.getElt(1), value));
-        }
-
-        double xmin = -halfSize * groundSampleDistance;
-        double ymin = -halfSize * groundSampleDistance;
+    public HashMap<Pair<Integer, Integer>, DescriptiveStatistics> getStats(double[][] refValue) {
+        int[] bins = getBins();
 
         HashMap<Pair<Integer, Integer>, DescriptiveStatistics> binnedPoints = new HashMap<>();
-        for (int i = 0; i < inputField.size(); i++) {
-            Vector3 point = inputField.get(i);
-
-            double x = (point.getElt(0) - xmin) / groundSampleDistance;
-            double y = (point.getElt(1) - ymin) / groundSampleDistance;
-
-            int m = (int) (Math.signum(x) * Math.floor(Math.abs(x)));
-            if (m < 0 || m >= nX)
-                continue;
-            int n = (int) (Math.signum(y) * Math.floor(Math.abs(y)));
-            if (n < 0 || n >= nY)
+        for (int i = 0; i < field.length; i++) {
+            if (bins[i] < 0)
                 continue;
+            int m = bins[i] / nY;
+            int n = bins[i] % nY;
 
             Pair<Integer, Integer> pair = Pair.create(m, n);
             DescriptiveStatistics stats = binnedPoints.get(pair);
@@ -480,25 +417,71 @@ public class SBMTGMTGridUtil {
                 stats = new DescriptiveStatistics();
                 binnedPoints.put(pair, stats);
             }
-            double residual = point.getElt(2) - refValue[m][n];
+            double residual = field[i] - refValue[m][n];
             stats.addValue(residual);
         }
         return binnedPoints;
     }
 
-    public void calculateTransformation() throws SpiceException {
-        int numPts = pointsList.size();
+    /**
+     * Same bins and residuals as {@link #getStats(double[][])}, but only the count, mean and variance of each bin are
+     * accumulated, in parallel.
+     *
+     * @param refValue
+     * @return statistics of the residuals field - refValue in each bin
+     */
+    public BinnedStatistics getBinnedStats(double[][] refValue) {
+        int[] bins = getBins();
+        return BinnedStatistics.compute(nX, nY, field.length, i -> bins[i],
+                i -> field[i] - refValue[bins[i] / nY][bins[i] % nY]);
+    }
 
-        double[][] points = new double[3][numPts];
-        for (int i = 0; i < numPts; i++) {
-            Vector3 translated = pointsList.get(i).sub(translation);
-            for (int j = 0; j < 3; j++)
-                points[j][i] = translated.getElt(j);
-        }
+    /**
+     * @return bin m * nY + n of each point, -1 for points outside the grid
+     */
+    private int[] getBins() {
+        double[] transformed = globalToLocal(pointsXYZ);
 
-        // Follow the same logic as Mapola.fitPlaneToMapola()
+        double xmin = -halfSize * groundSampleDistance;
+        double ymin = -halfSize * groundSampleDistance;
 
-        RealMatrix pointMatrix = new Array2DRowRealMatrix(points, false);
+        int[] bins = new int[field.length];
+        ParallelExecutor.getShared().forEach(bins.length, TRANSFORM_GRAIN, null, (start, stop) -> {
+            for (int i = start; i < stop; i++) {
+                double x = (transformed[3 * i] - xmin) / groundSampleDistance;
+                double y = (transformed[3 * i + 1] - ymin) / groundSampleDistance;
+
+                int m = (int) (Math.signum(x) * Math.floor(Math.abs(x)));
+                int n = (int) (Math.signum(y) * Math.floor(Math.abs(y)));
+                bins[i] = m < 0 || m >= nX || n < 0 || n >= nY ? -1 : m * nY + n;
+            }
+        });
+        return bins;
+    }
+
+    public void calculateTransformation() throws SpiceException {
+        double[] t = translation.toArray();
+
+        // Follow the same logic as Mapola.fitPlaneToMapola(). The left singular vectors of the 3xN matrix of
+        // translated points are the eigenvectors of its 3x3 scatter matrix, which is accumulated without copying the
+        // points.
+        double[][] scatter = new double[3][3];
+        for (int i = 0; i < pointsXYZ.length; i += 3) {
+            double dx = pointsXYZ[i] - t[0];
+            double dy = pointsXYZ[i + 1] - t[1];
+            double dz = pointsXYZ[i + 2] - t[2];
+            scatter[0][0] += dx * dx;
+            scatter[0][1] += dx * dy;
+            scatter[0][2] += dx * dz;
+            scatter[1][1] += dy * dy;
+            scatter[1][2] += dy * dz;
+            scatter[2][2] += dz * dz;
+        }
+        scatter[1][0] = scatter[0][1];
+        scatter[2][0] = scatter[0][2];
+        scatter[2][1] = scatter[1][2];
+
+        RealMatrix pointMatrix = new Array2DRowRealMatrix(scatter, false);
 
         // Now do SVD on this matrix
         SingularValueDecomposition svd = new SingularValueDecomposition(pointMatrix);
@@ -589,53 +572,108 @@ public class SBMTGMTGridUtil {
         return transformed;
     }
 
-    private void writeBinaryGMTInput(Collection<Vector3> points, String filename) {
-        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)))) {
-            for (Vector3 point : points) {
-                for (int i = 0; i < 3; i++)
-                    FileUtil.writeDoubleAndSwap(os, point.getElt(i));
+    /**
+     * Transform points in the local coordinate system to global, see {@link #localToGlobal(List)}
+     *
+     * @param xyz
+     *            points stored as x0,y0,z0,x1,...
+     * @return the transformed points stored the same way
+     */
+    public double[] localToGlobal(double[] xyz) {
+        double[][] r = rotation.toArray();
+        double[] t = translation.toArray();
+        double[] transformed = new double[xyz.length];
+        ParallelExecutor.getShared().forEach(xyz.length / 3, TRANSFORM_GRAIN, null, (start, stop) -> {
+            for (int i = 3 * start; i < 3 * stop; i += 3) {
+                double x = xyz[i], y = xyz[i + 1], z = xyz[i + 2];
+                transformed[i] = r[0][0] * x + r[1][0] * y + r[2][0] * z + t[0];
+                transformed[i + 1] = r[0][1] * x + r[1][1] * y + r[2][1] * z + t[1];
+                transformed[i + 2] = r[0][2] * x + r[1][2] * y + r[2][2] * z + t[2];
+            }
+        });
+        return transformed;
+    }
+
+    /**
+     * Transform points in the global coordinate system to local, see {@link #globalToLocal(List)}
+     *
+     * @param xyz
+     *            points stored as x0,y0,z0,x1,...
+     * @return the transformed points stored the same way
+     */
+    public double[] globalToLocal(double[] xyz) {
+        double[][] r = rotation.toArray();
+        double[] t = translation.toArray();
+        double[] transformed = new double[xyz.length];
+        ParallelExecutor.getShared().forEach(xyz.length / 3, TRANSFORM_GRAIN, null, (start, stop) -> {
+            for (int i = 3 * start; i < 3 * stop; i += 3) {
+                double x = xyz[i] - t[0], y = xyz[i + 1] - t[1], z = xyz[i + 2] - t[2];
+                transformed[i] = r[0][0] * x + r[0][1] * y + r[0][2] * z;
+                transformed[i + 1] = r[1][0] * x + r[1][1] * y + r[1][2] * z;
+                transformed[i + 2] = r[2][0] * x + r[2][1] * y + r[2][2] * z;
             }
+        });
+        return transformed;
+    }
 
-        } catch (IOException | SpiceException e) {
-            e.printStackTrace();
+    private static double[] interleave(double[] x, double[] y, double[] z) {
+        double[] xyz = new double[3 * x.length];
+        for (int i = 0; i < x.length; i++) {
+            xyz[3 * i] = x[i];
+            xyz[3 * i + 1] = y[i];
+            xyz[3 * i + 2] = z[i];
         }
+        return xyz;
     }
 
-    private PiecewiseBicubicSplineInterpolatingFunction readGMTFits(String fitsFile, List<Vector3> points)
-            throws FitsException, IOException {
-        int[] axes = new int[3];
-
-        // load data from fits file
-        double[][][] data = FitsUtil.loadFits(fitsFile, axes);
-
-        // indicies into x,y,z components of position vector of fits file data array
-        int xIndex = 3;
-        int yIndex = 4;
-        int zIndex = 5;
-
-        int numCols = axes[1];
-        int numRows = axes[2];
-
-        double[] x = new double[numCols];
-        double[] y = new double[numRows];
-        double[][] z = new double[numCols][numRows];
-
-        for (int n = 0; n < numCols; ++n) {
-            for (int m = 0; m < numRows; ++m) {
-                if (m == 0)
-                    x[n] = data[xIndex][m][n];
-                if (n == 0)
-                    y[m] = data[yIndex][m][n];
-                z[n][m] = data[zIndex][m][n];
-                Vector3 thisPoint = new Vector3(x[n], y[m], z[n][m]);
-                points.add(thisPoint);
-
-                // System.out.printf("%d %d %s\n", m, n, thisPoint);
+    /**
+     * @return the grid nodes as x0,y0,value0,x1,... in the order GMTSurface output was read, x index outer and y index
+     *         inner
+     */
+    private static double[] gridToPoints(double[] gridX, double[] gridY, double[][] values) {
+        double[] points = new double[3 * gridX.length * gridY.length];
+        int i = 0;
+        for (int n = 0; n < gridX.length; ++n) {
+            for (int m = 0; m < gridY.length; ++m) {
+                points[i++] = gridX[n];
+                points[i++] = gridY[m];
+                points[i++] = values[n][m];
             }
         }
+        return points;
+    }
 
-        PiecewiseBicubicSplineInterpolator interpolator = new PiecewiseBicubicSplineInterpolator();
-        return interpolator.interpolate(x, y, z);
+    /**
+     * Apply the GMTSurface options set with {@link #setGMTArgs(String)} that the gridder supports: -T tension, -N
+     * maximum iterations and -C convergence limit. Other options are ignored.
+     */
+    private void applyGMTArgs(MinimumCurvatureGridder gridder) {
+        for (String arg : additionalGMTArgs.trim().split("\\s+")) {
+            if (arg.length() < 3 || arg.charAt(0) != '-')
+                continue;
+            String value = arg.substring(2);
+            try {
+                switch (arg.charAt(1)) {
+                case 'T':
+                    // -Ti and -Tb set the interior and boundary tension, the gridder uses one for both
+                    gridder.setTension(Double.parseDouble(value.replaceFirst("^[ib]", "")));
+                    break;
+                case 'N':
+                    gridder.setMaxIterations(Integer.parseInt(value));
+                    break;
+                case 'C':
+                    if (value.endsWith("%"))
+                        gridder.setConvergenceLimit(Double.parseDouble(value.substring(0, value.length() - 1)) / 100);
+                    else
+                        gridder.setAbsoluteConvergenceLimit(Double.parseDouble(value));
+                    break;
+                default:
+                    System.err.println("SBMTGMTGridUtil: ignoring unsupported GMT argument " + arg);
+                }
+            } catch (IllegalArgumentException e) {
+                System.err.println("SBMTGMTGridUtil: ignoring GMT argument " + arg + ": " + e.getMessage());
+            }
+        }
     }
 
     public static void main(String[] args) throws Exception {
@@ -700,113 +738,4 @@ public class SBMTGMTGridUtil {
             }
         }
     }
-
-    private static URI getJarURI()
-            throws URISyntaxException
-        {
-            final ProtectionDomain domain;
-            final CodeSource       source;
-            final URL              url;
-            final URI              uri;
-
-            domain = Main.class.getProtectionDomain();
-            source = domain.getCodeSource();
-            url    = source.getLocation();
-            uri    = url.toURI();
-            return (uri);
-        }
-
-        private static URI getFile(final URI    where,
-                                   final String fileName)
-            throws ZipException,
-                   IOException
-        {
-            final File location;
-            final URI  fileURI;
-
-            location = new File(where);
-
-            // not in a JAR, just return the path on disk
-            if(location.isDirectory())
-            {
-                fileURI = URI.create(where.toString() + fileName);
-            }
-            else
-            {
-                final ZipFile zipFile;
-
-                zipFile = new ZipFile(location);
-
-                try
-                {
-                    fileURI = extract(zipFile, fileName);
-                }
-                finally
-                {
-                    zipFile.close();
-                }
-            }
-
-            return (fileURI);
-        }
-
-        private static URI extract(final ZipFile zipFile,
-                                   final String  fileName)
-            throws IOException
-        {
-            final File         tempFile;
-            final ZipEntry     entry;
-            final InputStream  zipStream;
-            OutputStream       fileStream;
-
-            tempFile = File.createTempFile(fileName, Long.toString(System.currentTimeMillis()));
-            tempFile.deleteOnExit();
-            entry    = zipFile.getEntry(fileName);
-
-            if(entry == null)
-            {
-                throw new FileNotFoundException("cannot find file: " + fileName + " in archive: " + zipFile.getName());
-            }
-
-            zipStream  = zipFile.getInputStream(entry);
-            fileStream = null;
-
-            try
-            {
-                final byte[] buf;
-                int          i;
-
-                fileStream = new FileOutputStream(tempFile);
-                buf        = new byte[1024];
-                i          = 0;
-
-                while((i = zipStream.read(buf)) != -1)
-                {
-                    fileStream.write(buf, 0, i);
-                }
-            }
-            finally
-            {
-                close(zipStream);
-                close(fileStream);
-            }
-
-            return (tempFile.toURI());
-        }
-
-        private static void close(final Closeable stream)
-        {
-            if(stream != null)
-            {
-                try
-                {
-                    stream.close();
-                }
-                catch(final IOException ex)
-                {
-                    ex.printStackTrace();
-                }
-            }
-        }
-
 }
@@ -1,15 +1,16 @@
 package edu.jhuapl.sbmt.util;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
 
 import edu.jhuapl.saavtk.util.ProgressStatusListener;
+import edu.jhuapl.sbmt.util.gravity.GravityProgress;
 
 import altwg.util.BatchType;
 import altwg.util.FileUtil;
@@ -30,6 +31,14 @@ public class SubmitLocalGravityJob { //implements BatchSubmitI {
 	private boolean showOutput = true;
 	private String gridQueue = null;
 
+	private GravityProgress progress = null;
+	private long[] jobStart;
+	private int[] jobTask;
+
+	private int maxAttempts = 2;
+	private double timeout = 0;
+	private BooleanSupplier cancelled = null;
+
 
 	public SubmitLocalGravityJob(ArrayList<String> commandList, BatchType batchType) {
 		this.commandList = commandList;
@@ -59,6 +68,43 @@ public class SubmitLocalGravityJob { //implements BatchSubmitI {
 //		System.out.println("limiting number of local cores to:" + cores);
 	}
 
+	/**
+	 * Report the progress of the jobs to progress instead of the listener. Each job reports the index of the point it
+	 * has reached, which is turned into the number of points the job has done and added to the progress of the run.
+	 * Only jobs run by LocalJobExecutor report their progress.
+	 * @param progress progress of the run
+	 * @param jobStart index of the first point of each job in commandList
+	 * @param jobEnd index one past the last point of each job in commandList
+	 */
+	public void setProgress(GravityProgress progress, long[] jobStart, long[] jobEnd) {
+		this.progress = progress;
+		this.jobStart = jobStart.clone();
+		this.jobTask = new int[jobStart.length];
+		for (int i = 0; i < jobStart.length; ++i)
+			jobTask[i] = progress.addTask(jobEnd[i] - jobStart[i]);
+	}
+
+	/**
+	 * @param maxAttempts number of times a failing local job is run before giving up
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * @param seconds time after which a local job is killed (and retried), 0 for no limit
+	 */
+	public void setTimeout(double seconds) {
+		this.timeout = seconds;
+	}
+
+	/**
+	 * @param cancelled checked while local jobs run, they are killed when it returns true. May be null.
+	 */
+	public void setCancelled(BooleanSupplier cancelled) {
+		this.cancelled = cancelled;
+	}
+
 	/**
 	 * Evaluate working directory string. Set to null if empty.
 	 * @param workingDir
@@ -96,23 +142,17 @@ public class SubmitLocalGravityJob { //implements BatchSubmitI {
 		case GRID_ENGINE_3:
 		case GRID_ENGINE_2:
 				System.out.println("Can't submit grid engine batch type in "
-						+ "BatchSubmitLocal class. Defaulting to use local make");
-				return runBatchSubmitProgramLocalMake(commandList, null, maxPoints);
+						+ "BatchSubmitLocal class. Defaulting to run local jobs");
+				return runBatchSubmitProgramLocalJobs(commandList, null, cores, null, maxPoints);
 
 		case GNU_PARALLEL:
 			return runBatchSubmitProgramParallel(commandList);
 
 		case LOCAL_PARALLEL_MAKE:
-			if (workingDir != null) {
-				System.out.println("Cannot run in specified working Dir using " + batchType.toString());
-			}
-			return runBatchSubmitProgramLocalMake(commandList, listener, maxPoints);
+			return runBatchSubmitProgramLocalJobs(commandList, workingDir, cores, listener, maxPoints);
 
 		case LOCAL_PARALLEL:
-			if (workingDir != null) {
-				System.out.println("Cannot run in specified working Dir using " + batchType.toString());
-			}
-			return runBatchSubmitProgramLocalMake(commandList, null, maxPoints);
+			return runBatchSubmitProgramLocalJobs(commandList, workingDir, cores, null, maxPoints);
 
 		case LOCAL_SEQUENTIAL:
 			return runBatchSubmitProgramLocalSequential(commandList, workingDir);
@@ -188,6 +228,31 @@ public class SubmitLocalGravityJob { //implements BatchSubmitI {
 		return exitStatus == 0;
 	}
 
+	/**
+	 * Update the progress from a line of output of a job. The gravity executable prints lines like
+	 * "Time to evaluate point ... N ..." with the index N of the point it has reached as fifth field, and
+	 * "Time to evaluate total ..." when it is done. Lines that do not parse are ignored rather than ending the run.
+	 * @param job
+	 * @param line
+	 */
+	private void updateProgress(int job, String line) {
+		if (job < 0 || job >= jobTask.length)
+			return;
+
+		if (line.startsWith("Time to evaluate total")) {
+			progress.setTaskDone(jobTask[job]);
+		} else if (line.startsWith("Time")) {
+			String[] fields = line.trim().split("\\s+");
+			if (fields.length > 4) {
+				try {
+					progress.setTaskProgress(jobTask[job], Long.parseLong(fields[4]) - jobStart[job]);
+				} catch (NumberFormatException e) {
+					// not a progress line
+				}
+			}
+		}
+	}
+
 	/**
 	 * Static method that can also be used when one does not need to specify batchType. It will be run on machine
 	 * that is executing the code. User takes responsibility for errors if the program itself is expecting
@@ -205,27 +270,67 @@ public class SubmitLocalGravityJob { //implements BatchSubmitI {
 		return false;
 	}
 
-	private boolean runBatchSubmitProgramLocalMake(ArrayList<String> commandList, ProgressStatusListener  listener, int maxPoints) throws InterruptedException,
-	IOException {
-		// Create a Makefile and run the tasks in parallel with the -j option
-		File temp = File.createTempFile("altwg-batch-list", ".tmp", null);
-
-		FileWriter ofs = new FileWriter(temp);
-		BufferedWriter out = new BufferedWriter(ofs);
-		out.write("all : ");
-		for (int i = 0; i < commandList.size(); ++i)
-			out.write("job" + i + " ");
-		out.write("\n");
-		for (int i = 0; i < commandList.size(); ++i) {
-			out.write("job" + i + " :\n");
-			out.write("\t" + commandList.get(i));
-			out.write("\n");
+	/**
+	 * Run the commands as local processes with LocalJobExecutor. Failed jobs are retried up to maxAttempts times.
+	 * @param commandList
+	 * @param workingDir directory to run the commands in, the current directory if null
+	 * @param numProcesses maximum number of jobs run at the same time
+	 * @param listener receives the progress if no GravityProgress was set, may be null
+	 * @param maxPoints number of points of the run, used with listener
+	 * @return true if all jobs succeeded
+	 * @throws InterruptedException
+	 */
+	private boolean runBatchSubmitProgramLocalJobs(ArrayList<String> commandList, String workingDir,
+			int numProcesses, ProgressStatusListener listener, int maxPoints) throws InterruptedException {
+		LocalJobExecutor executor = new LocalJobExecutor(numProcesses);
+		executor.setMaxAttempts(maxAttempts);
+		executor.setTimeout(timeout);
+		executor.setCancelled(cancelled);
+
+		LocalJobExecutor.OutputListener outputListener = null;
+		if (progress != null) {
+			outputListener = this::updateProgress;
+		} else if (listener != null) {
+			outputListener = (job, line) -> {
+				if (line.startsWith("Initialization")) {
+					listener.setProgressStatus("Starting Gravity Generation....", 1);
+				} else if (line.startsWith("Time") && !line.startsWith("Time to evaluate total")) {
+					try {
+						int percentage = (int) (Long.parseLong(line.trim().split("\\s+")[4]) * 100 / Math.max(1, maxPoints));
+						listener.setProgressStatus(line, percentage);
+					} catch (RuntimeException e) {
+						// not a progress line
+					}
+				}
+			};
 		}
-		out.close();
 
-		String batchSubmitCommand = "make -k -j " + cores + " -f " + temp.getAbsolutePath() + " all";
+		System.out.println("SubmitLocalGravityJob: running " + commandList.size() + " jobs on " + numProcesses + " cores");
+		long start = System.nanoTime();
+		List<LocalJobExecutor.JobResult> results = executor.run(commandList,
+				workingDir != null ? new File(workingDir) : null, outputListener);
+
+		int numFailed = 0;
+		double slowest = 0;
+		for (LocalJobExecutor.JobResult result : results) {
+			slowest = Math.max(slowest, result.getSeconds());
+			if (result.isSuccessful()) {
+				if (progress != null)
+					progress.setTaskDone(jobTask[result.getJob()]);
+				continue;
+			}
+			++numFailed;
+			System.out.println("Job " + result.getJob() + " failed after " + result.getAttempts() + " attempts: "
+					+ result.getCommand());
+			for (String line : result.getOutputTail())
+				System.out.println("    " + line);
+		}
+		if (progress != null)
+			progress.finish();
+		System.out.printf("Ran %d jobs in %.1f s, the slowest took %.1f s; %d failed\n", results.size(),
+				(System.nanoTime() - start) * 1e-9, slowest, numFailed);
 
-		return runProgramAndWait(batchSubmitCommand, listener, maxPoints);
+		return numFailed == 0;
 	}
 
 	private boolean runBatchSubmitProgramParallel(ArrayList<String> commandList) throws InterruptedException,
@@ -247,19 +352,7 @@ public class SubmitLocalGravityJob { //implements BatchSubmitI {
 		//evaluate workingDir. If empty string then set to null;
 		workingDir = emptyToNull(workingDir);
 
-		boolean successful = true;
-		for (String command : commandList) {
-			if (workingDir != null) {
-				File workingFile = new File(workingDir);
-				if (!runProgramAndWait(command, workingFile, null, 0))
-					successful = false;
-			} else {
-				if (!runProgramAndWait(command, null, 0))
-					successful = false;
-			}
-		}
-
-		return successful;
+		return runBatchSubmitProgramLocalJobs(commandList, workingDir, 1, null, 0);
 	}
 
 }
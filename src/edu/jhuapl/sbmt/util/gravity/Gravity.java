@@ -6,14 +6,18 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.stream.IntStream;
 
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 
 import vtk.vtkAbstractPointLocator;
+import vtk.vtkDataArray;
 import vtk.vtkIdList;
 import vtk.vtkPointLocator;
 import vtk.vtkPolyData;
@@ -25,8 +29,6 @@ import edu.jhuapl.saavtk.util.MathUtil;
 import edu.jhuapl.saavtk.util.Point3D;
 import edu.jhuapl.sbmt.core.body.SmallBodyModel;
 import edu.jhuapl.sbmt.core.util.PolyDataUtil2;
-import edu.jhuapl.sbmt.util.gravity.ParallelGrid.GridFunction;
-import edu.jhuapl.sbmt.util.gravity.ParallelLoop.LoopFunction;
 
 import altwg.util.FitsUtil;
 
@@ -43,6 +45,9 @@ import altwg.util.FitsUtil;
  * and compared with harmonic and mascon gravitation representations of asteroid 4769 Castalia,
  * Celestial Mechanics and Dynamical Astronomy, Vol. 65, pp. 313-344. We recommened the Werner
  * method whenever possible since it is more accurate, though it is slower than the Cheng method.
+ * GravityWernerSoA computes exactly the same values as GravityWerner but stores the plate model
+ * in flat arrays and does not allocate memory per evaluation, so it should be preferred for large
+ * shape models.
  *
  * To use this class, instantiate one of the subclasses, then set options with the various setters.
  * Finally, call runGravity() and this returns an array with gravity results. In addition this function
@@ -71,7 +76,54 @@ abstract public class Gravity {
      */
     abstract protected double getGravity(double[] fieldPoint, double[] acc);
 
-    private static final double G = 6.67384e-11 * 1.0e-9;
+    /**
+     * Compute the acceleration and potential at a block of points. Points k in
+     * [start, end) are read from fieldPoints[3*k ... 3*k+2] and the results are
+     * written to acc[3*k ... 3*k+2] and potential[k], so the same arrays can be
+     * shared by several threads working on different ranges. The default
+     * implementation calls getGravity for each point. Subclasses may override
+     * this with a kernel that evaluates many points at once.
+     *
+     * @param fieldPoints points at which to compute acceleration and potential, stored as x0,y0,z0,x1,...
+     * @param start index of first point to evaluate
+     * @param end one past the index of the last point to evaluate
+     * @param acc acceleration vectors computed by this function, stored like fieldPoints
+     * @param potential potential at each point computed by this function
+     */
+    protected void getGravity(double[] fieldPoints, int start, int end, double[] acc, double[] potential) {
+        double[] pt = new double[3];
+        double[] a = new double[3];
+        for (int k = start; k < end; ++k) {
+            pt[0] = fieldPoints[3 * k];
+            pt[1] = fieldPoints[3 * k + 1];
+            pt[2] = fieldPoints[3 * k + 2];
+            potential[k] = getGravity(pt, a);
+            acc[3 * k] = a[0];
+            acc[3 * k + 1] = a[1];
+            acc[3 * k + 2] = a[2];
+        }
+    }
+
+    public static final double DEFAULT_GRAV_CONST = 6.67384e-11;
+
+    /**
+     * Smallest number of points evaluated by a single task when looping over
+     * the plates or vertices in parallel.
+     */
+    private static final int POINTS_PER_TASK = 64;
+
+    /**
+     * Lists of points (e.g. profiles) with fewer points than this are evaluated
+     * on the calling thread since splitting them costs more than it saves.
+     */
+    private static final int MIN_POINTS_FOR_PARALLEL = 256;
+
+    /**
+     * A point of the polydata of a fits file is the point of a pixel if it is
+     * closer to the pixel than this times the radius of the pixel. The points
+     * may be stored in single precision.
+     */
+    private static final double FITS_POINT_TOLERANCE = 1e-6;
 
     public static enum HowToEvaluate {
         EVALUATE_AT_CENTERS, EVALUATE_AT_VERTICES, EVALUATE_AT_POINTS_IN_TEXT_FILE, EVALUATE_AT_POINTS_IN_FITS_FILE, EVALUATE_AT_POINTS_IN_LIST
@@ -82,6 +134,54 @@ abstract public class Gravity {
         public double potential;
     }
 
+    /**
+     * Gravity values on a grid stored as one plane per quantity, indexed
+     * [row][column]. The planes are allocated once and filled in place by
+     * getGravityAtGrid, so no objects are created per grid cell.
+     */
+    public static class GravityGrid {
+        public final int numRows;
+        public final int numCols;
+        public final double[][] accX;
+        public final double[][] accY;
+        public final double[][] accZ;
+        public final double[][] potential;
+
+        public GravityGrid(int numRows, int numCols) {
+            this.numRows = numRows;
+            this.numCols = numCols;
+            accX = new double[numRows][numCols];
+            accY = new double[numRows][numCols];
+            accZ = new double[numRows][numCols];
+            potential = new double[numRows][numCols];
+        }
+
+        /**
+         * @return read-only view of the grid in row-major order. Each call to
+         *         get creates a new GravityValues.
+         */
+        public List<GravityValues> asList() {
+            return new AbstractList<GravityValues>() {
+                @Override
+                public GravityValues get(int i) {
+                    int m = i / numCols;
+                    int n = i % numCols;
+                    GravityValues values = new GravityValues();
+                    values.acc[0] = accX[m][n];
+                    values.acc[1] = accY[m][n];
+                    values.acc[2] = accZ[m][n];
+                    values.potential = potential[m][n];
+                    return values;
+                }
+
+                @Override
+                public int size() {
+                    return numRows * numCols;
+                }
+            };
+        }
+    }
+
     private static class CellInfo {
         public double[] pt0 = new double[3];
         public double[] pt1 = new double[3];
@@ -107,6 +207,8 @@ abstract public class Gravity {
     private vtkPolyData globalShapeModelPolyData;
     private double density;
     private double rotationRate;
+    // gravitational constant in km^3/(kg s^2)
+    private double G = DEFAULT_GRAV_CONST * 1.0e-9;
     private HowToEvaluate howToEvalute;
     private String fieldpointsfile;
     private double refPotential;
@@ -117,6 +219,8 @@ abstract public class Gravity {
     private boolean localFits = true;
     private List<double[]> pointsToComputeGravity;
     private double[][][] gridToComputeGravity;
+    private ParallelExecutor executor;
+    private volatile boolean cancelled;
 
     public Gravity(vtkPolyData globalShapeModelPolyData) {
         this.globalShapeModelPolyData = globalShapeModelPolyData;
@@ -130,6 +234,14 @@ abstract public class Gravity {
         this.rotationRate = rotationRate;
     }
 
+    /**
+     * Set the gravitational constant in m^3/(kg s^2). Defaults to
+     * DEFAULT_GRAV_CONST.
+     */
+    public void setGravConst(double gravConst) {
+        this.G = gravConst * 1.0e-9;
+    }
+
     public void setHowToEvalute(HowToEvaluate howToEvalute) {
         this.howToEvalute = howToEvalute;
     }
@@ -167,7 +279,40 @@ abstract public class Gravity {
         this.pointsToComputeGravity = pointsToComputeGravity;
     }
 
+    /**
+     * Set the executor used to evaluate the points in parallel. By default the
+     * shared ParallelExecutor is used.
+     */
+    public void setParallelExecutor(ParallelExecutor executor) {
+        this.executor = executor;
+    }
+
+    private ParallelExecutor getParallelExecutor() {
+        return executor != null ? executor : ParallelExecutor.getShared();
+    }
+
+    /**
+     * Cancel the current or next call to runGravity. No new blocks of points
+     * are started and runGravity throws a CancellationException.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
     public List<GravityValues> runGravity() throws Exception {
+        try {
+            return runGravityUncancelled();
+        }
+        finally {
+            cancelled = false;
+        }
+    }
+
+    private List<GravityValues> runGravityUncancelled() throws Exception {
 
         if ((howToEvalute == HowToEvaluate.EVALUATE_AT_POINTS_IN_TEXT_FILE || howToEvalute == HowToEvaluate.EVALUATE_AT_POINTS_IN_FITS_FILE)
                 && refPotentialProvided == false) {
@@ -176,24 +321,8 @@ abstract public class Gravity {
             return null;
         }
 
-        if (howToEvalute == HowToEvaluate.EVALUATE_AT_VERTICES &&
-                globalShapeModelPolyData.GetPointData().GetNormals() == null) {
-            // Add normal vectors if not present
-            vtkPolyDataNormals normalsFilter = new vtkPolyDataNormals();
-            normalsFilter.SetInputData(globalShapeModelPolyData);
-            normalsFilter.SetComputePointNormals(1);
-            // If cell normals are already present, then turn this on
-            normalsFilter.SetComputeCellNormals(globalShapeModelPolyData.GetCellData().GetNormals() == null ? 0 : 1);
-            normalsFilter.SplittingOff();
-            normalsFilter.ConsistencyOn();
-            normalsFilter.AutoOrientNormalsOff();
-            normalsFilter.Update();
-
-            vtkPolyData normalsOutput = normalsFilter.GetOutput();
-            globalShapeModelPolyData.DeepCopy(normalsOutput);
-
-            normalsFilter.Delete();
-        }
+        if (howToEvalute == HowToEvaluate.EVALUATE_AT_VERTICES)
+            addPointNormals(globalShapeModelPolyData);
 
         List<GravityValues> results = null;
 
@@ -213,17 +342,33 @@ abstract public class Gravity {
             saveResultsAtPointsInFile(outfile, results);
         }
         else if (howToEvalute == HowToEvaluate.EVALUATE_AT_POINTS_IN_FITS_FILE) {
-            // Convert the fits file to ASCII
-            fieldpointsfile = outfile + ".ascii";
-            PolyDataUtil2.convertFitsLLRModelToAscii(inputfitsfile, fieldpointsfile, true, localFits);
-            results = getGravityAtLocations();
+            // The planes of the fits file are read once, the first three are the latitude, longitude and radius of the
+            // pixels. The gravity is evaluated at the points of the polydata that are at those pixels, the same points
+            // whose positions and normals are saved. Pixels without a point, e.g. invalid ones, are skipped.
+            int[] axes = new int[3];
+            double[][][] planes = FitsUtil.loadFits(inputfitsfile, axes);
             vtkPolyData fitspolydata = null;
             if (localFits)
                 fitspolydata = PolyDataUtil2.loadLocalFitsLLRModel(inputfitsfile);
             else
                 fitspolydata = PolyDataUtil2.loadGlobalFitsLLRModel(inputfitsfile);
-            saveResultsAtPointsInFitsFile(inputfitsfile, fitspolydata, outfile, results);
-            new File(fieldpointsfile).delete();
+            double[] points = getPoints(fitspolydata);
+            int[][] pointIds = getFitsPointIds(planes, points, points.length / 3);
+            GravityGrid grid = getGravityAtFitsPoints(points, pointIds);
+            results = new ArrayList<GravityValues>();
+            for (int m = 0; m < grid.numRows; ++m) {
+                for (int n = 0; n < grid.numCols; ++n) {
+                    if (pointIds[m][n] < 0)
+                        continue;
+                    GravityValues values = new GravityValues();
+                    values.acc[0] = grid.accX[m][n];
+                    values.acc[1] = grid.accY[m][n];
+                    values.acc[2] = grid.accZ[m][n];
+                    values.potential = grid.potential[m][n];
+                    results.add(values);
+                }
+            }
+            saveResultsAtPointsInFitsFile(fitspolydata, outfile, grid, pointIds);
         }
 
         return results;
@@ -257,7 +402,7 @@ abstract public class Gravity {
             List<Double> potential) throws Exception
    {
         // Run the gravity program
-        Gravity gravityProgram = new GravityWerner(shapeModel);
+        Gravity gravityProgram = new GravityWernerSoA(shapeModel);
         gravityProgram.setDensity(density);
         gravityProgram.setRotationRate(rotationRate);
         gravityProgram.setRefPotential(referencePotential);
@@ -654,68 +799,90 @@ abstract public class Gravity {
         out.close();
     }
 
-    private void saveResultsAtPointsInFitsFile(String inputfitsfile, vtkPolyData fitspolydata, String outputfitsfile,
-            List<GravityValues> results) throws Exception {
-        FileReader ifs = new FileReader(fieldpointsfile);
-        BufferedReader in = new BufferedReader(ifs);
-
-        // Get the dimensions of the input fits file
-        int[] axes = new int[3];
-        FitsUtil.loadFits(inputfitsfile, axes);
-
-        double[][][] outdata = new double[19][axes[1]][axes[2]];
+    /**
+     * Save the gravity evaluated at the points of a fits file. Point pointIds[m][n] of fitspolydata is the point of row
+     * m and column n of the fits file, pixels without a point are left at zero in all planes.
+     */
+    private void saveResultsAtPointsInFitsFile(vtkPolyData fitspolydata, String outputfitsfile, GravityGrid grid,
+            int[][] pointIds) throws Exception {
+        int numRows = grid.numRows;
+        int numCols = grid.numCols;
+        addPointNormals(fitspolydata);
+        vtkDataArray normals = fitspolydata.GetPointData().GetNormals();
+
+        double[][][] outdata = new double[19][numRows][numCols];
         vtkIdList idList = new vtkIdList();
         SmallBodyModel smallBodyModel = new SmallBodyModel(outputfitsfile, fitspolydata);
 
         double[] pt = new double[3];
-        double[] normal = new double[3];
-        String line;
-        int i = 0;
-        while ((line = in.readLine()) != null) {
-            String[] tokens = line.trim().split("\\s+");
-            pt[0] = Double.parseDouble(tokens[0]);
-            pt[1] = Double.parseDouble(tokens[1]);
-            pt[2] = Double.parseDouble(tokens[2]);
-            normal[0] = Double.parseDouble(tokens[3]);
-            normal[1] = Double.parseDouble(tokens[4]);
-            normal[2] = Double.parseDouble(tokens[5]);
-            int m = Integer.parseInt(tokens[6]);
-            int n = Integer.parseInt(tokens[7]);
-            LatLon llr = MathUtil.reclat(pt).toDegrees();
-            outdata[0][m][n] = llr.lat;
-            outdata[1][m][n] = llr.lon;
-            outdata[2][m][n] = llr.rad;
-            outdata[3][m][n] = pt[0];
-            outdata[4][m][n] = pt[1];
-            outdata[5][m][n] = pt[2];
-            outdata[6][m][n] = normal[0];
-            outdata[7][m][n] = normal[1];
-            outdata[8][m][n] = normal[2];
-            outdata[9][m][n] = results.get(i).acc[0];
-            outdata[10][m][n] = results.get(i).acc[1];
-            outdata[11][m][n] = results.get(i).acc[2];
-            double slope = getSlope(results.get(i).acc, normal);
-            double elevation = getElevation(refPotential, results.get(i).acc, results.get(i).potential);
-            double accMag = getAccelerationMagnitude(results.get(i).acc, slope);
-            outdata[12][m][n] = accMag;
-            outdata[13][m][n] = results.get(i).potential;
-            outdata[14][m][n] = elevation;
-            outdata[15][m][n] = slope;
-            double tilt = getTilt(pt, normal);
-            outdata[16][m][n] = tilt;
-            DescriptiveStatistics tiltStats = getTiltStatistics(smallBodyModel.getPointLocator(), fitspolydata, pt,
-                    normal, idList);
-            outdata[17][m][n] = tiltStats.getMean();
-            outdata[18][m][n] = tiltStats.getStandardDeviation();
-            ++i;
+        double[] acc = new double[3];
+        for (int m = 0; m < numRows; ++m) {
+            for (int n = 0; n < numCols; ++n) {
+                int id = pointIds[m][n];
+                if (id < 0)
+                    continue;
+                fitspolydata.GetPoint(id, pt);
+                double[] normal = normals.GetTuple3(id);
+                acc[0] = grid.accX[m][n];
+                acc[1] = grid.accY[m][n];
+                acc[2] = grid.accZ[m][n];
+                double potential = grid.potential[m][n];
+                LatLon llr = MathUtil.reclat(pt).toDegrees();
+                outdata[0][m][n] = llr.lat;
+                outdata[1][m][n] = llr.lon;
+                outdata[2][m][n] = llr.rad;
+                outdata[3][m][n] = pt[0];
+                outdata[4][m][n] = pt[1];
+                outdata[5][m][n] = pt[2];
+                outdata[6][m][n] = normal[0];
+                outdata[7][m][n] = normal[1];
+                outdata[8][m][n] = normal[2];
+                outdata[9][m][n] = acc[0];
+                outdata[10][m][n] = acc[1];
+                outdata[11][m][n] = acc[2];
+                double slope = getSlope(acc, normal);
+                double elevation = getElevation(refPotential, acc, potential);
+                double accMag = getAccelerationMagnitude(acc, slope);
+                outdata[12][m][n] = accMag;
+                outdata[13][m][n] = potential;
+                outdata[14][m][n] = elevation;
+                outdata[15][m][n] = slope;
+                double tilt = getTilt(pt, normal);
+                outdata[16][m][n] = tilt;
+                DescriptiveStatistics tiltStats = getTiltStatistics(smallBodyModel.getPointLocator(), fitspolydata, pt,
+                        normal, idList);
+                outdata[17][m][n] = tiltStats.getMean();
+                outdata[18][m][n] = tiltStats.getStandardDeviation();
+            }
         }
 
-        in.close();
-
         FitsUtil.saveFits(outdata, outfile, null);
     }
 
-    private List<GravityValues> getGravityAtLocations() throws InterruptedException, ExecutionException, IOException {
+    /**
+     * Add point normals to polyData if it has none.
+     */
+    private static void addPointNormals(vtkPolyData polyData) {
+        if (polyData.GetPointData().GetNormals() != null)
+            return;
+
+        vtkPolyDataNormals normalsFilter = new vtkPolyDataNormals();
+        normalsFilter.SetInputData(polyData);
+        normalsFilter.SetComputePointNormals(1);
+        // If cell normals are already present, then turn this on
+        normalsFilter.SetComputeCellNormals(polyData.GetCellData().GetNormals() == null ? 0 : 1);
+        normalsFilter.SplittingOff();
+        normalsFilter.ConsistencyOn();
+        normalsFilter.AutoOrientNormalsOff();
+        normalsFilter.Update();
+
+        vtkPolyData normalsOutput = normalsFilter.GetOutput();
+        polyData.DeepCopy(normalsOutput);
+
+        normalsFilter.Delete();
+    }
+
+    private List<GravityValues> getGravityAtLocations() throws IOException {
         List<GravityValues> results = new ArrayList<GravityValues>();
 
         if (howToEvalute == HowToEvaluate.EVALUATE_AT_VERTICES) {
@@ -811,142 +978,360 @@ abstract public class Gravity {
 
     private double getGravityWithUnits(double[] fieldPoint, double[] acc) {
         double[] pt = fieldPoint;
-        double potential = 1.0e6 * 1.0e12 * G * density * getGravity(pt, acc);
+        return addUnits(pt[0], pt[1], getGravity(pt, acc), acc, 0);
+    }
+
+    /**
+     * Same as getGravity(double[], int, int, double[], double[]) but the results
+     * are scaled by the density and include the centrifugal force, i.e. the
+     * values are the same as those returned by runGravity.
+     */
+    public void getGravityWithUnits(double[] fieldPoints, int start, int end, double[] acc, double[] potential) {
+        getGravity(fieldPoints, start, end, acc, potential);
+        for (int k = start; k < end; ++k)
+            potential[k] = addUnits(fieldPoints[3 * k], fieldPoints[3 * k + 1], potential[k], acc, 3 * k);
+    }
 
-        acc[0] *= 1.0e3 * 1.0e12 * G * density;
-        acc[1] *= 1.0e3 * 1.0e12 * G * density;
-        acc[2] *= 1.0e3 * 1.0e12 * G * density;
+    /**
+     * Scale the potential and the acceleration stored at acc[offset ... offset+2]
+     * returned by getGravity and add the centrifugal force at a point with the
+     * given x and y coordinates.
+     *
+     * @return the scaled potential
+     */
+    private double addUnits(double x, double y, double potential, double[] acc, int offset) {
+        potential = 1.0e6 * 1.0e12 * G * density * potential;
+
+        acc[offset] *= 1.0e3 * 1.0e12 * G * density;
+        acc[offset + 1] *= 1.0e3 * 1.0e12 * G * density;
+        acc[offset + 2] *= 1.0e3 * 1.0e12 * G * density;
 
         // add centrifugal force
         if (rotationRate != 0.0) {
-            potential -= 1.0e6 * 0.5 * rotationRate * rotationRate * (pt[0] * pt[0] + pt[1] * pt[1]);
-            acc[0] += 1.0e3 * rotationRate * rotationRate * pt[0];
-            acc[1] += 1.0e3 * rotationRate * rotationRate * pt[1];
+            potential -= 1.0e6 * 0.5 * rotationRate * rotationRate * (x * x + y * y);
+            acc[offset] += 1.0e3 * rotationRate * rotationRate * x;
+            acc[offset + 1] += 1.0e3 * rotationRate * rotationRate * y;
             // do nothing for z component
         }
 
         return potential;
     }
 
-    private List<GravityValues> getGravityAtPlateCenters(int startId, int endId) {
-        List<GravityValues> results = new ArrayList<GravityValues>();
+    /**
+     * Evaluate getGravityWithUnits on the first numPoints points stored in
+     * fieldPoints and return the results as a list.
+     */
+    private List<GravityValues> getGravityValuesWithUnits(double[] fieldPoints, int numPoints) {
+        double[] acc = new double[3 * numPoints];
+        double[] potential = new double[numPoints];
+        getGravityWithUnits(fieldPoints, 0, numPoints, acc, potential);
+        return toGravityValues(acc, potential, numPoints);
+    }
+
+    /**
+     * Same as getGravityValuesWithUnits but the points are split among the
+     * threads of the executor, unless there are only a few of them. The results
+     * are in the same order as the points.
+     */
+    private List<GravityValues> getGravityValuesWithUnitsInParallel(double[] fieldPoints, int numPoints) {
+        if (numPoints < MIN_POINTS_FOR_PARALLEL)
+            return getGravityValuesWithUnits(fieldPoints, numPoints);
+
+        double[] acc = new double[3 * numPoints];
+        double[] potential = new double[numPoints];
+        getParallelExecutor().forEach(numPoints, POINTS_PER_TASK, this::isCancelled,
+                (start, stop) -> getGravityWithUnits(fieldPoints, start, stop, acc, potential));
+        return toGravityValues(acc, potential, numPoints);
+    }
+
+    private static List<GravityValues> toGravityValues(double[] acc, double[] potential, int numPoints) {
+        List<GravityValues> results = new ArrayList<GravityValues>(numPoints);
+        for (int k = 0; k < numPoints; ++k) {
+            GravityValues r = new GravityValues();
+            r.acc[0] = acc[3 * k];
+            r.acc[1] = acc[3 * k + 1];
+            r.acc[2] = acc[3 * k + 2];
+            r.potential = potential[k];
+            results.add(r);
+        }
+        return results;
+    }
 
+    private List<GravityValues> getGravityAtPlateCenters(int startId, int endId) {
         vtkIdList idList = new vtkIdList();
+        double[] pt1 = new double[3];
+        double[] pt2 = new double[3];
+        double[] pt3 = new double[3];
+        double[] center = new double[3];
+        double[] centers = new double[3 * (endId - startId)];
 
         for (int i = startId; i < endId; ++i) {
             globalShapeModelPolyData.GetCellPoints(i, idList);
-            double[] pt1 = new double[3];
-            double[] pt2 = new double[3];
-            double[] pt3 = new double[3];
             int id1 = (int)idList.GetId(0);
             int id2 = (int)idList.GetId(1);
             int id3 = (int)idList.GetId(2);
             globalShapeModelPolyData.GetPoint(id1, pt1);
             globalShapeModelPolyData.GetPoint(id2, pt2);
             globalShapeModelPolyData.GetPoint(id3, pt3);
-            double[] center = new double[3];
 
             MathUtil.triangleCenter(pt1, pt2, pt3, center);
 
-            GravityValues r = new GravityValues();
-            r.potential = getGravityWithUnits(center, r.acc);
-
-            results.add(r);
+            System.arraycopy(center, 0, centers, 3 * (i - startId), 3);
         }
 
-        return results;
+        return getGravityValuesWithUnits(centers, endId - startId);
     }
 
-    private List<GravityValues> getGravityAtPlateCenters() throws InterruptedException, ExecutionException {
-
-        List<GravityValues> results = ParallelLoop.runParallelLoop((int)globalShapeModelPolyData.GetNumberOfCells(), new LoopFunction() {
-            @Override
-            public List<GravityValues> func(int startId, int stopId) {
-                return getGravityAtPlateCenters(startId, stopId);
-            }
-        });
-
-        return results;
+    private List<GravityValues> getGravityAtPlateCenters() {
+        return getParallelExecutor().map((int)globalShapeModelPolyData.GetNumberOfCells(), POINTS_PER_TASK,
+                this::isCancelled, this::getGravityAtPlateCenters);
     }
 
     private List<GravityValues> getGravityAtShapeModelVertices(int startId, int endId) {
-        List<GravityValues> results = new ArrayList<GravityValues>();
+        double[] pt = new double[3];
+        double[] points = new double[3 * (endId - startId)];
 
         for (int i = startId; i < endId; ++i) {
-            double[] pt = new double[3];
             globalShapeModelPolyData.GetPoint(i, pt);
-
-            GravityValues r = new GravityValues();
-            r.potential = getGravityWithUnits(pt, r.acc);
-
-            results.add(r);
+            System.arraycopy(pt, 0, points, 3 * (i - startId), 3);
         }
 
-        return results;
+        return getGravityValuesWithUnits(points, endId - startId);
     }
 
-    private List<GravityValues> getGravityAtShapeModelVertices() throws InterruptedException, ExecutionException {
-
-        List<GravityValues> results = ParallelLoop.runParallelLoop((int)globalShapeModelPolyData.GetNumberOfPoints(), new LoopFunction() {
-            @Override
-            public List<GravityValues> func(int startId, int stopId) {
-                return getGravityAtShapeModelVertices(startId, stopId);
-            }
-        });
-
-        return results;
+    private List<GravityValues> getGravityAtShapeModelVertices() {
+        return getParallelExecutor().map((int)globalShapeModelPolyData.GetNumberOfPoints(), POINTS_PER_TASK,
+                this::isCancelled, this::getGravityAtShapeModelVertices);
     }
 
-    private List<GravityValues> getGravityAtPoints() {
-        List<GravityValues> results = new ArrayList<GravityValues>();
-
-        for (int i = 0; i < pointsToComputeGravity.size(); ++i) {
-            double[] pt = pointsToComputeGravity.get(i);
+    private List<GravityValues> getGravityAtPoints() throws IOException {
+        if (howToEvalute == HowToEvaluate.EVALUATE_AT_POINTS_IN_TEXT_FILE) {
+            double[] points = loadFieldPoints(fieldpointsfile);
+            return getGravityValuesWithUnitsInParallel(points, points.length / 3);
+        }
 
-            GravityValues r = new GravityValues();
-            r.potential = getGravityWithUnits(pt, r.acc);
+        int numPoints = pointsToComputeGravity.size();
+        double[] points = new double[3 * numPoints];
 
-            results.add(r);
+        for (int i = 0; i < numPoints; ++i) {
+            System.arraycopy(pointsToComputeGravity.get(i), 0, points, 3 * i, 3);
         }
 
-        return results;
+        return getGravityValuesWithUnitsInParallel(points, numPoints);
     }
 
-    private GravityValues[][] getGravityAtGrid(double[][][] grid, int startRow, int stopRow) {
-        int numRows = grid[0][0].length;
-        int numCols = grid[0].length;
-        GravityValues[][] results = new GravityValues[numRows][numCols];
-        for (int m = startRow; m < stopRow; ++m)
+    /**
+     * Read the points from a text file with one point per line. The first 3
+     * columns of each line are the x, y and z coordinates, further columns are
+     * ignored here.
+     *
+     * @return the points stored as x0,y0,z0,x1,...
+     */
+    private static double[] loadFieldPoints(String file) throws IOException {
+        double[] points = new double[3 * 1024];
+        int numPoints = 0;
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] tokens = line.trim().split("\\s+");
+                if (3 * numPoints + 3 > points.length)
+                    points = Arrays.copyOf(points, 2 * points.length);
+                points[3 * numPoints] = Double.parseDouble(tokens[0]);
+                points[3 * numPoints + 1] = Double.parseDouble(tokens[1]);
+                points[3 * numPoints + 2] = Double.parseDouble(tokens[2]);
+                ++numPoints;
+            }
+        }
+        return Arrays.copyOf(points, 3 * numPoints);
+    }
+
+    /**
+     * Evaluate the gravity at the rows [startRow, stopRow) of a grid and store
+     * the results in output, one row at a time.
+     */
+    private void getGravityAtGrid(double[][][] grid, int startRow, int stopRow, GravityGrid output) {
+        int numCols = output.numCols;
+        double[] points = new double[3 * numCols];
+        double[] acc = new double[3 * numCols];
+        double[] potential = new double[numCols];
+        for (int m = startRow; m < stopRow; ++m) {
             for (int n = 0; n < numCols; ++n) {
                 double lat = grid[0][m][n];
                 double lon = grid[1][m][n];
                 double rad = grid[2][m][n];
                 LatLon ll = new LatLon(lat * Math.PI / 180.0, lon * Math.PI / 180.0, rad);
                 double[] pt = MathUtil.latrec(ll);
-                GravityValues r = new GravityValues();
-                r.potential = getGravityWithUnits(pt, r.acc);
-                results[m][n] = r;
+                System.arraycopy(pt, 0, points, 3 * n, 3);
             }
-        return results;
+            getGravityWithUnits(points, 0, numCols, acc, potential);
+            for (int n = 0; n < numCols; ++n) {
+                output.accX[m][n] = acc[3 * n];
+                output.accY[m][n] = acc[3 * n + 1];
+                output.accZ[m][n] = acc[3 * n + 2];
+                output.potential[m][n] = potential[n];
+            }
+        }
+    }
+
+    /**
+     * Evaluate the gravity at every point of a grid in parallel. The rows are
+     * split among the threads, which write their results directly into the
+     * returned planes.
+     *
+     * @param grid latitude (degrees), longitude (degrees) and radius planes of the
+     *            points, indexed [quantity][row][column]
+     * @return acceleration and potential at each grid point, including units and
+     *         centrifugal force as returned by runGravity
+     */
+    public GravityGrid getGravityAtGrid(double[][][] grid) {
+        int numRows = grid[0].length;
+        int numCols = numRows > 0 ? grid[0][0].length : 0;
+        GravityGrid output = new GravityGrid(numRows, numCols);
+        getParallelExecutor().forEach(numRows, 1, this::isCancelled,
+                (startRow, stopRow) -> getGravityAtGrid(grid, startRow, stopRow, output));
+        return output;
+    }
+
+    private List<GravityValues> getGravityAtGrid() {
+        return getGravityAtGrid(gridToComputeGravity).asList();
+    }
+
+    /**
+     * @return the points of polydata stored as x0,y0,z0,x1,...
+     */
+    private static double[] getPoints(vtkPolyData polydata) {
+        int numPoints = (int)polydata.GetNumberOfPoints();
+        double[] points = new double[3 * numPoints];
+        double[] pt = new double[3];
+        for (int i = 0; i < numPoints; ++i) {
+            polydata.GetPoint(i, pt);
+            System.arraycopy(pt, 0, points, 3 * i, 3);
+        }
+        return points;
     }
 
-    private List<GravityValues> getGravityAtGrid() throws InterruptedException, ExecutionException {
-        int numRows = gridToComputeGravity[0][0].length;
-        GravityValues[][] resultsGrid = ParallelGrid.runParallelGrid(numRows, new GridFunction() {
-            @Override
-            public GravityValues[][] func(int startRow, int stopRow) {
-                return getGravityAtGrid(gridToComputeGravity, startRow, stopRow);
+    /**
+     * Find the point at each pixel of a fits file among the points of its
+     * polydata. These are usually the points of the valid pixels in row-major
+     * order, but invalid pixels have no point and a global model has points
+     * that are not pixels, so the pixels are matched by position. Each pixel is
+     * first compared with the point after the one of the previous pixel, and
+     * only if that fails with all points close to it.
+     *
+     * @param planes latitude (degrees), longitude (degrees) and radius planes of
+     *            the pixels, indexed [quantity][row][column]
+     * @param points the points stored as x0,y0,z0,x1,...
+     * @return for each row and column the index of the closest point within
+     *         FITS_POINT_TOLERANCE times the radius of the pixel, -1 if there is
+     *         none
+     */
+    static int[][] getFitsPointIds(double[][][] planes, double[] points, int numPoints) {
+        int numRows = planes[0].length;
+        int numCols = numRows > 0 ? planes[0][0].length : 0;
+        int[][] pointIds = new int[numRows][numCols];
+
+        // points sorted by x, only created if a pixel is not at the next point
+        int[] byX = null;
+        double[] sortedX = null;
+
+        int next = 0;
+        for (int m = 0; m < numRows; ++m) {
+            for (int n = 0; n < numCols; ++n) {
+                LatLon ll = new LatLon(planes[0][m][n] * Math.PI / 180.0, planes[1][m][n] * Math.PI / 180.0,
+                        planes[2][m][n]);
+                double[] pt = MathUtil.latrec(ll);
+                double tolerance = FITS_POINT_TOLERANCE * Math.abs(planes[2][m][n]);
+                int id = -1;
+                if (next < numPoints && distance(points, next, pt) <= tolerance) {
+                    id = next;
+                }
+                else if (!Double.isNaN(tolerance)) {
+                    if (byX == null) {
+                        byX = IntStream.range(0, numPoints).boxed()
+                                .sorted(Comparator.comparingDouble(i -> points[3 * i])).mapToInt(i -> i).toArray();
+                        sortedX = new double[numPoints];
+                        for (int k = 0; k < numPoints; ++k)
+                            sortedX[k] = points[3 * byX[k]];
+                    }
+                    int k = Arrays.binarySearch(sortedX, pt[0] - tolerance);
+                    if (k < 0)
+                        k = -k - 1;
+                    while (k > 0 && sortedX[k - 1] >= pt[0] - tolerance)
+                        --k;
+                    double closest = tolerance;
+                    for (; k < numPoints && sortedX[k] <= pt[0] + tolerance; ++k) {
+                        double d = distance(points, byX[k], pt);
+                        if (d <= closest) {
+                            closest = d;
+                            id = byX[k];
+                        }
+                    }
+                }
+                pointIds[m][n] = id;
+                if (id >= 0)
+                    next = id + 1;
             }
-        });
+        }
+        return pointIds;
+    }
 
-        // Convert 2D array to List
-        List<GravityValues> results = new ArrayList<GravityValues>();
-        int numCols = gridToComputeGravity[0].length;
-        for (int m = 0; m < numRows; ++m)
+    private static double distance(double[] points, int i, double[] pt) {
+        double dx = points[3 * i] - pt[0];
+        double dy = points[3 * i + 1] - pt[1];
+        double dz = points[3 * i + 2] - pt[2];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /**
+     * Evaluate the gravity at the rows [startRow, stopRow) of the points of a
+     * fits file and store the results in output.
+     */
+    private void getGravityAtFitsPoints(double[] points, int[][] pointIds, int startRow, int stopRow,
+            GravityGrid output) {
+        int numCols = output.numCols;
+        double[] rowPoints = new double[3 * numCols];
+        double[] acc = new double[3 * numCols];
+        double[] potential = new double[numCols];
+        for (int m = startRow; m < stopRow; ++m) {
+            int numPoints = 0;
             for (int n = 0; n < numCols; ++n) {
-                results.add(resultsGrid[m][n]);
+                if (pointIds[m][n] >= 0)
+                    System.arraycopy(points, 3 * pointIds[m][n], rowPoints, 3 * numPoints++, 3);
             }
+            getGravityWithUnits(rowPoints, 0, numPoints, acc, potential);
+            int k = 0;
+            for (int n = 0; n < numCols; ++n) {
+                if (pointIds[m][n] < 0) {
+                    output.accX[m][n] = Double.NaN;
+                    output.accY[m][n] = Double.NaN;
+                    output.accZ[m][n] = Double.NaN;
+                    output.potential[m][n] = Double.NaN;
+                    continue;
+                }
+                output.accX[m][n] = acc[3 * k];
+                output.accY[m][n] = acc[3 * k + 1];
+                output.accZ[m][n] = acc[3 * k + 2];
+                output.potential[m][n] = potential[k];
+                ++k;
+            }
+        }
+    }
 
-        return results;
+    /**
+     * Evaluate the gravity at the points of a fits file in parallel, as
+     * getGravityAtGrid does for positions given by planes.
+     *
+     * @param points the points stored as x0,y0,z0,x1,...
+     * @param pointIds the point of each row and column, see getFitsPointIds
+     * @return acceleration and potential at each pixel, NaN for pixels without
+     *         a point
+     */
+    GravityGrid getGravityAtFitsPoints(double[] points, int[][] pointIds) {
+        int numRows = pointIds.length;
+        int numCols = numRows > 0 ? pointIds[0].length : 0;
+        GravityGrid output = new GravityGrid(numRows, numCols);
+        getParallelExecutor().forEach(numRows, 1, this::isCancelled,
+                (startRow, stopRow) -> getGravityAtFitsPoints(points, pointIds, startRow, stopRow, output));
+        return output;
     }
 }
@@ -1,9 +1,7 @@
 package edu.jhuapl.sbmt.util.gravity;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
-import vtk.vtkIdList;
 import vtk.vtkPolyData;
 
 import edu.jhuapl.saavtk.util.MathUtil;
@@ -15,61 +13,111 @@ import edu.jhuapl.saavtk.util.MathUtil;
  * of Effective Potential and Gravity on Small Bodies, ACM, 1667, p. 6447.
  * It is simpler and faster and the Werner and Scheeres method but not
  * as accurate.
+ *
+ * If the JVM supports it (see VectorSupport) the loop over the faces is
+ * done with the SIMD kernel in GravityVectorKernels.
  */
 public class GravityCheng extends Gravity {
 
-    private static class FaceData {
-        double[] center = new double[3];
-        double[] normal = new double[3]; // with length equal to twice plate
-                                         // area
-        int[] pointIds = new int[3];
-    };
-
-    private static class Point {
-        double[] point = new double[3];
+    /**
+     * Per-thread scratch buffers so getGravity does not allocate memory.
+     */
+    private static class Scratch {
+        double[] x_minus_R = new double[3];
+        double[] acc = new double[3];
+        double[] sums = new double[4];
     }
 
-    private List<FaceData> faceData = new ArrayList<FaceData>();
-    private List<Point> pointCache = new ArrayList<Point>();
+    // The face data is stored in flat arrays (one entry per face) so the loop
+    // over the faces can also be done with the SIMD kernel in
+    // GravityVectorKernels.
+    final int numFaces;
+    final double[] centerX;
+    final double[] centerY;
+    final double[] centerZ;
+    // normals with length equal to twice plate area
+    final double[] normalX;
+    final double[] normalY;
+    final double[] normalZ;
+    private final int[] facePoints;
+    private final double[] points;
+
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+    private boolean useVectorKernels = VectorSupport.isEnabled();
 
     public GravityCheng(vtkPolyData polyData) {
+        // cache the points to avoid JNI access
+        this(polyData, WernerPolyhedron.getPoints(polyData), WernerPolyhedron.getFaces(polyData));
+    }
+
+    /**
+     * Only for evaluating the kernel directly, e.g. in tests. runGravity() cannot
+     * be used on an instance created this way.
+     *
+     * @param points vertex coordinates stored as x0,y0,z0,x1,y1,z1,...
+     * @param faces vertex ids of each triangle stored as a0,b0,c0,a1,b1,c1,...
+     */
+    GravityCheng(double[] points, int[] faces) {
+        this(null, points, faces);
+    }
+
+    private GravityCheng(vtkPolyData polyData, double[] points, int[] faces) {
         super(polyData);
 
-        // cache the points to avoid JNI access
-        int numPoints = (int)polyData.GetNumberOfPoints();
-        for (int i = 0; i < numPoints; ++i) {
-            Point p = new Point();
-            polyData.GetPoint(i, p.point);
-            pointCache.add(p);
-        }
+        this.points = points;
+        this.facePoints = faces;
 
-        vtkIdList idList = new vtkIdList();
         // Compute the face data
-        int numFaces = (int)polyData.GetNumberOfCells();
+        numFaces = facePoints.length / 3;
+        centerX = new double[numFaces];
+        centerY = new double[numFaces];
+        centerZ = new double[numFaces];
+        normalX = new double[numFaces];
+        normalY = new double[numFaces];
+        normalZ = new double[numFaces];
+        double[] pt1 = new double[3];
+        double[] pt2 = new double[3];
+        double[] pt3 = new double[3];
+        double[] center = new double[3];
+        double[] normal = new double[3];
         for (int i = 0; i < numFaces; ++i) {
-            FaceData fc = new FaceData();
-            faceData.add(fc);
-
-            polyData.GetCellPoints(i, idList);
-            int p1 = (int)idList.GetId(0);
-            int p2 = (int)idList.GetId(1);
-            int p3 = (int)idList.GetId(2);
-            fc.pointIds[0] = p1;
-            fc.pointIds[1] = p2;
-            fc.pointIds[2] = p3;
-
-            double[] pt1 = pointCache.get(p1).point;
-            double[] pt2 = pointCache.get(p2).point;
-            double[] pt3 = pointCache.get(p3).point;
-
-            MathUtil.triangleCenter(pt1, pt2, pt3, fc.center);
-            MathUtil.triangleNormal(pt1, pt2, pt3, fc.normal);
+            getPoint(facePoints[3 * i], pt1);
+            getPoint(facePoints[3 * i + 1], pt2);
+            getPoint(facePoints[3 * i + 2], pt3);
+
+            MathUtil.triangleCenter(pt1, pt2, pt3, center);
+            MathUtil.triangleNormal(pt1, pt2, pt3, normal);
             double area = MathUtil.triangleArea(pt1, pt2, pt3);
-            MathUtil.vscl(2.0 * area, fc.normal, fc.normal);
+            MathUtil.vscl(2.0 * area, normal, normal);
+
+            centerX[i] = center[0];
+            centerY[i] = center[1];
+            centerZ[i] = center[2];
+            normalX[i] = normal[0];
+            normalY[i] = normal[1];
+            normalZ[i] = normal[2];
         }
 
     }
 
+    private void getPoint(int id, double[] pt) {
+        pt[0] = points[3 * id];
+        pt[1] = points[3 * id + 1];
+        pt[2] = points[3 * id + 2];
+    }
+
+    /**
+     * Use the SIMD kernel if the JVM supports it (the default) or always use the
+     * scalar kernel.
+     */
+    public void setUseVectorKernels(boolean useVectorKernels) {
+        this.useVectorKernels = useVectorKernels && VectorSupport.isEnabled();
+    }
+
+    public boolean isUsingVectorKernels() {
+        return useVectorKernels;
+    }
+
     /**
      * Note this function is optimized for speed and avoids all JNI calls.
      *
@@ -81,52 +129,28 @@ public class GravityCheng extends Gravity {
      */
     @Override
     public double getGravity(double[] fieldPoint, double[] acc) {
+        Scratch s = scratch.get();
         double potential = 0.0;
-        acc[0] = 0.0;
-        acc[1] = 0.0;
-        acc[2] = 0.0;
 
-        // Compute the edge data
-        int numFaces = faceData.size();
-        for (int i = 0; i < numFaces; ++i) {
-            FaceData fc = faceData.get(i);
-
-            double[] x_minus_R = new double[3];
-            MathUtil.vsub(fieldPoint, fc.center, x_minus_R);
-
-            double x_minus_R_dot_N = MathUtil.vdot(x_minus_R, fc.normal);
-            double mag_x_minus_R = MathUtil.vnorm(x_minus_R);
-
-            if (mag_x_minus_R == 0.0) {
-                // No contribution to potential if we reach here. Only
-                // acceleration.
-                int p1 = fc.pointIds[0];
-                int p2 = fc.pointIds[1];
-                int p3 = fc.pointIds[2];
-
-                double[] pt1 = pointCache.get(p1).point;
-                double[] pt2 = pointCache.get(p2).point;
-                double[] pt3 = pointCache.get(p3).point;
-
-                double[] _2vjik = { 2.0 * pt2[0] - pt1[0] - pt3[0], 2.0 * pt2[1] - pt1[1] - pt3[1],
-                        2.0 * pt2[2] - pt1[2] - pt3[2] };
-                double[] _2vijk = { 2.0 * pt1[0] - pt2[0] - pt3[0], 2.0 * pt1[1] - pt2[1] - pt3[1],
-                        2.0 * pt1[2] - pt2[2] - pt3[2] };
-                double[] _2vkij = { 2.0 * pt3[0] - pt1[0] - pt2[0], 2.0 * pt3[1] - pt1[1] - pt2[1],
-                        2.0 * pt3[2] - pt1[2] - pt2[2] };
-                double factor = 3.0 / MathUtil.vnorm(_2vjik) + 3.0 / MathUtil.vnorm(_2vijk) + 3.0
-                        / MathUtil.vnorm(_2vkij);
-
-                acc[0] -= fc.normal[0] * factor;
-                acc[1] -= fc.normal[1] * factor;
-                acc[2] -= fc.normal[2] * factor;
-            }
-            else {
-                potential += x_minus_R_dot_N / mag_x_minus_R;
+        if (useVectorKernels) {
+            double[] sums = s.sums;
+            Arrays.fill(sums, 0.0);
+            VectorKernels kernels = VectorSupport.getKernels();
+            for (int i = 0; i < numFaces; i += VectorKernels.CHUNK_SIZE)
+                kernels.chengSums(this, fieldPoint, i, Math.min(i + VectorKernels.CHUNK_SIZE, numFaces), s.x_minus_R,
+                        s.acc, sums);
+            potential = sums[0];
+            acc[0] = sums[1];
+            acc[1] = sums[2];
+            acc[2] = sums[3];
+        }
+        else {
+            acc[0] = 0.0;
+            acc[1] = 0.0;
+            acc[2] = 0.0;
 
-                acc[0] -= ((fc.normal[0] - x_minus_R[0] * x_minus_R_dot_N / (mag_x_minus_R * mag_x_minus_R)) / mag_x_minus_R);
-                acc[1] -= ((fc.normal[1] - x_minus_R[1] * x_minus_R_dot_N / (mag_x_minus_R * mag_x_minus_R)) / mag_x_minus_R);
-                acc[2] -= ((fc.normal[2] - x_minus_R[2] * x_minus_R_dot_N / (mag_x_minus_R * mag_x_minus_R)) / mag_x_minus_R);
+            for (int i = 0; i < numFaces; ++i) {
+                potential += addFace(i, fieldPoint, s.x_minus_R, acc);
             }
         }
 
@@ -138,4 +162,51 @@ public class GravityCheng extends Gravity {
         return potential;
     }
 
+    /**
+     * Subtract the acceleration due to face i from acc and return its
+     * contribution to the potential (both unscaled).
+     *
+     * @param x_minus_R scratch space of length 3
+     */
+    double addFace(int i, double[] fieldPoint, double[] x_minus_R, double[] acc) {
+        x_minus_R[0] = fieldPoint[0] - centerX[i];
+        x_minus_R[1] = fieldPoint[1] - centerY[i];
+        x_minus_R[2] = fieldPoint[2] - centerZ[i];
+
+        double x_minus_R_dot_N = x_minus_R[0] * normalX[i] + x_minus_R[1] * normalY[i] + x_minus_R[2] * normalZ[i];
+        double mag_x_minus_R = MathUtil.vnorm(x_minus_R);
+
+        if (mag_x_minus_R == 0.0) {
+            // No contribution to potential if we reach here. Only
+            // acceleration.
+            double[] pt1 = new double[3];
+            double[] pt2 = new double[3];
+            double[] pt3 = new double[3];
+            getPoint(facePoints[3 * i], pt1);
+            getPoint(facePoints[3 * i + 1], pt2);
+            getPoint(facePoints[3 * i + 2], pt3);
+
+            double[] _2vjik = { 2.0 * pt2[0] - pt1[0] - pt3[0], 2.0 * pt2[1] - pt1[1] - pt3[1],
+                    2.0 * pt2[2] - pt1[2] - pt3[2] };
+            double[] _2vijk = { 2.0 * pt1[0] - pt2[0] - pt3[0], 2.0 * pt1[1] - pt2[1] - pt3[1],
+                    2.0 * pt1[2] - pt2[2] - pt3[2] };
+            double[] _2vkij = { 2.0 * pt3[0] - pt1[0] - pt2[0], 2.0 * pt3[1] - pt1[1] - pt2[1],
+                    2.0 * pt3[2] - pt1[2] - pt2[2] };
+            double factor = 3.0 / MathUtil.vnorm(_2vjik) + 3.0 / MathUtil.vnorm(_2vijk) + 3.0
+                    / MathUtil.vnorm(_2vkij);
+
+            acc[0] -= normalX[i] * factor;
+            acc[1] -= normalY[i] * factor;
+            acc[2] -= normalZ[i] * factor;
+
+            return 0.0;
+        }
+
+        acc[0] -= ((normalX[i] - x_minus_R[0] * x_minus_R_dot_N / (mag_x_minus_R * mag_x_minus_R)) / mag_x_minus_R);
+        acc[1] -= ((normalY[i] - x_minus_R[1] * x_minus_R_dot_N / (mag_x_minus_R * mag_x_minus_R)) / mag_x_minus_R);
+        acc[2] -= ((normalZ[i] - x_minus_R[2] * x_minus_R_dot_N / (mag_x_minus_R * mag_x_minus_R)) / mag_x_minus_R);
+
+        return x_minus_R_dot_N / mag_x_minus_R;
+    }
+
 }
@@ -0,0 +1,204 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import vtk.vtkPolyData;
+
+/**
+ * Binary file holding the gravity computed at a contiguous range of points, the
+ * result of one chunk of a distributed gravity run. Unlike the ASCII
+ * acceleration and potential files written by the gravity executable it can be
+ * read back without any parsing: the file is memory mapped and the values are
+ * copied straight into primitive arrays.
+ *
+ * A file consists of a 64 byte header (magic number, format version, index of
+ * the first and one past the last point, and the SHA-256 hash of the shape
+ * model as computed by computeModelHash) followed by the accelerations stored
+ * as x0,y0,z0,x1,... and the potentials, all little endian doubles.
+ */
+public final class GravityChunkFile {
+
+    private static final long MAGIC = 0x31464347544d4253L; // "SBMTGCF1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+
+    // maximum number of bytes mapped at once when computing a checksum
+    private static final int WINDOW = 1 << 26;
+
+    private final long startIndex;
+    private final long endIndex;
+    private final byte[] modelHash;
+    private final DoubleBuffer acceleration;
+    private final DoubleBuffer potential;
+
+    private GravityChunkFile(long startIndex, long endIndex, byte[] modelHash, DoubleBuffer acceleration,
+            DoubleBuffer potential) {
+        this.startIndex = startIndex;
+        this.endIndex = endIndex;
+        this.modelHash = modelHash;
+        this.acceleration = acceleration;
+        this.potential = potential;
+    }
+
+    /**
+     * @return SHA-256 hash of the vertex coordinates and face vertex ids of a
+     *         shape model, the same as used by WernerPolyhedronCache
+     */
+    public static byte[] computeModelHash(vtkPolyData polyData) {
+        return WernerPolyhedronCache.computeHash(WernerPolyhedron.getPoints(polyData),
+                WernerPolyhedron.getFaces(polyData));
+    }
+
+    /**
+     * Memory map a chunk file. The file is closed again right away, the mapping
+     * stays valid until this object is garbage collected.
+     *
+     * @param file chunk file
+     * @param expectedModelHash if not null, the file must have been computed
+     *            for the shape model with this hash
+     * @return the mapped chunk
+     * @throws IOException if the file cannot be read, is not a chunk file, is
+     *             truncated or belongs to a different shape model
+     */
+    public static GravityChunkFile open(File file, byte[] expectedModelHash) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE)
+                throw new IOException(file + " is truncated");
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getLong() != MAGIC || header.getInt() != VERSION)
+                throw new IOException(file + " is not a gravity chunk file or has an unsupported version");
+            header.getInt();
+            long startIndex = header.getLong();
+            long endIndex = header.getLong();
+            byte[] modelHash = new byte[32];
+            header.get(modelHash);
+            if (expectedModelHash != null && !Arrays.equals(expectedModelHash, modelHash))
+                throw new IOException(file + " was computed for a different shape model");
+
+            long numPoints = endIndex - startIndex;
+            if (numPoints < 0 || 24L * numPoints > Integer.MAX_VALUE)
+                throw new IOException(file + " has an invalid index range");
+            if (channel.size() != HEADER_SIZE + 32L * numPoints)
+                throw new IOException(file + " is truncated");
+
+            DoubleBuffer acceleration = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, 24L * numPoints)
+                    .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            DoubleBuffer potential = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + 24L * numPoints,
+                    8L * numPoints).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            return new GravityChunkFile(startIndex, endIndex, modelHash, acceleration, potential);
+        }
+    }
+
+    /**
+     * Write the gravity at points [startIndex, startIndex + numPoints) to a
+     * chunk file. The file is written under a temporary name and then renamed,
+     * so a chunk file is either complete or absent.
+     *
+     * @param file chunk file
+     * @param startIndex index of the first point
+     * @param modelHash hash of the shape model as returned by computeModelHash
+     * @param acc accelerations stored as x0,y0,z0,x1,...
+     * @param potential potentials
+     * @param numPoints number of points to write from the start of acc and
+     *            potential
+     * @return CRC32 checksum of the file, the same as returned by checksum
+     */
+    public static long write(File file, long startIndex, byte[] modelHash, double[] acc, double[] potential,
+            int numPoints) throws IOException {
+        if (numPoints > (Integer.MAX_VALUE - HEADER_SIZE) / 32)
+            throw new IllegalArgumentException("Too many points for a single chunk file: " + numPoints);
+        Path path = file.getAbsoluteFile().toPath();
+        Path tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            CRC32 crc = new CRC32();
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(HEADER_SIZE + 32 * numPoints)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putLong(MAGIC).putInt(VERSION).putInt(0).putLong(startIndex).putLong(startIndex + numPoints)
+                        .put(modelHash, 0, 32);
+                buffer.asDoubleBuffer().put(acc, 0, 3 * numPoints).put(potential, 0, numPoints);
+                buffer.clear();
+                crc.update(buffer.duplicate());
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return crc.getValue();
+        }
+        finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * @return CRC32 checksum of the contents of a file
+     */
+    public static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long offset = 0; offset < size; offset += WINDOW)
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW, size - offset)));
+        }
+        return crc.getValue();
+    }
+
+    public long getStartIndex() {
+        return startIndex;
+    }
+
+    public long getEndIndex() {
+        return endIndex;
+    }
+
+    public int getNumberOfPoints() {
+        return (int) (endIndex - startIndex);
+    }
+
+    public byte[] getModelHash() {
+        return modelHash.clone();
+    }
+
+    /**
+     * Copy the acceleration of point i of this chunk (i.e. point
+     * getStartIndex() + i of the run) into acc.
+     */
+    public void getAcceleration(int i, double[] acc) {
+        acc[0] = acceleration.get(3 * i);
+        acc[1] = acceleration.get(3 * i + 1);
+        acc[2] = acceleration.get(3 * i + 2);
+    }
+
+    public double getPotential(int i) {
+        return potential.get(i);
+    }
+
+    /**
+     * Copy all accelerations of this chunk into acc starting at acc[offset],
+     * stored as x0,y0,z0,x1,...
+     */
+    public void readAcceleration(double[] acc, int offset) {
+        acceleration.duplicate().get(acc, offset, 3 * getNumberOfPoints());
+    }
+
+    /**
+     * Copy all potentials of this chunk into potential starting at
+     * potential[offset].
+     */
+    public void readPotential(double[] potential, int offset) {
+        this.potential.duplicate().get(potential, offset, getNumberOfPoints());
+    }
+}
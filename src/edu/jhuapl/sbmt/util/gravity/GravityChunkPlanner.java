@@ -0,0 +1,157 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Splits the points of a gravity run into tasks based on the measured cost of
+ * evaluating a point rather than a fixed number of points per worker. The cost
+ * per point grows with the number of facets of the shape model (and with the
+ * external body), so a fixed split either leaves workers idle behind a few
+ * stragglers or drowns short evaluations in per-task overhead.
+ *
+ * The cost is measured by calibrate, which evaluates a sample of the points
+ * for a fraction of a second. plan then over-decomposes the points into
+ * several tasks per worker, each long enough that the per-task overhead (e.g.
+ * starting the gravity executable and loading the shape model) stays small.
+ * The tasks are meant to be pulled dynamically by the workers, so a worker that
+ * finishes early takes the next task instead of waiting for the slowest one.
+ * predictWallTime simulates exactly that, which gives the predicted wall time
+ * that is reported together with the actual time at the end of a run.
+ */
+public final class GravityChunkPlanner {
+
+    private final long numPoints;
+    private final int numWorkers;
+    private final double secondsPerPoint;
+    private final double taskOverhead;
+
+    /**
+     * @param numPoints number of points to evaluate
+     * @param numWorkers number of tasks run at the same time
+     * @param secondsPerPoint time to evaluate one point, see calibrate
+     * @param taskOverhead time spent by each task before it evaluates its
+     *            first point
+     */
+    public GravityChunkPlanner(long numPoints, int numWorkers, double secondsPerPoint, double taskOverhead) {
+        this.numPoints = numPoints;
+        this.numWorkers = Math.max(1, numWorkers);
+        this.secondsPerPoint = secondsPerPoint;
+        this.taskOverhead = taskOverhead;
+    }
+
+    /**
+     * Measure the time to evaluate a point by evaluating sample points one at a
+     * time until maxSeconds have passed or all samples have been evaluated. The
+     * first point is not timed since it includes class loading and JIT
+     * compilation.
+     *
+     * @param engine gravity model, with density, rotation rate and
+     *            gravitational constant set
+     * @param samples sample points stored as x0,y0,z0,x1,..., ideally spread
+     *            over all points of the run
+     * @param maxSeconds time after which to stop
+     * @return time per point in seconds
+     */
+    public static double calibrate(Gravity engine, double[] samples, double maxSeconds) {
+        int numSamples = samples.length / 3;
+        double[] acc = new double[3 * numSamples];
+        double[] potential = new double[numSamples];
+        engine.getGravityWithUnits(samples, 0, 1, acc, potential);
+
+        long start = System.nanoTime();
+        long elapsed = 0;
+        int count = 0;
+        for (int i = 1; i < numSamples && (count == 0 || elapsed < maxSeconds * 1e9); ++i) {
+            engine.getGravityWithUnits(samples, i, i + 1, acc, potential);
+            ++count;
+            elapsed = System.nanoTime() - start;
+        }
+        if (count == 0) {
+            // a single sample, time it again
+            engine.getGravityWithUnits(samples, 0, 1, acc, potential);
+            elapsed = System.nanoTime() - start;
+            count = 1;
+        }
+        return elapsed * 1e-9 / count;
+    }
+
+    public double getSecondsPerPoint() {
+        return secondsPerPoint;
+    }
+
+    /**
+     * @return number of points per task so that there are about tasksPerWorker
+     *         tasks per worker but none shorter than minTaskSeconds
+     */
+    public long getPointsPerTask(int tasksPerWorker, double minTaskSeconds) {
+        long numTasks = Math.max(1L, (long) numWorkers * tasksPerWorker);
+        long pointsPerTask = (numPoints + numTasks - 1) / numTasks;
+        if (secondsPerPoint > 0)
+            pointsPerTask = Math.max(pointsPerTask, (long) Math.ceil(minTaskSeconds / secondsPerPoint));
+        return Math.max(1L, Math.min(pointsPerTask, numPoints));
+    }
+
+    /**
+     * Split the points into tasks of at most getPointsPerTask(tasksPerWorker,
+     * minTaskSeconds) points. If there are more tasks than workers, the number
+     * of tasks is rounded up to a multiple of the number of workers so that the
+     * last round of tasks keeps all workers busy.
+     *
+     * @return index of the first point of each task followed by the total
+     *         number of points
+     */
+    public long[] plan(int tasksPerWorker, double minTaskSeconds) {
+        long pointsPerTask = getPointsPerTask(tasksPerWorker, minTaskSeconds);
+        long numTasks = Math.max(1L, (numPoints + pointsPerTask - 1) / pointsPerTask);
+        if (numTasks > numWorkers)
+            numTasks = Math.min(numPoints, (numTasks + numWorkers - 1) / numWorkers * numWorkers);
+        long[] chunkStart = new long[(int) numTasks + 1];
+        for (int i = 1; i <= numTasks; ++i)
+            chunkStart[i] = numPoints * i / numTasks;
+        return chunkStart;
+    }
+
+    /**
+     * Predict the wall time of running the given tasks, assuming each worker
+     * takes the next task as soon as it is done with its previous one.
+     *
+     * @param chunkStart index of the first point of each task followed by the
+     *            total number of points
+     * @return predicted time in seconds
+     */
+    public double predictWallTime(long[] chunkStart) {
+        List<Integer> tasks = new ArrayList<Integer>();
+        for (int i = 0; i + 1 < chunkStart.length; ++i)
+            tasks.add(i);
+        return predictWallTime(chunkStart, tasks);
+    }
+
+    /**
+     * Same as predictWallTime(long[]) for a subset of the tasks, e.g. those
+     * not completed by a previous run.
+     *
+     * @param tasks indices of the tasks to run, in the order they are started
+     */
+    public double predictWallTime(long[] chunkStart, List<Integer> tasks) {
+        PriorityQueue<Double> workers = new PriorityQueue<Double>();
+        for (int i = 0; i < numWorkers; ++i)
+            workers.add(0.0);
+        double wallTime = 0;
+        for (int i : tasks) {
+            double done = workers.poll() + taskOverhead + (chunkStart[i + 1] - chunkStart[i]) * secondsPerPoint;
+            wallTime = Math.max(wallTime, done);
+            workers.add(done);
+        }
+        return wallTime;
+    }
+
+    /**
+     * @return a line comparing the predicted and actual wall time of a run
+     */
+    public static String report(double predictedSeconds, double actualSeconds) {
+        return String.format("Gravity evaluation took %.1f s, predicted %.1f s (%+.0f%%)", actualSeconds,
+                predictedSeconds, predictedSeconds > 0 ? 100.0 * (actualSeconds / predictedSeconds - 1.0) : 0.0);
+    }
+}
@@ -0,0 +1,175 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.jhuapl.saavtk.util.ProgressStatusListener;
+
+/**
+ * Progress of a gravity run, aggregated over all chunks or jobs that run at
+ * the same time. Evaluated points are either added directly, e.g. after each
+ * block evaluated in process, or reported per task by tasks that only know how
+ * far they themselves have got, e.g. gravity executables running in parallel.
+ * From the total the throughput and the remaining time are estimated.
+ *
+ * add is cheap enough to be called after every block: it only updates a
+ * LongAdder, and the listener is called at most every NOTIFY_INTERVAL_MS
+ * milliseconds by whichever thread notices first that it is due.
+ */
+public final class GravityProgress {
+
+    private static final long NOTIFY_INTERVAL_MS = 250;
+
+    private final long totalPoints;
+    private final ProgressStatusListener listener;
+    private final long startTime = System.nanoTime();
+    private final LongAdder completed = new LongAdder();
+    private final AtomicLong lastNotify = new AtomicLong(startTime);
+    private volatile long skipped;
+
+    // number of points of each task and how many of them have been reported
+    private final List<long[]> tasks = new ArrayList<long[]>();
+
+    /**
+     * @param totalPoints number of points of the run
+     * @param listener receives the progress, may be null
+     */
+    public GravityProgress(long totalPoints, ProgressStatusListener listener) {
+        this.totalPoints = totalPoints;
+        this.listener = listener;
+    }
+
+    /**
+     * Count points that do not need to be evaluated, e.g. because they were
+     * computed by a previous run. They count towards the progress but not the
+     * throughput.
+     */
+    public synchronized void addSkipped(long points) {
+        skipped += points;
+        completed.add(points);
+    }
+
+    /**
+     * Count evaluated points.
+     */
+    public void add(long points) {
+        completed.add(points);
+        long now = System.nanoTime();
+        long last = lastNotify.get();
+        if (now - last >= NOTIFY_INTERVAL_MS * 1000000L && lastNotify.compareAndSet(last, now))
+            notifyListener();
+    }
+
+    /**
+     * Register a task that reports its own progress with setTaskProgress.
+     *
+     * @param numPoints number of points of the task
+     * @return id of the task
+     */
+    public synchronized int addTask(long numPoints) {
+        tasks.add(new long[] { numPoints, 0 });
+        return tasks.size() - 1;
+    }
+
+    /**
+     * Report the number of points a task has evaluated so far. Reports that do
+     * not increase the number are ignored.
+     */
+    public void setTaskProgress(int task, long pointsDone) {
+        long delta;
+        synchronized (this) {
+            long[] t = tasks.get(task);
+            long done = Math.min(Math.max(pointsDone, 0), t[0]);
+            delta = done - t[1];
+            if (delta <= 0)
+                return;
+            t[1] = done;
+        }
+        add(delta);
+    }
+
+    /**
+     * Report that a task has evaluated all its points.
+     */
+    public void setTaskDone(int task) {
+        long numPoints;
+        synchronized (this) {
+            numPoints = tasks.get(task)[0];
+        }
+        setTaskProgress(task, numPoints);
+    }
+
+    public long getTotalPoints() {
+        return totalPoints;
+    }
+
+    public long getCompletedPoints() {
+        return Math.min(completed.sum(), totalPoints);
+    }
+
+    /**
+     * @return completed fraction of the run between 0 and 1
+     */
+    public double getFraction() {
+        return totalPoints > 0 ? (double) getCompletedPoints() / totalPoints : 1.0;
+    }
+
+    public double getElapsedSeconds() {
+        return (System.nanoTime() - startTime) * 1e-9;
+    }
+
+    /**
+     * @return points evaluated per second since the start of the run
+     */
+    public double getThroughput() {
+        double elapsed = getElapsedSeconds();
+        return elapsed > 0 ? (getCompletedPoints() - skipped) / elapsed : 0;
+    }
+
+    /**
+     * @return estimated time until the run is done in seconds, or NaN as long
+     *         as no points have been evaluated
+     */
+    public double getRemainingSeconds() {
+        double throughput = getThroughput();
+        return throughput > 0 ? (totalPoints - getCompletedPoints()) / throughput : Double.NaN;
+    }
+
+    /**
+     * @return a line describing the progress, e.g. "Computing gravity: 1200 of
+     *         5000 points (24%), 150 points/s, 25 s left"
+     */
+    public String getStatus() {
+        double remaining = getRemainingSeconds();
+        return String.format("Computing gravity: %d of %d points (%d%%), %.0f points/s, %s", getCompletedPoints(),
+                totalPoints, getPercent(), getThroughput(),
+                Double.isNaN(remaining) ? "estimating time left" : formatSeconds(remaining) + " left");
+    }
+
+    /**
+     * Notify the listener of the final progress.
+     */
+    public void finish() {
+        notifyListener();
+    }
+
+    private int getPercent() {
+        return (int) Math.floor(100 * getFraction());
+    }
+
+    private void notifyListener() {
+        if (listener != null)
+            listener.setProgressStatus(getStatus(), getPercent());
+    }
+
+    private static String formatSeconds(double seconds) {
+        long s = Math.round(seconds);
+        if (s < 60)
+            return s + " s";
+        if (s < 3600)
+            return String.format("%d min %02d s", s / 60, s % 60);
+        return String.format("%d h %02d min", s / 3600, (s % 3600) / 60);
+    }
+}
@@ -0,0 +1,320 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.IntFunction;
+
+/**
+ * Persistent, content addressed cache of gravity results. Evaluating the
+ * gravity of a large shape model takes a long time, while runs that only change
+ * the reference potential, the tilt radius or the output format need exactly
+ * the same accelerations and potentials. Each entry is a directory holding the
+ * GravityChunkFiles of one run, named after the key of the run as computed by
+ * GravityRunManifest.computeRunKey from the shape model, the evaluation
+ * points, density, rotation rate, gravitational constant and algorithm.
+ *
+ * Chunk files are hard linked into the cache where possible and copied
+ * otherwise, and the same is done when an entry is read, so a run never reads
+ * the files of the cache itself. Entries are added by renaming a complete
+ * temporary directory, so concurrent runs never see a partial entry. Whenever
+ * an entry is added, the least recently used entries are deleted until the
+ * cache is no larger than its maximum size. Reading, adding and evicting
+ * entries is serialized between all caches of this and other processes by
+ * locking a file in the cache directory, so an entry cannot be deleted while
+ * it is being linked. Problems reading or writing the cache are reported and
+ * the gravity is then simply computed.
+ *
+ * The cache used by default is turned on by setting the system property
+ * sbmt.gravity.resultCache to a directory; its maximum size in MB is given by
+ * sbmt.gravity.resultCache.maxSize.
+ */
+public final class GravityResultCache {
+
+    public static final String PROPERTY = "sbmt.gravity.resultCache";
+    public static final String SIZE_PROPERTY = "sbmt.gravity.resultCache.maxSize";
+
+    public static final long DEFAULT_MAX_SIZE = 10L << 30;
+
+    private static final String SUFFIX = ".gcf";
+    private static final String LOCK_FILE = "lock";
+
+    // a file lock is held by the whole process, so threads lock this first
+    private static final Object LOCK = new Object();
+
+    private interface LockedAction<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * The chunk files of a cached run.
+     */
+    public static final class Entry {
+        private final File[] chunkFiles;
+        private final long[] chunkStart;
+
+        private Entry(File[] chunkFiles, long[] chunkStart) {
+            this.chunkFiles = chunkFiles;
+            this.chunkStart = chunkStart;
+        }
+
+        /**
+         * @return the chunk files in index order, linked or copied from the
+         *         cache. They belong to the caller.
+         */
+        public File[] getChunkFiles() {
+            return chunkFiles.clone();
+        }
+
+        /**
+         * @return index of the first point of each chunk followed by the total
+         *         number of points
+         */
+        public long[] getChunkStart() {
+            return chunkStart.clone();
+        }
+    }
+
+    private final File directory;
+    private final long maxSize;
+
+    /**
+     * @param directory cache directory
+     * @param maxSize maximum total size of the cached chunk files in bytes
+     */
+    public GravityResultCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the cache in the directory given by the sbmt.gravity.resultCache
+     *         system property, or null if it is not set
+     */
+    public static GravityResultCache getDefault() {
+        String dir = System.getProperty(PROPERTY);
+        if (dir == null || dir.isEmpty())
+            return null;
+        return new GravityResultCache(new File(dir), getDefaultMaxSize());
+    }
+
+    /**
+     * @return the maximum size given in MB by the
+     *         sbmt.gravity.resultCache.maxSize system property in bytes, or
+     *         DEFAULT_MAX_SIZE if it is not set or not a non-negative number
+     */
+    static long getDefaultMaxSize() {
+        String size = System.getProperty(SIZE_PROPERTY);
+        if (size == null || size.trim().isEmpty())
+            return DEFAULT_MAX_SIZE;
+        try {
+            double mb = Double.parseDouble(size.trim());
+            if (mb >= 0)
+                return (long) (mb * (1 << 20));
+        }
+        catch (NumberFormatException e) {
+            // reported below
+        }
+        System.err.println("Ignoring " + SIZE_PROPERTY + "=" + size + ", it must be a size in MB. Using "
+                + (DEFAULT_MAX_SIZE >> 20) + " MB.");
+        return DEFAULT_MAX_SIZE;
+    }
+
+    /**
+     * Look up the results of a run, link (or copy) its chunk files to the given
+     * files and mark it as most recently used.
+     *
+     * @param runKey key of the run as returned by
+     *            GravityRunManifest.computeRunKey
+     * @param modelHash hash of the shape model the chunk files must have been
+     *            computed for
+     * @param target file to link chunk i of the entry to, existing files are
+     *            replaced
+     * @return the results, or null if there are none
+     */
+    public Entry get(String runKey, byte[] modelHash, IntFunction<File> target) {
+        File entryDir = new File(directory, runKey);
+        if (!entryDir.isDirectory())
+            return null;
+
+        try {
+            return withLock(() -> {
+                if (!entryDir.isDirectory())
+                    return null;
+                try {
+                    return link(entryDir, modelHash, target);
+                }
+                catch (IOException | RuntimeException e) {
+                    System.err.println("Could not read gravity result cache entry " + entryDir + ": "
+                            + e.getMessage());
+                    deleteEntry(entryDir);
+                    return null;
+                }
+            });
+        }
+        catch (IOException e) {
+            System.err.println("Could not lock gravity result cache " + directory + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Check the chunk files of an entry and link them to the target files. Must
+     * be called with the lock held.
+     */
+    private static Entry link(File entryDir, byte[] modelHash, IntFunction<File> target) throws IOException {
+        File[] files = entryDir.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null || files.length == 0)
+            throw new IOException("entry is empty");
+
+        long[] start = new long[files.length];
+        long[] end = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; ++i) {
+            GravityChunkFile chunk = GravityChunkFile.open(files[i], modelHash);
+            start[i] = chunk.getStartIndex();
+            end[i] = chunk.getEndIndex();
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> start[i]));
+
+        File[] chunkFiles = new File[files.length];
+        long[] chunkStart = new long[files.length + 1];
+        for (int i = 0; i < files.length; ++i) {
+            int k = order[i];
+            if (start[k] != chunkStart[i])
+                throw new IOException("chunks are not contiguous");
+            chunkStart[i + 1] = end[k];
+        }
+
+        for (int i = 0; i < files.length; ++i) {
+            chunkFiles[i] = target.apply(i);
+            Path path = chunkFiles[i].toPath();
+            Files.deleteIfExists(path);
+            linkOrCopy(files[order[i]].toPath(), path);
+        }
+
+        entryDir.setLastModified(System.currentTimeMillis());
+        return new Entry(chunkFiles, chunkStart);
+    }
+
+    /**
+     * Add the results of a run to the cache, then evict least recently used
+     * entries until the cache fits in its maximum size. Does nothing if the
+     * run is already cached or larger than the whole cache.
+     *
+     * @param runKey key of the run as returned by
+     *            GravityRunManifest.computeRunKey
+     * @param chunkFiles chunk files of the run
+     */
+    public void put(String runKey, File[] chunkFiles) {
+        File entryDir = new File(directory, runKey);
+        if (entryDir.isDirectory())
+            return;
+
+        long size = 0;
+        for (File chunkFile : chunkFiles)
+            size += chunkFile.length();
+        if (size > maxSize)
+            return;
+
+        Path tmp = null;
+        try {
+            Files.createDirectories(directory.toPath());
+            tmp = Files.createTempDirectory(directory.toPath(), runKey + ".tmp");
+            for (int i = 0; i < chunkFiles.length; ++i)
+                linkOrCopy(chunkFiles[i].toPath(), tmp.resolve(i + SUFFIX));
+            Path entry = tmp;
+            withLock(() -> {
+                if (!entryDir.isDirectory())
+                    Files.move(entry, entryDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                evict();
+                return null;
+            });
+        }
+        catch (IOException e) {
+            System.err.println("Could not add gravity results to cache " + directory + ": " + e.getMessage());
+        }
+        finally {
+            if (tmp != null && tmp.toFile().exists())
+                deleteEntry(tmp.toFile());
+        }
+    }
+
+    private static void linkOrCopy(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            Files.copy(source, target);
+        }
+    }
+
+    /**
+     * Run action holding the lock of the cache directory, which excludes all
+     * other threads of this process and all other processes using the cache.
+     */
+    private <T> T withLock(LockedAction<T> action) throws IOException {
+        synchronized (LOCK) {
+            Files.createDirectories(directory.toPath());
+            try (FileChannel channel = FileChannel.open(new File(directory, LOCK_FILE).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE); FileLock lock = channel.lock()) {
+                return action.run();
+            }
+        }
+    }
+
+    /**
+     * Delete the least recently used entries until the cache is no larger than
+     * its maximum size. Must be called with the lock held.
+     */
+    private void evict() {
+        File[] entries = directory.listFiles(f -> f.isDirectory() && !f.getName().contains(".tmp"));
+        if (entries == null)
+            return;
+
+        long[] lastUsed = new long[entries.length];
+        long[] sizes = new long[entries.length];
+        Integer[] order = new Integer[entries.length];
+        long total = 0;
+        for (int i = 0; i < entries.length; ++i) {
+            lastUsed[i] = entries[i].lastModified();
+            File[] files = entries[i].listFiles();
+            if (files != null)
+                for (File f : files)
+                    sizes[i] += f.length();
+            total += sizes[i];
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> lastUsed[i]));
+
+        for (int k = 0; k < entries.length && total > maxSize; ++k) {
+            int i = order[k];
+            deleteEntry(entries[i]);
+            total -= sizes[i];
+        }
+    }
+
+    private static void deleteEntry(File entryDir) {
+        File[] files = entryDir.listFiles();
+        if (files != null)
+            for (File f : files)
+                f.delete();
+        entryDir.delete();
+    }
+}
@@ -0,0 +1,278 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Records the progress of a gravity run split into chunks so that an
+ * interrupted run can be resumed. For each chunk the manifest holds its index
+ * range, its status and the CRC32 checksum of its GravityChunkFile. The
+ * manifest is identified by a run key, a hash of everything the results depend
+ * on (see computeRunKey). A manifest left behind by a run with a different key
+ * or different chunks is ignored, so a rerun with the same arguments only
+ * computes the chunks that are missing, failed or whose file no longer matches
+ * its checksum.
+ *
+ * The manifest is a small text file that is rewritten (to a temporary file
+ * which is then renamed) every time the status of a chunk changes.
+ */
+public final class GravityRunManifest {
+
+    private static final String HEADER = "# SBMT gravity run manifest";
+
+    public static enum Status {
+        PENDING, DONE, FAILED
+    }
+
+    private final File file;
+    private final String runKey;
+    private final long[] chunkStart;
+    private final Status[] status;
+    private final long[] checksum;
+
+    /**
+     * Open the manifest of a run, loading the state of a previous run with the
+     * same key and chunks from file if there is one.
+     *
+     * @param file manifest file
+     * @param runKey key of the run as returned by computeRunKey
+     * @param chunkStart index of the first point of each chunk followed by the
+     *            total number of points
+     */
+    public GravityRunManifest(File file, String runKey, long[] chunkStart) {
+        this.file = file;
+        this.runKey = runKey;
+        this.chunkStart = chunkStart.clone();
+        int numChunks = chunkStart.length - 1;
+        this.status = new Status[numChunks];
+        this.checksum = new long[numChunks];
+        Arrays.fill(status, Status.PENDING);
+
+        if (file.isFile()) {
+            try {
+                load();
+            }
+            catch (IOException | RuntimeException e) {
+                System.err.println("Could not read gravity run manifest " + file + ": " + e.getMessage());
+                Arrays.fill(status, Status.PENDING);
+            }
+        }
+    }
+
+    /**
+     * Compute the key of a run from the parameters of the run, the hash of the
+     * shape model and the points at which the gravity is evaluated.
+     *
+     * @param parameters all other parameters the results depend on, e.g.
+     *            algorithm, density and rotation rate
+     * @param modelHash hash of the shape model, see
+     *            GravityChunkFile.computeModelHash
+     * @param points evaluation points, may be null if they follow from the
+     *            shape model
+     * @return the key as a hexadecimal string
+     */
+    public static String computeRunKey(String parameters, byte[] modelHash, double[] points) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        digest.update(parameters.getBytes(StandardCharsets.UTF_8));
+        digest.update(modelHash);
+        if (points != null) {
+            ByteBuffer buffer = ByteBuffer.allocate(8 << 12).order(ByteOrder.LITTLE_ENDIAN);
+            for (double d : points) {
+                if (buffer.remaining() < 8) {
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+                buffer.putDouble(d);
+            }
+            buffer.flip();
+            digest.update(buffer);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest())
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    /**
+     * Read the chunks of a previous run, so that a resumed run can split the
+     * points the same way even if the split depends on measured timings.
+     *
+     * @param file manifest file
+     * @param runKey key of the run as returned by computeRunKey
+     * @return index of the first point of each chunk followed by the total
+     *         number of points, or null if there is no readable manifest with
+     *         this key
+     */
+    public static long[] readChunkStart(File file, String runKey) {
+        if (!file.isFile())
+            return null;
+
+        try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(in.readLine()) || !("key " + runKey).equals(in.readLine()))
+                return null;
+
+            List<Long> starts = new ArrayList<Long>();
+            long end = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank())
+                    continue;
+                String[] tokens = line.trim().split("\\s+");
+                if (Integer.parseInt(tokens[0]) != starts.size() || Long.parseLong(tokens[1]) != end)
+                    return null;
+                starts.add(end);
+                end = Long.parseLong(tokens[2]);
+            }
+            if (starts.isEmpty())
+                return null;
+
+            long[] chunkStart = new long[starts.size() + 1];
+            for (int i = 0; i < starts.size(); ++i)
+                chunkStart[i] = starts.get(i);
+            chunkStart[starts.size()] = end;
+            return chunkStart;
+        }
+        catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getNumberOfChunks() {
+        return status.length;
+    }
+
+    public synchronized Status getStatus(int chunk) {
+        return status[chunk];
+    }
+
+    /**
+     * @return true if the chunk was completed by this or a previous run and
+     *         chunkFile still has the recorded checksum. A chunk whose file is
+     *         missing or corrupt is reported and set back to pending.
+     */
+    public synchronized boolean isDone(int chunk, File chunkFile) {
+        if (status[chunk] != Status.DONE)
+            return false;
+
+        try {
+            if (chunkFile.isFile() && GravityChunkFile.checksum(chunkFile) == checksum[chunk])
+                return true;
+        }
+        catch (IOException e) {
+            // handled below
+        }
+        System.out.println("Gravity chunk file " + chunkFile + " is missing or corrupt, recomputing chunk " + chunk);
+        status[chunk] = Status.PENDING;
+        return false;
+    }
+
+    /**
+     * Record that a chunk has been written with the given checksum.
+     */
+    public synchronized void setDone(int chunk, long crc) throws IOException {
+        status[chunk] = Status.DONE;
+        checksum[chunk] = crc;
+        save();
+    }
+
+    public synchronized void setFailed(int chunk) throws IOException {
+        status[chunk] = Status.FAILED;
+        save();
+    }
+
+    /**
+     * @return number of chunks that are done
+     */
+    public synchronized int getNumberDone() {
+        int count = 0;
+        for (Status s : status)
+            if (s == Status.DONE)
+                ++count;
+        return count;
+    }
+
+    public void delete() {
+        file.delete();
+    }
+
+    private void load() throws IOException {
+        int numChunks = status.length;
+        Status[] loadedStatus = new Status[numChunks];
+        long[] loadedChecksum = new long[numChunks];
+
+        try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line = in.readLine();
+            if (!HEADER.equals(line))
+                throw new IOException("not a gravity run manifest");
+            line = in.readLine();
+            if (line == null || !line.equals("key " + runKey))
+                return;
+
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank())
+                    continue;
+                String[] tokens = line.trim().split("\\s+");
+                int chunk = Integer.parseInt(tokens[0]);
+                if (chunk < 0 || chunk >= numChunks || Long.parseLong(tokens[1]) != chunkStart[chunk]
+                        || Long.parseLong(tokens[2]) != chunkStart[chunk + 1])
+                    return;
+                loadedStatus[chunk] = Status.valueOf(tokens[3]);
+                loadedChecksum[chunk] = Long.parseLong(tokens[4], 16);
+            }
+        }
+
+        for (int i = 0; i < numChunks; ++i) {
+            if (loadedStatus[i] == null)
+                return;
+        }
+        System.arraycopy(loadedStatus, 0, status, 0, numChunks);
+        System.arraycopy(loadedChecksum, 0, checksum, 0, numChunks);
+        System.out.println("Resuming gravity run from " + file + ": " + getNumberDone() + " of " + numChunks
+                + " chunks done");
+    }
+
+    private void save() throws IOException {
+        Path path = file.getAbsoluteFile().toPath();
+        Files.createDirectories(path.getParent());
+        Path tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                out.write(HEADER + "\n");
+                out.write("key " + runKey + "\n");
+                for (int i = 0; i < status.length; ++i)
+                    out.write(String.format("%d %d %d %s %08x\n", i, chunkStart[i], chunkStart[i + 1], status[i],
+                            checksum[i]));
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD versions of the inner loops of GravityWernerSoA and GravityCheng written
+ * with the Java Vector API (jdk.incubator.vector). Each loop processes as many
+ * edges or faces at a time as fit in the widest vector register of the machine
+ * (e.g. 8 with AVX-512) and finishes the remaining elements with the scalar
+ * code.
+ *
+ * This is the only class that refers to the incubator module. It is only
+ * compiled with the vector Maven profile and only loaded by
+ * VectorSupport.getKernels() if the module is present. Since the lanes are summed separately the results differ from the
+ * scalar kernels in the last bits.
+ *
+ * Callers should pass ranges of at most CHUNK_SIZE elements. Besides keeping
+ * the data of a range in cache, this makes sure the loops get compiled by the
+ * regular JIT compilation of the method rather than by on-stack replacement of
+ * one very long running loop, which has been seen to crash JDK 17 for these
+ * gather-heavy loops.
+ */
+final class GravityVectorKernels implements VectorKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    GravityVectorKernels() {
+    }
+
+    @Override
+    public int getLaneCount() {
+        return SPECIES.length();
+    }
+
+    /**
+     * Compute the vectors from the field point (x, y, z) to the first n vertices
+     * and their magnitudes.
+     */
+    @Override
+    public void computePointData(double[] px, double[] py, double[] pz, int n, double x, double y, double z,
+            double[] rx, double[] ry, double[] rz, double[] rMag) {
+        int i = 0;
+        int upper = SPECIES.loopBound(n);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, px, i).sub(x);
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, py, i).sub(y);
+            DoubleVector vz = DoubleVector.fromArray(SPECIES, pz, i).sub(z);
+            vx.intoArray(rx, i);
+            vy.intoArray(ry, i);
+            vz.intoArray(rz, i);
+            vx.mul(vx).add(vy.mul(vy)).add(vz.mul(vz)).sqrt().intoArray(rMag, i);
+        }
+        for (; i < n; ++i) {
+            rx[i] = px[i] - x;
+            ry[i] = py[i] - y;
+            rz[i] = pz[i] - z;
+            rMag[i] = Math.sqrt(rx[i] * rx[i] + ry[i] * ry[i] + rz[i] * rz[i]);
+        }
+    }
+
+    /**
+     * Same as above for the vertices ids[first ... last-1]. The results for
+     * ids[first + k] are stored at index k.
+     */
+    @Override
+    public void computePointData(double[] px, double[] py, double[] pz, int[] ids, int first, int last, double x,
+            double y, double z, double[] rx, double[] ry, double[] rz, double[] rMag) {
+        int n = last - first;
+        int k = 0;
+        int upper = SPECIES.loopBound(n);
+        for (; k < upper; k += SPECIES.length()) {
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, px, 0, ids, first + k).sub(x);
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, py, 0, ids, first + k).sub(y);
+            DoubleVector vz = DoubleVector.fromArray(SPECIES, pz, 0, ids, first + k).sub(z);
+            vx.intoArray(rx, k);
+            vy.intoArray(ry, k);
+            vz.intoArray(rz, k);
+            vx.mul(vx).add(vy.mul(vy)).add(vz.mul(vz)).sqrt().intoArray(rMag, k);
+        }
+        for (; k < n; ++k) {
+            int id = ids[first + k];
+            rx[k] = px[id] - x;
+            ry[k] = py[id] - y;
+            rz[k] = pz[id] - z;
+            rMag[k] = Math.sqrt(rx[k] * rx[k] + ry[k] * ry[k] + rz[k] * rz[k]);
+        }
+    }
+
+    /**
+     * Add the contributions of edges [from, to) to the (unscaled) potential
+     * sums[0] and acceleration sums[1..3], i.e. -r.E.r Le and -E.r Le. The edge
+     * vertices id1[i] and id2[i] index the vertex vector arrays and E holds the
+     * edge dyads of ne edges stored component-major.
+     */
+    @Override
+    public void edgeSums(double[] rx, double[] ry, double[] rz, double[] rMag, int[] id1, int[] id2,
+            double[] lengths, double[] E, int ne, int from, int to, double[] sums) {
+        DoubleVector pot = DoubleVector.zero(SPECIES);
+        DoubleVector ax = DoubleVector.zero(SPECIES);
+        DoubleVector ay = DoubleVector.zero(SPECIES);
+        DoubleVector az = DoubleVector.zero(SPECIES);
+
+        int i = from;
+        int upper = from + SPECIES.loopBound(to - from);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, rx, 0, id1, i);
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, ry, 0, id1, i);
+            DoubleVector vz = DoubleVector.fromArray(SPECIES, rz, 0, id1, i);
+            DoubleVector r1m = DoubleVector.fromArray(SPECIES, rMag, 0, id1, i);
+            DoubleVector r2m = DoubleVector.fromArray(SPECIES, rMag, 0, id2, i);
+            DoubleVector length = DoubleVector.fromArray(SPECIES, lengths, i);
+
+            DoubleVector sum = r1m.add(r2m);
+            DoubleVector diff = sum.sub(length);
+            VectorMask<Double> degenerate = diff.abs().compare(VectorOperators.LT, 1e-9);
+            DoubleVector Le = sum.add(length).div(diff).lanewise(VectorOperators.LOG).blend(0.0, degenerate);
+
+            DoubleVector Erx = DoubleVector.fromArray(SPECIES, E, i).mul(vx)
+                    .add(DoubleVector.fromArray(SPECIES, E, ne + i).mul(vy))
+                    .add(DoubleVector.fromArray(SPECIES, E, 2 * ne + i).mul(vz));
+            DoubleVector Ery = DoubleVector.fromArray(SPECIES, E, 3 * ne + i).mul(vx)
+                    .add(DoubleVector.fromArray(SPECIES, E, 4 * ne + i).mul(vy))
+                    .add(DoubleVector.fromArray(SPECIES, E, 5 * ne + i).mul(vz));
+            DoubleVector Erz = DoubleVector.fromArray(SPECIES, E, 6 * ne + i).mul(vx)
+                    .add(DoubleVector.fromArray(SPECIES, E, 7 * ne + i).mul(vy))
+                    .add(DoubleVector.fromArray(SPECIES, E, 8 * ne + i).mul(vz));
+            DoubleVector rEr = vx.mul(Erx).add(vy.mul(Ery)).add(vz.mul(Erz));
+
+            pot = pot.sub(rEr.mul(Le));
+            ax = ax.sub(Erx.mul(Le));
+            ay = ay.sub(Ery.mul(Le));
+            az = az.sub(Erz.mul(Le));
+        }
+
+        double p = pot.reduceLanes(VectorOperators.ADD);
+        double x = ax.reduceLanes(VectorOperators.ADD);
+        double y = ay.reduceLanes(VectorOperators.ADD);
+        double z = az.reduceLanes(VectorOperators.ADD);
+        for (; i < to; ++i) {
+            int id = id1[i];
+            double Le = GravityWernerSoA.compute_Le(rMag[id], rMag[id2[i]], lengths[i]);
+
+            double Erx = E[i] * rx[id] + E[ne + i] * ry[id] + E[2 * ne + i] * rz[id];
+            double Ery = E[3 * ne + i] * rx[id] + E[4 * ne + i] * ry[id] + E[5 * ne + i] * rz[id];
+            double Erz = E[6 * ne + i] * rx[id] + E[7 * ne + i] * ry[id] + E[8 * ne + i] * rz[id];
+            double rEr = rx[id] * Erx + ry[id] * Ery + rz[id] * Erz;
+            p -= (rEr * Le);
+
+            x -= Erx * Le;
+            y -= Ery * Le;
+            z -= Erz * Le;
+        }
+
+        sums[0] += p;
+        sums[1] += x;
+        sums[2] += y;
+        sums[3] += z;
+    }
+
+    /**
+     * Add the contributions of faces [from, to) to the (unscaled) potential
+     * sums[0] and acceleration sums[1..3], i.e. r.F.r wf and F.r wf. The face
+     * vertices id1[i], id2[i] and id3[i] index the vertex vector arrays and F
+     * holds the face dyads of nf faces stored component-major.
+     */
+    @Override
+    public void faceSums(double[] rx, double[] ry, double[] rz, double[] rMag, int[] id1, int[] id2, int[] id3,
+            double[] F, int nf, int from, int to, double[] sums) {
+        DoubleVector pot = DoubleVector.zero(SPECIES);
+        DoubleVector ax = DoubleVector.zero(SPECIES);
+        DoubleVector ay = DoubleVector.zero(SPECIES);
+        DoubleVector az = DoubleVector.zero(SPECIES);
+
+        int i = from;
+        int upper = from + SPECIES.loopBound(to - from);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector r1x = DoubleVector.fromArray(SPECIES, rx, 0, id1, i);
+            DoubleVector r1y = DoubleVector.fromArray(SPECIES, ry, 0, id1, i);
+            DoubleVector r1z = DoubleVector.fromArray(SPECIES, rz, 0, id1, i);
+            DoubleVector r1m = DoubleVector.fromArray(SPECIES, rMag, 0, id1, i);
+            DoubleVector r2x = DoubleVector.fromArray(SPECIES, rx, 0, id2, i);
+            DoubleVector r2y = DoubleVector.fromArray(SPECIES, ry, 0, id2, i);
+            DoubleVector r2z = DoubleVector.fromArray(SPECIES, rz, 0, id2, i);
+            DoubleVector r2m = DoubleVector.fromArray(SPECIES, rMag, 0, id2, i);
+            DoubleVector r3x = DoubleVector.fromArray(SPECIES, rx, 0, id3, i);
+            DoubleVector r3y = DoubleVector.fromArray(SPECIES, ry, 0, id3, i);
+            DoubleVector r3z = DoubleVector.fromArray(SPECIES, rz, 0, id3, i);
+            DoubleVector r3m = DoubleVector.fromArray(SPECIES, rMag, 0, id3, i);
+
+            // r2 x r3
+            DoubleVector cx = r2y.mul(r3z).sub(r2z.mul(r3y));
+            DoubleVector cy = r2z.mul(r3x).sub(r2x.mul(r3z));
+            DoubleVector cz = r2x.mul(r3y).sub(r2y.mul(r3x));
+
+            DoubleVector numerator = r1x.mul(cx).add(r1y.mul(cy)).add(r1z.mul(cz));
+            DoubleVector denominator = r1m.mul(r2m).mul(r3m)
+                    .add(r1m.mul(r2x.mul(r3x).add(r2y.mul(r3y)).add(r2z.mul(r3z))))
+                    .add(r2m.mul(r3x.mul(r1x).add(r3y.mul(r1y)).add(r3z.mul(r1z))))
+                    .add(r3m.mul(r1x.mul(r2x).add(r1y.mul(r2y)).add(r1z.mul(r2z))));
+            numerator = numerator.blend(-0.0, numerator.abs().compare(VectorOperators.LT, 1e-9));
+            DoubleVector wf = numerator.lanewise(VectorOperators.ATAN2, denominator).mul(2.0);
+
+            DoubleVector Frx = DoubleVector.fromArray(SPECIES, F, i).mul(r1x)
+                    .add(DoubleVector.fromArray(SPECIES, F, nf + i).mul(r1y))
+                    .add(DoubleVector.fromArray(SPECIES, F, 2 * nf + i).mul(r1z));
+            DoubleVector Fry = DoubleVector.fromArray(SPECIES, F, 3 * nf + i).mul(r1x)
+                    .add(DoubleVector.fromArray(SPECIES, F, 4 * nf + i).mul(r1y))
+                    .add(DoubleVector.fromArray(SPECIES, F, 5 * nf + i).mul(r1z));
+            DoubleVector Frz = DoubleVector.fromArray(SPECIES, F, 6 * nf + i).mul(r1x)
+                    .add(DoubleVector.fromArray(SPECIES, F, 7 * nf + i).mul(r1y))
+                    .add(DoubleVector.fromArray(SPECIES, F, 8 * nf + i).mul(r1z));
+            DoubleVector rFr = r1x.mul(Frx).add(r1y.mul(Fry)).add(r1z.mul(Frz));
+
+            pot = pot.add(rFr.mul(wf));
+            ax = ax.add(Frx.mul(wf));
+            ay = ay.add(Fry.mul(wf));
+            az = az.add(Frz.mul(wf));
+        }
+
+        double p = pot.reduceLanes(VectorOperators.ADD);
+        double x = ax.reduceLanes(VectorOperators.ADD);
+        double y = ay.reduceLanes(VectorOperators.ADD);
+        double z = az.reduceLanes(VectorOperators.ADD);
+        for (; i < to; ++i) {
+            int id = id1[i];
+            double wf = GravityWernerSoA.compute_wf(rx, ry, rz, rMag, id, id2[i], id3[i]);
+
+            double Frx = F[i] * rx[id] + F[nf + i] * ry[id] + F[2 * nf + i] * rz[id];
+            double Fry = F[3 * nf + i] * rx[id] + F[4 * nf + i] * ry[id] + F[5 * nf + i] * rz[id];
+            double Frz = F[6 * nf + i] * rx[id] + F[7 * nf + i] * ry[id] + F[8 * nf + i] * rz[id];
+            double rFr = rx[id] * Frx + ry[id] * Fry + rz[id] * Frz;
+            p += (rFr * wf);
+
+            x += Frx * wf;
+            y += Fry * wf;
+            z += Frz * wf;
+        }
+
+        sums[0] += p;
+        sums[1] += x;
+        sums[2] += y;
+        sums[3] += z;
+    }
+
+    /**
+     * Add the (unscaled) Cheng potential and acceleration of faces [from, to) of
+     * model to sums[0] and sums[1..3]. Groups of faces containing a face whose
+     * center coincides with the field point are handled by the scalar code,
+     * which uses x_minus_R and acc (length 3) as scratch space.
+     */
+    @Override
+    public void chengSums(GravityCheng model, double[] fieldPoint, int from, int to, double[] x_minus_R,
+            double[] acc, double[] sums) {
+        final double x = fieldPoint[0];
+        final double y = fieldPoint[1];
+        final double z = fieldPoint[2];
+
+        DoubleVector pot = DoubleVector.zero(SPECIES);
+        DoubleVector ax = DoubleVector.zero(SPECIES);
+        DoubleVector ay = DoubleVector.zero(SPECIES);
+        DoubleVector az = DoubleVector.zero(SPECIES);
+        acc[0] = 0.0;
+        acc[1] = 0.0;
+        acc[2] = 0.0;
+        double p = 0.0;
+
+        int i = from;
+        int upper = from + SPECIES.loopBound(to - from);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, model.centerX, i).neg().add(x);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, model.centerY, i).neg().add(y);
+            DoubleVector dz = DoubleVector.fromArray(SPECIES, model.centerZ, i).neg().add(z);
+            DoubleVector mag = dx.mul(dx).add(dy.mul(dy)).add(dz.mul(dz)).sqrt();
+
+            if (mag.compare(VectorOperators.EQ, 0.0).anyTrue()) {
+                for (int j = i; j < i + SPECIES.length(); ++j)
+                    p += model.addFace(j, fieldPoint, x_minus_R, acc);
+                continue;
+            }
+
+            DoubleVector nx = DoubleVector.fromArray(SPECIES, model.normalX, i);
+            DoubleVector ny = DoubleVector.fromArray(SPECIES, model.normalY, i);
+            DoubleVector nz = DoubleVector.fromArray(SPECIES, model.normalZ, i);
+            DoubleVector dotN = dx.mul(nx).add(dy.mul(ny)).add(dz.mul(nz));
+            DoubleVector scale = dotN.div(mag.mul(mag));
+
+            pot = pot.add(dotN.div(mag));
+            ax = ax.sub(nx.sub(dx.mul(scale)).div(mag));
+            ay = ay.sub(ny.sub(dy.mul(scale)).div(mag));
+            az = az.sub(nz.sub(dz.mul(scale)).div(mag));
+        }
+        for (; i < to; ++i)
+            p += model.addFace(i, fieldPoint, x_minus_R, acc);
+
+        sums[0] += p + pot.reduceLanes(VectorOperators.ADD);
+        sums[1] += acc[0] + ax.reduceLanes(VectorOperators.ADD);
+        sums[2] += acc[1] + ay.reduceLanes(VectorOperators.ADD);
+        sums[3] += acc[2] + az.reduceLanes(VectorOperators.ADD);
+    }
+}
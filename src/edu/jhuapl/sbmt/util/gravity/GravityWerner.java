@@ -1,10 +1,8 @@
 package edu.jhuapl.sbmt.util.gravity;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
 
-import vtk.vtkIdList;
 import vtk.vtkPolyData;
 
 import edu.jhuapl.saavtk.util.MathUtil;
@@ -15,24 +13,6 @@ import edu.jhuapl.saavtk.util.MathUtil;
  * Werner R. A. and D. J. Scheeres (1997) CeMDA, 65, 313-344.
  */
 public class GravityWerner extends Gravity {
-    private static class EdgeKey {
-        int p1;
-        int p2;
-
-        @Override
-        public boolean equals(Object obj) {
-            EdgeKey key = (EdgeKey) obj;
-            return p1 == key.p1 && p2 == key.p2;
-        }
-
-        @Override
-        public int hashCode() {
-            // This hash seems to produce efficient look ups. Not sure what
-            // the best hash is though.
-            return p1;
-        }
-    };
-
     private static class EdgeData {
         double[][] E = new double[3][3];
         double edgeLength;
@@ -58,12 +38,6 @@ public class GravityWerner extends Gravity {
     private List<FaceData> faceData = new ArrayList<FaceData>();
     private List<Point> pointCache = new ArrayList<Point>();
 
-    private static void addMatrices(double[][] a, double[][] b, double[][] c) {
-        for (int i = 0; i < 3; ++i)
-            for (int j = 0; j < 3; ++j)
-                c[i][j] = a[i][j] + b[i][j];
-    }
-
     private static void multiply3x3(double[][] A, double[] v, double[] u) {
         u[0] = A[0][0] * v[0] + A[0][1] * v[1] + A[0][2] * v[2];
         u[1] = A[1][0] * v[0] + A[1][1] * v[1] + A[1][2] * v[2];
@@ -74,12 +48,6 @@ public class GravityWerner extends Gravity {
         return (a <= 0.0) ? 0.0 - a : a;
     }
 
-    private static void outer(double[] x, double[] y, double[][] A) {
-        for (int i = 0; i < 3; i++)
-            for (int j = 0; j < 3; j++)
-                A[i][j] = x[i] * y[j];
-    }
-
 
     /*
     // For debugging
@@ -97,117 +65,53 @@ public class GravityWerner extends Gravity {
 
 
     public GravityWerner(vtkPolyData polyData) {
+        // The edge and face data is computed by WernerPolyhedron, which builds
+        // the edge table without boxing every edge and in parallel. Edges come
+        // out in the same order and with the same values as before.
+        this(polyData, WernerPolyhedron.fromPolyData(polyData));
+    }
+
+    /**
+     * Only for evaluating the kernel directly, e.g. in tests. runGravity() cannot
+     * be used on an instance created this way.
+     */
+    GravityWerner(WernerPolyhedron polyhedron) {
+        this(null, polyhedron);
+    }
+
+    private GravityWerner(vtkPolyData polyData, WernerPolyhedron polyhedron) {
         super(polyData);
 
         // cache the points to avoid JNI access
-        int numPoints = (int)polyData.GetNumberOfPoints();
+        int numPoints = polyhedron.numPoints;
         for (int i = 0; i < numPoints; ++i) {
             Point p = new Point();
-            polyData.GetPoint(i, p.point);
+            polyhedron.getPoint(i, p.point);
             pointCache.add(p);
         }
 
-        LinkedHashMap<EdgeKey, EdgeData> edgeDataMap = new LinkedHashMap<EdgeKey, EdgeData>();
-
-        vtkIdList idList = new vtkIdList();
-
-        int numFaces = (int)polyData.GetNumberOfCells();
-        // Compute the edge data
-        for (int i = 0; i < numFaces; ++i) {
-            polyData.GetCellPoints(i, idList);
-
-            int[] pointIds = new int[3];
-            pointIds[0] = (int)idList.GetId(0);
-            pointIds[1] = (int)idList.GetId(1);
-            pointIds[2] = (int)idList.GetId(2);
-
-            double[] pt1 = pointCache.get(pointIds[0]).point;
-            double[] pt2 = pointCache.get(pointIds[1]).point;
-            double[] pt3 = pointCache.get(pointIds[2]).point;
-
-            double[] cellNormal = new double[3];
-            MathUtil.triangleNormal(pt1, pt2, pt3, cellNormal);
-
-            for (int j = 0; j < 3; ++j) {
-                int p1;
-                int p2;
-                if (j < 2) {
-                    p1 = pointIds[j];
-                    p2 = pointIds[j + 1];
-                }
-                else {
-                    p1 = pointIds[2];
-                    p2 = pointIds[0];
-                }
-
-                // Put the point with the lowest id into ed so that
-                // the 2 identical edges always have the same point
-                EdgeKey key = new EdgeKey();
-                if (p1 < p2) {
-                    key.p1 = p1;
-                    key.p2 = p2;
-                }
-                else {
-                    key.p1 = p2;
-                    key.p2 = p1;
-                }
-
-                EdgeData ed;
-                if (edgeDataMap.containsKey(key)) {
-                    ed = edgeDataMap.get(key);
-                }
-                else {
-                    // If key not found
-                    ed = new EdgeData();
-                    ed.E[0][0] = ed.E[0][1] = ed.E[0][2] = 0.0;
-                    ed.E[1][0] = ed.E[1][1] = ed.E[1][2] = 0.0;
-                    ed.E[2][0] = ed.E[2][1] = ed.E[2][2] = 0.0;
-                    ed.edgeLength = 0.0;
-                    ed.p1 = key.p1;
-                    ed.p2 = key.p2;
-                    // it =
-                    // edgeDataMap.insert(pair<EdgeKey,EdgeData>(key,ed)).first;
-                    edgeDataMap.put(key, ed);
-                }
-
-                // Compute unit vector from p1 to p2
-                double[] edgeUnitVector = new double[3];
-                pt1 = pointCache.get(p1).point;
-                pt2 = pointCache.get(p2).point;
-                MathUtil.vsub(pt2, pt1, edgeUnitVector);
-                ed.edgeLength = MathUtil.unorm(edgeUnitVector, edgeUnitVector);
-                // Compute half of the E dyad
-                double[] edgeNormal = new double[3];
-                MathUtil.vcrss(edgeUnitVector, cellNormal, edgeNormal);
-
-                double[][] E = new double[3][3];
-                outer(cellNormal, edgeNormal, E);
-
-                addMatrices(ed.E, E, ed.E);
-            }
+        int numEdges = polyhedron.numEdges;
+        edgeData = new ArrayList<EdgeData>(numEdges);
+        for (int i = 0; i < numEdges; ++i) {
+            EdgeData ed = new EdgeData();
+            for (int m = 0; m < 3; ++m)
+                for (int n = 0; n < 3; ++n)
+                    ed.E[m][n] = polyhedron.edgeDyads[(3 * m + n) * numEdges + i];
+            ed.edgeLength = polyhedron.edgeLengths[i];
+            ed.p1 = polyhedron.edgePoint1[i];
+            ed.p2 = polyhedron.edgePoint2[i];
+            edgeData.add(ed);
         }
 
-        // Now convert the edgeDataMap to a vector
-        edgeData = new ArrayList<EdgeData>(edgeDataMap.values());
-
-        // Compute the face data
+        int numFaces = polyhedron.numFaces;
         for (int i = 0; i < numFaces; ++i) {
             FaceData fd = new FaceData();
             faceData.add(fd);
-
-            polyData.GetCellPoints(i, idList);
-            fd.pointIds[0] = (int)idList.GetId(0);
-            fd.pointIds[1] = (int)idList.GetId(1);
-            fd.pointIds[2] = (int)idList.GetId(2);
-
-            double[] pt1 = pointCache.get(fd.pointIds[0]).point;
-            double[] pt2 = pointCache.get(fd.pointIds[1]).point;
-            double[] pt3 = pointCache.get(fd.pointIds[2]).point;
-
-            // Compute the F dyad
-            double[] normal = new double[3];
-            MathUtil.triangleNormal(pt1, pt2, pt3, normal);
-            outer(normal, normal, fd.F);
+            for (int j = 0; j < 3; ++j)
+                fd.pointIds[j] = polyhedron.facePoints[3 * i + j];
+            for (int m = 0; m < 3; ++m)
+                for (int n = 0; n < 3; ++n)
+                    fd.F[m][n] = polyhedron.faceDyads[(3 * m + n) * numFaces + i];
         }
     }
 
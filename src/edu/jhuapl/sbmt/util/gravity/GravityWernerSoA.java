@@ -0,0 +1,577 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.DoubleAccumulator;
+
+import vtk.vtkPolyData;
+
+import edu.jhuapl.saavtk.util.MathUtil;
+
+/**
+ * Structure-of-arrays edition of GravityWerner. The polyhedron is stored in a
+ * WernerPolyhedron (flat primitive arrays for the vertices, edge dyads and face
+ * dyads) and each thread reuses its own scratch buffers for the vectors from
+ * the field point to the vertices, so evaluating the gravity at a point does not
+ * allocate any memory.
+ *
+ * With the vector kernels turned off and the approximate mode off, the
+ * arithmetic of the single point getGravity is performed in exactly the same
+ * order as in GravityWerner so the results are bit-for-bit identical. The
+ * other paths only agree with GravityWerner to a tolerance, see below.
+ *
+ * When evaluating many points, use the block version of getGravity. It
+ * processes the edges and faces in tiles (see WernerTiles) and evaluates each
+ * tile for a block of POINTS_PER_BLOCK points before moving on to the next one,
+ * so the edge and face tables are streamed from memory once per block rather
+ * than once per point. Since the edge and face sums are accumulated separately
+ * and added at the end, the results may differ from the single point version in
+ * the last bits.
+ *
+ * Optionally, an approximate hierarchical mode can be turned on with
+ * setApproximationTolerance. The faces are then organized in an octree
+ * (WernerOctree) and clusters of faces far from the field point are replaced by
+ * multipole expansions, so the cost per point grows only logarithmically with
+ * the number of plates. The error of the approximation is estimated for every
+ * point and the largest relative error since the last reset is reported by
+ * getMaxApproximationError.
+ *
+ * If the JVM supports it (see VectorSupport) the exact sums are computed with
+ * the SIMD kernels in GravityVectorKernels. These sum in a different order, so
+ * the results agree with the scalar kernels to a relative error of about 1e-10
+ * rather than bit for bit. This can be turned off per instance with
+ * setUseVectorKernels(false).
+ *
+ * The polyhedron is read from the WernerPolyhedronCache if the system property
+ * sbmt.gravity.cache is set.
+ */
+public class GravityWernerSoA extends Gravity {
+
+    /**
+     * Number of field points evaluated together against each tile of edges and
+     * faces by the block version of getGravity.
+     */
+    static final int POINTS_PER_BLOCK = 16;
+
+    /**
+     * Per-thread buffers holding the vectors from the field point to each
+     * vertex and their magnitudes. The tile buffers hold the same for the
+     * vertices of a single tile and the block buffers accumulate the edge and
+     * face sums of the points of a block.
+     */
+    static class Scratch {
+        final double[] rx;
+        final double[] ry;
+        final double[] rz;
+        final double[] rMag;
+        final double[] r = new double[3];
+        final double[] error = new double[2];
+        final double[] sums = new double[4];
+
+        final double[] tileRx;
+        final double[] tileRy;
+        final double[] tileRz;
+        final double[] tileRMag;
+
+        final double[] edgePotential = new double[POINTS_PER_BLOCK];
+        final double[] edgeAx = new double[POINTS_PER_BLOCK];
+        final double[] edgeAy = new double[POINTS_PER_BLOCK];
+        final double[] edgeAz = new double[POINTS_PER_BLOCK];
+        final double[] facePotential = new double[POINTS_PER_BLOCK];
+        final double[] faceAx = new double[POINTS_PER_BLOCK];
+        final double[] faceAy = new double[POINTS_PER_BLOCK];
+        final double[] faceAz = new double[POINTS_PER_BLOCK];
+
+        Scratch(int numPoints, int maxTileVertices) {
+            rx = new double[numPoints];
+            ry = new double[numPoints];
+            rz = new double[numPoints];
+            rMag = new double[numPoints];
+            tileRx = new double[maxTileVertices];
+            tileRy = new double[maxTileVertices];
+            tileRz = new double[maxTileVertices];
+            tileRMag = new double[maxTileVertices];
+        }
+    }
+
+    private final WernerPolyhedron polyhedron;
+    private final WernerTiles tiles;
+    private final ThreadLocal<Scratch> scratch;
+
+    // vertices of each face as separate arrays so they can be used as gather
+    // indices by the SIMD kernels
+    private final int[] facePoint1;
+    private final int[] facePoint2;
+    private final int[] facePoint3;
+    private boolean useVectorKernels = VectorSupport.isEnabled();
+
+    private double approximationTolerance = 0.0;
+    private WernerOctree octree;
+    private final DoubleAccumulator maxApproximationError = new DoubleAccumulator(Math::max, 0.0);
+
+    public GravityWernerSoA(vtkPolyData polyData) {
+        this(polyData, WernerPolyhedronCache.getPolyhedron(polyData));
+    }
+
+    public GravityWernerSoA(vtkPolyData polyData, WernerPolyhedron polyhedron) {
+        super(polyData);
+        this.polyhedron = polyhedron;
+        this.tiles = new WernerTiles(polyhedron);
+        final int numPoints = polyhedron.numPoints;
+        final int maxTileVertices = tiles.maxTileVertices;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(numPoints, maxTileVertices));
+
+        int numFaces = polyhedron.numFaces;
+        facePoint1 = new int[numFaces];
+        facePoint2 = new int[numFaces];
+        facePoint3 = new int[numFaces];
+        for (int i = 0; i < numFaces; ++i) {
+            facePoint1[i] = polyhedron.facePoints[3 * i];
+            facePoint2[i] = polyhedron.facePoints[3 * i + 1];
+            facePoint3[i] = polyhedron.facePoints[3 * i + 2];
+        }
+    }
+
+    /**
+     * Only for evaluating the kernel directly, e.g. in tests. runGravity() cannot
+     * be used on an instance created this way.
+     */
+    GravityWernerSoA(WernerPolyhedron polyhedron) {
+        this(null, polyhedron);
+    }
+
+    public WernerPolyhedron getPolyhedron() {
+        return polyhedron;
+    }
+
+    /**
+     * Use the SIMD kernels if the JVM supports them (the default) or always use
+     * the scalar kernels.
+     */
+    public void setUseVectorKernels(boolean useVectorKernels) {
+        this.useVectorKernels = useVectorKernels && VectorSupport.isEnabled();
+    }
+
+    public boolean isUsingVectorKernels() {
+        return useVectorKernels;
+    }
+
+    /**
+     * Turn on the approximate hierarchical mode. Clusters of faces are replaced
+     * by their multipole expansions wherever the estimated error stays within
+     * the given tolerance relative to the potential and the acceleration at the
+     * field point. Set to 0 (the default) to compute the exact sums.
+     *
+     * @param tolerance requested relative error, e.g. 1e-6
+     */
+    public void setApproximationTolerance(double tolerance) {
+        if (tolerance < 0.0)
+            throw new IllegalArgumentException("Tolerance must not be negative: " + tolerance);
+        if (tolerance > 0.0 && octree == null)
+            octree = new WernerOctree(polyhedron);
+        this.approximationTolerance = tolerance;
+    }
+
+    public double getApproximationTolerance() {
+        return approximationTolerance;
+    }
+
+    /**
+     * @return the largest estimated relative error of the potential or the
+     *         acceleration of all points evaluated in the approximate mode
+     *         since the last call to resetMaxApproximationError or the start of
+     *         runGravity. Where the potential or acceleration is 0 its absolute
+     *         error is used instead.
+     */
+    public double getMaxApproximationError() {
+        return maxApproximationError.get();
+    }
+
+    public void resetMaxApproximationError() {
+        maxApproximationError.reset();
+    }
+
+    @Override
+    public List<GravityValues> runGravity() throws Exception {
+        resetMaxApproximationError();
+        List<GravityValues> results = super.runGravity();
+        if (approximationTolerance > 0.0)
+            System.out.println("Maximum estimated relative error of approximation: " + getMaxApproximationError());
+        return results;
+    }
+
+    /**
+     * Cache the vectors from the field point to all vertices and their
+     * magnitudes in the scratch buffers.
+     */
+    private static void computePointData(WernerPolyhedron p, double[] fieldPoint, Scratch s) {
+        double[] r = s.r;
+        for (int i = 0; i < p.numPoints; ++i) {
+            r[0] = p.pointX[i] - fieldPoint[0];
+            r[1] = p.pointY[i] - fieldPoint[1];
+            r[2] = p.pointZ[i] - fieldPoint[2];
+            s.rx[i] = r[0];
+            s.ry[i] = r[1];
+            s.rz[i] = r[2];
+            s.rMag[i] = MathUtil.vnorm(r);
+        }
+    }
+
+    /**
+     * Cache the vectors from field point k (stored in fieldPoints[3*k ... 3*k+2])
+     * to the vertices of a tile and their magnitudes in the tile buffers. Most
+     * vertices belong to more than one tile so this is done with a plain square
+     * root rather than the more expensive MathUtil.vnorm.
+     */
+    private static void computeTilePointData(WernerPolyhedron p, int[] tileVertices, int first, int last,
+            double[] fieldPoints, int k, Scratch s) {
+        double x = fieldPoints[3 * k];
+        double y = fieldPoints[3 * k + 1];
+        double z = fieldPoints[3 * k + 2];
+        for (int i = first; i < last; ++i) {
+            int id = tileVertices[i];
+            double rx = p.pointX[id] - x;
+            double ry = p.pointY[id] - y;
+            double rz = p.pointZ[id] - z;
+            s.tileRx[i - first] = rx;
+            s.tileRy[i - first] = ry;
+            s.tileRz[i - first] = rz;
+            s.tileRMag[i - first] = Math.sqrt(rx * rx + ry * ry + rz * rz);
+        }
+    }
+
+    static double compute_wf(double[] rx, double[] ry, double[] rz, double[] rMag, int i1, int i2, int i3) {
+        double r1x = rx[i1], r1y = ry[i1], r1z = rz[i1];
+        double r2x = rx[i2], r2y = ry[i2], r2z = rz[i2];
+        double r3x = rx[i3], r3y = ry[i3], r3z = rz[i3];
+        double r1m = rMag[i1], r2m = rMag[i2], r3m = rMag[i3];
+
+        // r2 x r3
+        double cx = r2y * r3z - r2z * r3y;
+        double cy = r2z * r3x - r2x * r3z;
+        double cz = r2x * r3y - r2y * r3x;
+
+        double numerator = r1x * cx + r1y * cy + r1z * cz;
+        double denominator = r1m * r2m * r3m + r1m * (r2x * r3x + r2y * r3y + r2z * r3z) + r2m
+                * (r3x * r1x + r3y * r1y + r3z * r1z) + r3m * (r1x * r2x + r1y * r2y + r1z * r2z);
+
+        // TODO do a better comparison. Do not hard code 1e-9
+        if (Math.abs(numerator) < 1e-9)
+            numerator = -0.0;
+
+        return 2.0 * Math.atan2(numerator, denominator);
+    }
+
+    private static double compute_wf(WernerPolyhedron p, int face, Scratch s) {
+        return compute_wf(s.rx, s.ry, s.rz, s.rMag, p.facePoints[3 * face], p.facePoints[3 * face + 1],
+                p.facePoints[3 * face + 2]);
+    }
+
+    static double compute_Le(double r1m, double r2m, double edgeLength) {
+        if (Math.abs(r1m + r2m - edgeLength) < 1e-9) {
+            return 0.0;
+        }
+
+        return Math.log((r1m + r2m + edgeLength) / (r1m + r2m - edgeLength));
+    }
+
+    private static double compute_Le(WernerPolyhedron p, int edge, Scratch s) {
+        return compute_Le(s.rMag[p.edgePoint1[edge]], s.rMag[p.edgePoint2[edge]], p.edgeLengths[edge]);
+    }
+
+    /**
+     * Same as GravityWerner.getGravity but without any memory allocation.
+     *
+     * @param fieldPoint
+     *            input point at which to compute acceleration and potential
+     * @param acc
+     *            this is filled with the returned acceleration
+     * @return potential
+     */
+    @Override
+    public double getGravity(double[] fieldPoint, double[] acc) {
+        if (approximationTolerance > 0.0)
+            return getGravity(fieldPoint, acc, null);
+        return getExactGravity(fieldPoint, acc);
+    }
+
+    private double getExactGravity(double[] fieldPoint, double[] acc) {
+        Scratch s = scratch.get();
+        if (!useVectorKernels)
+            return getGravity(polyhedron, s, fieldPoint, acc);
+
+        WernerPolyhedron p = polyhedron;
+        VectorKernels kernels = VectorSupport.getKernels();
+        kernels.computePointData(p.pointX, p.pointY, p.pointZ, p.numPoints, fieldPoint[0],
+                fieldPoint[1], fieldPoint[2], s.rx, s.ry, s.rz, s.rMag);
+        double[] sums = s.sums;
+        Arrays.fill(sums, 0.0);
+        final int chunk = VectorKernels.CHUNK_SIZE;
+        for (int i = 0; i < p.numEdges; i += chunk)
+            kernels.edgeSums(s.rx, s.ry, s.rz, s.rMag, p.edgePoint1, p.edgePoint2, p.edgeLengths,
+                    p.edgeDyads, p.numEdges, i, Math.min(i + chunk, p.numEdges), sums);
+        for (int i = 0; i < p.numFaces; i += chunk)
+            kernels.faceSums(s.rx, s.ry, s.rz, s.rMag, facePoint1, facePoint2, facePoint3,
+                    p.faceDyads, p.numFaces, i, Math.min(i + chunk, p.numFaces), sums);
+        acc[0] = sums[1];
+        acc[1] = sums[2];
+        acc[2] = sums[3];
+        return 0.5 * sums[0];
+    }
+
+    /**
+     * Same as getGravity but also returns the estimated error bounds when the
+     * approximate mode is on.
+     *
+     * @param fieldPoint
+     *            input point at which to compute acceleration and potential
+     * @param acc
+     *            this is filled with the returned acceleration
+     * @param errorBound
+     *            if not null, filled with the estimated bound of the absolute
+     *            error of the potential (element 0) and of the magnitude of the
+     *            acceleration (element 1). Both are 0 in the exact mode.
+     * @return potential
+     */
+    public double getGravity(double[] fieldPoint, double[] acc, double[] errorBound) {
+        if (approximationTolerance <= 0.0) {
+            if (errorBound != null) {
+                errorBound[0] = 0.0;
+                errorBound[1] = 0.0;
+            }
+            return getExactGravity(fieldPoint, acc);
+        }
+
+        double[] error = errorBound != null ? errorBound : scratch.get().error;
+        double potential = octree.getGravity(fieldPoint, approximationTolerance, acc, error);
+        double accMag = Math.sqrt(acc[0] * acc[0] + acc[1] * acc[1] + acc[2] * acc[2]);
+        maxApproximationError.accumulate(Math.max(relativeError(error[0], potential), relativeError(error[1], accMag)));
+        return potential;
+    }
+
+    /**
+     * @return error relative to value, or the absolute error where value is 0,
+     *         e.g. the acceleration at the center of a symmetric body
+     */
+    private static double relativeError(double error, double value) {
+        double magnitude = Math.abs(value);
+        return magnitude > 0.0 ? error / magnitude : error;
+    }
+
+    static double getGravity(WernerPolyhedron p, Scratch s, double[] fieldPoint, double[] acc) {
+        double potential = 0.0;
+        double ax = 0.0;
+        double ay = 0.0;
+        double az = 0.0;
+
+        computePointData(p, fieldPoint, s);
+
+        final double[] E = p.edgeDyads;
+        final int ne = p.numEdges;
+        for (int i = 0; i < ne; ++i) {
+            // Any vertex of the edge will do, so just choose the first one.
+            int id = p.edgePoint1[i];
+            double rx = s.rx[id];
+            double ry = s.ry[id];
+            double rz = s.rz[id];
+
+            double Le = compute_Le(p, i, s);
+
+            double Erx = E[i] * rx + E[ne + i] * ry + E[2 * ne + i] * rz;
+            double Ery = E[3 * ne + i] * rx + E[4 * ne + i] * ry + E[5 * ne + i] * rz;
+            double Erz = E[6 * ne + i] * rx + E[7 * ne + i] * ry + E[8 * ne + i] * rz;
+            double rEr = rx * Erx + ry * Ery + rz * Erz;
+            potential -= (rEr * Le);
+
+            ax -= Erx * Le;
+            ay -= Ery * Le;
+            az -= Erz * Le;
+        }
+
+        final double[] F = p.faceDyads;
+        final int nf = p.numFaces;
+        for (int i = 0; i < nf; ++i) {
+            // Any vertex of the face will do, so just choose the first one.
+            int id = p.facePoints[3 * i];
+            double rx = s.rx[id];
+            double ry = s.ry[id];
+            double rz = s.rz[id];
+
+            double wf = compute_wf(p, i, s);
+
+            double Frx = F[i] * rx + F[nf + i] * ry + F[2 * nf + i] * rz;
+            double Fry = F[3 * nf + i] * rx + F[4 * nf + i] * ry + F[5 * nf + i] * rz;
+            double Frz = F[6 * nf + i] * rx + F[7 * nf + i] * ry + F[8 * nf + i] * rz;
+            double rFr = rx * Frx + ry * Fry + rz * Frz;
+
+            potential += (rFr * wf);
+
+            ax += Frx * wf;
+            ay += Fry * wf;
+            az += Frz * wf;
+        }
+
+        acc[0] = ax;
+        acc[1] = ay;
+        acc[2] = az;
+
+        return 0.5 * potential;
+    }
+
+    /**
+     * Compute the acceleration and potential at a block of points. The edges and
+     * faces are processed tile by tile and each tile is evaluated for up to
+     * POINTS_PER_BLOCK points while it is in cache.
+     */
+    @Override
+    protected void getGravity(double[] fieldPoints, int start, int end, double[] acc, double[] potential) {
+        if (approximationTolerance > 0.0) {
+            super.getGravity(fieldPoints, start, end, acc, potential);
+            return;
+        }
+        getGravity(polyhedron, tiles, scratch.get(), useVectorKernels, fieldPoints, start, end, acc, potential);
+    }
+
+    static void getGravity(WernerPolyhedron p, WernerTiles t, Scratch s, boolean useVectorKernels,
+            double[] fieldPoints, int start, int end, double[] acc, double[] potential) {
+        final double[] E = p.edgeDyads;
+        final int ne = p.numEdges;
+        final double[] F = p.faceDyads;
+        final int nf = p.numFaces;
+        final double[] rxs = s.tileRx;
+        final double[] rys = s.tileRy;
+        final double[] rzs = s.tileRz;
+        final double[] rMags = s.tileRMag;
+
+        for (int blockStart = start; blockStart < end; blockStart += POINTS_PER_BLOCK) {
+            int numInBlock = Math.min(POINTS_PER_BLOCK, end - blockStart);
+            Arrays.fill(s.edgePotential, 0.0);
+            Arrays.fill(s.edgeAx, 0.0);
+            Arrays.fill(s.edgeAy, 0.0);
+            Arrays.fill(s.edgeAz, 0.0);
+            Arrays.fill(s.facePotential, 0.0);
+            Arrays.fill(s.faceAx, 0.0);
+            Arrays.fill(s.faceAy, 0.0);
+            Arrays.fill(s.faceAz, 0.0);
+
+            for (int tile = 0; tile < t.getNumberOfTiles(); ++tile) {
+                for (int j = 0; j < numInBlock; ++j) {
+                    if (useVectorKernels) {
+                        addTileVector(p, t, tile, s, fieldPoints, blockStart + j, j);
+                        continue;
+                    }
+
+                    computeTilePointData(p, t.vertices, t.vertexStart[tile], t.vertexStart[tile + 1], fieldPoints,
+                            blockStart + j, s);
+
+                    double pot = s.edgePotential[j];
+                    double ax = s.edgeAx[j];
+                    double ay = s.edgeAy[j];
+                    double az = s.edgeAz[j];
+                    for (int i = t.edgeStart[tile]; i < t.edgeStart[tile + 1]; ++i) {
+                        int id1 = t.edgeLocal1[i];
+                        double rx = rxs[id1];
+                        double ry = rys[id1];
+                        double rz = rzs[id1];
+
+                        double Le = compute_Le(rMags[id1], rMags[t.edgeLocal2[i]], p.edgeLengths[i]);
+
+                        double Erx = E[i] * rx + E[ne + i] * ry + E[2 * ne + i] * rz;
+                        double Ery = E[3 * ne + i] * rx + E[4 * ne + i] * ry + E[5 * ne + i] * rz;
+                        double Erz = E[6 * ne + i] * rx + E[7 * ne + i] * ry + E[8 * ne + i] * rz;
+                        double rEr = rx * Erx + ry * Ery + rz * Erz;
+                        pot -= (rEr * Le);
+
+                        ax -= Erx * Le;
+                        ay -= Ery * Le;
+                        az -= Erz * Le;
+                    }
+                    s.edgePotential[j] = pot;
+                    s.edgeAx[j] = ax;
+                    s.edgeAy[j] = ay;
+                    s.edgeAz[j] = az;
+
+                    pot = s.facePotential[j];
+                    ax = s.faceAx[j];
+                    ay = s.faceAy[j];
+                    az = s.faceAz[j];
+                    for (int i = t.faceStart[tile]; i < t.faceStart[tile + 1]; ++i) {
+                        int id1 = t.faceLocal1[i];
+                        double rx = rxs[id1];
+                        double ry = rys[id1];
+                        double rz = rzs[id1];
+
+                        double wf = compute_wf(rxs, rys, rzs, rMags, id1, t.faceLocal2[i], t.faceLocal3[i]);
+
+                        double Frx = F[i] * rx + F[nf + i] * ry + F[2 * nf + i] * rz;
+                        double Fry = F[3 * nf + i] * rx + F[4 * nf + i] * ry + F[5 * nf + i] * rz;
+                        double Frz = F[6 * nf + i] * rx + F[7 * nf + i] * ry + F[8 * nf + i] * rz;
+                        double rFr = rx * Frx + ry * Fry + rz * Frz;
+
+                        pot += (rFr * wf);
+
+                        ax += Frx * wf;
+                        ay += Fry * wf;
+                        az += Frz * wf;
+                    }
+                    s.facePotential[j] = pot;
+                    s.faceAx[j] = ax;
+                    s.faceAy[j] = ay;
+                    s.faceAz[j] = az;
+                }
+            }
+
+            for (int j = 0; j < numInBlock; ++j) {
+                int k = blockStart + j;
+                acc[3 * k] = s.edgeAx[j] + s.faceAx[j];
+                acc[3 * k + 1] = s.edgeAy[j] + s.faceAy[j];
+                acc[3 * k + 2] = s.edgeAz[j] + s.faceAz[j];
+                potential[k] = 0.5 * (s.edgePotential[j] + s.facePotential[j]);
+            }
+        }
+    }
+
+    /**
+     * SIMD version of the body of the tile loop in getGravity: add the edge and
+     * face sums of tile for point k to the accumulators of block entry j.
+     */
+    private static void addTileVector(WernerPolyhedron p, WernerTiles t, int tile, Scratch s, double[] fieldPoints,
+            int k, int j) {
+        VectorKernels kernels = VectorSupport.getKernels();
+        kernels.computePointData(p.pointX, p.pointY, p.pointZ, t.vertices, t.vertexStart[tile],
+                t.vertexStart[tile + 1], fieldPoints[3 * k], fieldPoints[3 * k + 1], fieldPoints[3 * k + 2],
+                s.tileRx, s.tileRy, s.tileRz, s.tileRMag);
+
+        double[] sums = s.sums;
+        Arrays.fill(sums, 0.0);
+        kernels.edgeSums(s.tileRx, s.tileRy, s.tileRz, s.tileRMag, t.edgeLocal1, t.edgeLocal2,
+                p.edgeLengths, p.edgeDyads, p.numEdges, t.edgeStart[tile], t.edgeStart[tile + 1], sums);
+        s.edgePotential[j] += sums[0];
+        s.edgeAx[j] += sums[1];
+        s.edgeAy[j] += sums[2];
+        s.edgeAz[j] += sums[3];
+
+        Arrays.fill(sums, 0.0);
+        kernels.faceSums(s.tileRx, s.tileRy, s.tileRz, s.tileRMag, t.faceLocal1, t.faceLocal2,
+                t.faceLocal3, p.faceDyads, p.numFaces, t.faceStart[tile], t.faceStart[tile + 1], sums);
+        s.facePotential[j] += sums[0];
+        s.faceAx[j] += sums[1];
+        s.faceAy[j] += sums[2];
+        s.faceAz[j] += sums[3];
+    }
+
+    public boolean isInsidePolyhedron(double[] fieldPoint) {
+        Scratch s = scratch.get();
+        computePointData(polyhedron, fieldPoint, s);
+
+        double sum = 0.0;
+        for (int i = 0; i < polyhedron.numFaces; ++i) {
+            sum += compute_wf(polyhedron, i, s);
+        }
+
+        // This sum is equal to 4*pi if the point is inside the polyhedron and
+        // equals zero when outside.
+        return sum >= 2.0 * Math.PI;
+    }
+
+}
@@ -0,0 +1,278 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs loops over index ranges in parallel on a ForkJoinPool. Unlike
+ * ParallelLoop and ParallelGrid, which create a new thread pool per call and
+ * split the range into one equal chunk per processor, the pool is reused and
+ * ranges are split adaptively: ranges larger than 1/8 of the share of a thread
+ * are always split, smaller ones only while there are few queued tasks that
+ * idle threads could steal, down to a minimum size (the grain). Threads that
+ * finish early steal the remaining work, so a few expensive chunks no longer
+ * determine the wall time.
+ *
+ * Loops can be cancelled by passing a BooleanSupplier which is checked before
+ * each chunk is processed. Once it returns true no further chunks are started
+ * and the loop throws a CancellationException. If a chunk throws, the ranges
+ * that were not started yet are skipped and the loop throws the exception once
+ * the chunks already running have completed, so no chunk of a loop runs after
+ * it returned or threw.
+ *
+ * A shared instance is returned by getShared(). Its parallelism defaults to the
+ * number of processors and can be set with the system property
+ * sbmt.gravity.threads or with setSharedParallelism. The threads of a replaced
+ * shared executor are shut down once its running loops have completed, loops
+ * started on it afterwards run on the current shared executor.
+ */
+public final class ParallelExecutor {
+
+    public static final String PROPERTY = "sbmt.gravity.threads";
+
+    private static ParallelExecutor shared;
+
+    /**
+     * Function called on a range of indices [start, stop).
+     */
+    public interface RangeAction {
+        void apply(int start, int stop);
+    }
+
+    /**
+     * Function called on a range of indices [start, stop) returning the results
+     * for these indices.
+     */
+    public interface RangeFunction<T> {
+        List<T> apply(int start, int stop);
+    }
+
+    private final ForkJoinPool pool;
+
+    // loops running on pool, and whether this executor was replaced as the
+    // shared one, guarded by this
+    private int running;
+    private boolean retired;
+
+    public ParallelExecutor(int parallelism) {
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    public static synchronized ParallelExecutor getShared() {
+        if (shared == null)
+            shared = new ParallelExecutor(getDefaultParallelism());
+        return shared;
+    }
+
+    /**
+     * @return the number of threads set with the system property, or the
+     *         number of processors if it is not set or not a positive integer
+     */
+    static int getDefaultParallelism() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        String threads = System.getProperty(PROPERTY);
+        if (threads == null || threads.trim().isEmpty())
+            return processors;
+        try {
+            int parallelism = Integer.parseInt(threads.trim());
+            if (parallelism > 0)
+                return parallelism;
+        }
+        catch (NumberFormatException e) {
+            // reported below
+        }
+        System.err.println("Ignoring " + PROPERTY + "=" + threads + ", it must be a positive integer. Using "
+                + processors + " threads.");
+        return processors;
+    }
+
+    /**
+     * Replace the shared executor by one with the given number of threads. The
+     * threads of the previous executor are shut down once the loops running on
+     * it have completed. Callers that already got the previous executor can
+     * keep submitting loops to it, they run on the new one.
+     */
+    public static synchronized void setSharedParallelism(int parallelism) {
+        if (shared != null)
+            shared.retire();
+        shared = new ParallelExecutor(parallelism);
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Shut down the threads of this executor. Must not be called on the shared
+     * executor.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    boolean isShutdown() {
+        return pool.isShutdown();
+    }
+
+    private synchronized void retire() {
+        retired = true;
+        if (running == 0)
+            pool.shutdown();
+    }
+
+    /**
+     * @return false if this executor was replaced as the shared one and loops
+     *         must run on the current shared executor
+     */
+    private synchronized boolean begin() {
+        if (retired)
+            return false;
+        ++running;
+        return true;
+    }
+
+    private synchronized void end() {
+        if (--running == 0 && retired)
+            pool.shutdown();
+    }
+
+    /**
+     * Call action on ranges covering [0, size) in parallel and wait for all of
+     * them to complete.
+     *
+     * @param size number of indices
+     * @param grain ranges with at most this many indices are not split further
+     * @param cancelled checked before each range, may be null
+     * @param action function to call on each range
+     */
+    public void forEach(int size, int grain, BooleanSupplier cancelled, RangeAction action) {
+        if (size <= 0)
+            return;
+        if (!begin()) {
+            getShared().forEach(size, grain, cancelled, action);
+            return;
+        }
+        try {
+            grain = Math.max(grain, 1);
+            int threshold = Math.max(grain, size / (8 * pool.getParallelism()));
+            pool.invoke(new ActionTask(0, size, grain, threshold, cancelled, action, new AtomicBoolean()));
+        }
+        finally {
+            end();
+        }
+    }
+
+    /**
+     * Call function on ranges covering [0, size) in parallel and return the
+     * concatenation of the results in the order of the indices.
+     *
+     * @param size number of indices
+     * @param grain ranges with at most this many indices are not split further
+     * @param cancelled checked before each range, may be null
+     * @param function function to call on each range
+     * @return results for all indices
+     */
+    public <T> List<T> map(int size, int grain, BooleanSupplier cancelled, RangeFunction<T> function) {
+        ConcurrentSkipListMap<Integer, List<T>> parts = new ConcurrentSkipListMap<Integer, List<T>>();
+        forEach(size, grain, cancelled, (start, stop) -> parts.put(start, function.apply(start, stop)));
+
+        List<T> results = new ArrayList<T>(Math.max(size, 0));
+        for (List<T> part : parts.values())
+            results.addAll(part);
+        return results;
+    }
+
+    /**
+     * Below the threshold only split while this worker has few tasks queued, so
+     * there is always something to steal but no more tasks are created than
+     * needed.
+     */
+    private static boolean shouldSplit(int start, int stop, int grain, int threshold) {
+        int n = stop - start;
+        return n > grain && (n > threshold || ForkJoinTask.getSurplusQueuedTaskCount() <= 2);
+    }
+
+    private static void checkCancelled(BooleanSupplier cancelled) {
+        if (cancelled != null && cancelled.getAsBoolean())
+            throw new CancellationException("Computation was cancelled");
+    }
+
+    private static class ActionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int stop;
+        private final int grain;
+        private final int threshold;
+        private final BooleanSupplier cancelled;
+        private final RangeAction action;
+        // set once a range of the loop threw, the ranges not started yet are
+        // then skipped
+        private final AtomicBoolean failed;
+
+        ActionTask(int start, int stop, int grain, int threshold, BooleanSupplier cancelled, RangeAction action,
+                AtomicBoolean failed) {
+            this.start = start;
+            this.stop = stop;
+            this.grain = grain;
+            this.threshold = threshold;
+            this.cancelled = cancelled;
+            this.action = action;
+            this.failed = failed;
+        }
+
+        @Override
+        protected void compute() {
+            if (failed.get())
+                return;
+            int lo = start;
+            int hi = stop;
+            List<ActionTask> forked = new ArrayList<ActionTask>();
+            boolean completed = false;
+            try {
+                while (shouldSplit(lo, hi, grain, threshold)) {
+                    int mid = (lo + hi) >>> 1;
+                    ActionTask right = new ActionTask(mid, hi, grain, threshold, cancelled, action, failed);
+                    right.fork();
+                    forked.add(right);
+                    hi = mid;
+                }
+                checkCancelled(cancelled);
+                action.apply(lo, hi);
+                completed = true;
+            }
+            finally {
+                if (!completed)
+                    abort(forked, forked.size());
+            }
+
+            for (int i = forked.size() - 1; i >= 0; --i) {
+                ActionTask task = forked.get(i);
+                task.quietlyJoin();
+                if (task.isCompletedAbnormally()) {
+                    abort(forked, i);
+                    // throws the exception of the task
+                    task.join();
+                }
+            }
+        }
+
+        /**
+         * Wait for the first n forked tasks to complete, those that have not
+         * started yet return at once. They are not cancelled since cancel also
+         * completes a task that is running.
+         */
+        private void abort(List<ActionTask> forked, int n) {
+            failed.set(true);
+            for (int i = n - 1; i >= 0; --i)
+                forked.get(i).quietlyJoin();
+        }
+    }
+}
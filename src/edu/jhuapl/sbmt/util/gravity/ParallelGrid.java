@@ -1,17 +1,14 @@
 package edu.jhuapl.sbmt.util.gravity;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.Callable;
+import java.lang.reflect.Array;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * This class contains a static method, runParallelGrid, used by the gravity code for
- * computing gravity over a grid in parallel. It splits up the computation
- * into threads with tthe number of threads equal to the number of processors.
+ * This class contains a static method, runParallelGrid, for computing over a
+ * grid in parallel. It is kept for existing callers and runs on the shared
+ * ParallelExecutor, which splits the rows adaptively and reuses its threads.
+ * New code should use ParallelExecutor directly.
  *
  * @param <T>
  */
@@ -23,45 +20,26 @@ public class ParallelGrid<T> {
 
     public static <T> T[][] runParallelGrid(int numRows, final GridFunction loopFunction) throws InterruptedException,
             ExecutionException {
+        if (numRows <= 0)
+            return loopFunction.<T> func(0, 0);
+
+        // Each call returns a full size grid with only its own rows filled in.
+        // Only these rows are kept, in a single grid allocated by the first call
+        // to complete, so the grids returned by the calls can be freed right
+        // away.
+        AtomicReference<T[][]> results = new AtomicReference<T[][]>();
+        ParallelExecutor.getShared().forEach(numRows, 1, null, (startRow, stopRow) -> {
+            T[][] grid = loopFunction.<T> func(startRow, stopRow);
+            if (results.get() == null)
+                results.compareAndSet(null, newGrid(grid, numRows));
+            System.arraycopy(grid, startRow, results.get(), startRow, stopRow - startRow);
+        });
+
+        return results.get();
+    }
 
-        ExecutorService executor = Executors.newCachedThreadPool();
-        List<Callable<T[][]>> tasks = new ArrayList<Callable<T[][]>>();
-
-        int processors = Runtime.getRuntime().availableProcessors();
-        int chunk = numRows / processors;
-        for (int i = 0; i < processors; i++) {
-            final int startRow = i * chunk;
-            final int stopRow = i < processors - 1 ? (i + 1) * chunk : numRows;
-
-            tasks.add(new Callable<T[][]>() {
-                @Override
-                public T[][] call() throws Exception {
-                    return loopFunction.func(startRow, stopRow);
-                }
-            });
-        }
-
-        // Merge all the 3D arrays into a single array
-        List<Future<T[][]>> futures = executor.invokeAll(tasks);
-
-        T[][] results = futures.get(0).get().clone();
-        int numColumns = results[0].length; // TODO check this
-
-        for (int i = 0; i < processors; i++) {
-            final int startRow = i * chunk;
-            final int stopRow = i < processors - 1 ? (i + 1) * chunk : numRows;
-
-            Future<T[][]> f = futures.get(i);
-
-            T[][] grid = f.get();
-            for (int m = startRow; m < stopRow; ++m)
-                for (int n = 0; n < numColumns; ++n) {
-                    results[m][n] = grid[m][n];
-                }
-        }
-
-        executor.shutdown();
-
-        return results;
+    @SuppressWarnings("unchecked")
+    private static <T> T[][] newGrid(T[][] grid, int numRows) {
+        return (T[][]) Array.newInstance(grid.getClass().getComponentType(), numRows);
     }
 }
@@ -0,0 +1,33 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+/**
+ * The SIMD inner loops of GravityWernerSoA and GravityCheng. The only
+ * implementation, GravityVectorKernels, needs the jdk.incubator.vector module to
+ * compile and run, so it is only built with the vector Maven profile and is
+ * loaded by name through VectorSupport.getKernels(). See GravityVectorKernels
+ * for what the methods compute.
+ */
+interface VectorKernels {
+
+    /**
+     * Largest number of elements callers should pass to one call of the sums.
+     */
+    int CHUNK_SIZE = 2048;
+
+    int getLaneCount();
+
+    void computePointData(double[] px, double[] py, double[] pz, int n, double x, double y, double z, double[] rx,
+            double[] ry, double[] rz, double[] rMag);
+
+    void computePointData(double[] px, double[] py, double[] pz, int[] ids, int first, int last, double x, double y,
+            double z, double[] rx, double[] ry, double[] rz, double[] rMag);
+
+    void edgeSums(double[] rx, double[] ry, double[] rz, double[] rMag, int[] id1, int[] id2, double[] lengths,
+            double[] E, int ne, int from, int to, double[] sums);
+
+    void faceSums(double[] rx, double[] ry, double[] rz, double[] rMag, int[] id1, int[] id2, int[] id3, double[] F,
+            int nf, int from, int to, double[] sums);
+
+    void chengSums(GravityCheng model, double[] fieldPoint, int from, int to, double[] x_minus_R, double[] acc,
+            double[] sums);
+}
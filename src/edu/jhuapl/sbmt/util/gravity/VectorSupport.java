@@ -0,0 +1,55 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+/**
+ * Decides at runtime whether the SIMD kernels in GravityVectorKernels can be
+ * used. They require the jdk.incubator.vector module, which is only available
+ * if the JVM was started with --add-modules jdk.incubator.vector, are only
+ * compiled with the vector Maven profile, and are only used if the preferred
+ * vector length is at least 4 doubles (AVX2 or AVX-512). They can be turned off
+ * by setting the system property sbmt.gravity.vector to false, in which case
+ * the scalar kernels are used.
+ */
+final class VectorSupport {
+
+    static final String PROPERTY = "sbmt.gravity.vector";
+    static final String MODULE = "jdk.incubator.vector";
+
+    private static final String KERNELS_CLASS = "edu.jhuapl.sbmt.util.gravity.GravityVectorKernels";
+
+    private static final VectorKernels KERNELS = load();
+
+    private VectorSupport() {
+    }
+
+    static boolean isEnabled() {
+        return KERNELS != null;
+    }
+
+    /**
+     * @return the SIMD kernels, or null if they cannot be used
+     */
+    static VectorKernels getKernels() {
+        return KERNELS;
+    }
+
+    private static VectorKernels load() {
+        if (!Boolean.parseBoolean(System.getProperty(PROPERTY, "true")))
+            return null;
+
+        // Do not touch GravityVectorKernels unless the module is present,
+        // otherwise the class cannot be loaded.
+        if (!ModuleLayer.boot().findModule(MODULE).isPresent())
+            return null;
+
+        try {
+            // looked up by name since it is missing unless built with the
+            // vector profile
+            VectorKernels kernels = (VectorKernels) Class.forName(KERNELS_CLASS).getDeclaredConstructor()
+                    .newInstance();
+            return kernels.getLaneCount() >= 4 ? kernels : null;
+        }
+        catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
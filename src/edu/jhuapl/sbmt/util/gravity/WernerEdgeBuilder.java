@@ -0,0 +1,239 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import edu.jhuapl.saavtk.util.MathUtil;
+
+/**
+ * Builds the edge table of a WernerPolyhedron without allocating an object per
+ * edge. Each half-edge (edge j of face i, numbered 3*i + j) is keyed on its
+ * sorted vertex ids packed into a long and inserted into a lock-free open
+ * addressing table, which also records the lowest half-edge of each edge.
+ * Edges are then numbered in the order of their lowest half-edge, which is the
+ * order in which they are first encountered when looping over the faces, so the
+ * edges come out in exactly the same order as with the LinkedHashMap used
+ * previously.
+ *
+ * All steps except two cheap linear passes run in parallel over chunks of faces
+ * or edges on the shared ParallelExecutor. The dyads are computed with the same
+ * arithmetic in the same order as before so the results are bit-for-bit
+ * identical.
+ */
+final class WernerEdgeBuilder {
+
+    private static final int CHUNK_SIZE = 1 << 14;
+
+    // largest power of 2 that is a valid array size
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    final int numEdges;
+    final int[] edgePoint1;
+    final int[] edgePoint2;
+    final double[] edgeLengths;
+    final double[] edgeDyads;
+
+    // unit normal of each face stored as x0,y0,z0,x1,...
+    final double[] faceNormals;
+
+    private final double[] pointX;
+    private final double[] pointY;
+    private final double[] pointZ;
+    private final int[] faces;
+    private final int numFaces;
+    private final int numHalfEdges;
+
+    WernerEdgeBuilder(double[] pointX, double[] pointY, double[] pointZ, int[] faces) {
+        this.pointX = pointX;
+        this.pointY = pointY;
+        this.pointZ = pointZ;
+        this.faces = faces;
+        this.numFaces = faces.length / 3;
+        this.numHalfEdges = 3 * numFaces;
+
+        faceNormals = new double[3 * numFaces];
+        forEachChunk(numFaces, this::computeFaceNormals);
+
+        // Find the edge of each half-edge and number the edges
+        int[] edgeOfHalfEdge = new int[numHalfEdges];
+        numEdges = numberEdges(edgeOfHalfEdge);
+        edgePoint1 = new int[numEdges];
+        edgePoint2 = new int[numEdges];
+        forEachChunk(numHalfEdges, (start, stop) -> {
+            for (int h = start; h < stop; ++h) {
+                int e = edgeOfHalfEdge[h];
+                int p1 = getPoint1(h);
+                int p2 = getPoint2(h);
+                // written by every half-edge of the edge but always the same
+                edgePoint1[e] = Math.min(p1, p2);
+                edgePoint2[e] = Math.max(p1, p2);
+            }
+        });
+
+        // List the half-edges of each edge in increasing order
+        int[] offsets = new int[numEdges + 1];
+        for (int h = 0; h < numHalfEdges; ++h)
+            ++offsets[edgeOfHalfEdge[h] + 1];
+        for (int e = 0; e < numEdges; ++e)
+            offsets[e + 1] += offsets[e];
+        int[] halfEdges = new int[numHalfEdges];
+        int[] next = new int[numEdges];
+        System.arraycopy(offsets, 0, next, 0, numEdges);
+        for (int h = 0; h < numHalfEdges; ++h)
+            halfEdges[next[edgeOfHalfEdge[h]]++] = h;
+
+        edgeLengths = new double[numEdges];
+        edgeDyads = new double[9 * numEdges];
+        forEachChunk(numEdges, (start, stop) -> computeEdgeDyads(start, stop, offsets, halfEdges));
+    }
+
+    /**
+     * Call function on chunks of at most CHUNK_SIZE indices starting at
+     * multiples of CHUNK_SIZE.
+     */
+    private static void forEachChunk(int size, ParallelExecutor.RangeAction function) {
+        int numChunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        ParallelExecutor.getShared().forEach(numChunks, 1, null, (first, last) -> {
+            for (int c = first; c < last; ++c)
+                function.apply(c * CHUNK_SIZE, Math.min((c + 1) * CHUNK_SIZE, size));
+        });
+    }
+
+    private int getPoint1(int h) {
+        return faces[h];
+    }
+
+    private int getPoint2(int h) {
+        return faces[h % 3 < 2 ? h + 1 : h - 2];
+    }
+
+    private void computeFaceNormals(int start, int stop) {
+        double[] pt1 = new double[3];
+        double[] pt2 = new double[3];
+        double[] pt3 = new double[3];
+        double[] normal = new double[3];
+        for (int i = start; i < stop; ++i) {
+            getPoint(faces[3 * i], pt1);
+            getPoint(faces[3 * i + 1], pt2);
+            getPoint(faces[3 * i + 2], pt3);
+            MathUtil.triangleNormal(pt1, pt2, pt3, normal);
+            faceNormals[3 * i] = normal[0];
+            faceNormals[3 * i + 1] = normal[1];
+            faceNormals[3 * i + 2] = normal[2];
+        }
+    }
+
+    /**
+     * Fill edgeOfHalfEdge with the id of the edge of each half-edge, numbering
+     * the edges in the order of their first half-edge.
+     *
+     * @return number of edges
+     */
+    private int numberEdges(int[] edgeOfHalfEdge) {
+        // Keys are stored + 1 so that 0 means empty. There are at most as many
+        // edges as half-edges, so the table is never more than 3/4 full. Beyond
+        // 3/4 * MAX_CAPACITY half-edges the capacity is clamped and the table
+        // gets fuller, but a closed surface has half as many edges as
+        // half-edges, so it cannot fill up.
+        long minCapacity = Math.max(4L * numHalfEdges / 3, 1);
+        int capacity = (int) Math.min(Long.highestOneBit(minCapacity) << 1, MAX_CAPACITY);
+        int shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        AtomicLongArray keys = new AtomicLongArray(capacity);
+        // Holds numHalfEdges - (lowest half-edge of the edge) so that the
+        // initial 0 is smaller than any real value. Later reused to hold
+        // -(edge id + 1).
+        AtomicIntegerArray values = new AtomicIntegerArray(capacity);
+        int[] slots = new int[numHalfEdges];
+
+        forEachChunk(numHalfEdges, (start, stop) -> {
+            for (int h = start; h < stop; ++h) {
+                int p1 = getPoint1(h);
+                int p2 = getPoint2(h);
+                long key = ((long) Math.min(p1, p2) << 32 | Math.max(p1, p2)) + 1;
+                int slot = (int) ((key * 0x9e3779b97f4a7c15L) >>> shift);
+                while (true) {
+                    long k = keys.get(slot);
+                    if (k == 0 && keys.compareAndSet(slot, 0, key))
+                        break;
+                    if (k == key || (k == 0 && keys.get(slot) == key))
+                        break;
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                slots[h] = slot;
+                values.accumulateAndGet(slot, numHalfEdges - h, Math::max);
+            }
+        });
+
+        // Flag the first half-edge of each edge and count them per chunk
+        int numChunks = (numHalfEdges + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int[] chunkStart = new int[numChunks + 1];
+        forEachChunk(numHalfEdges, (start, stop) -> {
+            int count = 0;
+            for (int h = start; h < stop; ++h) {
+                boolean first = numHalfEdges - values.get(slots[h]) == h;
+                edgeOfHalfEdge[h] = first ? 1 : 0;
+                if (first)
+                    ++count;
+            }
+            chunkStart[start / CHUNK_SIZE + 1] = count;
+        });
+        for (int c = 0; c < numChunks; ++c)
+            chunkStart[c + 1] += chunkStart[c];
+
+        // Number the edges and store the ids in the table
+        forEachChunk(numHalfEdges, (start, stop) -> {
+            int id = chunkStart[start / CHUNK_SIZE];
+            for (int h = start; h < stop; ++h)
+                if (edgeOfHalfEdge[h] != 0)
+                    values.set(slots[h], -(id++ + 1));
+        });
+
+        forEachChunk(numHalfEdges, (start, stop) -> {
+            for (int h = start; h < stop; ++h)
+                edgeOfHalfEdge[h] = -values.get(slots[h]) - 1;
+        });
+
+        return chunkStart[numChunks];
+    }
+
+    private void computeEdgeDyads(int start, int stop, int[] offsets, int[] halfEdges) {
+        double[] pt1 = new double[3];
+        double[] pt2 = new double[3];
+        double[] cellNormal = new double[3];
+        double[] edgeUnitVector = new double[3];
+        double[] edgeNormal = new double[3];
+        double[] E = new double[9];
+        for (int e = start; e < stop; ++e) {
+            for (int k = 0; k < 9; ++k)
+                E[k] = 0.0;
+
+            for (int n = offsets[e]; n < offsets[e + 1]; ++n) {
+                int h = halfEdges[n];
+                int face = h / 3;
+                cellNormal[0] = faceNormals[3 * face];
+                cellNormal[1] = faceNormals[3 * face + 1];
+                cellNormal[2] = faceNormals[3 * face + 2];
+
+                // Compute unit vector from p1 to p2 and half of the E dyad
+                getPoint(getPoint1(h), pt1);
+                getPoint(getPoint2(h), pt2);
+                MathUtil.vsub(pt2, pt1, edgeUnitVector);
+                edgeLengths[e] = MathUtil.unorm(edgeUnitVector, edgeUnitVector);
+                MathUtil.vcrss(edgeUnitVector, cellNormal, edgeNormal);
+
+                for (int m = 0; m < 3; ++m)
+                    for (int l = 0; l < 3; ++l)
+                        E[3 * m + l] = E[3 * m + l] + cellNormal[m] * edgeNormal[l];
+            }
+
+            for (int k = 0; k < 9; ++k)
+                edgeDyads[k * numEdges + e] = E[k];
+        }
+    }
+
+    private void getPoint(int id, double[] pt) {
+        pt[0] = pointX[id];
+        pt[1] = pointY[id];
+        pt[2] = pointZ[id];
+    }
+}
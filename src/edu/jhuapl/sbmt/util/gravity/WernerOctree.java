@@ -0,0 +1,542 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import java.util.Arrays;
+
+/**
+ * Octree over the faces of a WernerPolyhedron used for the approximate
+ * (Barnes-Hut) mode of GravityWernerSoA.
+ *
+ * The Werner sums can be regrouped by face. With Phi_f the potential of face f
+ * carrying a unit surface density (the single layer potential, which in terms
+ * of the quantities used by Werner is sum_e (n_fe . r_e) L_e - (n_f . r_f) w_f,
+ * with n_fe the outward normal of edge e in the plane of f), the potential and
+ * acceleration returned by GravityWerner are
+ *
+ * potential = -1/2 sum_f h_f Phi_f
+ * acc = -sum_f n_f Phi_f
+ *
+ * where n_f is the unit normal and h_f = n_f . (v_f - x) the distance of the
+ * plane of the face from the field point x. Writing h_f = h'_f - n_f . d with
+ * d = x - c and h'_f = n_f . (v_f - c) for some center c, the contribution of a
+ * cluster of faces is a linear combination of the potentials of 4 surface
+ * densities (h'_f and the 3 components of n_f) spread over its faces. Far from
+ * the cluster these are replaced by their multipole expansions (up to the
+ * octupole) about the center of the octree node holding the cluster. Near the
+ * field point the faces are summed exactly.
+ *
+ * The truncation error of the expansion of a density with total absolute
+ * charge B within a sphere of radius a about c, at a distance R > a from c, is
+ * at most B a^4 / (R^4 (R - a)). A node is used only if this bound is within its
+ * share, in proportion to its area, of the requested relative tolerance of a
+ * lower bound of the potential (and of the acceleration) at the field point.
+ * The sum of the bounds of all nodes used is returned as the estimated error.
+ * The acceleration bound only holds outside the body; inside, where the
+ * acceleration can vanish, its relative error can exceed the tolerance while
+ * the returned error bound still holds.
+ */
+final class WernerOctree {
+
+    static final int FACES_PER_LEAF = 16;
+    static final int MAX_DEPTH = 32;
+
+    // number of moments stored for each density: monopole, dipole (3), second
+    // moments (xx, xy, xz, yy, yz, zz) and third moments (in the order of
+    // THIRD_MOMENTS)
+    private static final int MOMENTS_PER_DENSITY = 20;
+    private static final int[][] THIRD_MOMENTS = { { 0, 0, 0 }, { 0, 0, 1 }, { 0, 0, 2 }, { 0, 1, 1 }, { 0, 1, 2 },
+            { 0, 2, 2 }, { 1, 1, 1 }, { 1, 1, 2 }, { 1, 2, 2 }, { 2, 2, 2 } };
+    // densities h', n_x, n_y, n_z
+    private static final int MOMENTS_PER_NODE = 4 * MOMENTS_PER_DENSITY;
+
+    private final WernerPolyhedron polyhedron;
+
+    // face data in tree order, i.e. the faces of a node are a consecutive range
+    private final int numFaces;
+    private final int[] faceIds;
+    private final int[] facePoints;
+    private final double[] faceNormals;
+    private final double[] edgeNormals;
+    private final double[] edgeLengths;
+
+    // node data
+    private int numNodes;
+    private double[] nodeCenters;
+    private double[] nodeRadii;
+    private double[] nodeAreas;
+    private double[] nodeAbsH;
+    private double[] nodeMoments;
+    private int[] nodeFaceStart;
+    private int[] nodeFaceEnd;
+    private int[] nodeChildStart;
+    private int[] nodeChildCount;
+    private int maxDepth;
+
+    private final double volume;
+    private final double totalArea;
+
+    /**
+     * Per-thread traversal stack and buffers for the vertices of a face.
+     */
+    private static class Workspace {
+        final int[] stack;
+        final double[] rx = new double[3];
+        final double[] ry = new double[3];
+        final double[] rz = new double[3];
+        final double[] rMag = new double[3];
+
+        Workspace(int stackSize) {
+            stack = new int[stackSize];
+        }
+    }
+
+    private final ThreadLocal<Workspace> workspace;
+
+    WernerOctree(WernerPolyhedron p) {
+        polyhedron = p;
+        numFaces = p.numFaces;
+        faceIds = new int[numFaces];
+        for (int i = 0; i < numFaces; ++i)
+            faceIds[i] = i;
+
+        double[] centroids = new double[3 * numFaces];
+        double[] areas = new double[numFaces];
+        double[] normals = new double[3 * numFaces];
+        double v = 0.0;
+        double area = 0.0;
+        for (int i = 0; i < numFaces; ++i) {
+            int i1 = p.facePoints[3 * i];
+            int i2 = p.facePoints[3 * i + 1];
+            int i3 = p.facePoints[3 * i + 2];
+            double ux = p.pointX[i2] - p.pointX[i1];
+            double uy = p.pointY[i2] - p.pointY[i1];
+            double uz = p.pointZ[i2] - p.pointZ[i1];
+            double wx = p.pointX[i3] - p.pointX[i1];
+            double wy = p.pointY[i3] - p.pointY[i1];
+            double wz = p.pointZ[i3] - p.pointZ[i1];
+            double cx = uy * wz - uz * wy;
+            double cy = uz * wx - ux * wz;
+            double cz = ux * wy - uy * wx;
+            double norm = Math.sqrt(cx * cx + cy * cy + cz * cz);
+            areas[i] = 0.5 * norm;
+            if (norm > 0.0) {
+                normals[3 * i] = cx / norm;
+                normals[3 * i + 1] = cy / norm;
+                normals[3 * i + 2] = cz / norm;
+            }
+            centroids[3 * i] = (p.pointX[i1] + p.pointX[i2] + p.pointX[i3]) / 3.0;
+            centroids[3 * i + 1] = (p.pointY[i1] + p.pointY[i2] + p.pointY[i3]) / 3.0;
+            centroids[3 * i + 2] = (p.pointZ[i1] + p.pointZ[i2] + p.pointZ[i3]) / 3.0;
+            v += (p.pointX[i1] * cx + p.pointY[i1] * cy + p.pointZ[i1] * cz) / 6.0;
+            area += areas[i];
+        }
+        volume = v;
+        totalArea = area;
+
+        int capacity = Math.max(16, numFaces / 4);
+        nodeCenters = new double[3 * capacity];
+        nodeRadii = new double[capacity];
+        nodeAreas = new double[capacity];
+        nodeAbsH = new double[capacity];
+        nodeMoments = new double[MOMENTS_PER_NODE * capacity];
+        nodeFaceStart = new int[capacity];
+        nodeFaceEnd = new int[capacity];
+        nodeChildStart = new int[capacity];
+        nodeChildCount = new int[capacity];
+
+        numNodes = 1;
+        build(0, 0, numFaces, 0, centroids, new int[numFaces]);
+        trim();
+        computeMoments(areas, normals);
+
+        // store the face data needed by the exact sum in tree order
+        facePoints = new int[3 * numFaces];
+        faceNormals = new double[3 * numFaces];
+        edgeNormals = new double[9 * numFaces];
+        edgeLengths = new double[3 * numFaces];
+        for (int k = 0; k < numFaces; ++k) {
+            int f = faceIds[k];
+            for (int j = 0; j < 3; ++j) {
+                facePoints[3 * k + j] = p.facePoints[3 * f + j];
+                faceNormals[3 * k + j] = normals[3 * f + j];
+            }
+            double nx = normals[3 * f];
+            double ny = normals[3 * f + 1];
+            double nz = normals[3 * f + 2];
+            for (int j = 0; j < 3; ++j) {
+                int a = p.facePoints[3 * f + j];
+                int b = p.facePoints[3 * f + (j < 2 ? j + 1 : 0)];
+                double ex = p.pointX[b] - p.pointX[a];
+                double ey = p.pointY[b] - p.pointY[a];
+                double ez = p.pointZ[b] - p.pointZ[a];
+                double len = Math.sqrt(ex * ex + ey * ey + ez * ez);
+                edgeLengths[3 * k + j] = len;
+                if (len > 0.0) {
+                    ex /= len;
+                    ey /= len;
+                    ez /= len;
+                }
+                // edge direction x face normal points out of the face
+                edgeNormals[9 * k + 3 * j] = ey * nz - ez * ny;
+                edgeNormals[9 * k + 3 * j + 1] = ez * nx - ex * nz;
+                edgeNormals[9 * k + 3 * j + 2] = ex * ny - ey * nx;
+            }
+        }
+
+        final int stackSize = 7 * (maxDepth + 1) + 1;
+        workspace = ThreadLocal.withInitial(() -> new Workspace(stackSize));
+    }
+
+    /**
+     * Recursively split the faces [start, end) of node into octants based on
+     * their centroids.
+     */
+    private void build(int node, int start, int end, int depth, double[] centroids, int[] tmp) {
+        nodeFaceStart[node] = start;
+        nodeFaceEnd[node] = end;
+        maxDepth = Math.max(maxDepth, depth);
+
+        if (end - start <= FACES_PER_LEAF || depth >= MAX_DEPTH)
+            return;
+
+        double[] min = { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+        double[] max = { -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+        for (int k = start; k < end; ++k) {
+            int f = faceIds[k];
+            for (int j = 0; j < 3; ++j) {
+                min[j] = Math.min(min[j], centroids[3 * f + j]);
+                max[j] = Math.max(max[j], centroids[3 * f + j]);
+            }
+        }
+        double mx = 0.5 * (min[0] + max[0]);
+        double my = 0.5 * (min[1] + max[1]);
+        double mz = 0.5 * (min[2] + max[2]);
+
+        int[] counts = new int[8];
+        for (int k = start; k < end; ++k)
+            ++counts[octant(faceIds[k], centroids, mx, my, mz)];
+
+        int numChildren = 0;
+        for (int c = 0; c < 8; ++c)
+            if (counts[c] > 0)
+                ++numChildren;
+        // all centroids coincide, cannot split further
+        if (numChildren == 1 && max[0] == min[0] && max[1] == min[1] && max[2] == min[2])
+            return;
+
+        int[] offsets = new int[8];
+        for (int c = 1; c < 8; ++c)
+            offsets[c] = offsets[c - 1] + counts[c - 1];
+        int[] next = offsets.clone();
+        for (int k = start; k < end; ++k) {
+            int f = faceIds[k];
+            tmp[start + next[octant(f, centroids, mx, my, mz)]++] = f;
+        }
+        System.arraycopy(tmp, start, faceIds, start, end - start);
+
+        int firstChild = numNodes;
+        ensureCapacity(numNodes + numChildren);
+        numNodes += numChildren;
+        nodeChildStart[node] = firstChild;
+        nodeChildCount[node] = numChildren;
+
+        int child = firstChild;
+        for (int c = 0; c < 8; ++c) {
+            if (counts[c] == 0)
+                continue;
+            build(child++, start + offsets[c], start + offsets[c] + counts[c], depth + 1, centroids, tmp);
+        }
+    }
+
+    private static int octant(int f, double[] centroids, double mx, double my, double mz) {
+        return (centroids[3 * f] > mx ? 1 : 0) | (centroids[3 * f + 1] > my ? 2 : 0)
+                | (centroids[3 * f + 2] > mz ? 4 : 0);
+    }
+
+    private void ensureCapacity(int size) {
+        int capacity = nodeRadii.length;
+        if (size <= capacity)
+            return;
+        capacity = Math.max(size, 2 * capacity);
+        nodeCenters = Arrays.copyOf(nodeCenters, 3 * capacity);
+        nodeRadii = Arrays.copyOf(nodeRadii, capacity);
+        nodeAreas = Arrays.copyOf(nodeAreas, capacity);
+        nodeAbsH = Arrays.copyOf(nodeAbsH, capacity);
+        nodeMoments = Arrays.copyOf(nodeMoments, MOMENTS_PER_NODE * capacity);
+        nodeFaceStart = Arrays.copyOf(nodeFaceStart, capacity);
+        nodeFaceEnd = Arrays.copyOf(nodeFaceEnd, capacity);
+        nodeChildStart = Arrays.copyOf(nodeChildStart, capacity);
+        nodeChildCount = Arrays.copyOf(nodeChildCount, capacity);
+    }
+
+    private void trim() {
+        nodeCenters = Arrays.copyOf(nodeCenters, 3 * numNodes);
+        nodeRadii = Arrays.copyOf(nodeRadii, numNodes);
+        nodeAreas = Arrays.copyOf(nodeAreas, numNodes);
+        nodeAbsH = Arrays.copyOf(nodeAbsH, numNodes);
+        nodeMoments = Arrays.copyOf(nodeMoments, MOMENTS_PER_NODE * numNodes);
+        nodeFaceStart = Arrays.copyOf(nodeFaceStart, numNodes);
+        nodeFaceEnd = Arrays.copyOf(nodeFaceEnd, numNodes);
+        nodeChildStart = Arrays.copyOf(nodeChildStart, numNodes);
+        nodeChildCount = Arrays.copyOf(nodeChildCount, numNodes);
+    }
+
+    /**
+     * Compute the center, radius and multipole moments of every node. The center
+     * is the center of the bounding box of the vertices of the faces of the node.
+     */
+    private void computeMoments(double[] areas, double[] normals) {
+        WernerPolyhedron p = polyhedron;
+        double[] s = new double[9];
+        double[] t = new double[THIRD_MOMENTS.length];
+        for (int node = 0; node < numNodes; ++node) {
+            double[] min = { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+            double[] max = { -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+            for (int k = nodeFaceStart[node]; k < nodeFaceEnd[node]; ++k) {
+                int f = faceIds[k];
+                for (int j = 0; j < 3; ++j) {
+                    int id = p.facePoints[3 * f + j];
+                    min[0] = Math.min(min[0], p.pointX[id]);
+                    min[1] = Math.min(min[1], p.pointY[id]);
+                    min[2] = Math.min(min[2], p.pointZ[id]);
+                    max[0] = Math.max(max[0], p.pointX[id]);
+                    max[1] = Math.max(max[1], p.pointY[id]);
+                    max[2] = Math.max(max[2], p.pointZ[id]);
+                }
+            }
+            double cx = 0.5 * (min[0] + max[0]);
+            double cy = 0.5 * (min[1] + max[1]);
+            double cz = 0.5 * (min[2] + max[2]);
+            nodeCenters[3 * node] = cx;
+            nodeCenters[3 * node + 1] = cy;
+            nodeCenters[3 * node + 2] = cz;
+
+            double radius = 0.0;
+            double area = 0.0;
+            double absH = 0.0;
+            int m = MOMENTS_PER_NODE * node;
+            for (int k = nodeFaceStart[node]; k < nodeFaceEnd[node]; ++k) {
+                int f = faceIds[k];
+                // vertex offsets from the center
+                for (int j = 0; j < 3; ++j) {
+                    int id = p.facePoints[3 * f + j];
+                    s[3 * j] = p.pointX[id] - cx;
+                    s[3 * j + 1] = p.pointY[id] - cy;
+                    s[3 * j + 2] = p.pointZ[id] - cz;
+                    radius = Math.max(radius, Math.sqrt(s[3 * j] * s[3 * j] + s[3 * j + 1] * s[3 * j + 1]
+                            + s[3 * j + 2] * s[3 * j + 2]));
+                }
+                double gx = (s[0] + s[3] + s[6]) / 3.0;
+                double gy = (s[1] + s[4] + s[7]) / 3.0;
+                double gz = (s[2] + s[5] + s[8]) / 3.0;
+                double a = areas[f];
+                double nx = normals[3 * f];
+                double ny = normals[3 * f + 1];
+                double nz = normals[3 * f + 2];
+                double h = nx * s[0] + ny * s[1] + nz * s[2];
+
+                // integrals of 1, s and s s^T over the triangle
+                double q = a / 12.0;
+                double sxx = q * (s[0] * s[0] + s[3] * s[3] + s[6] * s[6] + 9.0 * gx * gx);
+                double sxy = q * (s[0] * s[1] + s[3] * s[4] + s[6] * s[7] + 9.0 * gx * gy);
+                double sxz = q * (s[0] * s[2] + s[3] * s[5] + s[6] * s[8] + 9.0 * gx * gz);
+                double syy = q * (s[1] * s[1] + s[4] * s[4] + s[7] * s[7] + 9.0 * gy * gy);
+                double syz = q * (s[1] * s[2] + s[4] * s[5] + s[7] * s[8] + 9.0 * gy * gz);
+                double szz = q * (s[2] * s[2] + s[5] * s[5] + s[8] * s[8] + 9.0 * gz * gz);
+                for (int c = 0; c < THIRD_MOMENTS.length; ++c)
+                    t[c] = thirdMoment(s, a, THIRD_MOMENTS[c][0], THIRD_MOMENTS[c][1], THIRD_MOMENTS[c][2]);
+
+                double[] densities = { h, nx, ny, nz };
+                for (int d = 0; d < 4; ++d) {
+                    double sigma = densities[d];
+                    int o = m + MOMENTS_PER_DENSITY * d;
+                    nodeMoments[o] += sigma * a;
+                    nodeMoments[o + 1] += sigma * a * gx;
+                    nodeMoments[o + 2] += sigma * a * gy;
+                    nodeMoments[o + 3] += sigma * a * gz;
+                    nodeMoments[o + 4] += sigma * sxx;
+                    nodeMoments[o + 5] += sigma * sxy;
+                    nodeMoments[o + 6] += sigma * sxz;
+                    nodeMoments[o + 7] += sigma * syy;
+                    nodeMoments[o + 8] += sigma * syz;
+                    nodeMoments[o + 9] += sigma * szz;
+                    for (int c = 0; c < THIRD_MOMENTS.length; ++c)
+                        nodeMoments[o + 10 + c] += sigma * t[c];
+                }
+                area += a;
+                absH += Math.abs(h) * a;
+            }
+            nodeRadii[node] = radius;
+            nodeAreas[node] = area;
+            nodeAbsH[node] = absH;
+        }
+    }
+
+    /**
+     * Integral of s_i s_j s_k over a triangle with area a and vertices s[0..2],
+     * s[3..5], s[6..8], obtained by integrating the products of the barycentric
+     * coordinates.
+     */
+    private static double thirdMoment(double[] s, double a, int i, int j, int k) {
+        double Si = s[i] + s[3 + i] + s[6 + i];
+        double Sj = s[j] + s[3 + j] + s[6 + j];
+        double Sk = s[k] + s[3 + k] + s[6 + k];
+        double sum = Si * Sj * Sk;
+        for (int v = 0; v < 9; v += 3)
+            sum += s[v + i] * s[v + j] * Sk + Si * s[v + j] * s[v + k] + s[v + i] * Sj * s[v + k] + 2.0 * s[v + i]
+                    * s[v + j] * s[v + k];
+        return a / 60.0 * sum;
+    }
+
+    int getNumberOfNodes() {
+        return numNodes;
+    }
+
+    double getVolume() {
+        return volume;
+    }
+
+    /**
+     * Evaluate the multipole expansion of density d of node at offset (dx, dy,
+     * dz) from its center.
+     */
+    private double expansion(int node, int d, double dx, double dy, double dz, double R) {
+        int o = MOMENTS_PER_NODE * node + MOMENTS_PER_DENSITY * d;
+        double[] M = nodeMoments;
+        double R2 = R * R;
+        double R3 = R2 * R;
+        double dM1 = dx * M[o + 1] + dy * M[o + 2] + dz * M[o + 3];
+        double dQd = dx * (dx * M[o + 4] + 2.0 * (dy * M[o + 5] + dz * M[o + 6])) + dy * (dy * M[o + 7] + 2.0 * dz
+                * M[o + 8]) + dz * dz * M[o + 9];
+        double trQ = M[o + 4] + M[o + 7] + M[o + 9];
+        double dddT = dx * dx * (dx * M[o + 10] + 3.0 * (dy * M[o + 11] + dz * M[o + 12])) + dy * dy * (dy * M[o + 16]
+                + 3.0 * (dx * M[o + 13] + dz * M[o + 17])) + dz * dz * (dz * M[o + 19] + 3.0 * (dx * M[o + 15] + dy
+                * M[o + 18])) + 6.0 * dx * dy * dz * M[o + 14];
+        double dt = dx * (M[o + 10] + M[o + 13] + M[o + 15]) + dy * (M[o + 11] + M[o + 16] + M[o + 18]) + dz
+                * (M[o + 12] + M[o + 17] + M[o + 19]);
+        double R5 = R3 * R2;
+        return M[o] / R + dM1 / R3 + (3.0 * dQd - R2 * trQ) / (2.0 * R5) + (5.0 * dddT - 3.0 * R2 * dt)
+                / (2.0 * R5 * R2);
+    }
+
+    /**
+     * Compute the approximate acceleration and potential at a point. The results
+     * follow the same conventions as GravityWerner.getGravity.
+     *
+     * @param fieldPoint
+     *            input point at which to compute acceleration and potential
+     * @param tolerance
+     *            requested relative error
+     * @param acc
+     *            this is filled with the returned acceleration
+     * @param errorBound
+     *            if not null, filled with the estimated bound of the error of the
+     *            potential (element 0) and of the magnitude of the acceleration
+     *            (element 1)
+     * @return potential
+     */
+    double getGravity(double[] fieldPoint, double tolerance, double[] acc, double[] errorBound) {
+        final double x = fieldPoint[0];
+        final double y = fieldPoint[1];
+        final double z = fieldPoint[2];
+
+        // Lower bounds of the magnitudes of the potential and acceleration
+        // used to scale the tolerance.
+        double dx0 = x - nodeCenters[0];
+        double dy0 = y - nodeCenters[1];
+        double dz0 = z - nodeCenters[2];
+        double scale = Math.sqrt(dx0 * dx0 + dy0 * dy0 + dz0 * dz0) + nodeRadii[0];
+        double potentialBudget = tolerance * volume / scale / totalArea;
+        double accBudget = potentialBudget / scale;
+
+        double u = 0.0;
+        double ax = 0.0;
+        double ay = 0.0;
+        double az = 0.0;
+        double potentialError = 0.0;
+        double accError = 0.0;
+
+        final WernerPolyhedron p = polyhedron;
+        final Workspace w = workspace.get();
+        final double[] rx = w.rx;
+        final double[] ry = w.ry;
+        final double[] rz = w.rz;
+        final double[] rMag = w.rMag;
+
+        int[] stack = w.stack;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            double dx = x - nodeCenters[3 * node];
+            double dy = y - nodeCenters[3 * node + 1];
+            double dz = z - nodeCenters[3 * node + 2];
+            double R = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            double a = nodeRadii[node];
+
+            if (R > a) {
+                double ratio = a / R;
+                double truncation = ratio * ratio * ratio * ratio / (R - a);
+                double nodePotentialError = 0.5 * (nodeAbsH[node] + R * nodeAreas[node]) * truncation;
+                double nodeAccError = nodeAreas[node] * truncation;
+                if (nodePotentialError <= potentialBudget * nodeAreas[node]
+                        && nodeAccError <= accBudget * nodeAreas[node]) {
+                    double psi = expansion(node, 0, dx, dy, dz, R);
+                    double nx = expansion(node, 1, dx, dy, dz, R);
+                    double ny = expansion(node, 2, dx, dy, dz, R);
+                    double nz = expansion(node, 3, dx, dy, dz, R);
+                    u += 0.5 * (psi - (dx * nx + dy * ny + dz * nz));
+                    ax -= nx;
+                    ay -= ny;
+                    az -= nz;
+                    potentialError += nodePotentialError;
+                    accError += nodeAccError;
+                    continue;
+                }
+            }
+
+            if (nodeChildCount[node] > 0) {
+                for (int c = 0; c < nodeChildCount[node]; ++c)
+                    stack[top++] = nodeChildStart[node] + c;
+                continue;
+            }
+
+            // leaf close to the field point, sum its faces exactly
+            for (int k = nodeFaceStart[node]; k < nodeFaceEnd[node]; ++k) {
+                for (int j = 0; j < 3; ++j) {
+                    int id = facePoints[3 * k + j];
+                    rx[j] = p.pointX[id] - x;
+                    ry[j] = p.pointY[id] - y;
+                    rz[j] = p.pointZ[id] - z;
+                    rMag[j] = Math.sqrt(rx[j] * rx[j] + ry[j] * ry[j] + rz[j] * rz[j]);
+                }
+                double nx = faceNormals[3 * k];
+                double ny = faceNormals[3 * k + 1];
+                double nz = faceNormals[3 * k + 2];
+                double h = nx * rx[0] + ny * ry[0] + nz * rz[0];
+                double wf = GravityWernerSoA.compute_wf(rx, ry, rz, rMag, 0, 1, 2);
+
+                double phi = -h * wf;
+                for (int j = 0; j < 3; ++j) {
+                    int j2 = j < 2 ? j + 1 : 0;
+                    double Le = GravityWernerSoA.compute_Le(rMag[j], rMag[j2], edgeLengths[3 * k + j]);
+                    int e = 9 * k + 3 * j;
+                    phi += (edgeNormals[e] * rx[j] + edgeNormals[e + 1] * ry[j] + edgeNormals[e + 2] * rz[j]) * Le;
+                }
+                u += 0.5 * h * phi;
+                ax -= nx * phi;
+                ay -= ny * phi;
+                az -= nz * phi;
+            }
+        }
+
+        acc[0] = ax;
+        acc[1] = ay;
+        acc[2] = az;
+        if (errorBound != null) {
+            errorBound[0] = potentialError;
+            errorBound[1] = accError;
+        }
+
+        return -u;
+    }
+}
@@ -0,0 +1,152 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import vtk.vtkIdList;
+import vtk.vtkPolyData;
+
+/**
+ * Flat, structure-of-arrays representation of a closed triangular plate model
+ * containing everything the Werner gravity kernel needs: the vertices, the edge
+ * dyads and lengths, and the face dyads. All data is stored in primitive arrays
+ * so that evaluating the kernel does not touch any objects other than these
+ * arrays.
+ *
+ * The dyads are stored component-major, i.e. component k (k = 3*row + col) of
+ * the dyad of edge i is edgeDyads[k*numEdges + i]. Edges are in the order in
+ * which they are first encountered when looping over the faces. The edge table
+ * is built in parallel by WernerEdgeBuilder.
+ */
+public final class WernerPolyhedron {
+
+    final int numPoints;
+    final int numEdges;
+    final int numFaces;
+
+    // vertex coordinates
+    final double[] pointX;
+    final double[] pointY;
+    final double[] pointZ;
+
+    // the 2 vertices of each edge (lowest id first)
+    final int[] edgePoint1;
+    final int[] edgePoint2;
+    final double[] edgeLengths;
+    final double[] edgeDyads;
+
+    // the 3 vertices of each face, stored as facePoints[3*i + j]
+    final int[] facePoints;
+    final double[] faceDyads;
+
+    /**
+     * Build the polyhedron from vertex and face arrays.
+     *
+     * @param points vertex coordinates stored as x0,y0,z0,x1,y1,z1,...
+     * @param faces vertex ids of each triangle stored as a0,b0,c0,a1,b1,c1,...
+     */
+    public WernerPolyhedron(double[] points, int[] faces) {
+        numPoints = points.length / 3;
+        numFaces = faces.length / 3;
+
+        pointX = new double[numPoints];
+        pointY = new double[numPoints];
+        pointZ = new double[numPoints];
+        for (int i = 0; i < numPoints; ++i) {
+            pointX[i] = points[3 * i];
+            pointY[i] = points[3 * i + 1];
+            pointZ[i] = points[3 * i + 2];
+        }
+
+        facePoints = faces.clone();
+
+        WernerEdgeBuilder edges = new WernerEdgeBuilder(pointX, pointY, pointZ, facePoints);
+        numEdges = edges.numEdges;
+        edgePoint1 = edges.edgePoint1;
+        edgePoint2 = edges.edgePoint2;
+        edgeLengths = edges.edgeLengths;
+        edgeDyads = edges.edgeDyads;
+
+        // Compute the face data
+        faceDyads = new double[9 * numFaces];
+        double[] normals = edges.faceNormals;
+        ParallelExecutor.getShared().forEach(numFaces, 4096, null, (start, stop) -> {
+            for (int i = start; i < stop; ++i)
+                for (int m = 0; m < 3; ++m)
+                    for (int n = 0; n < 3; ++n)
+                        faceDyads[(3 * m + n) * numFaces + i] = normals[3 * i + m] * normals[3 * i + n];
+        });
+    }
+
+    /**
+     * Wrap previously computed arrays, e.g. read from a WernerPolyhedronCache.
+     * The arrays are used as is and must be laid out as described above.
+     */
+    WernerPolyhedron(double[] pointX, double[] pointY, double[] pointZ, int[] edgePoint1, int[] edgePoint2,
+            double[] edgeLengths, double[] edgeDyads, int[] facePoints, double[] faceDyads) {
+        this.numPoints = pointX.length;
+        this.numEdges = edgeLengths.length;
+        this.numFaces = facePoints.length / 3;
+        this.pointX = pointX;
+        this.pointY = pointY;
+        this.pointZ = pointZ;
+        this.edgePoint1 = edgePoint1;
+        this.edgePoint2 = edgePoint2;
+        this.edgeLengths = edgeLengths;
+        this.edgeDyads = edgeDyads;
+        this.facePoints = facePoints;
+        this.faceDyads = faceDyads;
+    }
+
+    /**
+     * Build the polyhedron from a vtkPolyData. The points and cells are copied
+     * out of the polydata once so no JNI calls are needed afterwards.
+     *
+     * @param polyData closed triangular plate model
+     * @return the polyhedron
+     */
+    public static WernerPolyhedron fromPolyData(vtkPolyData polyData) {
+        return new WernerPolyhedron(getPoints(polyData), getFaces(polyData));
+    }
+
+    static double[] getPoints(vtkPolyData polyData) {
+        int numPoints = (int)polyData.GetNumberOfPoints();
+        double[] points = new double[3 * numPoints];
+        double[] pt = new double[3];
+        for (int i = 0; i < numPoints; ++i) {
+            polyData.GetPoint(i, pt);
+            points[3 * i] = pt[0];
+            points[3 * i + 1] = pt[1];
+            points[3 * i + 2] = pt[2];
+        }
+        return points;
+    }
+
+    static int[] getFaces(vtkPolyData polyData) {
+        int numFaces = (int)polyData.GetNumberOfCells();
+        int[] faces = new int[3 * numFaces];
+        vtkIdList idList = new vtkIdList();
+        for (int i = 0; i < numFaces; ++i) {
+            polyData.GetCellPoints(i, idList);
+            faces[3 * i] = (int)idList.GetId(0);
+            faces[3 * i + 1] = (int)idList.GetId(1);
+            faces[3 * i + 2] = (int)idList.GetId(2);
+        }
+        return faces;
+    }
+
+    public int getNumberOfPoints() {
+        return numPoints;
+    }
+
+    public int getNumberOfEdges() {
+        return numEdges;
+    }
+
+    public int getNumberOfFaces() {
+        return numFaces;
+    }
+
+    void getPoint(int id, double[] pt) {
+        pt[0] = pointX[id];
+        pt[1] = pointY[id];
+        pt[2] = pointZ[id];
+    }
+}
@@ -0,0 +1,297 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import vtk.vtkPolyData;
+
+/**
+ * Persistent cache of WernerPolyhedron data. Building the edge table of a large
+ * shape model takes a long time, so the vertices, edge and face dyads and edge
+ * lengths are saved to a binary file in the cache directory the first time a
+ * shape model is used. Later runs read the arrays back from the file, through
+ * memory mapped windows, instead of building them again; the polyhedron itself
+ * always keeps its arrays on the heap.
+ *
+ * Files are keyed on the SHA-256 hash of the vertex coordinates and face vertex
+ * ids, so a modified shape model never picks up stale data. A file consists of
+ * a 64 byte header (magic number, format version, number of points, edges and
+ * faces, the hash and the CRC32 checksum of the rest of the file) followed by
+ * the arrays of the polyhedron in the order pointX, pointY, pointZ,
+ * edgeLengths, edgeDyads, faceDyads, edgePoint1, edgePoint2, facePoints, all
+ * little endian. Files that are truncated, corrupted, of another version or
+ * of another shape model are reported and rebuilt, as are problems writing the
+ * cache, in which case the polyhedron is simply computed.
+ *
+ * The cache used by default by GravityWernerSoA is turned on by setting the
+ * system property sbmt.gravity.cache to a directory.
+ */
+public final class WernerPolyhedronCache {
+
+    public static final String PROPERTY = "sbmt.gravity.cache";
+
+    private static final long MAGIC = 0x31435057544d4253L; // "SBMTWPC1"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final String SUFFIX = ".wpc";
+
+    // maximum number of bytes mapped or written at once
+    private static final int WINDOW = 1 << 26;
+
+    private final File directory;
+
+    public WernerPolyhedronCache(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the cache in the directory given by the sbmt.gravity.cache
+     *         system property, or null if it is not set
+     */
+    public static WernerPolyhedronCache getDefault() {
+        String dir = System.getProperty(PROPERTY);
+        if (dir == null || dir.isEmpty())
+            return null;
+        return new WernerPolyhedronCache(new File(dir));
+    }
+
+    /**
+     * Get the polyhedron of a shape model using the default cache if there is
+     * one.
+     *
+     * @param polyData closed triangular plate model
+     * @return the polyhedron
+     */
+    static WernerPolyhedron getPolyhedron(vtkPolyData polyData) {
+        WernerPolyhedronCache cache = getDefault();
+        if (cache == null)
+            return WernerPolyhedron.fromPolyData(polyData);
+        return cache.get(polyData);
+    }
+
+    /**
+     * Get the polyhedron of a shape model, reading it from the cache if it has
+     * been computed before and adding it to the cache otherwise.
+     *
+     * @param polyData closed triangular plate model
+     * @return the polyhedron
+     */
+    public WernerPolyhedron get(vtkPolyData polyData) {
+        return get(WernerPolyhedron.getPoints(polyData), WernerPolyhedron.getFaces(polyData));
+    }
+
+    /**
+     * Same as get(vtkPolyData) for a shape model given as vertex and face
+     * arrays as in the WernerPolyhedron constructor.
+     */
+    public WernerPolyhedron get(double[] points, int[] faces) {
+        byte[] hash = computeHash(points, faces);
+        File file = new File(directory, toHex(hash) + SUFFIX);
+
+        if (file.isFile()) {
+            try {
+                return read(file.toPath(), hash);
+            }
+            catch (IOException | RuntimeException e) {
+                System.err.println("Could not read gravity cache file " + file + ": " + e.getMessage());
+            }
+        }
+
+        WernerPolyhedron polyhedron = new WernerPolyhedron(points, faces);
+        try {
+            write(polyhedron, file.toPath(), hash);
+        }
+        catch (IOException e) {
+            System.err.println("Could not write gravity cache file " + file + ": " + e.getMessage());
+        }
+        return polyhedron;
+    }
+
+    static byte[] computeHash(double[] points, int[] faces) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(8 << 12).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(points.length).putInt(faces.length);
+        for (double d : points) {
+            if (buffer.remaining() < 8)
+                update(digest, buffer);
+            buffer.putDouble(d);
+        }
+        for (int i : faces) {
+            if (buffer.remaining() < 4)
+                update(digest, buffer);
+            buffer.putInt(i);
+        }
+        update(digest, buffer);
+        return digest.digest();
+    }
+
+    private static void update(MessageDigest digest, ByteBuffer buffer) {
+        buffer.flip();
+        digest.update(buffer);
+        buffer.clear();
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes)
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    private static WernerPolyhedron read(Path path, byte[] hash) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getLong() != MAGIC || header.getInt() != VERSION)
+                throw new IOException("not a gravity cache file or unsupported version");
+            int numPoints = header.getInt();
+            int numEdges = header.getInt();
+            int numFaces = header.getInt();
+            byte[] storedHash = new byte[32];
+            header.get(storedHash);
+            if (!Arrays.equals(hash, storedHash))
+                throw new IOException("hash does not match");
+            long storedCrc = header.getLong();
+
+            long expectedSize = HEADER_SIZE + 8L * (3L * numPoints + 10L * numEdges + 9L * numFaces)
+                    + 4L * (2L * numEdges + 3L * numFaces);
+            if (channel.size() != expectedSize)
+                throw new IOException("file is truncated");
+
+            long[] offset = { HEADER_SIZE };
+            CRC32 crc = new CRC32();
+            double[] pointX = readDoubles(channel, offset, numPoints, crc);
+            double[] pointY = readDoubles(channel, offset, numPoints, crc);
+            double[] pointZ = readDoubles(channel, offset, numPoints, crc);
+            double[] edgeLengths = readDoubles(channel, offset, numEdges, crc);
+            double[] edgeDyads = readDoubles(channel, offset, 9 * numEdges, crc);
+            double[] faceDyads = readDoubles(channel, offset, 9 * numFaces, crc);
+            int[] edgePoint1 = readInts(channel, offset, numEdges, crc);
+            int[] edgePoint2 = readInts(channel, offset, numEdges, crc);
+            int[] facePoints = readInts(channel, offset, 3 * numFaces, crc);
+            if (crc.getValue() != storedCrc)
+                throw new IOException("checksum does not match");
+
+            return new WernerPolyhedron(pointX, pointY, pointZ, edgePoint1, edgePoint2, edgeLengths, edgeDyads,
+                    facePoints, faceDyads);
+        }
+    }
+
+    private static double[] readDoubles(FileChannel channel, long[] offset, int n, CRC32 crc) throws IOException {
+        double[] values = new double[n];
+        for (int i = 0; i < n;) {
+            int count = Math.min(n - i, WINDOW / 8);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset[0], 8L * count);
+            crc.update(buffer.duplicate());
+            buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(values, i, count);
+            offset[0] += 8L * count;
+            i += count;
+        }
+        return values;
+    }
+
+    private static int[] readInts(FileChannel channel, long[] offset, int n, CRC32 crc) throws IOException {
+        int[] values = new int[n];
+        for (int i = 0; i < n;) {
+            int count = Math.min(n - i, WINDOW / 4);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset[0], 4L * count);
+            crc.update(buffer.duplicate());
+            buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(values, i, count);
+            offset[0] += 4L * count;
+            i += count;
+        }
+        return values;
+    }
+
+    /**
+     * Write to a temporary file first and rename it, so concurrent runs never
+     * see a partially written file. The header is written last, once the
+     * checksum of the arrays is known.
+     */
+    private static void write(WernerPolyhedron p, Path path, byte[] hash) throws IOException {
+        Files.createDirectories(path.getParent());
+        Path tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.position(HEADER_SIZE);
+                CRC32 crc = new CRC32();
+                ByteBuffer buffer = ByteBuffer.allocateDirect(WINDOW).order(ByteOrder.LITTLE_ENDIAN);
+                writeDoubles(channel, buffer, p.pointX, crc);
+                writeDoubles(channel, buffer, p.pointY, crc);
+                writeDoubles(channel, buffer, p.pointZ, crc);
+                writeDoubles(channel, buffer, p.edgeLengths, crc);
+                writeDoubles(channel, buffer, p.edgeDyads, crc);
+                writeDoubles(channel, buffer, p.faceDyads, crc);
+                writeInts(channel, buffer, p.edgePoint1, crc);
+                writeInts(channel, buffer, p.edgePoint2, crc);
+                writeInts(channel, buffer, p.facePoints, crc);
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putLong(MAGIC).putInt(VERSION).putInt(p.numPoints).putInt(p.numEdges).putInt(p.numFaces)
+                        .put(hash).putLong(crc.getValue());
+                header.flip();
+                channel.position(0);
+                writeFully(channel, header);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void writeDoubles(FileChannel channel, ByteBuffer buffer, double[] values, CRC32 crc)
+            throws IOException {
+        for (int i = 0; i < values.length;) {
+            int count = Math.min(values.length - i, WINDOW / 8);
+            buffer.clear();
+            buffer.asDoubleBuffer().put(values, i, count);
+            buffer.limit(8 * count);
+            crc.update(buffer.duplicate());
+            writeFully(channel, buffer);
+            i += count;
+        }
+    }
+
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] values, CRC32 crc)
+            throws IOException {
+        for (int i = 0; i < values.length;) {
+            int count = Math.min(values.length - i, WINDOW / 4);
+            buffer.clear();
+            buffer.asIntBuffer().put(values, i, count);
+            buffer.limit(4 * count);
+            crc.update(buffer.duplicate());
+            writeFully(channel, buffer);
+            i += count;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+}
@@ -0,0 +1,107 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import java.util.Arrays;
+
+/**
+ * Splits the faces of a WernerPolyhedron into tiles of consecutive faces used by
+ * the blocked multi-point kernel in GravityWernerSoA. Each tile also contains
+ * the edges that are first encountered in its faces. Since edges are numbered in
+ * the order they are first encountered when looping over the faces, these form
+ * a range of consecutive edges as well.
+ *
+ * Each tile has its own list of the vertices of its faces and the edges/faces of
+ * the tile refer to these vertices by their local index. This way the vectors
+ * from a field point to the vertices only need to be computed for the vertices
+ * of the tile currently being processed, and the tile (dyads, lengths, indices
+ * and vertex vectors) stays in cache while it is evaluated for a block of field
+ * points.
+ */
+final class WernerTiles {
+
+    static final int FACES_PER_TILE = 1024;
+
+    // tile t covers faces [faceStart[t], faceStart[t+1]) and edges
+    // [edgeStart[t], edgeStart[t+1])
+    final int[] faceStart;
+    final int[] edgeStart;
+
+    // local vertices of tile t are vertices[vertexStart[t] ... vertexStart[t+1]-1]
+    final int[] vertexStart;
+    final int[] vertices;
+
+    // local ids of the vertices of each edge and face
+    final int[] edgeLocal1;
+    final int[] edgeLocal2;
+    final int[] faceLocal1;
+    final int[] faceLocal2;
+    final int[] faceLocal3;
+
+    // largest number of vertices of any tile
+    final int maxTileVertices;
+
+    WernerTiles(WernerPolyhedron p) {
+        int numTiles = (p.numFaces + FACES_PER_TILE - 1) / FACES_PER_TILE;
+        faceStart = new int[numTiles + 1];
+        edgeStart = new int[numTiles + 1];
+        vertexStart = new int[numTiles + 1];
+        edgeLocal1 = new int[p.numEdges];
+        edgeLocal2 = new int[p.numEdges];
+        faceLocal1 = new int[p.numFaces];
+        faceLocal2 = new int[p.numFaces];
+        faceLocal3 = new int[p.numFaces];
+
+        int[] localId = new int[p.numPoints];
+        Arrays.fill(localId, -1);
+        int[] tileVertices = new int[3 * p.numFaces];
+        int numVertices = 0;
+        int maxVertices = 0;
+        int nextEdge = 0;
+        for (int t = 0; t < numTiles; ++t) {
+            int start = t * FACES_PER_TILE;
+            int stop = Math.min(start + FACES_PER_TILE, p.numFaces);
+            faceStart[t] = start;
+            edgeStart[t] = nextEdge;
+            vertexStart[t] = numVertices;
+            for (int i = start; i < stop; ++i) {
+                for (int j = 0; j < 3; ++j) {
+                    int id = p.facePoints[3 * i + j];
+                    if (localId[id] < 0) {
+                        localId[id] = numVertices - vertexStart[t];
+                        tileVertices[numVertices++] = id;
+                    }
+                }
+                faceLocal1[i] = localId[p.facePoints[3 * i]];
+                faceLocal2[i] = localId[p.facePoints[3 * i + 1]];
+                faceLocal3[i] = localId[p.facePoints[3 * i + 2]];
+
+                // An edge of this face is new if it is the next edge in the
+                // edge list, since that is how the edges were numbered.
+                for (int j = 0; j < 3; ++j) {
+                    int p1 = p.facePoints[3 * i + j];
+                    int p2 = p.facePoints[3 * i + (j < 2 ? j + 1 : 0)];
+                    if (nextEdge < p.numEdges && p.edgePoint1[nextEdge] == Math.min(p1, p2)
+                            && p.edgePoint2[nextEdge] == Math.max(p1, p2)) {
+                        edgeLocal1[nextEdge] = localId[p.edgePoint1[nextEdge]];
+                        edgeLocal2[nextEdge] = localId[p.edgePoint2[nextEdge]];
+                        ++nextEdge;
+                    }
+                }
+            }
+            for (int i = vertexStart[t]; i < numVertices; ++i)
+                localId[tileVertices[i]] = -1;
+            maxVertices = Math.max(maxVertices, numVertices - vertexStart[t]);
+        }
+        faceStart[numTiles] = p.numFaces;
+        edgeStart[numTiles] = nextEdge;
+        vertexStart[numTiles] = numVertices;
+        vertices = Arrays.copyOf(tileVertices, numVertices);
+        maxTileVertices = maxVertices;
+
+        if (nextEdge != p.numEdges)
+            throw new RuntimeException("Edges are not in the order they are encountered in the faces");
+    }
+
+    int getNumberOfTiles() {
+        return faceStart.length - 1;
+    }
+}
@@ -0,0 +1,213 @@
+package edu.jhuapl.sbmt.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.junit.jupiter.api.Test;
+
+import edu.jhuapl.sbmt.util.gravity.ParallelExecutor;
+
+class TestBinnedStatistics
+{
+	private static final double TOLERANCE = 1e-9;
+
+	private static final int NX = 5;
+	private static final int NY = 4;
+
+	@Test
+	void testDescriptiveStatistics()
+	{
+		// Bin (0, 0) stays empty, bin (1, 2) gets a single value and the others
+		// many values with a large offset, which a naive sum of squares would
+		// not handle
+		Random random = new Random(1);
+		int numPoints = 2000;
+		int[] bins = new int[numPoints];
+		double[] values = new double[numPoints];
+		for (int i = 0; i < numPoints; i++)
+		{
+			int b = 1 + random.nextInt(NX * NY - 1);
+			bins[i] = b == 1 * NY + 2 ? -1 : b;
+			values[i] = 1e6 + b + random.nextGaussian();
+		}
+		bins[17] = 1 * NY + 2;
+		values[17] = -3.5;
+
+		BinnedStatistics stats = new BinnedStatistics(NX, NY);
+		for (int i = 0; i < numPoints; i++)
+			if (bins[i] >= 0)
+				stats.add(bins[i] / NY, bins[i] % NY, values[i]);
+
+		checkAgainstDescriptiveStatistics(stats, bins, values);
+		assertEquals(0, stats.getCount()[0][0]);
+		assertEquals(1, stats.getCount()[1][2]);
+		assertEquals(-3.5, stats.getMean()[1][2]);
+		assertEquals(0.0, stats.getVariance()[1][2]);
+		assertEquals(3.5, stats.getRms()[1][2]);
+		assertTrue(Double.isNaN(stats.getMean()[0][0]));
+		assertTrue(Double.isNaN(stats.getVariance()[0][0]));
+		assertTrue(Double.isNaN(stats.getRms()[0][0]));
+	}
+
+	@Test
+	void testMerge()
+	{
+		Random random = new Random(2);
+		int numPoints = 1000;
+		int[] bins = new int[numPoints];
+		double[] values = new double[numPoints];
+		for (int i = 0; i < numPoints; i++)
+		{
+			bins[i] = random.nextInt(NX * NY - 1);
+			values[i] = 10 * random.nextDouble();
+		}
+
+		// split unevenly, with bins that only one of the parts has values for
+		BinnedStatistics a = new BinnedStatistics(NX, NY);
+		BinnedStatistics b = new BinnedStatistics(NX, NY);
+		for (int i = 0; i < numPoints; i++)
+		{
+			BinnedStatistics part = i < 100 || bins[i] == 3 ? a : b;
+			part.add(bins[i] / NY, bins[i] % NY, values[i]);
+		}
+		a.merge(b);
+		checkAgainstDescriptiveStatistics(a, bins, values);
+
+		assertThrows(IllegalArgumentException.class, () -> a.merge(new BinnedStatistics(NY, NX)));
+	}
+
+	@Test
+	void testCompute()
+	{
+		Random random = new Random(3);
+		int numPoints = 100000;
+		int[] bins = new int[numPoints];
+		double[] values = new double[numPoints];
+		for (int i = 0; i < numPoints; i++)
+		{
+			// some points are outside the grid
+			bins[i] = random.nextInt(NX * NY + 3) - 3;
+			values[i] = random.nextGaussian() + i * 1e-4;
+		}
+
+		int parallelism = ParallelExecutor.getShared().getParallelism();
+		try
+		{
+			ParallelExecutor.setSharedParallelism(1);
+			BinnedStatistics serial = BinnedStatistics.compute(NX, NY, numPoints, i -> bins[i], i -> values[i]);
+			checkAgainstDescriptiveStatistics(serial, bins, values);
+
+			// the results do not depend on the number of threads
+			ParallelExecutor.setSharedParallelism(3);
+			for (int k = 0; k < 3; k++)
+			{
+				BinnedStatistics parallel = BinnedStatistics.compute(NX, NY, numPoints, i -> bins[i], i -> values[i]);
+				for (int m = 0; m < NX; m++)
+				{
+					assertArrayEquals(serial.getCount()[m], parallel.getCount()[m]);
+					assertArrayEquals(serial.getMean()[m], parallel.getMean()[m], 0.0);
+					assertArrayEquals(serial.getVariance()[m], parallel.getVariance()[m], 0.0);
+				}
+			}
+		}
+		finally
+		{
+			ParallelExecutor.setSharedParallelism(parallelism);
+		}
+
+		BinnedStatistics empty = BinnedStatistics.compute(NX, NY, 0, i -> 0, i -> 1.0);
+		assertEquals(NX, empty.getNX());
+		assertEquals(NY, empty.getNY());
+		for (int[] row : empty.getCount())
+			for (int c : row)
+				assertEquals(0, c);
+	}
+
+	@Test
+	void testLargeGrid()
+	{
+		// A grid with more bins than points on many threads, as for a global
+		// model at a fine resolution: no accumulator per thread or range is
+		// allocated and the results are those of adding the values in order
+		int nX = 1001;
+		int nY = 1001;
+		Random random = new Random(4);
+		int numPoints = 1000000;
+		int[] bins = new int[numPoints];
+		double[] values = new double[numPoints];
+		for (int i = 0; i < numPoints; i++)
+		{
+			// clustered around a few bins, with points outside the grid
+			bins[i] = random.nextInt(8) == 0 ? -1 : (int) Math.min(nX * nY - 1, Math.abs(random.nextGaussian()) * nX * nY / 4);
+			values[i] = 1e3 + random.nextGaussian();
+		}
+
+		BinnedStatistics expected = new BinnedStatistics(nX, nY);
+		for (int i = 0; i < numPoints; i++)
+			if (bins[i] >= 0)
+				expected.add(bins[i] / nY, bins[i] % nY, values[i]);
+
+		int parallelism = ParallelExecutor.getShared().getParallelism();
+		try
+		{
+			for (int threads : new int[] { 16, 32 })
+			{
+				ParallelExecutor.setSharedParallelism(threads);
+				BinnedStatistics stats = BinnedStatistics.compute(nX, nY, numPoints, i -> bins[i], i -> values[i]);
+				int[][] count = stats.getCount();
+				double[][] mean = stats.getMean();
+				double[][] variance = stats.getVariance();
+				int[][] expectedCount = expected.getCount();
+				double[][] expectedMean = expected.getMean();
+				double[][] expectedVariance = expected.getVariance();
+				for (int m = 0; m < nX; m++)
+				{
+					assertArrayEquals(expectedCount[m], count[m]);
+					assertArrayEquals(expectedMean[m], mean[m], 0.0);
+					assertArrayEquals(expectedVariance[m], variance[m], 0.0);
+				}
+			}
+		}
+		finally
+		{
+			ParallelExecutor.setSharedParallelism(parallelism);
+		}
+	}
+
+	private static void checkAgainstDescriptiveStatistics(BinnedStatistics stats, int[] bins, double[] values)
+	{
+		DescriptiveStatistics[] expected = new DescriptiveStatistics[NX * NY];
+		for (int b = 0; b < expected.length; b++)
+			expected[b] = new DescriptiveStatistics();
+		for (int i = 0; i < bins.length; i++)
+			if (bins[i] >= 0)
+				expected[bins[i]].addValue(values[i]);
+
+		int[][] count = stats.getCount();
+		double[][] mean = stats.getMean();
+		double[][] variance = stats.getVariance();
+		double[][] std = stats.getStandardDeviation();
+		double[][] rms = stats.getRms();
+		for (int m = 0; m < NX; m++)
+			for (int n = 0; n < NY; n++)
+			{
+				DescriptiveStatistics e = expected[m * NY + n];
+				String bin = "bin " + m + "," + n;
+				assertEquals(e.getN(), count[m][n], bin);
+				assertClose(e.getMean(), mean[m][n], bin);
+				assertClose(e.getVariance(), variance[m][n], bin);
+				assertClose(e.getStandardDeviation(), std[m][n], bin);
+				assertClose(Math.sqrt(e.getSumsq() / e.getN()), rms[m][n], bin);
+			}
+	}
+
+	private static void assertClose(double expected, double actual, String message)
+	{
+		if (Double.isNaN(expected))
+			assertTrue(Double.isNaN(actual), message);
+		else
+			assertEquals(expected, actual, TOLERANCE * Math.max(Math.abs(expected), 1.0), message);
+	}
+}
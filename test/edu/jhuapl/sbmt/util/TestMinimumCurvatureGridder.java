@@ -0,0 +1,421 @@
+package edu.jhuapl.sbmt.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class TestMinimumCurvatureGridder
+{
+	private static final double XMIN = -3;
+	private static final double YMIN = 10;
+	private static final double SPACING = 0.5;
+
+	@Test
+	void testPlane()
+	{
+		// A plane is removed before gridding, so it is reproduced exactly,
+		// also with tension and on grids with coarser levels
+		Random random = new Random(1);
+		int nx = 13;
+		int ny = 9;
+		int numPoints = 40;
+		double[] x = new double[numPoints];
+		double[] y = new double[numPoints];
+		double[] z = new double[numPoints];
+		for (int k = 0; k < numPoints; k++)
+		{
+			x[k] = XMIN + (nx - 1) * SPACING * random.nextDouble();
+			y[k] = YMIN + (ny - 1) * SPACING * random.nextDouble();
+			z[k] = plane(x[k], y[k]);
+		}
+
+		for (double tension : new double[] { 0, 0.5 })
+		{
+			MinimumCurvatureGridder gridder = new MinimumCurvatureGridder(XMIN, YMIN, SPACING, nx, ny);
+			gridder.setTension(tension);
+			double[][] surface = gridder.grid(x, y, z, numPoints);
+			double[] gx = gridder.getX();
+			double[] gy = gridder.getY();
+			for (int i = 0; i < nx; i++)
+				for (int j = 0; j < ny; j++)
+					assertEquals(plane(gx[i], gy[j]), surface[i][j], 1e-9, "node " + i + "," + j);
+		}
+	}
+
+	@Test
+	void testDataFit()
+	{
+		// At most one point per node, most of them off the nodes, so the
+		// surface is tied to every point. Points closest to an edge node are
+		// tied to the next node inside, so leave those nodes without points
+		// of their own.
+		Random random = new Random(2);
+		int nx = 25;
+		int ny = 17;
+		double[] x = new double[nx * ny];
+		double[] y = new double[nx * ny];
+		double[] z = new double[nx * ny];
+		int numPoints = 0;
+		for (int i = 0; i < nx; i++)
+			for (int j = 0; j < ny; j++)
+			{
+				if (i == 1 || i == nx - 2 || j == 1 || j == ny - 2 || random.nextDouble() < 0.6)
+					continue;
+				x[numPoints] = XMIN + (i + 0.8 * (random.nextDouble() - 0.5)) * SPACING;
+				y[numPoints] = YMIN + (j + 0.8 * (random.nextDouble() - 0.5)) * SPACING;
+				z[numPoints] = field(x[numPoints], y[numPoints]);
+				numPoints++;
+			}
+
+		for (double tension : new double[] { 0, 0.25, 0.75 })
+		{
+			MinimumCurvatureGridder gridder = new MinimumCurvatureGridder(XMIN, YMIN, SPACING, nx, ny);
+			gridder.setTension(tension);
+			gridder.setAbsoluteConvergenceLimit(1e-9);
+			gridder.setMaxIterations(5000);
+			double[][] surface = gridder.grid(x, y, z, numPoints);
+			for (int k = 0; k < numPoints; k++)
+				assertEquals(z[k], evaluate(surface, x[k], y[k]), 1e-6,
+						"point " + k + " with tension " + tension);
+		}
+	}
+
+	@Test
+	void testDirectSolution()
+	{
+		// With the data on the nodes the iterations converge to the surface
+		// that GMT surface converges to: the nodes with data keep their
+		// value and every other node satisfies the discrete biharmonic
+		// equation with the natural boundary conditions. Solve that system
+		// directly on a small grid and compare.
+		int nx = 9;
+		int ny = 7;
+		int[][] nodes = { { 1, 1 }, { 2, 4 }, { 4, 2 }, { 4, 5 }, { 6, 1 }, { 7, 4 }, { 3, 3 }, { 5, 3 } };
+		double[] x = new double[nodes.length];
+		double[] y = new double[nodes.length];
+		double[] z = new double[nodes.length];
+		for (int k = 0; k < nodes.length; k++)
+		{
+			x[k] = XMIN + nodes[k][0] * SPACING;
+			y[k] = YMIN + nodes[k][1] * SPACING;
+			z[k] = field(x[k], y[k]) + 0.3 * plane(x[k], y[k]);
+		}
+
+		for (double tension : new double[] { 0, 0.35 })
+		{
+			MinimumCurvatureGridder gridder = new MinimumCurvatureGridder(XMIN, YMIN, SPACING, nx, ny);
+			gridder.setTension(tension);
+			gridder.setAbsoluteConvergenceLimit(1e-12);
+			gridder.setMaxIterations(100000);
+			double[][] surface = gridder.grid(x, y, z, nodes.length);
+			double[][] expected = solveDirectly(nx, ny, tension, nodes, z);
+			for (int i = 0; i < nx; i++)
+				for (int j = 0; j < ny; j++)
+					assertEquals(expected[i][j], surface[i][j], 1e-6,
+							"node " + i + "," + j + " with tension " + tension);
+		}
+	}
+
+	@Test
+	void testPointsInOneCell()
+	{
+		// Only the point closest to the node is used, the others must not
+		// keep the iterations from converging
+		double[] x = { 0.1, 0.12, -0.1, 0.05, 0.02 };
+		double[] y = { 0.0, -0.15, 0.2, 0.1, 0.03 };
+		double[] z = { 1, 4, -2, 3, 7 };
+		MinimumCurvatureGridder gridder = new MinimumCurvatureGridder(-2, -2, 1, 5, 5);
+		gridder.setMaxIterations(5000);
+		gridder.setAbsoluteConvergenceLimit(1e-10);
+		double[][] surface = gridder.grid(x, y, z, x.length);
+		assertFinite(surface);
+		assertEquals(7, evaluate(surface, -2, -2, 1, 0.02, 0.03), 1e-6);
+	}
+
+	@Test
+	void testEmptyCells()
+	{
+		// Data only in one corner of a grid whose coarse levels have nodes
+		// without data
+		Random random = new Random(3);
+		int numPoints = 12;
+		double[] x = new double[numPoints];
+		double[] y = new double[numPoints];
+		double[] z = new double[numPoints];
+		for (int k = 0; k < numPoints; k++)
+		{
+			x[k] = XMIN + (k % 4 + 2 + 0.2 * random.nextDouble()) * SPACING;
+			y[k] = YMIN + (k / 4 + 2 + 0.2 * random.nextDouble()) * SPACING;
+			z[k] = field(x[k], y[k]);
+		}
+		MinimumCurvatureGridder gridder = new MinimumCurvatureGridder(XMIN, YMIN, SPACING, 17, 13);
+		gridder.setAbsoluteConvergenceLimit(1e-7);
+		double[][] surface = gridder.grid(x, y, z, numPoints);
+		assertFinite(surface);
+		for (int k = 0; k < numPoints; k++)
+			assertEquals(z[k], evaluate(surface, x[k], y[k]), 1e-5, "point " + k);
+	}
+
+	@Test
+	void testFewPoints()
+	{
+		// A single point gives a constant surface
+		MinimumCurvatureGridder gridder = new MinimumCurvatureGridder(XMIN, YMIN, SPACING, 6, 4);
+		double[][] surface = gridder.grid(new double[] { -2.2 }, new double[] { 10.7 }, new double[] { 5.5 }, 1);
+		for (double[] column : surface)
+			for (double value : column)
+				assertEquals(5.5, value);
+
+		// Points with NaN values and points outside the grid are ignored,
+		// which leaves no points and a zero surface
+		double[] x = { -2, Double.NaN, XMIN - SPACING, -2 };
+		double[] y = { 10.5, 11, 10.5, Double.NaN };
+		double[] z = { Double.NaN, 1, 2, 3 };
+		surface = gridder.grid(x, y, z, x.length);
+		for (double[] column : surface)
+			for (double value : column)
+				assertEquals(0.0, value);
+	}
+
+	@Test
+	void testTension()
+	{
+		// Lines of data with a step between them overshoot less between the
+		// lines with more tension
+		int nx = 21;
+		int ny = 11;
+		int[] columns = { 3, 9, 11, 17 };
+		int numPoints = columns.length * ny;
+		double[] x = new double[numPoints];
+		double[] y = new double[numPoints];
+		double[] z = new double[numPoints];
+		for (int c = 0; c < columns.length; c++)
+			for (int j = 0; j < ny; j++)
+			{
+				x[c * ny + j] = XMIN + columns[c] * SPACING;
+				y[c * ny + j] = YMIN + j * SPACING;
+				z[c * ny + j] = c < 2 ? 0 : 1;
+			}
+
+		double previous = Double.POSITIVE_INFINITY;
+		for (double tension : new double[] { 0, 0.5, 0.9 })
+		{
+			MinimumCurvatureGridder gridder = new MinimumCurvatureGridder(XMIN, YMIN, SPACING, nx, ny);
+			gridder.setTension(tension);
+			gridder.setAbsoluteConvergenceLimit(1e-9);
+			gridder.setMaxIterations(20000);
+			double[][] surface = gridder.grid(x, y, z, numPoints);
+			assertFinite(surface);
+			double overshoot = 0;
+			for (int i = columns[0]; i <= columns[3]; i++)
+				for (int j = 0; j < ny; j++)
+					overshoot = Math.max(overshoot, Math.max(-surface[i][j], surface[i][j] - 1));
+			assertTrue(overshoot < previous, "overshoot " + overshoot + " with tension " + tension);
+			previous = overshoot;
+		}
+		assertTrue(previous < 0.05, "overshoot " + previous);
+
+		MinimumCurvatureGridder gridder = new MinimumCurvatureGridder(XMIN, YMIN, SPACING, nx, ny);
+		assertThrows(IllegalArgumentException.class, () -> gridder.setTension(1));
+		assertThrows(IllegalArgumentException.class, () -> gridder.setTension(-0.1));
+		assertThrows(IllegalArgumentException.class, () -> new MinimumCurvatureGridder(0, 0, 1, 2, 5));
+	}
+
+	@Test
+	void testSeveralFields()
+	{
+		// Each field gives the same surface as when gridded alone, and a NaN
+		// value of one field does not affect the others
+		Random random = new Random(4);
+		int numPoints = 60;
+		double[] x = new double[numPoints];
+		double[] y = new double[numPoints];
+		double[][] z = new double[3][numPoints];
+		for (int k = 0; k < numPoints; k++)
+		{
+			x[k] = XMIN + 16 * SPACING * random.nextDouble();
+			y[k] = YMIN + 12 * SPACING * random.nextDouble();
+			z[0][k] = field(x[k], y[k]);
+			z[1][k] = plane(x[k], y[k]);
+			z[2][k] = k % 7 == 0 ? Double.NaN : random.nextGaussian();
+		}
+
+		MinimumCurvatureGridder gridder = new MinimumCurvatureGridder(XMIN, YMIN, SPACING, 17, 13);
+		double[][][] surfaces = gridder.grid(x, y, z, numPoints);
+		assertEquals(3, surfaces.length);
+		for (int f = 0; f < 3; f++)
+		{
+			double[][] alone = gridder.grid(x, y, z[f].clone(), numPoints);
+			for (int i = 0; i < alone.length; i++)
+				for (int j = 0; j < alone[i].length; j++)
+					assertEquals(alone[i][j], surfaces[f][i][j], "field " + f);
+		}
+		assertFinite(surfaces[2]);
+	}
+
+	private static double plane(double x, double y)
+	{
+		return 3 + 2 * x - 0.5 * y;
+	}
+
+	private static double field(double x, double y)
+	{
+		return Math.sin(0.8 * x) * Math.cos(0.6 * y) + 0.1 * x * y;
+	}
+
+	/**
+	 * @return the surface at (x, y) from its expansion about the closest node
+	 *         that is not on an edge, as used by the gridder to tie the surface
+	 *         to the data
+	 */
+	private static double evaluate(double[][] surface, double x, double y)
+	{
+		return evaluate(surface, XMIN, YMIN, SPACING, x, y);
+	}
+
+	private static double evaluate(double[][] surface, double xmin, double ymin, double spacing, double x, double y)
+	{
+		double u = (x - xmin) / spacing;
+		double v = (y - ymin) / spacing;
+		int i = Math.max(1, Math.min((int) Math.round(u), surface.length - 2));
+		int j = Math.max(1, Math.min((int) Math.round(v), surface[0].length - 2));
+		double dx = u - i;
+		double dy = v - j;
+		double z0 = surface[i][j];
+		double east = surface[i + 1][j];
+		double west = surface[i - 1][j];
+		double north = surface[i][j + 1];
+		double south = surface[i][j - 1];
+		double twist = (surface[i + 1][j + 1] - surface[i - 1][j + 1] - surface[i + 1][j - 1]
+				+ surface[i - 1][j - 1]) / 4;
+		return z0 + dx * (east - west) / 2 + dy * (north - south) / 2 + dx * dx * (east - 2 * z0 + west) / 2
+				+ dy * dy * (north - 2 * z0 + south) / 2 + dx * dy * twist;
+	}
+
+	/**
+	 * Solve the discrete spline equation in tension for the nodes without
+	 * data, with the nodes with data fixed to their value, by Gaussian
+	 * elimination.
+	 */
+	private static double[][] solveDirectly(int nx, int ny, double tension, int[][] dataNodes, double[] values)
+	{
+		int n = nx * ny;
+		double[][] a = new double[n][n + 1];
+
+		// the equation of each node is linear in the nodes, get its
+		// coefficients from the equation of each unit surface
+		for (int c = 0; c < n; c++)
+		{
+			double[][] unit = new double[nx][ny];
+			unit[c / ny][c % ny] = 1;
+			double[][] equation = splineEquation(unit, tension);
+			for (int r = 0; r < n; r++)
+				a[r][c] = equation[r / ny][r % ny];
+		}
+		for (int k = 0; k < dataNodes.length; k++)
+		{
+			int r = dataNodes[k][0] * ny + dataNodes[k][1];
+			Arrays.fill(a[r], 0);
+			a[r][r] = 1;
+			a[r][n] = values[k];
+		}
+
+		for (int col = 0; col < n; col++)
+		{
+			int pivot = col;
+			for (int r = col + 1; r < n; r++)
+				if (Math.abs(a[r][col]) > Math.abs(a[pivot][col]))
+					pivot = r;
+			double[] t = a[col];
+			a[col] = a[pivot];
+			a[pivot] = t;
+			for (int r = 0; r < n; r++)
+			{
+				if (r == col || a[r][col] == 0)
+					continue;
+				double f = a[r][col] / a[col][col];
+				for (int k = col; k <= n; k++)
+					a[r][k] -= f * a[col][k];
+			}
+		}
+
+		double[][] result = new double[nx][ny];
+		for (int r = 0; r < n; r++)
+			result[r / ny][r % ny] = a[r][n] / a[r][r];
+		return result;
+	}
+
+	/**
+	 * @return (1 - T) del^4 z - T del^2 z at each node, with the boundary
+	 *         nodes set from the natural boundary conditions of GMT surface
+	 */
+	private static double[][] splineEquation(double[][] surface, double tension)
+	{
+		int nx = surface.length;
+		int ny = surface[0].length;
+		double[][] z = new double[nx + 4][ny + 4];
+		for (int i = 0; i < nx; i++)
+			for (int j = 0; j < ny; j++)
+				z[i + 2][j + 2] = surface[i][j];
+
+		// zero curvature normal to the edges
+		for (int j = 2; j < ny + 2; j++)
+		{
+			z[1][j] = 2 * z[2][j] - z[3][j];
+			z[nx + 2][j] = 2 * z[nx + 1][j] - z[nx][j];
+		}
+		for (int i = 2; i < nx + 2; i++)
+		{
+			z[i][1] = 2 * z[i][2] - z[i][3];
+			z[i][ny + 2] = 2 * z[i][ny + 1] - z[i][ny];
+		}
+
+		// zero twist at the corners
+		z[1][1] = z[3][1] + z[1][3] - z[3][3];
+		z[nx + 2][1] = z[nx][1] + z[nx + 2][3] - z[nx][3];
+		z[1][ny + 2] = z[3][ny + 2] + z[1][ny] - z[3][ny];
+		z[nx + 2][ny + 2] = z[nx][ny + 2] + z[nx + 2][ny] - z[nx][ny];
+
+		// zero normal gradient of the Laplacian
+		for (int j = 2; j < ny + 2; j++)
+		{
+			z[0][j] = z[4][j] - 2 * z[3][j] + 2 * z[1][j] + (z[3][j + 1] + z[3][j - 1] - 2 * z[3][j])
+					- (z[1][j + 1] + z[1][j - 1] - 2 * z[1][j]);
+			int e = nx + 1;
+			z[e + 2][j] = z[e - 2][j] - 2 * z[e - 1][j] + 2 * z[e + 1][j]
+					+ (z[e - 1][j + 1] + z[e - 1][j - 1] - 2 * z[e - 1][j])
+					- (z[e + 1][j + 1] + z[e + 1][j - 1] - 2 * z[e + 1][j]);
+		}
+		for (int i = 2; i < nx + 2; i++)
+		{
+			z[i][0] = z[i][4] - 2 * z[i][3] + 2 * z[i][1] + (z[i + 1][3] + z[i - 1][3] - 2 * z[i][3])
+					- (z[i + 1][1] + z[i - 1][1] - 2 * z[i][1]);
+			int e = ny + 1;
+			z[i][e + 2] = z[i][e - 2] - 2 * z[i][e - 1] + 2 * z[i][e + 1]
+					+ (z[i + 1][e - 1] + z[i - 1][e - 1] - 2 * z[i][e - 1])
+					- (z[i + 1][e + 1] + z[i - 1][e + 1] - 2 * z[i][e + 1]);
+		}
+
+		double[][] result = new double[nx][ny];
+		for (int i = 2; i < nx + 2; i++)
+			for (int j = 2; j < ny + 2; j++)
+			{
+				double laplacian = z[i + 1][j] + z[i - 1][j] + z[i][j + 1] + z[i][j - 1] - 4 * z[i][j];
+				double biharmonic = 20 * z[i][j] - 8 * (z[i + 1][j] + z[i - 1][j] + z[i][j + 1] + z[i][j - 1])
+						+ 2 * (z[i + 1][j + 1] + z[i + 1][j - 1] + z[i - 1][j + 1] + z[i - 1][j - 1])
+						+ z[i + 2][j] + z[i - 2][j] + z[i][j + 2] + z[i][j - 2];
+				result[i - 2][j - 2] = (1 - tension) * biharmonic - tension * laplacian;
+			}
+		return result;
+	}
+
+	private static void assertFinite(double[][] surface)
+	{
+		for (double[] column : surface)
+			for (double value : column)
+				assertTrue(Double.isFinite(value), "surface is not finite");
+	}
+}
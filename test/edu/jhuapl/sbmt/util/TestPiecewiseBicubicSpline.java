@@ -0,0 +1,140 @@
+package edu.jhuapl.sbmt.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.apache.commons.math3.analysis.interpolation.PiecewiseBicubicSplineInterpolatingFunction;
+import org.apache.commons.math3.analysis.interpolation.PiecewiseBicubicSplineInterpolator;
+import org.apache.commons.math3.exception.OutOfRangeException;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that PiecewiseBicubicSpline gives the same values as the commons-math
+ * function it replaces.
+ */
+class TestPiecewiseBicubicSpline
+{
+	private static final double TOLERANCE = 1e-12;
+
+	@Test
+	void testRandomGrids()
+	{
+		Random random = new Random(1);
+		for (int k = 0; k < 20; ++k)
+		{
+			// from the smallest possible grid to grids with interior cells
+			int nx = 5 + random.nextInt(8);
+			int ny = 5 + random.nextInt(8);
+			double[] x = randomSamples(nx, random);
+			double[] y = randomSamples(ny, random);
+			double[][] f = new double[nx][ny];
+			for (int i = 0; i < nx; ++i)
+				for (int j = 0; j < ny; ++j)
+					f[i][j] = 100 * random.nextGaussian();
+			checkParity(x, y, f, random);
+		}
+	}
+
+	@Test
+	void testSmoothField()
+	{
+		Random random = new Random(2);
+		int nx = 30;
+		int ny = 20;
+		double[] x = randomSamples(nx, random);
+		double[] y = randomSamples(ny, random);
+		double[][] f = new double[nx][ny];
+		for (int i = 0; i < nx; ++i)
+			for (int j = 0; j < ny; ++j)
+				f[i][j] = Math.sin(0.3 * x[i]) * Math.cos(0.2 * y[j]) + 1e3;
+		checkParity(x, y, f, random);
+	}
+
+	@Test
+	void testOutOfRange()
+	{
+		double[] x = { 0, 1, 2, 3, 4, 5 };
+		double[] y = { -2, -1, 0, 1, 2 };
+		double[][] f = new double[6][5];
+		PiecewiseBicubicSpline spline = new PiecewiseBicubicSpline(x, y, f);
+		assertThrows(OutOfRangeException.class, () -> spline.value(-1e-9, 0));
+		assertThrows(OutOfRangeException.class, () -> spline.value(5 + 1e-9, 0));
+		assertThrows(OutOfRangeException.class, () -> spline.value(1, -2.5));
+		assertThrows(OutOfRangeException.class, () -> spline.value(1, 2.5));
+		assertEquals(0.0, spline.value(5, 2));
+
+		assertThrows(IllegalArgumentException.class, () -> new PiecewiseBicubicSpline(new double[4], y, f));
+		assertThrows(IllegalArgumentException.class, () -> new PiecewiseBicubicSpline(y, x, f));
+		assertThrows(IllegalArgumentException.class,
+				() -> new PiecewiseBicubicSpline(new double[] { 0, 1, 1, 2, 3, 4 }, y, f));
+	}
+
+	/**
+	 * Compare both at all samples, including the edges and corners, at the
+	 * middle of every cell and at random points.
+	 */
+	private static void checkParity(double[] x, double[] y, double[][] f, Random random)
+	{
+		PiecewiseBicubicSpline spline = new PiecewiseBicubicSpline(x, y, f);
+		PiecewiseBicubicSplineInterpolatingFunction expected = new PiecewiseBicubicSplineInterpolator().interpolate(x,
+				y, f);
+
+		double scale = 0;
+		for (double[] row : f)
+			for (double v : row)
+				scale = Math.max(scale, Math.abs(v));
+
+		for (int i = 0; i < x.length; ++i)
+			for (int j = 0; j < y.length; ++j)
+			{
+				assertClose(expected, spline, x[i], y[j], scale);
+				if (i + 1 < x.length && j + 1 < y.length)
+					assertClose(expected, spline, 0.5 * (x[i] + x[i + 1]), 0.5 * (y[j] + y[j + 1]), scale);
+				if (i + 1 < x.length)
+					assertClose(expected, spline, 0.5 * (x[i] + x[i + 1]), y[j], scale);
+				if (j + 1 < y.length)
+					assertClose(expected, spline, x[i], 0.5 * (y[j] + y[j + 1]), scale);
+			}
+
+		double xmin = x[0];
+		double xmax = x[x.length - 1];
+		double ymin = y[0];
+		double ymax = y[y.length - 1];
+		for (int k = 0; k < 500; ++k)
+		{
+			double px = xmin + (xmax - xmin) * random.nextDouble();
+			double py = ymin + (ymax - ymin) * random.nextDouble();
+			assertClose(expected, spline, px, py, scale);
+		}
+
+		// along the edges
+		for (int k = 0; k < 50; ++k)
+		{
+			double px = xmin + (xmax - xmin) * random.nextDouble();
+			double py = ymin + (ymax - ymin) * random.nextDouble();
+			assertClose(expected, spline, px, ymin, scale);
+			assertClose(expected, spline, px, ymax, scale);
+			assertClose(expected, spline, xmin, py, scale);
+			assertClose(expected, spline, xmax, py, scale);
+		}
+	}
+
+	private static void assertClose(PiecewiseBicubicSplineInterpolatingFunction expected,
+			PiecewiseBicubicSpline spline, double x, double y, double scale)
+	{
+		assertEquals(expected.value(x, y), spline.value(x, y), TOLERANCE * scale, "at " + x + ", " + y);
+	}
+
+	/**
+	 * @return n strictly increasing, unevenly spaced samples
+	 */
+	private static double[] randomSamples(int n, Random random)
+	{
+		double[] val = new double[n];
+		val[0] = 10 * random.nextGaussian();
+		for (int i = 1; i < n; ++i)
+			val[i] = val[i - 1] + 0.1 + 2 * random.nextDouble();
+		return val;
+	}
+}
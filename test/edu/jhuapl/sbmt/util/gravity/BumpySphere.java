@@ -0,0 +1,71 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import java.util.Random;
+
+/**
+ * Closed plate model of a sphere of radius about 1 made of latitude/longitude
+ * bands, with the radii of the vertices randomly increased, shared by the
+ * tests of the gravity code.
+ */
+final class BumpySphere
+{
+	// vertices stored as x0,y0,z0,x1,... and faces as the ids of their 3
+	// vertices, as in the WernerPolyhedron constructor
+	final double[] points;
+	final int[] faces;
+
+	/**
+	 * @param nLat number of latitude bands
+	 * @param nLon number of longitudes
+	 * @param bump largest increase of the radius of a vertex
+	 * @param random source of the increases, or null for a smooth sphere
+	 */
+	BumpySphere(int nLat, int nLon, double bump, Random random)
+	{
+		points = new double[3 * (2 + (nLat - 1) * nLon)];
+		points[2] = 1.0;
+		points[5] = -1.0;
+		for (int i = 1; i < nLat; ++i)
+			for (int j = 0; j < nLon; ++j)
+			{
+				double lat = Math.PI / 2 - Math.PI * i / nLat;
+				double lon = 2 * Math.PI * j / nLon;
+				double r = 1.0 + (random != null ? bump * random.nextDouble() : 0.0);
+				int k = 2 + (i - 1) * nLon + j;
+				points[3 * k] = r * Math.cos(lat) * Math.cos(lon);
+				points[3 * k + 1] = r * Math.cos(lat) * Math.sin(lon);
+				points[3 * k + 2] = r * Math.sin(lat);
+			}
+
+		faces = new int[3 * 2 * nLon * (nLat - 1)];
+		int f = 0;
+		for (int j = 0; j < nLon; ++j)
+		{
+			int j2 = (j + 1) % nLon;
+			faces[f++] = 0;
+			faces[f++] = 2 + j;
+			faces[f++] = 2 + j2;
+			faces[f++] = 1;
+			faces[f++] = 2 + (nLat - 2) * nLon + j2;
+			faces[f++] = 2 + (nLat - 2) * nLon + j;
+			for (int i = 1; i < nLat - 1; ++i)
+			{
+				int a = 2 + (i - 1) * nLon + j;
+				int b = 2 + (i - 1) * nLon + j2;
+				int c = 2 + i * nLon + j;
+				int d = 2 + i * nLon + j2;
+				faces[f++] = a;
+				faces[f++] = c;
+				faces[f++] = b;
+				faces[f++] = b;
+				faces[f++] = c;
+				faces[f++] = d;
+			}
+		}
+	}
+
+	WernerPolyhedron toPolyhedron()
+	{
+		return new WernerPolyhedron(points, faces);
+	}
+}
@@ -0,0 +1,154 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TestGravityChunkFile
+{
+	private static final int NUM_POINTS = 1000;
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	void testRoundTrip() throws IOException
+	{
+		Random random = new Random(1);
+		byte[] modelHash = randomHash(random);
+		double[] acc = new double[3 * NUM_POINTS + 6];
+		double[] potential = new double[NUM_POINTS + 2];
+		for (int i = 0; i < acc.length; ++i)
+			acc[i] = random.nextGaussian();
+		for (int i = 0; i < potential.length; ++i)
+			potential[i] = random.nextGaussian();
+		acc[0] = Double.NaN;
+		potential[1] = -0.0;
+
+		// only the first NUM_POINTS points are written
+		File file = new File(tempDir, "chunk.bin");
+		long crc = GravityChunkFile.write(file, 5000, modelHash, acc, potential, NUM_POINTS);
+		assertEquals(crc, GravityChunkFile.checksum(file));
+		assertEquals(64 + 32 * NUM_POINTS, file.length());
+		assertEquals(1, tempDir.listFiles().length, "temporary file left behind");
+
+		GravityChunkFile chunk = GravityChunkFile.open(file, modelHash);
+		assertEquals(5000, chunk.getStartIndex());
+		assertEquals(5000 + NUM_POINTS, chunk.getEndIndex());
+		assertEquals(NUM_POINTS, chunk.getNumberOfPoints());
+		assertArrayEquals(modelHash, chunk.getModelHash());
+
+		double[] a = new double[3];
+		for (int i = 0; i < NUM_POINTS; ++i)
+		{
+			chunk.getAcceleration(i, a);
+			for (int j = 0; j < 3; ++j)
+				assertEquals(Double.doubleToRawLongBits(acc[3 * i + j]), Double.doubleToRawLongBits(a[j]));
+			assertEquals(Double.doubleToRawLongBits(potential[i]), Double.doubleToRawLongBits(chunk.getPotential(i)));
+		}
+
+		double[] allAcc = new double[3 * NUM_POINTS + 3];
+		double[] allPotential = new double[NUM_POINTS + 1];
+		chunk.readAcceleration(allAcc, 3);
+		chunk.readPotential(allPotential, 1);
+		for (int i = 0; i < 3 * NUM_POINTS; ++i)
+			assertEquals(Double.doubleToRawLongBits(acc[i]), Double.doubleToRawLongBits(allAcc[3 + i]));
+		for (int i = 0; i < NUM_POINTS; ++i)
+			assertEquals(Double.doubleToRawLongBits(potential[i]), Double.doubleToRawLongBits(allPotential[1 + i]));
+
+		// no model hash to check against
+		assertEquals(NUM_POINTS, GravityChunkFile.open(file, null).getNumberOfPoints());
+	}
+
+	@Test
+	void testEmptyChunk() throws IOException
+	{
+		byte[] modelHash = randomHash(new Random(2));
+		File file = new File(tempDir, "empty.bin");
+		long crc = GravityChunkFile.write(file, 7, modelHash, new double[0], new double[0], 0);
+		assertEquals(crc, GravityChunkFile.checksum(file));
+		GravityChunkFile chunk = GravityChunkFile.open(file, modelHash);
+		assertEquals(7, chunk.getStartIndex());
+		assertEquals(0, chunk.getNumberOfPoints());
+	}
+
+	@Test
+	void testChecksumMismatch() throws IOException
+	{
+		Random random = new Random(3);
+		byte[] modelHash = randomHash(random);
+		double[] acc = new double[3 * NUM_POINTS];
+		double[] potential = new double[NUM_POINTS];
+		for (int i = 0; i < acc.length; ++i)
+			acc[i] = random.nextDouble();
+		File file = new File(tempDir, "chunk.bin");
+		long crc = GravityChunkFile.write(file, 0, modelHash, acc, potential, NUM_POINTS);
+
+		// A single flipped bit in the data is not noticed when the file is
+		// opened, only by the checksum.
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			raf.seek(64 + 8 * 1234);
+			int b = raf.read();
+			raf.seek(64 + 8 * 1234);
+			raf.write(b ^ 0x10);
+		}
+		assertTrue(GravityChunkFile.checksum(file) != crc, "corruption not detected");
+		assertEquals(NUM_POINTS, GravityChunkFile.open(file, modelHash).getNumberOfPoints());
+	}
+
+	@Test
+	void testInvalidFiles() throws IOException
+	{
+		// Each case uses its own file since a file cannot be truncated on all
+		// platforms once it was mapped.
+		Random random = new Random(4);
+		byte[] modelHash = randomHash(random);
+
+		// different shape model
+		File file = writeZeros("model.bin", modelHash);
+		assertThrows(IOException.class, () -> GravityChunkFile.open(file, randomHash(random)));
+
+		// truncated
+		File truncated = writeZeros("truncated.bin", modelHash);
+		try (RandomAccessFile raf = new RandomAccessFile(truncated, "rw"))
+		{
+			raf.setLength(truncated.length() - 8);
+		}
+		assertThrows(IOException.class, () -> GravityChunkFile.open(truncated, modelHash));
+		File header = writeZeros("header.bin", modelHash);
+		try (RandomAccessFile raf = new RandomAccessFile(header, "rw"))
+		{
+			raf.setLength(10);
+		}
+		assertThrows(IOException.class, () -> GravityChunkFile.open(header, modelHash));
+
+		// not a chunk file
+		File other = writeZeros("other.bin", modelHash);
+		try (RandomAccessFile raf = new RandomAccessFile(other, "rw"))
+		{
+			raf.write(new byte[8]);
+		}
+		assertThrows(IOException.class, () -> GravityChunkFile.open(other, modelHash));
+	}
+
+	private File writeZeros(String name, byte[] modelHash) throws IOException
+	{
+		File file = new File(tempDir, name);
+		GravityChunkFile.write(file, 0, modelHash, new double[3 * NUM_POINTS], new double[NUM_POINTS], NUM_POINTS);
+		return file;
+	}
+
+	private static byte[] randomHash(Random random)
+	{
+		byte[] hash = new byte[32];
+		random.nextBytes(hash);
+		return hash;
+	}
+}
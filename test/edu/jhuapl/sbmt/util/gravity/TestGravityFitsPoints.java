@@ -0,0 +1,178 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import edu.jhuapl.saavtk.util.LatLon;
+import edu.jhuapl.saavtk.util.MathUtil;
+
+/**
+ * Checks that the gravity at the pixels of a fits file is evaluated at the
+ * points of its polydata, as the conversion of the fits file to an ASCII file
+ * of points with their row and column did, also when pixels have no point and
+ * the polydata has points that are not pixels.
+ */
+class TestGravityFitsPoints
+{
+	private static final double TOLERANCE = 1e-13;
+
+	private static final int NUM_ROWS = 12;
+	private static final int NUM_COLS = 15;
+
+	// unit cube centered on the origin, vertex i at the corner given by its bits
+	private static final double[] CUBE_POINTS = {
+			-0.5, -0.5, -0.5,  0.5, -0.5, -0.5,  -0.5, 0.5, -0.5,  0.5, 0.5, -0.5,
+			-0.5, -0.5, 0.5,  0.5, -0.5, 0.5,  -0.5, 0.5, 0.5,  0.5, 0.5, 0.5 };
+	private static final int[] CUBE_FACES = {
+			0, 2, 3,  0, 3, 1,  4, 5, 7,  4, 7, 6,
+			0, 1, 5,  0, 5, 4,  2, 6, 7,  2, 7, 3,
+			0, 4, 6,  0, 6, 2,  1, 3, 7,  1, 7, 5 };
+
+	@Test
+	void testLocalFits()
+	{
+		// Every pixel has a point, in row-major order
+		double[][][] planes = getPlanes();
+		List<int[]> pixels = new ArrayList<>();
+		for (int m = 0; m < NUM_ROWS; ++m)
+			for (int n = 0; n < NUM_COLS; ++n)
+				pixels.add(new int[] { m, n });
+		checkFitsPoints(planes, getPoints(planes, pixels, new double[0]), pixels);
+	}
+
+	@Test
+	void testMissingPixels()
+	{
+		// Invalid pixels have no point, one of them is not even a position
+		double[][][] planes = getPlanes();
+		planes[2][4][7] = Double.NaN;
+		List<int[]> pixels = new ArrayList<>();
+		for (int m = 0; m < NUM_ROWS; ++m)
+			for (int n = 0; n < NUM_COLS; ++n)
+				if ((m * 7 + n * 3) % 11 != 0 && !(m == 4 && n == 7))
+					pixels.add(new int[] { m, n });
+		checkFitsPoints(planes, getPoints(planes, pixels, new double[0]), pixels);
+	}
+
+	@Test
+	void testGlobalFits()
+	{
+		// More points than pixels, in another order: points that are not
+		// pixels, as at the poles of a global model, and a pixel whose point is
+		// stored twice, as on the seam of a global model
+		double[][][] planes = getPlanes();
+		List<int[]> pixels = new ArrayList<>();
+		for (int m = 0; m < NUM_ROWS; ++m)
+			for (int n = 0; n < NUM_COLS; ++n)
+				if (m != 2 || n != 5)
+					pixels.add(new int[] { m, n });
+		Collections.shuffle(pixels, new Random(1));
+		pixels.add(pixels.get(17));
+		double[] extra = { 0, 0, 2.1, 0, 0, -2.1, 1.7, 0.2, -0.3 };
+		checkFitsPoints(planes, getPoints(planes, pixels, extra), pixels);
+	}
+
+	/**
+	 * Compare the gravity returned by getGravityAtFitsPoints with the gravity
+	 * at each point, stored at the row and column of its pixel.
+	 *
+	 * @param pixels the row and column of each point, followed by points that
+	 *            are not pixels
+	 */
+	private static void checkFitsPoints(double[][][] planes, double[] points, List<int[]> pixels)
+	{
+		GravityWernerSoA gravity = new GravityWernerSoA(new WernerPolyhedron(CUBE_POINTS, CUBE_FACES));
+		gravity.setDensity(2.0);
+		gravity.setRotationRate(1e-4);
+
+		int numPoints = points.length / 3;
+		int[][] pointIds = Gravity.getFitsPointIds(planes, points, numPoints);
+		Gravity.GravityGrid grid = gravity.getGravityAtFitsPoints(points, pointIds);
+		assertEquals(NUM_ROWS, grid.numRows);
+		assertEquals(NUM_COLS, grid.numCols);
+
+		double[][] expectedPotential = new double[NUM_ROWS][NUM_COLS];
+		double[][][] expectedAcc = new double[NUM_ROWS][NUM_COLS][];
+		double[] acc = new double[3 * numPoints];
+		double[] potential = new double[numPoints];
+		for (int i = 0; i < numPoints; ++i)
+			gravity.getGravityWithUnits(points, i, i + 1, acc, potential);
+		for (int i = 0; i < pixels.size(); ++i)
+		{
+			int m = pixels.get(i)[0];
+			int n = pixels.get(i)[1];
+			expectedPotential[m][n] = potential[i];
+			expectedAcc[m][n] = new double[] { acc[3 * i], acc[3 * i + 1], acc[3 * i + 2] };
+		}
+
+		for (int m = 0; m < NUM_ROWS; ++m)
+		{
+			for (int n = 0; n < NUM_COLS; ++n)
+			{
+				String pixel = "pixel " + m + "," + n;
+				if (expectedAcc[m][n] == null)
+				{
+					assertEquals(-1, pointIds[m][n], pixel);
+					assertTrue(Double.isNaN(grid.potential[m][n]), pixel);
+					assertTrue(Double.isNaN(grid.accX[m][n]), pixel);
+					continue;
+				}
+
+				// a pixel stored twice may get either point, both are at the pixel
+				int id = pointIds[m][n];
+				assertTrue(id >= 0 && id < pixels.size(), pixel);
+				assertEquals(m, pixels.get(id)[0], pixel);
+				assertEquals(n, pixels.get(id)[1], pixel);
+
+				double scale = Math.abs(expectedPotential[m][n]);
+				assertEquals(expectedPotential[m][n], grid.potential[m][n], TOLERANCE * scale, pixel);
+				double accScale = MathUtil.vnorm(expectedAcc[m][n]);
+				assertEquals(expectedAcc[m][n][0], grid.accX[m][n], TOLERANCE * accScale, pixel);
+				assertEquals(expectedAcc[m][n][1], grid.accY[m][n], TOLERANCE * accScale, pixel);
+				assertEquals(expectedAcc[m][n][2], grid.accZ[m][n], TOLERANCE * accScale, pixel);
+			}
+		}
+	}
+
+	/**
+	 * @return latitude, longitude and radius planes of a patch above the cube
+	 */
+	private static double[][][] getPlanes()
+	{
+		double[][][] planes = new double[3][NUM_ROWS][NUM_COLS];
+		for (int m = 0; m < NUM_ROWS; ++m)
+			for (int n = 0; n < NUM_COLS; ++n)
+			{
+				planes[0][m][n] = 10 + 0.8 * m;
+				planes[1][m][n] = 30 + 0.9 * n;
+				planes[2][m][n] = 1.2 + 0.05 * Math.sin(m + 2.0 * n);
+			}
+		return planes;
+	}
+
+	/**
+	 * @return the points of the given pixels in single precision, as a
+	 *         polydata stores them, followed by the extra points
+	 */
+	private static double[] getPoints(double[][][] planes, List<int[]> pixels, double[] extra)
+	{
+		double[] points = new double[3 * pixels.size() + extra.length];
+		for (int i = 0; i < pixels.size(); ++i)
+		{
+			int m = pixels.get(i)[0];
+			int n = pixels.get(i)[1];
+			double[] pt = MathUtil.latrec(new LatLon(Math.toRadians(planes[0][m][n]),
+					Math.toRadians(planes[1][m][n]), planes[2][m][n]));
+			for (int j = 0; j < 3; ++j)
+				points[3 * i + j] = (float) pt[j];
+		}
+		System.arraycopy(extra, 0, points, 3 * pixels.size(), extra.length);
+		return points;
+	}
+}
@@ -0,0 +1,202 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TestGravityResultCache
+{
+	private static final byte[] MODEL_HASH = new byte[32];
+
+	// chunks of the runs written by writeRun and their total file size
+	private static final long[] CHUNK_START = { 0, 40, 100, 130 };
+	private static final long RUN_SIZE = 3 * 64 + 32 * 130;
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	void testRoundTrip() throws IOException
+	{
+		File cacheDir = new File(tempDir, "cache");
+		GravityResultCache cache = new GravityResultCache(cacheDir, 10 * RUN_SIZE);
+		File[] chunkFiles = writeRun("run", 1.0);
+
+		assertNull(cache.get("a", MODEL_HASH, i -> new File(tempDir, "out" + i)));
+		cache.put("a", chunkFiles);
+
+		// the cached results do not depend on the files of the run
+		for (File f : chunkFiles)
+			assertTrue(f.delete());
+
+		GravityResultCache.Entry entry = cache.get("a", MODEL_HASH, i -> new File(tempDir, "out" + i));
+		assertNotNull(entry);
+		assertArrayEquals(CHUNK_START, entry.getChunkStart());
+		File[] files = entry.getChunkFiles();
+		assertEquals(3, files.length);
+		for (int i = 0; i < files.length; ++i)
+			assertEquals(new File(tempDir, "out" + i), files[i]);
+		checkRun(files, 1.0);
+
+		// the returned files belong to the caller
+		for (File f : files)
+			assertTrue(f.delete());
+		checkRun(cache.get("a", MODEL_HASH, i -> new File(tempDir, "again" + i)).getChunkFiles(), 1.0);
+
+		// computed for another shape model
+		byte[] otherHash = MODEL_HASH.clone();
+		otherHash[0] = 1;
+		assertNull(cache.get("a", otherHash, i -> new File(tempDir, "other" + i)));
+	}
+
+	@Test
+	void testEviction() throws IOException
+	{
+		File cacheDir = new File(tempDir, "cache");
+		GravityResultCache cache = new GravityResultCache(cacheDir, 2 * RUN_SIZE);
+		cache.put("a", writeRun("a", 1.0));
+		cache.put("b", writeRun("b", 2.0));
+		new File(cacheDir, "a").setLastModified(1000000);
+		new File(cacheDir, "b").setLastModified(2000000);
+
+		// a is used again, so b is the least recently used entry
+		File[] a = cache.get("a", MODEL_HASH, i -> new File(tempDir, "outa" + i)).getChunkFiles();
+		cache.put("c", writeRun("c", 3.0));
+		assertFalse(new File(cacheDir, "b").exists());
+		assertNull(cache.get("b", MODEL_HASH, i -> new File(tempDir, "outb" + i)));
+		checkRun(cache.get("c", MODEL_HASH, i -> new File(tempDir, "outc" + i)).getChunkFiles(), 3.0);
+
+		// evicting an entry does not affect the results already read from it
+		new File(cacheDir, "a").setLastModified(1000000);
+		new File(cacheDir, "c").setLastModified(2000000);
+		cache.put("d", writeRun("d", 4.0));
+		assertFalse(new File(cacheDir, "a").exists());
+		checkRun(a, 1.0);
+
+		// larger than the whole cache
+		GravityResultCache small = new GravityResultCache(cacheDir, RUN_SIZE - 1);
+		small.put("e", writeRun("e", 5.0));
+		assertFalse(new File(cacheDir, "e").exists());
+	}
+
+	@Test
+	void testConcurrentCaches() throws Exception
+	{
+		// Separate instances, as used by the runs of a batch, sharing a
+		// directory that holds fewer entries than are added
+		File cacheDir = new File(tempDir, "cache");
+		List<File[]> runs = new ArrayList<>();
+		for (int k = 0; k < 6; ++k)
+			runs.add(writeRun("run" + k, k));
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 4; ++t)
+			{
+				int thread = t;
+				futures.add(executor.submit(() -> {
+					GravityResultCache cache = new GravityResultCache(cacheDir, 3 * RUN_SIZE);
+					for (int n = 0; n < 20; ++n)
+					{
+						int k = (thread + n) % runs.size();
+						String key = "key" + k;
+						String prefix = "t" + thread + "n" + n + "c";
+						GravityResultCache.Entry entry = cache.get(key, MODEL_HASH,
+								i -> new File(tempDir, prefix + i));
+						if (entry != null)
+							checkRun(entry.getChunkFiles(), k);
+						else
+							cache.put(key, runs.get(k));
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures)
+				future.get();
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void testDefaultMaxSize()
+	{
+		String previous = System.getProperty(GravityResultCache.SIZE_PROPERTY);
+		try
+		{
+			System.clearProperty(GravityResultCache.SIZE_PROPERTY);
+			assertEquals(GravityResultCache.DEFAULT_MAX_SIZE, GravityResultCache.getDefaultMaxSize());
+			System.setProperty(GravityResultCache.SIZE_PROPERTY, "1.5");
+			assertEquals(3L << 19, GravityResultCache.getDefaultMaxSize());
+			for (String size : new String[] { "", "ten", "-1", "1e3MB" })
+			{
+				System.setProperty(GravityResultCache.SIZE_PROPERTY, size);
+				assertEquals(GravityResultCache.DEFAULT_MAX_SIZE, GravityResultCache.getDefaultMaxSize(), size);
+			}
+		}
+		finally
+		{
+			if (previous != null)
+				System.setProperty(GravityResultCache.SIZE_PROPERTY, previous);
+			else
+				System.clearProperty(GravityResultCache.SIZE_PROPERTY);
+		}
+	}
+
+	private File[] writeRun(String name, double value) throws IOException
+	{
+		File dir = new File(tempDir, name);
+		dir.mkdirs();
+		File[] chunkFiles = new File[CHUNK_START.length - 1];
+		for (int c = 0; c < chunkFiles.length; ++c)
+		{
+			int numPoints = (int) (CHUNK_START[c + 1] - CHUNK_START[c]);
+			double[] acc = new double[3 * numPoints];
+			double[] potential = new double[numPoints];
+			for (int i = 0; i < numPoints; ++i)
+			{
+				long index = CHUNK_START[c] + i;
+				acc[3 * i] = value;
+				acc[3 * i + 1] = index;
+				acc[3 * i + 2] = -value;
+				potential[i] = value * index;
+			}
+			chunkFiles[c] = new File(dir, "chunk" + c);
+			GravityChunkFile.write(chunkFiles[c], CHUNK_START[c], MODEL_HASH, acc, potential, numPoints);
+		}
+		return chunkFiles;
+	}
+
+	private static void checkRun(File[] chunkFiles, double value) throws IOException
+	{
+		double[] acc = new double[3];
+		for (int c = 0; c < chunkFiles.length; ++c)
+		{
+			GravityChunkFile chunk = GravityChunkFile.open(chunkFiles[c], MODEL_HASH);
+			assertEquals(CHUNK_START[c], chunk.getStartIndex());
+			assertEquals(CHUNK_START[c + 1], chunk.getEndIndex());
+			for (int i = 0; i < chunk.getNumberOfPoints(); ++i)
+			{
+				long index = CHUNK_START[c] + i;
+				chunk.getAcceleration(i, acc);
+				assertEquals(value, acc[0]);
+				assertEquals(index, acc[1]);
+				assertEquals(-value, acc[2]);
+				assertEquals(value * index, chunk.getPotential(i));
+			}
+		}
+	}
+}
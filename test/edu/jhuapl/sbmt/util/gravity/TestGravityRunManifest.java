@@ -0,0 +1,153 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import edu.jhuapl.sbmt.util.gravity.GravityRunManifest.Status;
+
+class TestGravityRunManifest
+{
+	private static final long[] CHUNK_START = { 0, 100, 250, 300, 420 };
+
+	private static final byte[] MODEL_HASH = new byte[32];
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	void testResume() throws IOException
+	{
+		String runKey = GravityRunManifest.computeRunKey("werner density 2.0", MODEL_HASH, null);
+		File manifestFile = new File(tempDir, "run.manifest");
+		File[] chunkFiles = getChunkFiles();
+
+		// First run: chunks 0 to 2 complete, then the run is interrupted
+		GravityRunManifest manifest = new GravityRunManifest(manifestFile, runKey, CHUNK_START);
+		for (int i = 0; i < 3; ++i)
+		{
+			assertFalse(manifest.isDone(i, chunkFiles[i]));
+			manifest.setDone(i, writeChunk(i, chunkFiles[i]));
+		}
+		assertEquals(3, manifest.getNumberDone());
+
+		// The file of chunk 1 gets corrupted
+		try (RandomAccessFile raf = new RandomAccessFile(chunkFiles[1], "rw"))
+		{
+			raf.seek(100);
+			int b = raf.read();
+			raf.seek(100);
+			raf.write(b ^ 1);
+		}
+
+		// A resumed run skips the chunks that are done and recomputes the others
+		assertArrayEquals(CHUNK_START, GravityRunManifest.readChunkStart(manifestFile, runKey));
+		GravityRunManifest resumed = new GravityRunManifest(manifestFile, runKey, CHUNK_START);
+		assertEquals(3, resumed.getNumberDone());
+		assertTrue(resumed.isDone(0, chunkFiles[0]));
+		assertTrue(resumed.isDone(2, chunkFiles[2]));
+		assertFalse(resumed.isDone(1, chunkFiles[1]));
+		assertEquals(Status.PENDING, resumed.getStatus(1));
+		assertFalse(resumed.isDone(3, chunkFiles[3]));
+		assertEquals(Status.PENDING, resumed.getStatus(3));
+
+		resumed.setDone(1, writeChunk(1, chunkFiles[1]));
+		resumed.setDone(3, writeChunk(3, chunkFiles[3]));
+		for (int i = 0; i < 4; ++i)
+			assertTrue(resumed.isDone(i, chunkFiles[i]));
+
+		// A missing chunk file is recomputed too
+		assertTrue(chunkFiles[2].delete());
+		GravityRunManifest third = new GravityRunManifest(manifestFile, runKey, CHUNK_START);
+		assertFalse(third.isDone(2, chunkFiles[2]));
+		assertTrue(third.isDone(3, chunkFiles[3]));
+	}
+
+	@Test
+	void testFailedChunk() throws IOException
+	{
+		String runKey = GravityRunManifest.computeRunKey("cheng", MODEL_HASH, null);
+		File manifestFile = new File(tempDir, "run.manifest");
+		File[] chunkFiles = getChunkFiles();
+
+		GravityRunManifest manifest = new GravityRunManifest(manifestFile, runKey, CHUNK_START);
+		manifest.setDone(0, writeChunk(0, chunkFiles[0]));
+		manifest.setFailed(1);
+
+		GravityRunManifest resumed = new GravityRunManifest(manifestFile, runKey, CHUNK_START);
+		assertTrue(resumed.isDone(0, chunkFiles[0]));
+		assertEquals(Status.FAILED, resumed.getStatus(1));
+		assertFalse(resumed.isDone(1, chunkFiles[1]));
+	}
+
+	@Test
+	void testDifferentRun() throws IOException
+	{
+		String runKey = GravityRunManifest.computeRunKey("werner density 2.0", MODEL_HASH, null);
+		File manifestFile = new File(tempDir, "run.manifest");
+		File[] chunkFiles = getChunkFiles();
+
+		GravityRunManifest manifest = new GravityRunManifest(manifestFile, runKey, CHUNK_START);
+		for (int i = 0; i < 4; ++i)
+			manifest.setDone(i, writeChunk(i, chunkFiles[i]));
+
+		// Another key ignores the previous run
+		String otherKey = GravityRunManifest.computeRunKey("werner density 2.5", MODEL_HASH, null);
+		assertFalse(runKey.equals(otherKey));
+		assertNull(GravityRunManifest.readChunkStart(manifestFile, otherKey));
+		GravityRunManifest other = new GravityRunManifest(manifestFile, otherKey, CHUNK_START);
+		assertEquals(0, other.getNumberDone());
+		assertFalse(other.isDone(0, chunkFiles[0]));
+
+		// as do other evaluation points
+		String pointsKey = GravityRunManifest.computeRunKey("werner density 2.0", MODEL_HASH,
+				new double[] { 1, 2, 3 });
+		assertFalse(runKey.equals(pointsKey));
+
+		// and other chunks
+		long[] otherChunks = { 0, 100, 200, 300, 420 };
+		assertEquals(0, new GravityRunManifest(manifestFile, runKey, otherChunks).getNumberDone());
+	}
+
+	@Test
+	void testCorruptManifest() throws IOException
+	{
+		String runKey = GravityRunManifest.computeRunKey("werner", MODEL_HASH, null);
+		File manifestFile = new File(tempDir, "run.manifest");
+		try (RandomAccessFile raf = new RandomAccessFile(manifestFile, "rw"))
+		{
+			raf.write("# SBMT gravity run manifest\nkey ".getBytes("UTF-8"));
+			raf.write(runKey.getBytes("UTF-8"));
+			raf.write("\n0 0 100 DONE\n".getBytes("UTF-8"));
+		}
+		GravityRunManifest manifest = new GravityRunManifest(manifestFile, runKey, CHUNK_START);
+		assertEquals(0, manifest.getNumberDone());
+	}
+
+	private File[] getChunkFiles()
+	{
+		File[] chunkFiles = new File[CHUNK_START.length - 1];
+		for (int i = 0; i < chunkFiles.length; ++i)
+			chunkFiles[i] = new File(tempDir, "chunk" + i + ".bin");
+		return chunkFiles;
+	}
+
+	private static long writeChunk(int chunk, File file) throws IOException
+	{
+		int numPoints = (int) (CHUNK_START[chunk + 1] - CHUNK_START[chunk]);
+		double[] acc = new double[3 * numPoints];
+		double[] potential = new double[numPoints];
+		for (int i = 0; i < numPoints; ++i)
+		{
+			acc[3 * i] = chunk;
+			acc[3 * i + 1] = i;
+			potential[i] = -chunk * i;
+		}
+		return GravityChunkFile.write(file, CHUNK_START[chunk], MODEL_HASH, acc, potential, numPoints);
+	}
+}
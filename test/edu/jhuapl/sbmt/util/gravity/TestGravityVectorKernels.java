@@ -0,0 +1,115 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the SIMD kernels give the same results as the scalar kernels.
+ * Requires the JVM to be started with --add-modules jdk.incubator.vector
+ * and the build to include GravityVectorKernels (both done by the vector
+ * Maven profile), otherwise the tests are skipped.
+ */
+class TestGravityVectorKernels
+{
+	private static final double TOLERANCE = 1e-10;
+
+	private static double[] points;
+	private static int[] faces;
+	private static double[] fieldPoints;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception
+	{
+		// Bumpy sphere made of latitude/longitude bands. The number of faces
+		// is not a multiple of the vector length so the scalar tails are
+		// exercised too.
+		Random random = new Random(1);
+		BumpySphere sphere = new BumpySphere(23, 37, 0.05, random);
+		points = sphere.points;
+		faces = sphere.faces;
+
+		// points inside, outside, at vertices and at a plate center
+		int n = 101;
+		fieldPoints = new double[3 * n];
+		for (int i = 0; i < 3 * n; ++i)
+			fieldPoints[i] = 4.0 * random.nextDouble() - 2.0;
+		for (int k = 0; k < 10; ++k)
+			System.arraycopy(points, 3 * 7 * k, fieldPoints, 3 * k, 3);
+		for (int i = 0; i < 3; ++i)
+			fieldPoints[30 + i] = (points[3 * faces[30] + i] + points[3 * faces[31] + i] + points[3 * faces[32] + i]) / 3.0;
+	}
+
+	@Test
+	void testWernerParity()
+	{
+		assumeTrue(VectorSupport.isEnabled());
+
+		GravityWernerSoA werner = new GravityWernerSoA(new WernerPolyhedron(points, faces));
+		double[] pt = new double[3];
+		double[] accScalar = new double[3];
+		double[] accVector = new double[3];
+		for (int k = 0; k < fieldPoints.length / 3; ++k)
+		{
+			System.arraycopy(fieldPoints, 3 * k, pt, 0, 3);
+			werner.setUseVectorKernels(false);
+			double potScalar = werner.getGravity(pt, accScalar);
+			werner.setUseVectorKernels(true);
+			double potVector = werner.getGravity(pt, accVector);
+			assertClose(potScalar, accScalar, potVector, accVector);
+		}
+	}
+
+	@Test
+	void testWernerBlockParity()
+	{
+		assumeTrue(VectorSupport.isEnabled());
+
+		GravityWernerSoA werner = new GravityWernerSoA(new WernerPolyhedron(points, faces));
+		int n = fieldPoints.length / 3;
+		double[] accScalar = new double[3 * n];
+		double[] potScalar = new double[n];
+		double[] accVector = new double[3 * n];
+		double[] potVector = new double[n];
+		werner.setUseVectorKernels(false);
+		werner.getGravity(fieldPoints, 0, n, accScalar, potScalar);
+		werner.setUseVectorKernels(true);
+		werner.getGravity(fieldPoints, 0, n, accVector, potVector);
+		for (int k = 0; k < n; ++k)
+			assertClose(potScalar[k], new double[] { accScalar[3 * k], accScalar[3 * k + 1], accScalar[3 * k + 2] },
+					potVector[k], new double[] { accVector[3 * k], accVector[3 * k + 1], accVector[3 * k + 2] });
+	}
+
+	@Test
+	void testChengParity()
+	{
+		assumeTrue(VectorSupport.isEnabled());
+
+		GravityCheng cheng = new GravityCheng(points, faces);
+		double[] pt = new double[3];
+		double[] accScalar = new double[3];
+		double[] accVector = new double[3];
+		for (int k = 0; k < fieldPoints.length / 3; ++k)
+		{
+			System.arraycopy(fieldPoints, 3 * k, pt, 0, 3);
+			cheng.setUseVectorKernels(false);
+			double potScalar = cheng.getGravity(pt, accScalar);
+			cheng.setUseVectorKernels(true);
+			double potVector = cheng.getGravity(pt, accVector);
+			assertClose(potScalar, accScalar, potVector, accVector);
+		}
+	}
+
+	private static void assertClose(double potExpected, double[] accExpected, double pot, double[] acc)
+	{
+		assertEquals(potExpected, pot, TOLERANCE * Math.abs(potExpected));
+		double accMag = Math.sqrt(accExpected[0] * accExpected[0] + accExpected[1] * accExpected[1]
+				+ accExpected[2] * accExpected[2]);
+		for (int i = 0; i < 3; ++i)
+			assertEquals(accExpected[i], acc[i], TOLERANCE * accMag);
+	}
+}
@@ -0,0 +1,104 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that GravityWernerSoA gives bit-for-bit the same results as the
+ * original GravityWerner kernel when the SIMD kernels are off. The blocked
+ * kernel sums edges and faces per tile, so it only agrees to the last bits.
+ */
+class TestGravityWernerSoA
+{
+	private static final double BLOCK_TOLERANCE = 1e-13;
+
+	// unit cube centered on the origin, vertex i at the corner given by its bits
+	private static final double[] CUBE_POINTS = {
+			-0.5, -0.5, -0.5,  0.5, -0.5, -0.5,  -0.5, 0.5, -0.5,  0.5, 0.5, -0.5,
+			-0.5, -0.5, 0.5,  0.5, -0.5, 0.5,  -0.5, 0.5, 0.5,  0.5, 0.5, 0.5 };
+	private static final int[] CUBE_FACES = {
+			0, 2, 3,  0, 3, 1,  4, 5, 7,  4, 7, 6,
+			0, 1, 5,  0, 5, 4,  2, 6, 7,  2, 7, 3,
+			0, 4, 6,  0, 6, 2,  1, 3, 7,  1, 7, 5 };
+
+	private static final double[] TETRAHEDRON_POINTS = {
+			1, 1, 1,  1, -1, -1,  -1, 1, -1,  -1, -1, 1 };
+	private static final int[] TETRAHEDRON_FACES = {
+			0, 1, 2,  0, 3, 1,  0, 2, 3,  1, 3, 2 };
+
+	@Test
+	void testCube()
+	{
+		assertIdentical(CUBE_POINTS, CUBE_FACES);
+	}
+
+	@Test
+	void testTetrahedron()
+	{
+		assertIdentical(TETRAHEDRON_POINTS, TETRAHEDRON_FACES);
+	}
+
+	private static void assertIdentical(double[] points, int[] faces)
+	{
+		WernerPolyhedron polyhedron = new WernerPolyhedron(points, faces);
+		GravityWerner reference = new GravityWerner(polyhedron);
+		GravityWernerSoA werner = new GravityWernerSoA(polyhedron);
+		werner.setUseVectorKernels(false);
+
+		double[] fieldPoints = getFieldPoints(points, faces);
+		int n = fieldPoints.length / 3;
+		double[] blockAcc = new double[3 * n];
+		double[] blockPotential = new double[n];
+		werner.getGravity(fieldPoints, 0, n, blockAcc, blockPotential);
+
+		double[] pt = new double[3];
+		double[] expectedAcc = new double[3];
+		double[] acc = new double[3];
+		for (int k = 0; k < n; ++k)
+		{
+			System.arraycopy(fieldPoints, 3 * k, pt, 0, 3);
+			double expectedPotential = reference.getGravity(pt, expectedAcc);
+			double potential = werner.getGravity(pt, acc);
+			assertEquals(expectedPotential, potential, "potential at point " + k);
+			assertEquals(expectedPotential, blockPotential[k], BLOCK_TOLERANCE * Math.abs(expectedPotential),
+					"blocked potential at point " + k);
+			double accMag = Math.sqrt(expectedAcc[0] * expectedAcc[0] + expectedAcc[1] * expectedAcc[1]
+					+ expectedAcc[2] * expectedAcc[2]);
+			for (int i = 0; i < 3; ++i)
+			{
+				assertEquals(expectedAcc[i], acc[i], "acceleration at point " + k);
+				assertEquals(expectedAcc[i], blockAcc[3 * k + i], BLOCK_TOLERANCE * accMag,
+						"blocked acceleration at point " + k);
+			}
+			assertEquals(reference.isInsidePolyhedron(pt), werner.isInsidePolyhedron(pt), "inside at point " + k);
+		}
+	}
+
+	/**
+	 * Points far away, close by, inside, at the centroid, at each vertex, at
+	 * each face center and at the middle of each edge of the first face.
+	 */
+	private static double[] getFieldPoints(double[] points, int[] faces)
+	{
+		int numPoints = points.length / 3;
+		int numFaces = faces.length / 3;
+		double[] fieldPoints = new double[3 * (5 + numPoints + numFaces + 3)];
+		double[][] fixed = { { 10.0, -7.0, 3.5 }, { 1.2, 0.3, -0.7 }, { 0.1, -0.2, 0.15 }, { 0.0, 0.0, 0.0 },
+				{ -0.8, 0.9, 1.1 } };
+		int k = 0;
+		for (double[] p : fixed)
+			for (int i = 0; i < 3; ++i)
+				fieldPoints[k++] = p[i];
+		for (int i = 0; i < 3 * numPoints; ++i)
+			fieldPoints[k++] = points[i];
+		for (int f = 0; f < numFaces; ++f)
+			for (int i = 0; i < 3; ++i)
+				fieldPoints[k++] = (points[3 * faces[3 * f] + i] + points[3 * faces[3 * f + 1] + i]
+						+ points[3 * faces[3 * f + 2] + i]) / 3.0;
+		for (int e = 0; e < 3; ++e)
+			for (int i = 0; i < 3; ++i)
+				fieldPoints[k++] = (points[3 * faces[e] + i] + points[3 * faces[(e + 1) % 3] + i]) / 2.0;
+		return fieldPoints;
+	}
+}
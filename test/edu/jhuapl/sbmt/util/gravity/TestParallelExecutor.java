@@ -0,0 +1,209 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class TestParallelExecutor
+{
+	@Test
+	void testMapOrder()
+	{
+		ParallelExecutor executor = new ParallelExecutor(3);
+		try
+		{
+			List<Integer> results = executor.map(1000, 7, null, (start, stop) -> {
+				List<Integer> part = new ArrayList<>();
+				for (int i = start; i < stop; ++i)
+					part.add(i);
+				return part;
+			});
+			assertEquals(1000, results.size());
+			for (int i = 0; i < 1000; ++i)
+				assertEquals(i, results.get(i).intValue());
+			assertTrue(executor.map(0, 1, null, (start, stop) -> new ArrayList<Integer>()).isEmpty());
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void testException() throws Exception
+	{
+		// Once forEach threw, no range is still running or started later
+		ParallelExecutor executor = new ParallelExecutor(4);
+		try
+		{
+			AtomicInteger running = new AtomicInteger();
+			AtomicInteger calls = new AtomicInteger();
+			RuntimeException e = assertThrows(IllegalStateException.class,
+					() -> executor.forEach(2000, 1, null, (start, stop) -> {
+						running.incrementAndGet();
+						calls.incrementAndGet();
+						try
+						{
+							if (start <= 1000 && 1000 < stop)
+								throw new IllegalStateException("range " + start);
+							Thread.sleep(1);
+						}
+						catch (InterruptedException ie)
+						{
+							Thread.currentThread().interrupt();
+						}
+						finally
+						{
+							running.decrementAndGet();
+						}
+					}));
+			assertTrue(e.getMessage().contains("range"));
+			assertEquals(0, running.get());
+			int numCalls = calls.get();
+			Thread.sleep(100);
+			assertEquals(numCalls, calls.get());
+
+			// a cancelled loop stops the same way
+			AtomicInteger count = new AtomicInteger();
+			assertThrows(CancellationException.class,
+					() -> executor.forEach(2000, 1, () -> count.get() >= 100, (start, stop) -> {
+						running.incrementAndGet();
+						count.addAndGet(stop - start);
+						running.decrementAndGet();
+					}));
+			assertEquals(0, running.get());
+			int numCounted = count.get();
+			Thread.sleep(100);
+			assertEquals(numCounted, count.get());
+
+			// the executor can still be used
+			count.set(0);
+			executor.forEach(100, 1, null, (start, stop) -> count.addAndGet(stop - start));
+			assertEquals(100, count.get());
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void testSetSharedParallelism() throws Exception
+	{
+		// Loops on an executor that was replaced must still run, it is shut
+		// down once they completed
+		ParallelExecutor previous = ParallelExecutor.getShared();
+		try
+		{
+			CountDownLatch started = new CountDownLatch(1);
+			CountDownLatch release = new CountDownLatch(1);
+			AtomicInteger count = new AtomicInteger();
+			Thread thread = new Thread(() -> previous.forEach(1, 1, null, (start, stop) -> {
+				started.countDown();
+				try
+				{
+					release.await();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				count.addAndGet(stop - start);
+			}));
+			thread.start();
+			started.await();
+
+			ParallelExecutor.setSharedParallelism(2);
+			assertEquals(2, ParallelExecutor.getShared().getParallelism());
+			assertFalse(previous.isShutdown());
+			release.countDown();
+			thread.join();
+			assertEquals(1, count.get());
+			assertTrue(previous.isShutdown());
+
+			// later loops run on the new shared executor
+			previous.forEach(100, 1, null, (start, stop) -> count.addAndGet(stop - start));
+			assertEquals(101, count.get());
+		}
+		finally
+		{
+			ParallelExecutor.setSharedParallelism(previous.getParallelism());
+		}
+	}
+
+	@Test
+	void testDefaultParallelism()
+	{
+		int processors = Runtime.getRuntime().availableProcessors();
+		String previous = System.getProperty(ParallelExecutor.PROPERTY);
+		try
+		{
+			System.setProperty(ParallelExecutor.PROPERTY, " 3 ");
+			assertEquals(3, ParallelExecutor.getDefaultParallelism());
+			System.setProperty(ParallelExecutor.PROPERTY, "");
+			assertEquals(processors, ParallelExecutor.getDefaultParallelism());
+			for (String threads : new String[] { "abc", "0", "-2", "1.5" })
+			{
+				System.setProperty(ParallelExecutor.PROPERTY, threads);
+				assertEquals(processors, ParallelExecutor.getDefaultParallelism(), threads);
+			}
+		}
+		finally
+		{
+			if (previous != null)
+				System.setProperty(ParallelExecutor.PROPERTY, previous);
+			else
+				System.clearProperty(ParallelExecutor.PROPERTY);
+		}
+	}
+
+	@Test
+	void testParallelGrid() throws Exception
+	{
+		int numRows = 53;
+		int numCols = 4;
+		ParallelGrid.GridFunction function = new ParallelGrid.GridFunction() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public <T> T[][] func(int startRow, int stopRow)
+			{
+				// like the callers, return a full size grid with only the
+				// given rows filled in
+				Integer[][] grid = new Integer[numRows][];
+				for (int m = startRow; m < stopRow; ++m)
+				{
+					grid[m] = new Integer[numCols];
+					for (int n = 0; n < numCols; ++n)
+						grid[m][n] = m * numCols + n;
+				}
+				return (T[][]) grid;
+			}
+		};
+
+		Integer[][] results = ParallelGrid.<Integer> runParallelGrid(numRows, function);
+		assertEquals(numRows, results.length);
+		for (int m = 0; m < numRows; ++m)
+			for (int n = 0; n < numCols; ++n)
+				assertEquals(m * numCols + n, results[m][n].intValue());
+	}
+
+	@Test
+	void testParallelGridEmpty() throws Exception
+	{
+		ParallelGrid.GridFunction function = new ParallelGrid.GridFunction() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public <T> T[][] func(int startRow, int stopRow)
+			{
+				return (T[][]) new Double[stopRow - startRow][3];
+			}
+		};
+		assertEquals(0, ParallelGrid.<Double> runParallelGrid(0, function).length);
+	}
+}
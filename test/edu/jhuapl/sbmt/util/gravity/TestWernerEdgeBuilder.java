@@ -0,0 +1,171 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import edu.jhuapl.saavtk.util.MathUtil;
+
+/**
+ * Checks that WernerEdgeBuilder numbers the edges in the same order and
+ * computes the same values as the LinkedHashMap based code it replaced, which
+ * is copied below.
+ */
+class TestWernerEdgeBuilder
+{
+	private static class EdgeData
+	{
+		double[][] E = new double[3][3];
+		double edgeLength;
+		int p1;
+		int p2;
+	}
+
+	@Test
+	void testSmallSphere()
+	{
+		checkParity(20, 30, new Random(1));
+	}
+
+	@Test
+	void testSeveralChunks()
+	{
+		// more than 3 * CHUNK_SIZE half-edges
+		checkParity(90, 100, new Random(2));
+	}
+
+	@Test
+	void testTetrahedron()
+	{
+		double[] points = { 1, 1, 1, 1, -1, -1, -1, 1, -1, -1, -1, 1 };
+		int[] faces = { 0, 1, 2, 0, 3, 1, 0, 2, 3, 1, 3, 2 };
+		checkParity(points, faces);
+	}
+
+	private static void checkParity(int nLat, int nLon, Random random)
+	{
+		BumpySphere sphere = new BumpySphere(nLat, nLon, 0.05, random);
+		double[] points = sphere.points;
+		int[] faces = sphere.faces;
+
+		// Renumber the vertices and shuffle the faces so that the order of the
+		// edges does not follow from the order of the vertices.
+		int numPoints = points.length / 3;
+		int[] newId = shuffle(numPoints, random);
+		double[] shuffledPoints = new double[points.length];
+		for (int i = 0; i < numPoints; ++i)
+			System.arraycopy(points, 3 * i, shuffledPoints, 3 * newId[i], 3);
+		int numFaces = faces.length / 3;
+		int[] faceOrder = shuffle(numFaces, random);
+		int[] shuffledFaces = new int[faces.length];
+		for (int i = 0; i < numFaces; ++i)
+			for (int j = 0; j < 3; ++j)
+				shuffledFaces[3 * faceOrder[i] + j] = newId[faces[3 * i + j]];
+
+		checkParity(shuffledPoints, shuffledFaces);
+	}
+
+	private static void checkParity(double[] points, int[] faces)
+	{
+		int numPoints = points.length / 3;
+		double[] pointX = new double[numPoints];
+		double[] pointY = new double[numPoints];
+		double[] pointZ = new double[numPoints];
+		for (int i = 0; i < numPoints; ++i)
+		{
+			pointX[i] = points[3 * i];
+			pointY[i] = points[3 * i + 1];
+			pointZ[i] = points[3 * i + 2];
+		}
+
+		WernerEdgeBuilder builder = new WernerEdgeBuilder(pointX, pointY, pointZ, faces);
+		List<EdgeData> expected = buildEdges(points, faces);
+
+		int numEdges = expected.size();
+		assertEquals(numEdges, builder.numEdges);
+		for (int e = 0; e < numEdges; ++e)
+		{
+			EdgeData ed = expected.get(e);
+			assertEquals(ed.p1, builder.edgePoint1[e], "edge " + e);
+			assertEquals(ed.p2, builder.edgePoint2[e], "edge " + e);
+			assertEquals(ed.edgeLength, builder.edgeLengths[e], "edge " + e);
+			for (int m = 0; m < 3; ++m)
+				for (int n = 0; n < 3; ++n)
+					assertEquals(ed.E[m][n], builder.edgeDyads[(3 * m + n) * numEdges + e], "edge " + e);
+		}
+	}
+
+	/**
+	 * The edge computation of the original GravityWerner constructor.
+	 */
+	private static List<EdgeData> buildEdges(double[] points, int[] faces)
+	{
+		Map<Long, EdgeData> edgeDataMap = new LinkedHashMap<>();
+		int numFaces = faces.length / 3;
+		for (int i = 0; i < numFaces; ++i)
+		{
+			int[] pointIds = { faces[3 * i], faces[3 * i + 1], faces[3 * i + 2] };
+			double[] pt1 = getPoint(points, pointIds[0]);
+			double[] pt2 = getPoint(points, pointIds[1]);
+			double[] pt3 = getPoint(points, pointIds[2]);
+
+			double[] cellNormal = new double[3];
+			MathUtil.triangleNormal(pt1, pt2, pt3, cellNormal);
+
+			for (int j = 0; j < 3; ++j)
+			{
+				int p1 = pointIds[j];
+				int p2 = pointIds[(j + 1) % 3];
+
+				long key = (long) Math.min(p1, p2) << 32 | Math.max(p1, p2);
+				EdgeData ed = edgeDataMap.get(key);
+				if (ed == null)
+				{
+					ed = new EdgeData();
+					ed.p1 = Math.min(p1, p2);
+					ed.p2 = Math.max(p1, p2);
+					edgeDataMap.put(key, ed);
+				}
+
+				double[] edgeUnitVector = new double[3];
+				pt1 = getPoint(points, p1);
+				pt2 = getPoint(points, p2);
+				MathUtil.vsub(pt2, pt1, edgeUnitVector);
+				ed.edgeLength = MathUtil.unorm(edgeUnitVector, edgeUnitVector);
+				double[] edgeNormal = new double[3];
+				MathUtil.vcrss(edgeUnitVector, cellNormal, edgeNormal);
+
+				for (int m = 0; m < 3; ++m)
+					for (int n = 0; n < 3; ++n)
+						ed.E[m][n] = ed.E[m][n] + cellNormal[m] * edgeNormal[n];
+			}
+		}
+		return new ArrayList<>(edgeDataMap.values());
+	}
+
+	private static double[] getPoint(double[] points, int id)
+	{
+		return new double[] { points[3 * id], points[3 * id + 1], points[3 * id + 2] };
+	}
+
+	private static int[] shuffle(int n, Random random)
+	{
+		int[] order = new int[n];
+		for (int i = 0; i < n; ++i)
+			order[i] = i;
+		for (int i = n - 1; i > 0; --i)
+		{
+			int j = random.nextInt(i + 1);
+			int t = order[i];
+			order[i] = order[j];
+			order[j] = t;
+		}
+		return order;
+	}
+}
@@ -0,0 +1,141 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the error bound reported by the approximate mode of
+ * GravityWernerSoA against the difference to the exact Werner sums.
+ */
+class TestWernerOctree
+{
+	// number of field points far away and close to the surface, both outside
+	// the body, followed by as many inside
+	private static final int POINTS_PER_REGION = 20;
+
+	private static WernerPolyhedron bumpySphere;
+	private static double[] fieldPoints;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception
+	{
+		Random random = new Random(3);
+		bumpySphere = new BumpySphere(40, 80, 0.05, random).toPolyhedron();
+
+		// points far away, close to the surface and inside
+		int n = 3 * POINTS_PER_REGION;
+		fieldPoints = new double[3 * n];
+		for (int k = 0; k < n; ++k)
+		{
+			double r;
+			if (k < POINTS_PER_REGION)
+				r = 3.0 + 5.0 * random.nextDouble();
+			else if (k < 2 * POINTS_PER_REGION)
+				r = 1.1 + 0.2 * random.nextDouble();
+			else
+				r = 0.8 * random.nextDouble();
+			double z = 2.0 * random.nextDouble() - 1.0;
+			double lon = 2.0 * Math.PI * random.nextDouble();
+			double rxy = Math.sqrt(1.0 - z * z);
+			fieldPoints[3 * k] = r * rxy * Math.cos(lon);
+			fieldPoints[3 * k + 1] = r * rxy * Math.sin(lon);
+			fieldPoints[3 * k + 2] = r * z;
+		}
+	}
+
+	@Test
+	void testErrorBound()
+	{
+		GravityWernerSoA exact = new GravityWernerSoA(bumpySphere);
+		exact.setUseVectorKernels(false);
+		for (double tolerance : new double[] { 1e-2, 1e-4, 1e-6 })
+		{
+			GravityWernerSoA approximate = new GravityWernerSoA(bumpySphere);
+			approximate.setApproximationTolerance(tolerance);
+
+			double[] pt = new double[3];
+			double[] exactAcc = new double[3];
+			double[] acc = new double[3];
+			double[] bound = new double[2];
+			for (int k = 0; k < fieldPoints.length / 3; ++k)
+			{
+				System.arraycopy(fieldPoints, 3 * k, pt, 0, 3);
+				double exactPotential = exact.getGravity(pt, exactAcc);
+				double potential = approximate.getGravity(pt, acc, bound);
+
+				// allow for the rounding of the exact sums
+				double potentialRounding = 1e-12 * Math.abs(exactPotential);
+				double accRounding = 1e-12 * norm(exactAcc[0], exactAcc[1], exactAcc[2]);
+				assertTrue(Math.abs(potential - exactPotential) <= bound[0] + potentialRounding,
+						"potential error " + Math.abs(potential - exactPotential) + " exceeds bound " + bound[0]
+								+ " at point " + k + " for tolerance " + tolerance);
+				double accError = norm(acc[0] - exactAcc[0], acc[1] - exactAcc[1], acc[2] - exactAcc[2]);
+				assertTrue(accError <= bound[1] + accRounding, "acceleration error " + accError + " exceeds bound "
+						+ bound[1] + " at point " + k + " for tolerance " + tolerance);
+			}
+
+			assertFalse(Double.isNaN(approximate.getMaxApproximationError()));
+		}
+	}
+
+	@Test
+	void testToleranceOutside()
+	{
+		// Outside the body the tolerance is relative to lower bounds of the
+		// potential and acceleration, so the reported error stays within it.
+		// Inside the acceleration can vanish and only the bound holds.
+		for (double tolerance : new double[] { 1e-2, 1e-4, 1e-6 })
+		{
+			GravityWernerSoA approximate = new GravityWernerSoA(bumpySphere);
+			approximate.setApproximationTolerance(tolerance);
+			double[] pt = new double[3];
+			double[] acc = new double[3];
+			for (int k = 0; k < 2 * POINTS_PER_REGION; ++k)
+			{
+				System.arraycopy(fieldPoints, 3 * k, pt, 0, 3);
+				approximate.getGravity(pt, acc);
+			}
+			double maxError = approximate.getMaxApproximationError();
+			assertTrue(maxError <= tolerance, "reported error " + maxError + " exceeds tolerance " + tolerance);
+			assertTrue(maxError > 0.0);
+
+			// a new run only reports the error of its own points
+			approximate.resetMaxApproximationError();
+			assertEquals(0.0, approximate.getMaxApproximationError());
+		}
+	}
+
+	@Test
+	void testZeroAcceleration()
+	{
+		// at the center of a symmetric body the acceleration vanishes
+		WernerPolyhedron sphere = new BumpySphere(20, 40, 0.0, null).toPolyhedron();
+		GravityWernerSoA approximate = new GravityWernerSoA(sphere);
+		approximate.setApproximationTolerance(1e-3);
+		double[] acc = new double[3];
+		approximate.getGravity(new double[] { 0.0, 0.0, 0.0 }, acc, new double[2]);
+		double maxError = approximate.getMaxApproximationError();
+		assertFalse(Double.isNaN(maxError));
+		assertFalse(Double.isInfinite(maxError));
+	}
+
+	@Test
+	void testExactMode()
+	{
+		GravityWernerSoA werner = new GravityWernerSoA(bumpySphere);
+		double[] bound = { -1.0, -1.0 };
+		werner.getGravity(new double[] { 2.0, 0.5, -0.3 }, new double[3], bound);
+		assertEquals(0.0, bound[0]);
+		assertEquals(0.0, bound[1]);
+		assertEquals(0.0, werner.getMaxApproximationError());
+	}
+
+	private static double norm(double x, double y, double z)
+	{
+		return Math.sqrt(x * x + y * y + z * z);
+	}
+}
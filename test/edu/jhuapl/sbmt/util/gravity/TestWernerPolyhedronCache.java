@@ -0,0 +1,192 @@
+package edu.jhuapl.sbmt.util.gravity;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TestWernerPolyhedronCache
+{
+	// unit cube centered on the origin, vertex i at the corner given by its bits
+	private static final double[] CUBE_POINTS = {
+			-0.5, -0.5, -0.5,  0.5, -0.5, -0.5,  -0.5, 0.5, -0.5,  0.5, 0.5, -0.5,
+			-0.5, -0.5, 0.5,  0.5, -0.5, 0.5,  -0.5, 0.5, 0.5,  0.5, 0.5, 0.5 };
+	private static final int[] CUBE_FACES = {
+			0, 2, 3,  0, 3, 1,  4, 5, 7,  4, 7, 6,
+			0, 1, 5,  0, 5, 4,  2, 6, 7,  2, 7, 3,
+			0, 4, 6,  0, 6, 2,  1, 3, 7,  1, 7, 5 };
+
+	private static final double[] TETRAHEDRON_POINTS = {
+			1, 1, 1,  1, -1, -1,  -1, 1, -1,  -1, -1, 1 };
+	private static final int[] TETRAHEDRON_FACES = {
+			0, 1, 2,  0, 3, 1,  0, 2, 3,  1, 3, 2 };
+
+	// times set on the cache files to tell whether they were written again
+	private static final long OLD_TIME = 1000000000L;
+
+	@TempDir
+	File tempDir;
+
+	@Test
+	void testRoundTrip()
+	{
+		WernerPolyhedronCache cache = new WernerPolyhedronCache(new File(tempDir, "cache"));
+		WernerPolyhedron expected = new WernerPolyhedron(CUBE_POINTS, CUBE_FACES);
+
+		assertSamePolyhedron(expected, cache, cache.get(CUBE_POINTS, CUBE_FACES));
+		File file = getCacheFile(cache);
+		assertTrue(file.setLastModified(OLD_TIME));
+
+		// the second time the polyhedron is read from the file
+		WernerPolyhedron cached = cache.get(CUBE_POINTS, CUBE_FACES);
+		assertEquals(OLD_TIME, file.lastModified(), "cache file was written again");
+		assertSamePolyhedron(expected, cache, cached);
+		assertSameGravity(expected, cached);
+
+		// another shape model gets its own file
+		cache.get(TETRAHEDRON_POINTS, TETRAHEDRON_FACES);
+		assertEquals(2, cache.getDirectory().listFiles().length);
+	}
+
+	@Test
+	void testTruncatedFile() throws IOException
+	{
+		WernerPolyhedronCache cache = new WernerPolyhedronCache(new File(tempDir, "cache"));
+		cache.get(CUBE_POINTS, CUBE_FACES);
+		File file = getCacheFile(cache);
+		long length = file.length();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			raf.setLength(length - 8);
+		}
+		checkRebuilt(cache, file);
+		assertEquals(length, file.length());
+
+		// shorter than the header
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			raf.setLength(20);
+		}
+		checkRebuilt(cache, file);
+		assertEquals(length, file.length());
+	}
+
+	@Test
+	void testCorruptedFile() throws IOException
+	{
+		WernerPolyhedronCache cache = new WernerPolyhedronCache(new File(tempDir, "cache"));
+		cache.get(CUBE_POINTS, CUBE_FACES);
+		File file = getCacheFile(cache);
+
+		// a single flipped bit in the edge dyads
+		flipBit(file, file.length() / 2);
+		checkRebuilt(cache, file);
+
+		// in the number of edges
+		flipBit(file, 16);
+		checkRebuilt(cache, file);
+	}
+
+	@Test
+	void testMismatch() throws IOException
+	{
+		WernerPolyhedronCache cache = new WernerPolyhedronCache(new File(tempDir, "cache"));
+		cache.get(CUBE_POINTS, CUBE_FACES);
+		File file = getCacheFile(cache);
+
+		// the file of another shape model stored under the name of this one
+		WernerPolyhedronCache other = new WernerPolyhedronCache(new File(tempDir, "other"));
+		other.get(TETRAHEDRON_POINTS, TETRAHEDRON_FACES);
+		Files.copy(getCacheFile(other).toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		checkRebuilt(cache, file);
+
+		// another version of the file format
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			raf.seek(8);
+			raf.write(1);
+		}
+		checkRebuilt(cache, file);
+
+		// not a cache file at all
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			raf.seek(0);
+			raf.write(new byte[8]);
+		}
+		checkRebuilt(cache, file);
+	}
+
+	/**
+	 * Check that cache returns the right polyhedron although file is not valid,
+	 * and that it replaced the file with a valid one.
+	 */
+	private static void checkRebuilt(WernerPolyhedronCache cache, File file)
+	{
+		WernerPolyhedron expected = new WernerPolyhedron(CUBE_POINTS, CUBE_FACES);
+		assertTrue(file.setLastModified(OLD_TIME));
+		assertSamePolyhedron(expected, cache, cache.get(CUBE_POINTS, CUBE_FACES));
+		assertTrue(file.lastModified() != OLD_TIME, "cache file was not written again");
+
+		assertTrue(file.setLastModified(OLD_TIME));
+		assertSamePolyhedron(expected, cache, cache.get(CUBE_POINTS, CUBE_FACES));
+		assertEquals(OLD_TIME, file.lastModified(), "rebuilt cache file was not read");
+	}
+
+	private static File getCacheFile(WernerPolyhedronCache cache)
+	{
+		File[] files = cache.getDirectory().listFiles();
+		assertEquals(1, files.length);
+		assertTrue(files[0].getName().endsWith(".wpc"));
+		return files[0];
+	}
+
+	private static void flipBit(File file, long position) throws IOException
+	{
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			raf.seek(position);
+			int b = raf.read();
+			raf.seek(position);
+			raf.write(b ^ 0x04);
+		}
+	}
+
+	private static void assertSamePolyhedron(WernerPolyhedron expected, WernerPolyhedronCache cache, WernerPolyhedron actual)
+	{
+		String message = "polyhedron from " + cache.getDirectory();
+		assertEquals(expected.numPoints, actual.numPoints, message);
+		assertEquals(expected.numEdges, actual.numEdges, message);
+		assertEquals(expected.numFaces, actual.numFaces, message);
+		assertArrayEquals(expected.pointX, actual.pointX, message);
+		assertArrayEquals(expected.pointY, actual.pointY, message);
+		assertArrayEquals(expected.pointZ, actual.pointZ, message);
+		assertArrayEquals(expected.edgeLengths, actual.edgeLengths, message);
+		assertArrayEquals(expected.edgeDyads, actual.edgeDyads, message);
+		assertArrayEquals(expected.faceDyads, actual.faceDyads, message);
+		assertArrayEquals(expected.edgePoint1, actual.edgePoint1, message);
+		assertArrayEquals(expected.edgePoint2, actual.edgePoint2, message);
+		assertArrayEquals(expected.facePoints, actual.facePoints, message);
+	}
+
+	private static void assertSameGravity(WernerPolyhedron expected, WernerPolyhedron actual)
+	{
+		GravityWernerSoA expectedGravity = new GravityWernerSoA(expected);
+		GravityWernerSoA actualGravity = new GravityWernerSoA(actual);
+		double[][] fieldPoints = { { 2.0, 0.5, -0.3 }, { 0.1, -0.2, 0.15 }, { -0.8, 0.9, 1.1 } };
+		double[] expectedAcc = new double[3];
+		double[] acc = new double[3];
+		for (double[] pt : fieldPoints)
+		{
+			assertEquals(expectedGravity.getGravity(pt, expectedAcc), actualGravity.getGravity(pt, acc));
+			for (int i = 0; i < 3; ++i)
+				assertEquals(expectedAcc[i], acc[i]);
+		}
+	}
+}